@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.http;
+
+import org.mediawiki.sparql.mwontop.Configuration;
+import org.mediawiki.sparql.mwontop.sql.ReplicaFixture;
+import org.mediawiki.sparql.mwontop.sql.SyntheticSites;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offline load test: starts the service on a {@link ReplicaFixture} and sends it SPARQL queries from several threads,
+ * then reports the throughput and the latency percentiles of each kind of query.
+ * <p>
+ * The result cache is disabled, so every query goes through its evaluation on the database.
+ * Each thread sends its next query as soon as the previous one is answered. The wiki and the page of each query are drawn
+ * from Zipf distributions, like the real traffic concentrated on the biggest wikis and the most linked pages.
+ * It is configured by system properties: {@code loadtest.wikis}, {@code loadtest.pages} (pages of the biggest wiki),
+ * {@code loadtest.links} (average links per page), {@code loadtest.threads}, {@code loadtest.warmup} and
+ * {@code loadtest.duration} in seconds, {@code loadtest.port} and {@code loadtest.seed}.
+ */
+public final class LoadTest {
+    private static final String PREFIX = "PREFIX mw: <http://mw2sparql.toolforge.org/ontology#> ";
+
+    private final ReplicaFixture fixture;
+    private final String endpoint;
+
+    private LoadTest(ReplicaFixture fixture, String endpoint) {
+        this.fixture = fixture;
+        this.endpoint = endpoint;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = Integer.getInteger("loadtest.threads", 16);
+        long warmupSeconds = Long.getLong("loadtest.warmup", 10);
+        long durationSeconds = Long.getLong("loadtest.duration", 60);
+        int port = Integer.getInteger("loadtest.port", 18080);
+        long seed = Long.getLong("loadtest.seed", 42);
+        ReplicaFixture fixture = new ReplicaFixture(
+                Integer.getInteger("loadtest.wikis", 50),
+                Integer.getInteger("loadtest.pages", 20_000),
+                Integer.getInteger("loadtest.links", 15),
+                seed
+        );
+
+        ReplicaFixture.configure();
+        // the popular queries would otherwise be answered from the result cache instead of being evaluated on the fixture
+        System.setProperty(Configuration.APP_RESULT_CACHE_SIZE_KEY, "0");
+        System.setProperty(Configuration.APP_HTTP_BASE_URI_KEY, "http://localhost:" + port + "/");
+        fixture.create();
+        SyntheticWikis.installNamespaces(fixture.getWikis());
+        Main.main(new String[0]);
+
+        LoadTest loadTest = new LoadTest(fixture, "http://localhost:" + port + "/sparql");
+        System.out.println("Warming up for " + warmupSeconds + "s with " + threads + " threads");
+        loadTest.run(threads, warmupSeconds, seed);
+        System.out.println("Measuring for " + durationSeconds + "s with " + threads + " threads");
+        Report report = loadTest.run(threads, durationSeconds, seed + 1);
+        report.print(durationSeconds);
+        System.exit(0);
+    }
+
+    private Report run(int threads, long durationSeconds, long seed) throws InterruptedException {
+        long endNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds);
+        Report report = new Report();
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int thread = 0; thread < threads; thread++) {
+            Random random = new Random(seed * 31 + thread);
+            Thread client = new Thread(() -> {
+                try {
+                    Report threadReport = new Report();
+                    while (System.nanoTime() < endNanos) {
+                        QueryKind kind = QueryKind.values()[random.nextInt(QueryKind.values().length)];
+                        String query = kind.query(fixture, random);
+                        long start = System.nanoTime();
+                        int status = send(query);
+                        threadReport.record(kind, status, System.nanoTime() - start);
+                    }
+                    report.merge(threadReport);
+                } finally {
+                    done.countDown();
+                }
+            }, "load-test-client-" + thread);
+            client.start();
+        }
+        done.await();
+        return report;
+    }
+
+    /**
+     * @return the HTTP status, or {@code -1} if the request failed.
+     */
+    private int send(String query) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(endpoint + "?query=" + URLEncoder.encode(PREFIX + query, "UTF-8")).openConnection();
+            connection.setRequestProperty("Accept", "application/sparql-results+xml");
+            int status = connection.getResponseCode();
+            try (InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (body != null) {
+                    byte[] buffer = new byte[8192];
+                    while (body.read(buffer) != -1) {
+                        // the results are discarded
+                    }
+                }
+            }
+            return status;
+        } catch (IOException e) {
+            return -1;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private enum QueryKind {
+        BACKLINKS {
+            @Override
+            String query(ReplicaFixture fixture, int site, Random random) {
+                return "SELECT ?page WHERE { ?page mw:internalLinkTo <" + article(fixture, site, random) + "> } LIMIT 500";
+            }
+        },
+        LINKS {
+            @Override
+            String query(ReplicaFixture fixture, int site, Random random) {
+                return "SELECT ?target WHERE { <" + article(fixture, site, random) + "> mw:internalLinkTo ?target }";
+            }
+        },
+        CATEGORY_MEMBERS {
+            @Override
+            String query(ReplicaFixture fixture, int site, Random random) {
+                return "SELECT ?page WHERE { ?page mw:inCategory <" + SyntheticSites.baseURL(site) + "/wiki/Category:" +
+                        ReplicaFixture.categoryTitle(ReplicaFixture.zipf(random, fixture.categories(site))) + "> } LIMIT 500";
+            }
+        },
+        TEMPLATE_USES {
+            @Override
+            String query(ReplicaFixture fixture, int site, Random random) {
+                // Ontop does not support aggregates like COUNT
+                return "SELECT ?page WHERE { ?page mw:includesPage <" + SyntheticSites.baseURL(site) + "/wiki/Template:" +
+                        ReplicaFixture.templateTitle(ReplicaFixture.zipf(random, fixture.templates(site))) + "> } LIMIT 500";
+            }
+        },
+        REDIRECTS {
+            @Override
+            String query(ReplicaFixture fixture, int site, Random random) {
+                return "SELECT ?redirect WHERE { ?redirect mw:redirectsTo <" + article(fixture, site, random) + "> }";
+            }
+        };
+
+        String query(ReplicaFixture fixture, Random random) {
+            return query(fixture, ReplicaFixture.zipf(random, fixture.getWikis()), random);
+        }
+
+        abstract String query(ReplicaFixture fixture, int site, Random random);
+
+        private static String article(ReplicaFixture fixture, int site, Random random) {
+            try {
+                String title = ReplicaFixture.articleTitle(ReplicaFixture.zipf(random, fixture.articles(site)));
+                return SyntheticSites.baseURL(site) + "/wiki/" + URLEncoder.encode(title, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Latencies of the answered queries per kind and counts of the statuses.
+     */
+    private static final class Report {
+        private final Map<QueryKind, LongList> latencies = new EnumMap<>(QueryKind.class);
+        private final Map<Integer, Integer> statuses = new TreeMap<>();
+
+        private void record(QueryKind kind, int status, long latencyNanos) {
+            statuses.merge(status, 1, Integer::sum);
+            if (status == 200) {
+                latencies.computeIfAbsent(kind, key -> new LongList()).add(latencyNanos);
+            }
+        }
+
+        private synchronized void merge(Report other) {
+            other.latencies.forEach((kind, values) -> latencies.computeIfAbsent(kind, key -> new LongList()).addAll(values));
+            other.statuses.forEach((status, count) -> statuses.merge(status, count, Integer::sum));
+        }
+
+        private void print(long durationSeconds) {
+            int total = statuses.values().stream().mapToInt(Integer::intValue).sum();
+            System.out.println(String.format(Locale.ROOT, "%d queries, %.1f queries/s, statuses %s (-1: connection failure)",
+                    total, (double) total / durationSeconds, statuses));
+            System.out.println(String.format(Locale.ROOT, "%-16s %8s %10s %10s %10s %10s %10s",
+                    "query", "count", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+            LongList all = new LongList();
+            for (Map.Entry<QueryKind, LongList> kind : latencies.entrySet()) {
+                printPercentiles(kind.getKey().name().toLowerCase(Locale.ROOT), kind.getValue());
+                all.addAll(kind.getValue());
+            }
+            printPercentiles("all", all);
+        }
+
+        private static void printPercentiles(String name, LongList values) {
+            long[] sorted = values.sorted();
+            System.out.println(String.format(Locale.ROOT, "%-16s %8d %10.1f %10.1f %10.1f %10.1f %10.1f",
+                    name, sorted.length, percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99),
+                    percentile(sorted, 0.999), percentile(sorted, 1)));
+        }
+
+        /**
+         * @return the nearest-rank percentile in milliseconds.
+         */
+        private static double percentile(long[] sorted, double fraction) {
+            if (sorted.length == 0) {
+                return Double.NaN;
+            }
+            int rank = (int) Math.ceil(fraction * sorted.length);
+            return sorted[Math.max(rank, 1) - 1] / 1e6;
+        }
+    }
+
+    private static final class LongList {
+        private long[] values = new long[1024];
+        private int size;
+
+        private void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private void addAll(LongList other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.values[i]);
+            }
+        }
+
+        private long[] sorted() {
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.http;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Namespace encoding of incoming queries. Decoding of result IRIs is covered by {@link SPARQLActionsBenchmark}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-XX:+IgnoreUnrecognizedVMOptions", "--add-opens=java.base/java.lang=ALL-UNNAMED"})
+@State(Scope.Benchmark)
+public class MWNamespaceBenchmark {
+    private static final String PREFIXES = "PREFIX mw: <http://mw2sparql.toolforge.org/ontology#>\n" +
+            "PREFIX schema: <http://schema.org/>\n";
+
+    @Param({"singleIRI", "multiIRI", "crossWiki"})
+    public String query;
+
+    private String queryText;
+
+    @Setup
+    public void setUp() throws IOException {
+        SyntheticWikis.installNamespaces();
+        switch (query) {
+            case "singleIRI":
+                queryText = PREFIXES + "SELECT ?page WHERE { ?page mw:inCategory <https://lang0.wikipedia.org/wiki/Category:Cities_in_France> }";
+                break;
+            case "multiIRI":
+                queryText = PREFIXES + "SELECT ?page ?title WHERE {\n" +
+                        "  ?page mw:internalLinkTo <https://lang0.wikipedia.org/wiki/Paris> ;\n" +
+                        "        mw:internalLinkTo <https://lang0.wikipedia.org/wiki/Eiffel_Tower> ;\n" +
+                        "        mw:includesPage <https://lang0.wikipedia.org/wiki/Template:Infobox_settlement> ;\n" +
+                        "        mw:inCategory <https://lang0.wikipedia.org/wiki/Category:Capitals_in_Europe> ;\n" +
+                        "        schema:name ?title .\n" +
+                        "  FILTER(?page != <https://lang0.wikipedia.org/wiki/File:Paris_%28Seine%29.jpg>)\n" +
+                        "}";
+                break;
+            case "crossWiki":
+                StringBuilder text = new StringBuilder(PREFIXES).append("SELECT ?page WHERE {\n");
+                for (int site = 0; site < 20; site++) {
+                    if (site > 0) {
+                        text.append("  UNION\n");
+                    }
+                    text.append("  { ?page mw:inCategory <https://").append(SyntheticWikis.host(site * 37))
+                            .append("/wiki/Category:Living_people> . ?page mw:includesPage <https://").append(SyntheticWikis.host(site * 37))
+                            .append("/wiki/Template:Infobox_person> }\n");
+                }
+                queryText = text.append("}").toString();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown query: " + query);
+        }
+    }
+
+    @Benchmark
+    public String mutateNamespace() {
+        return MWNamespace.mutateNamespace(queryText, true);
+    }
+}
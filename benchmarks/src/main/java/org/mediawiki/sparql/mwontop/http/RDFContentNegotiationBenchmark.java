@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.http;
+
+import org.eclipse.rdf4j.query.resultio.TupleQueryResultWriterFactory;
+import org.eclipse.rdf4j.query.resultio.TupleQueryResultWriterRegistry;
+import org.eclipse.rdf4j.rio.RDFWriterFactory;
+import org.eclipse.rdf4j.rio.RDFWriterRegistry;
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.openjdk.jmh.annotations.*;
+
+import javax.ws.rs.core.HttpHeaders;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selection of the result writer from the {@code Accept} header, done for every query.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-XX:+IgnoreUnrecognizedVMOptions", "--add-opens=java.base/java.lang=ALL-UNNAMED"})
+@State(Scope.Benchmark)
+public class RDFContentNegotiationBenchmark {
+    private static final URI BASE_URI = URI.create("http://localhost/");
+    private static final URI REQUEST_URI = URI.create("http://localhost/sparql");
+
+    @Param({
+            "application/sparql-results+xml,application/rdf+xml;q=0.9,*/*;q=0.1",
+            "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8",
+            "*/*"
+    })
+    public String accept;
+
+    @Benchmark
+    public RDFContentNegotiation.FormatService<TupleQueryResultWriterFactory> tupleQueryResultFormat() {
+        return RDFContentNegotiation.getServiceForFormat(TupleQueryResultWriterRegistry.getInstance(), newRequest());
+    }
+
+    @Benchmark
+    public RDFContentNegotiation.FormatService<RDFWriterFactory> rdfFormat() {
+        return RDFContentNegotiation.getServiceForFormat(RDFWriterRegistry.getInstance(), newRequest());
+    }
+
+    /**
+     * A new request for each negotiation, as Jersey keeps the parsed headers in the request.
+     */
+    private ContainerRequest newRequest() {
+        ContainerRequest request = new ContainerRequest(BASE_URI, REQUEST_URI, "GET", null, new MapPropertiesDelegate());
+        request.header(HttpHeaders.ACCEPT, accept);
+        return request;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.http;
+
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.TupleQuery;
+import org.eclipse.rdf4j.query.impl.IteratingTupleQueryResult;
+import org.eclipse.rdf4j.query.impl.MapBindingSet;
+import org.eclipse.rdf4j.query.resultio.TupleQueryResultWriterFactory;
+import org.eclipse.rdf4j.query.resultio.TupleQueryResultWriterRegistry;
+import org.mediawiki.sparql.mwontop.metrics.QueryMetrics;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of the namespaces of SELECT results and their serialization, from already evaluated binding sets.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-XX:+IgnoreUnrecognizedVMOptions", "--add-opens=java.base/java.lang=ALL-UNNAMED"})
+@State(Scope.Benchmark)
+public class SPARQLActionsBenchmark {
+    private static final List<String> BINDING_NAMES = Arrays.asList("page", "category", "title");
+
+    @Param({"10000"})
+    public int rows;
+
+    @Param({"application/sparql-results+xml", "text/csv", "text/tab-separated-values"})
+    public String format;
+
+    private TupleQuery query;
+    private TupleQueryResultWriterFactory writerFactory;
+
+    @Setup
+    public void setUp() throws IOException {
+        SyntheticWikis.installNamespaces();
+        ValueFactory valueFactory = SimpleValueFactory.getInstance();
+        List<BindingSet> bindingSets = new ArrayList<>(rows);
+        for (int row = 0; row < rows; row++) {
+            String host = SyntheticWikis.host(row % 10);
+            MapBindingSet bindingSet = new MapBindingSet();
+            bindingSet.addBinding("page", valueFactory.createIRI("https://" + host + "/wiki/mw0ns:%C3%8Ele-de-France_" + row));
+            bindingSet.addBinding("category", valueFactory.createIRI("https://" + host + "/wiki/mw14ns:Cities_in_France_" + (row % 100)));
+            bindingSet.addBinding("title", valueFactory.createLiteral("Île-de-France " + row));
+            bindingSets.add(bindingSet);
+        }
+        query = (TupleQuery) Proxy.newProxyInstance(TupleQuery.class.getClassLoader(), new Class<?>[]{TupleQuery.class}, (proxy, method, args) -> {
+            if (method.getName().equals("evaluate") && method.getParameterCount() == 0) {
+                return new IteratingTupleQueryResult(BINDING_NAMES, bindingSets);
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+        writerFactory = TupleQueryResultWriterRegistry.getInstance().get(
+                TupleQueryResultWriterRegistry.getInstance().getFileFormatForMIMEType(format).orElseThrow(IllegalArgumentException::new)
+        ).orElseThrow(IllegalArgumentException::new);
+    }
+
+    @Benchmark
+    public long evaluateAndDecodeNamespaces() {
+        CountingOutputStream outputStream = new CountingOutputStream();
+        try (QueryMetrics.QueryTimer timer = QueryMetrics.getInstance().startQuery()) {
+            SPARQLActions.evaluateAndDecodeNamespaces(query, writerFactory.getWriter(outputStream), timer);
+        }
+        return outputStream.count;
+    }
+
+    /**
+     * Discards the serialized results.
+     */
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.http;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.mediawiki.sparql.mwontop.Configuration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Namespaces of synthetic wikis {@code lang0.wikipedia.org}, {@code lang1.wikipedia.org}...,
+ * written to the namespaces snapshot so {@link NamespaceRegistry} never calls the wiki APIs.
+ */
+final class SyntheticWikis {
+    static final int SITES_COUNT = 800;
+    private static final Map<Integer, String> NAMESPACE_NAMES = new LinkedHashMap<>();
+    private static final Map<String, Integer> NAMESPACE_ALIASES = new LinkedHashMap<>();
+
+    static {
+        NAMESPACE_NAMES.put(-1, "Special");
+        NAMESPACE_NAMES.put(1, "Talk");
+        NAMESPACE_NAMES.put(2, "User");
+        NAMESPACE_NAMES.put(3, "User talk");
+        NAMESPACE_NAMES.put(4, "Wikipedia");
+        NAMESPACE_NAMES.put(6, "File");
+        NAMESPACE_NAMES.put(10, "Template");
+        NAMESPACE_NAMES.put(12, "Help");
+        NAMESPACE_NAMES.put(14, "Category");
+        NAMESPACE_NAMES.put(100, "Portal");
+        NAMESPACE_ALIASES.put("Image", 6);
+        NAMESPACE_ALIASES.put("WP", 4);
+        NAMESPACE_ALIASES.put("Project", 4);
+    }
+
+    private SyntheticWikis() {
+    }
+
+    static String host(int site) {
+        return "lang" + site + ".wikipedia.org";
+    }
+
+    /**
+     * Writes the namespaces of the synthetic wikis to the snapshot file. To be called before the first use of {@link NamespaceRegistry}.
+     */
+    static void installNamespaces() throws IOException {
+        installNamespaces(SITES_COUNT);
+    }
+
+    /**
+     * Writes the namespaces of the first {@code sitesCount} synthetic wikis, standing in for their API site info.
+     */
+    static void installNamespaces(int sitesCount) throws IOException {
+        Map<String, String> namespaces = new TreeMap<>();
+        NAMESPACE_NAMES.forEach((id, name) -> {
+            namespaces.put("mw" + id + "ns", name);
+            namespaces.put(name, "mw" + id + "ns");
+        });
+        NAMESPACE_ALIASES.forEach((name, id) -> namespaces.put(name, "mw" + id + "ns"));
+
+        Map<String, Map<String, String>> snapshot = new TreeMap<>();
+        for (int site = 0; site < sitesCount; site++) {
+            snapshot.put(host(site), namespaces);
+        }
+        File snapshotFile = Configuration.instance().getNamespacesSnapshotFile();
+        new ObjectMapper().writeValue(snapshotFile, snapshot);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.sql;
+
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.impl.LinkedHashModel;
+import org.mediawiki.sparql.mwontop.utils.InternalFilesManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Building of the mapping of synthetic sites, by Turtle parsing of each site mapping
+ * and by instantiation of the parsed {@link MappingTemplate}.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 5 )
+@Measurement( iterations = 5, time = 5 )
+@Fork( value = 1, jvmArgsAppend = {"-Xmx4g"} )
+@State( Scope.Benchmark )
+public class MappingTemplateBenchmark {
+
+    @Param( {"800"} )
+    public int sites;
+
+    private List<RepositoryFactory.SiteConfig> sitesConfig;
+    private String templateText;
+
+    @Setup
+    public void setUp() throws IOException {
+        sitesConfig = SyntheticSites.sitesConfig( sites );
+        templateText = InternalFilesManager.getFileAsString( "/mapping.ttl" );
+    }
+
+    /**
+     * Former way to build the mapping: text substitution on the whole template followed by a Turtle parsing, per site.
+     */
+    @Benchmark
+    public Model parseEachSite() throws IOException {
+        Model model = new LinkedHashModel();
+        for ( RepositoryFactory.SiteConfig site : sitesConfig ) {
+            model.addAll( InternalFilesManager.parseTurtle( templateText
+                    .replace( "{lang}", site.getLanguageCode() )
+                    .replace( "{db}", site.getDatabaseName() + "_p" )
+                    .replace( "{site_id}", site.getDatabaseName() )
+                    .replace( "{base_url}", site.getBaseURL() ) ) );
+        }
+        return model;
+    }
+
+    @Benchmark
+    public Model instantiateTemplate() throws IOException {
+        MappingTemplate template = MappingTemplate.load( "/mapping.ttl" );
+        List<List<Statement>> sitesMapping = sitesConfig.parallelStream()
+                .map( site -> template.instantiate( site.getDatabaseName(), site.getLanguageCode(), site.getBaseURL() ) )
+                .collect( Collectors.toList() );
+        Model model = new LinkedHashModel();
+        sitesMapping.forEach( model::addAll );
+        return model;
+    }
+}
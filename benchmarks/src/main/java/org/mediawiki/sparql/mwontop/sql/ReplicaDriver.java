@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.mediawiki.sparql.mwontop.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.Properties;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * H2 driver of the {@link ReplicaFixture} accepting the MySQL SQL generated by Ontop.
+ * <p>
+ * H2 does not parse the {@code CHARACTER SET} of {@code CAST(... AS CHAR(8000) CHARACTER SET utf8)}, even in MySQL mode,
+ * so it is removed from the statements before they are given to H2. The generated SQL is otherwise run unchanged.
+ */
+public final class ReplicaDriver implements Driver {
+    private static final Pattern CHARACTER_SET = Pattern.compile( " CHARACTER SET \\w+", Pattern.CASE_INSENSITIVE );
+
+    private final Driver driver = new org.h2.Driver();
+
+    @Override
+    public Connection connect( String url, Properties info ) throws SQLException {
+        Connection connection = driver.connect( url, info );
+        return connection == null ? null : rewriting( Connection.class, connection );
+    }
+
+    @Override
+    public boolean acceptsURL( String url ) throws SQLException {
+        return driver.acceptsURL( url );
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo( String url, Properties info ) throws SQLException {
+        return driver.getPropertyInfo( url, info );
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return driver.getMajorVersion();
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return driver.getMinorVersion();
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return driver.jdbcCompliant();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return driver.getParentLogger();
+    }
+
+    static String rewrite( String sql ) {
+        return CHARACTER_SET.matcher( sql ).replaceAll( "" );
+    }
+
+    /**
+     * @return a proxy rewriting the SQL given to the target and wrapping the statements it creates.
+     */
+    private static <T> T rewriting( Class<T> type, T target ) {
+        InvocationHandler handler = ( proxy, method, args ) -> {
+            if ( args != null && args.length > 0 && args[0] instanceof String && takesSQL( method ) ) {
+                args[0] = rewrite( (String) args[0] );
+            }
+            Object result;
+            try {
+                result = method.invoke( target, args );
+            } catch ( InvocationTargetException e ) {
+                throw e.getCause();
+            }
+            if ( result instanceof CallableStatement ) {
+                return rewriting( CallableStatement.class, (CallableStatement) result );
+            } else if ( result instanceof PreparedStatement ) {
+                return rewriting( PreparedStatement.class, (PreparedStatement) result );
+            } else if ( result instanceof Statement ) {
+                return rewriting( Statement.class, (Statement) result );
+            }
+            return result;
+        };
+        return type.cast( Proxy.newProxyInstance( ReplicaDriver.class.getClassLoader(), new Class<?>[]{type}, handler ) );
+    }
+
+    private static boolean takesSQL( Method method ) {
+        String name = method.getName();
+        return name.startsWith( "prepare" ) || name.startsWith( "execute" ) || name.equals( "addBatch" ) || name.equals( "nativeSQL" );
+    }
+}
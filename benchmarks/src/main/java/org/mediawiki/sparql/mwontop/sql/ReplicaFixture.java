@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.sql;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.mediawiki.sparql.mwontop.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Stand-in of the wiki replicas for load tests: an in-memory H2 database in MySQL mode with a {@code meta_p.wiki} table
+ * and the {@code page}, {@code pagelinks}, {@code templatelinks}, {@code categorylinks} and {@code redirect} tables of
+ * the synthetic wikis of {@link SyntheticSites}.
+ * <p>
+ * Wiki sizes follow a Zipf distribution, {@code lang0wiki} being the largest, and so do the link targets inside each wiki:
+ * a few articles, categories and templates get most of the links, like on the real wikis.
+ * Titles are {@code VARCHAR} instead of {@code VARBINARY} as H2 reads the string literals compared to binary columns as hexadecimal.
+ * The service connects through {@link ReplicaDriver}, which adapts the few MySQL constructs H2 does not parse.
+ * <p>
+ * The startup snapshot is written with the MySQL {@link SyntheticSites#DATABASE_PROPERTIES}, so Ontop generates the same SQL as
+ * in production and {@link RepositoryFactory} only reads {@code meta_p.wiki} to check the snapshot is up to date.
+ */
+public final class ReplicaFixture {
+    private static final Logger LOGGER = LoggerFactory.getLogger( ReplicaFixture.class );
+    private static final String HOST = "replicas";
+    private static final String USER = "loadtest";
+    private static final String URL = "jdbc:h2:mem:" + HostConnectionPools.HOST_PLACEHOLDER + ";DB_CLOSE_DELAY=-1;MODE=MySQL;DATABASE_TO_LOWER=TRUE";
+    private static final int BATCH_SIZE = 10_000;
+    private static final int MIN_PAGES = 100;
+    private static final double ARTICLES_SHARE = 0.7;
+    private static final double CATEGORIES_SHARE = 0.1;
+    private static final double TEMPLATES_SHARE = 0.05;
+    private static final double RED_LINKS_SHARE = 0.05;
+    private static final int REDIRECT_EVERY = 7;
+
+    private final int wikis;
+    private final int largestWikiPages;
+    private final int linksPerPage;
+    private final Random random;
+
+    /**
+     * @param largestWikiPages number of pages of {@code lang0wiki}, wiki {@code n} having {@code largestWikiPages / (n + 1)} pages.
+     * @param linksPerPage     average number of links from each page.
+     */
+    public ReplicaFixture( int wikis, int largestWikiPages, int linksPerPage, long seed ) {
+        this.wikis = wikis;
+        this.largestWikiPages = largestWikiPages;
+        this.linksPerPage = linksPerPage;
+        this.random = new Random( seed );
+    }
+
+    /**
+     * Points the service at the fixture. To be called before the first use of {@link Configuration}.
+     */
+    public static void configure() {
+        System.setProperty( Configuration.APP_DB_HOST_KEY, HOST );
+        System.setProperty( Configuration.APP_DB_USER_KEY, USER );
+        System.setProperty( Configuration.APP_DB_PASSWORD_KEY, USER );
+        System.setProperty( Configuration.APP_DB_DRIVER_KEY, ReplicaDriver.class.getName() );
+        // the site list is read without qualifying the wiki table
+        System.setProperty( Configuration.APP_DB_URL_KEY, URL + ";SCHEMA=meta_p" );
+    }
+
+    /**
+     * Creates the databases of the wikis and writes the matching startup snapshot.
+     */
+    public void create() throws SQLException, IOException {
+        List<RepositoryFactory.SiteConfig> sitesConfig = SyntheticSites.sitesConfig( wikis );
+        try ( Connection connection = DriverManager.getConnection( URL.replace( HostConnectionPools.HOST_PLACEHOLDER, HOST ), USER, USER ) ) {
+            createSiteList( connection, sitesConfig );
+            for ( int site = 0; site < wikis; site++ ) {
+                long start = System.nanoTime();
+                createWiki( connection, site );
+                LOGGER.info( "Created " + SyntheticSites.databaseName( site ) + " with " + pages( site ) + " pages in " +
+                        ( System.nanoTime() - start ) / 1_000_000 + "ms" );
+            }
+        }
+        new StartupSnapshot( sitesConfig, SyntheticSites.DATABASE_PROPERTIES, SyntheticSites.mapping( sitesConfig ) )
+                .write( Configuration.instance().getStartupSnapshotFile(), RepositoryFactory.snapshotInputs( HOST ) );
+    }
+
+    public int getWikis() {
+        return wikis;
+    }
+
+    public int pages( int site ) {
+        return Math.max( MIN_PAGES, largestWikiPages / ( site + 1 ) );
+    }
+
+    public int articles( int site ) {
+        return (int) ( pages( site ) * ARTICLES_SHARE );
+    }
+
+    public int categories( int site ) {
+        return (int) ( pages( site ) * CATEGORIES_SHARE );
+    }
+
+    public int templates( int site ) {
+        return (int) ( pages( site ) * TEMPLATES_SHARE );
+    }
+
+    /**
+     * @return if the article is a redirect, so it has no links but a {@code redirect} row.
+     */
+    public static boolean isRedirect( int article ) {
+        return article % REDIRECT_EVERY == REDIRECT_EVERY - 1;
+    }
+
+    @NonNull
+    public static String articleTitle( int article ) {
+        return ( article % REDIRECT_EVERY == 3 ? "Île-de-France_" : "Article_" ) + article;
+    }
+
+    @NonNull
+    public static String categoryTitle( int category ) {
+        return "Topic_" + category;
+    }
+
+    @NonNull
+    public static String templateTitle( int template ) {
+        return "Infobox_" + template;
+    }
+
+    /**
+     * @return an index below {@code count} with a probability decreasing like {@code 1 / (index + 1)}.
+     */
+    public static int zipf( @NonNull Random random, int count ) {
+        return Math.min( count - 1, (int) Math.pow( count + 1, random.nextDouble() ) - 1 );
+    }
+
+    private static void createSiteList( @NonNull Connection connection, @NonNull List<RepositoryFactory.SiteConfig> sitesConfig ) throws SQLException {
+        try ( Statement statement = connection.createStatement() ) {
+            statement.execute( "CREATE SCHEMA meta_p" );
+            // no primary key, so the wikis are listed in their insertion order like in the snapshot
+            statement.execute( "CREATE TABLE meta_p.wiki (dbname VARCHAR(64) NOT NULL, lang VARCHAR(64) NOT NULL, family VARCHAR(64) NOT NULL, " +
+                    "url VARCHAR(255) NOT NULL)" );
+        }
+        try ( PreparedStatement insert = connection.prepareStatement( "INSERT INTO meta_p.wiki VALUES (?, ?, ?, ?)" ) ) {
+            for ( RepositoryFactory.SiteConfig siteConfig : sitesConfig ) {
+                insert.setString( 1, siteConfig.getDatabaseName() );
+                insert.setString( 2, siteConfig.getLanguageCode() );
+                insert.setString( 3, "wikipedia" );
+                insert.setString( 4, siteConfig.getBaseURL() );
+                insert.addBatch();
+            }
+            // filtered out by the default app.db.filteredWikiFamilies
+            insert.setString( 1, "wikidatawiki" );
+            insert.setString( 2, "en" );
+            insert.setString( 3, "wikidata" );
+            insert.setString( 4, "https://www.wikidata.org" );
+            insert.addBatch();
+            insert.executeBatch();
+        }
+    }
+
+    private void createWiki( @NonNull Connection connection, int site ) throws SQLException {
+        String schema = SyntheticSites.databaseName( site ) + "_p";
+        try ( Statement statement = connection.createStatement() ) {
+            statement.execute( "CREATE SCHEMA " + schema );
+            statement.execute( "CREATE TABLE " + schema + ".page (page_id INT NOT NULL PRIMARY KEY, page_namespace INT NOT NULL, " +
+                    "page_title VARCHAR(255) NOT NULL, page_is_redirect TINYINT NOT NULL, UNIQUE (page_namespace, page_title))" );
+            statement.execute( "CREATE TABLE " + schema + ".pagelinks (pl_from INT NOT NULL, pl_namespace INT NOT NULL, pl_title VARCHAR(255) NOT NULL, " +
+                    "PRIMARY KEY (pl_from, pl_namespace, pl_title))" );
+            statement.execute( "CREATE INDEX pl_namespace ON " + schema + ".pagelinks (pl_namespace, pl_title, pl_from)" );
+            statement.execute( "CREATE TABLE " + schema + ".templatelinks (tl_from INT NOT NULL, tl_namespace INT NOT NULL, tl_title VARCHAR(255) NOT NULL, " +
+                    "PRIMARY KEY (tl_from, tl_namespace, tl_title))" );
+            statement.execute( "CREATE INDEX tl_namespace ON " + schema + ".templatelinks (tl_namespace, tl_title, tl_from)" );
+            statement.execute( "CREATE TABLE " + schema + ".categorylinks (cl_from INT NOT NULL, cl_to VARCHAR(255) NOT NULL, PRIMARY KEY (cl_from, cl_to))" );
+            statement.execute( "CREATE INDEX cl_to ON " + schema + ".categorylinks (cl_to, cl_from)" );
+            statement.execute( "CREATE TABLE " + schema + ".redirect (rd_from INT NOT NULL PRIMARY KEY, rd_namespace INT NOT NULL, rd_title VARCHAR(255) NOT NULL)" );
+            statement.execute( "CREATE INDEX rd_namespace ON " + schema + ".redirect (rd_namespace, rd_title, rd_from)" );
+        }
+
+        int articles = articles( site );
+        int categories = categories( site );
+        int templates = templates( site );
+        int pages = pages( site );
+        try ( Batch page = new Batch( connection, "INSERT INTO " + schema + ".page VALUES (?, ?, ?, ?)" );
+              Batch pagelinks = new Batch( connection, "INSERT INTO " + schema + ".pagelinks VALUES (?, ?, ?)" );
+              Batch templatelinks = new Batch( connection, "INSERT INTO " + schema + ".templatelinks VALUES (?, ?, ?)" );
+              Batch categorylinks = new Batch( connection, "INSERT INTO " + schema + ".categorylinks VALUES (?, ?)" );
+              Batch redirect = new Batch( connection, "INSERT INTO " + schema + ".redirect VALUES (?, ?, ?)" ) ) {
+            Set<String> targets = new HashSet<>();
+            for ( int pageId = 1; pageId <= pages; pageId++ ) {
+                int index = pageId - 1;
+                boolean redirectPage = index < articles && isRedirect( index );
+                page.add( pageId, namespace( index, articles, categories, templates ), title( index, articles, categories, templates ), redirectPage ? 1 : 0 );
+                if ( redirectPage ) {
+                    redirect.add( pageId, 0, articleTitle( zipf( random, articles ) ) );
+                    continue;
+                }
+
+                targets.clear();
+                int links = random.nextInt( 2 * linksPerPage + 1 );
+                for ( int link = 0; link < links; link++ ) {
+                    double kind = random.nextDouble();
+                    if ( kind < RED_LINKS_SHARE ) {
+                        addLink( pagelinks, targets, pageId, 0, "Missing_" + random.nextInt( pages ) );
+                    } else if ( kind < RED_LINKS_SHARE + CATEGORIES_SHARE ) {
+                        addLink( pagelinks, targets, pageId, 14, categoryTitle( zipf( random, categories ) ) );
+                    } else {
+                        addLink( pagelinks, targets, pageId, 0, articleTitle( zipf( random, articles ) ) );
+                    }
+                }
+                if ( index < articles ) {
+                    targets.clear();
+                    int transclusions = random.nextInt( 6 );
+                    for ( int transclusion = 0; transclusion < transclusions; transclusion++ ) {
+                        addLink( templatelinks, targets, pageId, 10, templateTitle( zipf( random, templates ) ) );
+                    }
+                    targets.clear();
+                    int memberships = 1 + random.nextInt( 4 );
+                    for ( int membership = 0; membership < memberships; membership++ ) {
+                        String category = categoryTitle( zipf( random, categories ) );
+                        if ( targets.add( category ) ) {
+                            categorylinks.add( pageId, category );
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void addLink( @NonNull Batch batch, @NonNull Set<String> targets, int from, int namespace, @NonNull String title ) throws SQLException {
+        if ( targets.add( namespace + ":" + title ) ) {
+            batch.add( from, namespace, title );
+        }
+    }
+
+    private static int namespace( int index, int articles, int categories, int templates ) {
+        if ( index < articles ) {
+            return 0;
+        } else if ( index < articles + categories ) {
+            return 14;
+        } else if ( index < articles + categories + templates ) {
+            return 10;
+        }
+        return index % 2 == 0 ? 2 : 4;
+    }
+
+    @NonNull
+    private static String title( int index, int articles, int categories, int templates ) {
+        if ( index < articles ) {
+            return articleTitle( index );
+        } else if ( index < articles + categories ) {
+            return categoryTitle( index - articles );
+        } else if ( index < articles + categories + templates ) {
+            return templateTitle( index - articles - categories );
+        }
+        return ( index % 2 == 0 ? "Contributor_" : "Policy_" ) + index;
+    }
+
+    /**
+     * Inserts rows in batches of {@value #BATCH_SIZE}.
+     */
+    private static final class Batch implements AutoCloseable {
+        private final PreparedStatement statement;
+        private int size;
+
+        private Batch( @NonNull Connection connection, @NonNull String sql ) throws SQLException {
+            statement = connection.prepareStatement( sql );
+        }
+
+        private void add( @NonNull Object... values ) throws SQLException {
+            for ( int i = 0; i < values.length; i++ ) {
+                statement.setObject( i + 1, values[i] );
+            }
+            statement.addBatch();
+            if ( ++size == BATCH_SIZE ) {
+                statement.executeBatch();
+                size = 0;
+            }
+        }
+
+        @Override
+        public void close() throws SQLException {
+            try {
+                if ( size > 0 ) {
+                    statement.executeBatch();
+                }
+            } finally {
+                statement.close();
+            }
+        }
+    }
+}
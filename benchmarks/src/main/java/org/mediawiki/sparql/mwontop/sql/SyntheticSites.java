@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.sql;
+
+import it.unibz.inf.ontop.answering.reformulation.unfolding.QueryUnfolder;
+import it.unibz.inf.ontop.injection.OntopSystemConfiguration;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.impl.LinkedHashModel;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Ontop configuration of synthetic sites {@code https://lang0.wikipedia.org}, {@code https://lang1.wikipedia.org}...,
+ * built like {@link RepositoryFactory} does but without any database connection.
+ */
+public final class SyntheticSites {
+    /**
+     * Properties of the replicas, so the metadata and the generated SQL are the ones of MySQL whatever the database behind.
+     */
+    static final DatabaseProperties DATABASE_PROPERTIES = new DatabaseProperties(
+            "MySQL", "10.1.39-MariaDB", "MySQL Connector Java", "mysql-connector-java-5.1.41", false, true, false
+    );
+
+    private SyntheticSites() {
+    }
+
+    /**
+     * @param unfolderClass query unfolder to use instead of {@link org.mediawiki.sparql.mwontop.utils.SiteSpecificUnfolder}
+     */
+    @NonNull
+    public static OntopSystemConfiguration ontopConfiguration( int sitesCount, @NonNull Class<? extends QueryUnfolder> unfolderClass ) throws IOException {
+        List<RepositoryFactory.SiteConfig> sitesConfig = sitesConfig( sitesCount );
+        Model mapping = mapping( sitesConfig );
+
+        Properties properties = RepositoryFactory.ontopProperties();
+        properties.put( QueryUnfolder.class.getName(), unfolderClass.getName() );
+        return RepositoryFactory.buildOntopConfiguration(
+                new RepositoryFactory.MySQLConnectionInformation( "localhost", "meta_p", "benchmark", "benchmark" ),
+                sitesConfig, DATABASE_PROPERTIES, mapping, properties
+        );
+    }
+
+    @NonNull
+    static List<RepositoryFactory.SiteConfig> sitesConfig( int sitesCount ) {
+        List<RepositoryFactory.SiteConfig> sitesConfig = new ArrayList<>();
+        for ( int site = 0; site < sitesCount; site++ ) {
+            sitesConfig.add( new RepositoryFactory.SiteConfig( databaseName( site ), "lang" + site, baseURL( site ) ) );
+        }
+        return sitesConfig;
+    }
+
+    @NonNull
+    static Model mapping( @NonNull List<RepositoryFactory.SiteConfig> sitesConfig ) throws IOException {
+        MappingTemplate template = MappingTemplate.load( "/mapping.ttl" );
+        Model mapping = new LinkedHashModel();
+        for ( RepositoryFactory.SiteConfig siteConfig : sitesConfig ) {
+            mapping.addAll( template.instantiate( siteConfig.getDatabaseName(), siteConfig.getLanguageCode(), siteConfig.getBaseURL() ) );
+        }
+        return mapping;
+    }
+
+    @NonNull
+    public static String databaseName( int site ) {
+        return "lang" + site + "wiki";
+    }
+
+    @NonNull
+    public static String baseURL( int site ) {
+        return "https://lang" + site + ".wikipedia.org";
+    }
+}
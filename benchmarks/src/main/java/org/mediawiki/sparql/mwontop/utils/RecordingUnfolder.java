@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.utils;
+
+import com.google.inject.assistedinject.Assisted;
+import com.google.inject.assistedinject.AssistedInject;
+import it.unibz.inf.ontop.injection.OntopReformulationSettings;
+import it.unibz.inf.ontop.iq.IntermediateQuery;
+import it.unibz.inf.ontop.iq.exception.EmptyQueryException;
+import it.unibz.inf.ontop.iq.tools.RootConstructionNodeEnforcer;
+import it.unibz.inf.ontop.spec.mapping.Mapping;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+/**
+ * {@link SiteSpecificUnfolder} keeping a copy of the last query it unfolded, so it can be unfolded again outside of Ontop.
+ */
+class RecordingUnfolder extends SiteSpecificUnfolder {
+    private static volatile RecordingUnfolder lastUnfolder;
+    private static volatile IntermediateQuery lastQuery;
+    private final Mapping mapping;
+    private final RootConstructionNodeEnforcer rootCnEnforcer;
+    private final OntopReformulationSettings settings;
+
+    @AssistedInject
+    RecordingUnfolder( @Assisted Mapping mapping, RootConstructionNodeEnforcer rootCnEnforcer, OntopReformulationSettings settings ) {
+        super( mapping, rootCnEnforcer, settings );
+        this.mapping = mapping;
+        this.rootCnEnforcer = rootCnEnforcer;
+        this.settings = settings;
+    }
+
+    @NonNull
+    @Override
+    public IntermediateQuery optimize( IntermediateQuery query ) throws EmptyQueryException {
+        lastUnfolder = this;
+        lastQuery = query.createSnapshot();
+        return super.optimize( query );
+    }
+
+    /**
+     * @return a plain unfolder with the same mapping as the last recording one.
+     */
+    static SiteSpecificUnfolder newUnfolderForLastMapping() {
+        return new SiteSpecificUnfolder( lastUnfolder.mapping, lastUnfolder.rootCnEnforcer, lastUnfolder.settings );
+    }
+
+    static IntermediateQuery getLastQuery() {
+        return lastQuery;
+    }
+}
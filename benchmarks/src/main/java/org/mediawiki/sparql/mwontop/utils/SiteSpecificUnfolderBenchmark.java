@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.utils;
+
+import it.unibz.inf.ontop.answering.reformulation.QueryReformulator;
+import it.unibz.inf.ontop.iq.IntermediateQuery;
+import it.unibz.inf.ontop.iq.exception.EmptyQueryException;
+import org.mediawiki.sparql.mwontop.sql.SyntheticSites;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unfolding of queries against the mapping of 800 synthetic sites.
+ * <p>
+ * The query given to the unfolder is recorded while Ontop reformulates it once, then unfolded again on each invocation.
+ * The unfolder modifies the query, so each invocation works on a copy: {@link #snapshot()} measures the copy alone.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( value = 1, jvmArgsAppend = {"-Xmx4g", "-XX:+IgnoreUnrecognizedVMOptions", "--add-opens=java.base/java.lang=ALL-UNNAMED"} )
+@State( Scope.Benchmark )
+public class SiteSpecificUnfolderBenchmark {
+    private static final String PREFIXES = "PREFIX mw: <http://mw2sparql.toolforge.org/ontology#>\n";
+
+    @Param( {"800"} )
+    public int sites;
+
+    @Param( {"singleIRI", "multiIRI", "crossWiki", "unboundObject"} )
+    public String query;
+
+    private SiteSpecificUnfolder unfolder;
+    private IntermediateQuery unfolderInput;
+
+    @Setup
+    public void setUp() throws Exception {
+        QueryReformulator reformulator = SyntheticSites.ontopConfiguration( sites, RecordingUnfolder.class ).loadQueryReformulator();
+        reformulator.reformulateIntoNativeQuery( reformulator.getInputQueryFactory().createSelectQuery( queryText() ) );
+        unfolder = RecordingUnfolder.newUnfolderForLastMapping();
+        unfolderInput = RecordingUnfolder.getLastQuery();
+    }
+
+    private String queryText() {
+        switch ( query ) {
+            case "singleIRI":
+                return PREFIXES + "SELECT ?page WHERE { ?page mw:inCategory <https://lang0.wikipedia.org/wiki/mw14ns:Cities_in_France> }";
+            case "multiIRI":
+                return PREFIXES + "SELECT ?page WHERE { ?page mw:internalLinkTo <https://lang0.wikipedia.org/wiki/mw0ns:Paris>, " +
+                        "<https://lang0.wikipedia.org/wiki/mw0ns:London>, <https://lang0.wikipedia.org/wiki/mw0ns:Berlin> }";
+            case "crossWiki":
+                return PREFIXES + "SELECT ?page WHERE { { ?page mw:internalLinkTo <https://lang0.wikipedia.org/wiki/mw0ns:Paris> } " +
+                        "UNION { ?page mw:internalLinkTo <https://lang1.wikipedia.org/wiki/mw0ns:Paris> } " +
+                        "UNION { ?page mw:internalLinkTo <https://lang2.wikipedia.org/wiki/mw0ns:Paris> } }";
+            case "unboundObject":
+                return PREFIXES + "SELECT ?page ?category WHERE { ?page mw:internalLinkTo <https://lang0.wikipedia.org/wiki/mw0ns:Paris> ; " +
+                        "mw:inCategory ?category }";
+            default:
+                throw new IllegalArgumentException( "Unknown query: " + query );
+        }
+    }
+
+    @Benchmark
+    public IntermediateQuery optimize() throws EmptyQueryException {
+        return unfolder.optimize( unfolderInput.createSnapshot() );
+    }
+
+    @Benchmark
+    public IntermediateQuery snapshot() {
+        return unfolderInput.createSnapshot();
+    }
+}
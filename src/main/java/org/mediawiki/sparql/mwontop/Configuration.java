@@ -33,6 +33,7 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Properties;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -50,9 +51,56 @@ public class Configuration {
     public static final String APP_DB_FILTERED_WIKI_FAMILIES_KEY = "app.db.filtered.wiki.families";
     public static final String APP_DB_FILTERED_WIKI_DB_NAMES_KEY = "app.db.filtered.wiki.db.names";
     public static final String APP_DB_HOST_KEY = "app.db.host";
+    public static final String APP_DB_HOST_PATTERN_KEY = "app.db.hostPattern";
     public static final String APP_DB_USER_KEY = "app.db.user";
     public static final String APP_DB_PASSWORD_KEY = "app.db.password";
+    public static final String APP_DB_DRIVER_KEY = "app.db.driver";
+    public static final String APP_DB_URL_KEY = "app.db.url";
+    public static final String APP_DB_POOL_MIN_KEY = "app.db.pool.min";
+    public static final String APP_DB_POOL_MAX_KEY = "app.db.pool.max";
+    public static final String APP_DB_POOL_MAX_TOTAL_KEY = "app.db.pool.maxTotal";
+    public static final String APP_DB_POOL_TIMEOUT_KEY = "app.db.pool.timeout";
+    public static final String APP_DB_POOL_VALIDATION_TIMEOUT_KEY = "app.db.pool.validationTimeout";
+    public static final String APP_DB_POOL_LEAK_DETECTION_KEY = "app.db.pool.leakDetection";
+    public static final String APP_DB_STATEMENTS_CACHE_SIZE_KEY = "app.db.statements.cache.size";
+    public static final String APP_DB_STATEMENTS_CACHE_SQL_LIMIT_KEY = "app.db.statements.cache.sqlLimit";
+    public static final String APP_DB_STATEMENTS_SERVER_KEY = "app.db.statements.server";
     public static final String APP_HTTP_BASE_URI_KEY = "app.http.baseURI";
+    public static final String APP_HTTP_THREADS_KEY = "app.http.threads";
+    public static final String APP_HTTP_THREADS_TYPE_KEY = "app.http.threads.type";
+    public static final String APP_HTTP_QUEUE_SIZE_KEY = "app.http.queue.size";
+    public static final String APP_HTTP_RETRY_AFTER_KEY = "app.http.retryAfter";
+    public static final String APP_QUERY_TIMEOUT_KEY = "app.query.timeout";
+    public static final String APP_QUERY_TIMEOUT_MAX_KEY = "app.query.timeout.max";
+    public static final String APP_QUERY_THREADS_KEY = "app.query.threads";
+    public static final String APP_QUERY_QUEUE_SIZE_KEY = "app.query.queue.size";
+    public static final String APP_QUERY_CACHE_SIZE_KEY = "app.query.cache.size";
+    public static final String APP_QUERY_SLOW_THRESHOLD_KEY = "app.query.slow.threshold";
+    public static final String APP_QUERY_SLOW_LOG_KEY = "app.query.slow.log";
+    public static final String APP_RESULT_CACHE_SIZE_KEY = "app.result.cache.size";
+    public static final String APP_RESULT_CACHE_ENTRY_MAX_KEY = "app.result.cache.entry.max";
+    public static final String APP_RESULT_CACHE_TTL_KEY = "app.result.cache.ttl";
+    public static final String APP_NAMESPACES_SNAPSHOT_KEY = "app.namespaces.snapshot";
+    public static final String APP_NAMESPACES_PRELOAD_THREADS_KEY = "app.namespaces.preload.threads";
+    public static final String APP_NAMESPACES_REFRESH_HOURS_KEY = "app.namespaces.refresh.hours";
+    public static final String APP_STARTUP_SNAPSHOT_KEY = "app.startup.snapshot";
+    public static final String APP_REPOSITORY_SITES_CAPACITY_KEY = "app.repository.sites.capacity";
+    public static final String APP_REPOSITORY_SITES_IDLE_KEY = "app.repository.sites.idle";
+    public static final String APP_REPOSITORY_SITES_COMBINATIONS_KEY = "app.repository.sites.combinations";
+    public static final String APP_CROSSWIKI_THREADS_KEY = "app.crosswiki.threads";
+    public static final String APP_CROSSWIKI_TIMEOUT_KEY = "app.crosswiki.timeout";
+    public static final String APP_CROSSWIKI_MAX_WIKIS_KEY = "app.crosswiki.maxWikis";
+    public static final String APP_BATCH_THREADS_KEY = "app.batch.threads";
+    public static final String APP_BATCH_PARALLELISM_KEY = "app.batch.parallelism";
+    public static final String APP_BATCH_MAX_QUERIES_KEY = "app.batch.maxQueries";
+    public static final String APP_BATCH_MAX_RESULT_BYTES_KEY = "app.batch.maxResultBytes";
+    public static final String APP_BATCH_MAX_REQUEST_BYTES_KEY = "app.batch.maxRequestBytes";
+    public static final String APP_CLIENT_KEY_KEY = "app.client.key";
+    public static final String APP_CLIENT_RATE_KEY = "app.client.rate";
+    public static final String APP_CLIENT_BURST_KEY = "app.client.burst";
+    public static final String APP_CLIENT_MAX_CONCURRENT_KEY = "app.client.maxConcurrent";
+    public static final String APP_WARMUP_QUERIES_KEY = "app.warmup.queries";
+    public static final String APP_WARMUP_BUDGET_KEY = "app.warmup.budget";
 
     /**
      * Default wiki families to skip while processing site configs.
@@ -66,6 +114,213 @@ public class Configuration {
      * @see org.mediawiki.sparql.mwontop.sql.RepositoryFactory#initializeRepository
      */
     public static final String APP_DB_FILTERED_WIKI_DB_NAMES_DEFAULT = "commonswiki, specieswiki, mediawikiwiki";
+    /**
+     * Default JDBC driver of the database hosts. Ontop generates MySQL SQL whatever the driver.
+     * Like {@link #APP_DB_URL_DEFAULT}, it is not a default property so it can be overridden by a system property.
+     *
+     * @see org.mediawiki.sparql.mwontop.sql.HostConnectionPools
+     */
+    public static final String APP_DB_DRIVER_DEFAULT = "com.mysql.jdbc.Driver";
+    /**
+     * Default JDBC URL of a database host, {@code {host}} being replaced by the host.
+     */
+    public static final String APP_DB_URL_DEFAULT = "jdbc:mysql://{host}/?characterEncoding=UTF-8&sessionVariables=sql_mode='ANSI'";
+    /**
+     * Default number of idle connections kept open to each database host. None, as the replicas limit the connections of each user.
+     *
+     * @see org.mediawiki.sparql.mwontop.sql.HostConnectionPools
+     */
+    public static final String APP_DB_POOL_MIN_DEFAULT = "0";
+    /**
+     * Default maximal number of connections open to each database host. Further queries wait for a free connection.
+     */
+    public static final String APP_DB_POOL_MAX_DEFAULT = "20";
+    /**
+     * Default maximal number of connections open to all the database hosts together, the Toolforge limit of each user.
+     */
+    public static final String APP_DB_POOL_MAX_TOTAL_DEFAULT = "10";
+    /**
+     * Default number of milliseconds a query waits for a free database connection before failing.
+     */
+    public static final String APP_DB_POOL_TIMEOUT_DEFAULT = "30000";
+    /**
+     * Default number of milliseconds allowed to check that a pooled connection is still alive.
+     */
+    public static final String APP_DB_POOL_VALIDATION_TIMEOUT_DEFAULT = "5000";
+    /**
+     * Default number of milliseconds a connection may be borrowed before a leak is logged, above the maximal query timeout.
+     * {@code 0} disables leak detection.
+     */
+    public static final String APP_DB_POOL_LEAK_DETECTION_DEFAULT = "600000";
+    /**
+     * Default number of prepared statements cached per connection. {@code 0} disables the cache.
+     */
+    public static final String APP_DB_STATEMENTS_CACHE_SIZE_DEFAULT = "250";
+    /**
+     * Default maximal length of the SQL of a cached prepared statement.
+     */
+    public static final String APP_DB_STATEMENTS_CACHE_SQL_LIMIT_DEFAULT = "8192";
+    /**
+     * Default use of server-side prepared statements.
+     */
+    public static final String APP_DB_STATEMENTS_SERVER_DEFAULT = "true";
+    /**
+     * Default number of threads processing HTTP requests.
+     */
+    public static final String APP_HTTP_THREADS_DEFAULT = "16";
+    /**
+     * Default kind of threads processing HTTP requests: {@code platform} or {@code virtual} (requires Java 21).
+     */
+    public static final String APP_HTTP_THREADS_TYPE_DEFAULT = "platform";
+    /**
+     * Default number of HTTP requests waiting for a thread before the next ones are answered with 503.
+     */
+    public static final String APP_HTTP_QUEUE_SIZE_DEFAULT = "64";
+    /**
+     * Default number of seconds sent in the Retry-After header of 503 responses.
+     */
+    public static final String APP_HTTP_RETRY_AFTER_DEFAULT = "5";
+    /**
+     * Default number of seconds a query may run when the client does not set the {@code timeout} parameter.
+     */
+    public static final String APP_QUERY_TIMEOUT_DEFAULT = "60";
+    /**
+     * Default maximal number of seconds a client may request with the {@code timeout} parameter.
+     */
+    public static final String APP_QUERY_TIMEOUT_MAX_DEFAULT = "300";
+    /**
+     * Default number of threads evaluating SPARQL queries.
+     *
+     * @see org.mediawiki.sparql.mwontop.http.QueryExecutor
+     */
+    public static final String APP_QUERY_THREADS_DEFAULT = "16";
+    /**
+     * Default number of SPARQL queries waiting for a thread before the next ones are answered with 503.
+     */
+    public static final String APP_QUERY_QUEUE_SIZE_DEFAULT = "64";
+    /**
+     * Default maximal size, in characters of SPARQL and SQL text, of the reformulated queries cache. {@code 0} disables the cache.
+     *
+     * @see org.mediawiki.sparql.mwontop.sql.BoundedQueryCache
+     */
+    public static final String APP_QUERY_CACHE_SIZE_DEFAULT = "10000000";
+    /**
+     * Default number of milliseconds above which a query is written to the slow query log. {@code 0} disables the log.
+     *
+     * @see org.mediawiki.sparql.mwontop.metrics.SlowQueryLog
+     */
+    public static final String APP_QUERY_SLOW_THRESHOLD_DEFAULT = "0";
+    /**
+     * Default file, relative to the .jar directory, of the slow query log.
+     */
+    public static final String APP_QUERY_SLOW_LOG_DEFAULT = "slow-queries.log";
+    /**
+     * Default maximal size, in bytes, of the cached results of GET SPARQL requests. {@code 0} disables the cache.
+     */
+    public static final String APP_RESULT_CACHE_SIZE_DEFAULT = "67108864";
+    /**
+     * Default maximal size, in bytes, of a single cached result. Bigger results are not cached.
+     */
+    public static final String APP_RESULT_CACHE_ENTRY_MAX_DEFAULT = "1048576";
+    /**
+     * Default number of seconds results are cached and may be reused by clients.
+     */
+    public static final String APP_RESULT_CACHE_TTL_DEFAULT = "300";
+    /**
+     * Default file, relative to the .jar directory, where wiki namespaces are persisted between restarts.
+     */
+    public static final String APP_NAMESPACES_SNAPSHOT_DEFAULT = "namespaces.json";
+    /**
+     * Default number of parallel API calls used to load wiki namespaces at startup.
+     */
+    public static final String APP_NAMESPACES_PRELOAD_THREADS_DEFAULT = "8";
+    /**
+     * Default age in hours after which wiki namespaces are reloaded from the API in the background. {@code 0} disables the reloads.
+     */
+    public static final String APP_NAMESPACES_REFRESH_HOURS_DEFAULT = "24";
+    /**
+     * Default file, relative to the .jar directory, where the site list, the mapping and the database metadata
+     * are persisted between restarts.
+     *
+     * @see org.mediawiki.sparql.mwontop.sql.RepositoryFactory#initializeRepository
+     */
+    public static final String APP_STARTUP_SNAPSHOT_DEFAULT = "startup-snapshot.gz";
+    /**
+     * Default maximal number of per-wiki repositories kept in memory. {@code 0} disables them: a single repository maps all the wikis.
+     *
+     * @see org.mediawiki.sparql.mwontop.sql.RepositoryFactory#getRepository(String)
+     */
+    public static final String APP_REPOSITORY_SITES_CAPACITY_DEFAULT = "0";
+    /**
+     * Default number of minutes after which an unused per-wiki repository is evicted. {@code 0} disables idle eviction.
+     */
+    public static final String APP_REPOSITORY_SITES_IDLE_DEFAULT = "30";
+    /**
+     * Default maximal number of repositories of several wikis, for the queries with IRIs of more than one wiki.
+     */
+    public static final String APP_REPOSITORY_SITES_COMBINATIONS_DEFAULT = "4";
+    /**
+     * Default number of wikis a cross-wiki query is evaluated on in parallel, shared by all the cross-wiki queries.
+     * {@code 0} disables cross-wiki queries.
+     *
+     * @see org.mediawiki.sparql.mwontop.http.CrossWikiQuery
+     */
+    public static final String APP_CROSSWIKI_THREADS_DEFAULT = "8";
+    /**
+     * Default number of seconds the evaluation of a cross-wiki query on a single wiki may take.
+     */
+    public static final String APP_CROSSWIKI_TIMEOUT_DEFAULT = "20";
+    /**
+     * Default maximal number of wikis a cross-wiki query may target.
+     */
+    public static final String APP_CROSSWIKI_MAX_WIKIS_DEFAULT = "100";
+    /**
+     * Default number of batched queries evaluated in parallel, shared by all the batches. {@code 0} disables batches.
+     *
+     * @see org.mediawiki.sparql.mwontop.http.QueryBatch
+     */
+    public static final String APP_BATCH_THREADS_DEFAULT = "8";
+    /**
+     * Default maximal number of queries of a single batch evaluated in parallel.
+     */
+    public static final String APP_BATCH_PARALLELISM_DEFAULT = "4";
+    /**
+     * Default maximal number of queries in a batch.
+     */
+    public static final String APP_BATCH_MAX_QUERIES_DEFAULT = "100";
+    /**
+     * Default maximal size in bytes of the result of a batched query, which is kept in memory until it is written.
+     */
+    public static final String APP_BATCH_MAX_RESULT_BYTES_DEFAULT = "1048576";
+    /**
+     * Default maximal size in bytes of the body of a batch, which is read to count its queries before applying the client quotas.
+     */
+    public static final String APP_BATCH_MAX_REQUEST_BYTES_DEFAULT = "1048576";
+    /**
+     * Default identification of the clients the query quotas apply to: {@code ip}, {@code forwarded} or {@code user-agent}.
+     *
+     * @see org.mediawiki.sparql.mwontop.http.ClientAdmissionFilter
+     */
+    public static final String APP_CLIENT_KEY_DEFAULT = "ip";
+    /**
+     * Default number of queries per minute allowed to each client. {@code 0} disables the rate limit.
+     */
+    public static final String APP_CLIENT_RATE_DEFAULT = "0";
+    /**
+     * Default number of queries a client may send at once above its rate.
+     */
+    public static final String APP_CLIENT_BURST_DEFAULT = "20";
+    /**
+     * Default maximal number of queries of a client evaluated at the same time. {@code 0} disables the limit.
+     */
+    public static final String APP_CLIENT_MAX_CONCURRENT_DEFAULT = "0";
+    /**
+     * Default maximal number of seconds spent replaying the warm-up queries before the server starts.
+     * There is no default warm-up query file, so no warm-up.
+     *
+     * @see org.mediawiki.sparql.mwontop.http.QueryWarmup
+     */
+    public static final String APP_WARMUP_BUDGET_DEFAULT = "120";
 
     @NonNull
     private Properties properties;
@@ -86,6 +341,49 @@ public class Configuration {
         //init default properties
         properties.setProperty( APP_DB_FILTERED_WIKI_FAMILIES_KEY, APP_DB_FILTERED_WIKI_FAMILIES_DEFAULT );
         properties.setProperty( APP_DB_FILTERED_WIKI_DB_NAMES_KEY, APP_DB_FILTERED_WIKI_DB_NAMES_DEFAULT );
+        properties.setProperty( APP_DB_POOL_MIN_KEY, APP_DB_POOL_MIN_DEFAULT );
+        properties.setProperty( APP_DB_POOL_MAX_KEY, APP_DB_POOL_MAX_DEFAULT );
+        properties.setProperty( APP_DB_POOL_MAX_TOTAL_KEY, APP_DB_POOL_MAX_TOTAL_DEFAULT );
+        properties.setProperty( APP_DB_POOL_TIMEOUT_KEY, APP_DB_POOL_TIMEOUT_DEFAULT );
+        properties.setProperty( APP_DB_POOL_VALIDATION_TIMEOUT_KEY, APP_DB_POOL_VALIDATION_TIMEOUT_DEFAULT );
+        properties.setProperty( APP_DB_POOL_LEAK_DETECTION_KEY, APP_DB_POOL_LEAK_DETECTION_DEFAULT );
+        properties.setProperty( APP_DB_STATEMENTS_CACHE_SIZE_KEY, APP_DB_STATEMENTS_CACHE_SIZE_DEFAULT );
+        properties.setProperty( APP_DB_STATEMENTS_CACHE_SQL_LIMIT_KEY, APP_DB_STATEMENTS_CACHE_SQL_LIMIT_DEFAULT );
+        properties.setProperty( APP_DB_STATEMENTS_SERVER_KEY, APP_DB_STATEMENTS_SERVER_DEFAULT );
+        properties.setProperty( APP_HTTP_THREADS_KEY, APP_HTTP_THREADS_DEFAULT );
+        properties.setProperty( APP_HTTP_THREADS_TYPE_KEY, APP_HTTP_THREADS_TYPE_DEFAULT );
+        properties.setProperty( APP_HTTP_QUEUE_SIZE_KEY, APP_HTTP_QUEUE_SIZE_DEFAULT );
+        properties.setProperty( APP_HTTP_RETRY_AFTER_KEY, APP_HTTP_RETRY_AFTER_DEFAULT );
+        properties.setProperty( APP_QUERY_TIMEOUT_KEY, APP_QUERY_TIMEOUT_DEFAULT );
+        properties.setProperty( APP_QUERY_TIMEOUT_MAX_KEY, APP_QUERY_TIMEOUT_MAX_DEFAULT );
+        properties.setProperty( APP_QUERY_THREADS_KEY, APP_QUERY_THREADS_DEFAULT );
+        properties.setProperty( APP_QUERY_QUEUE_SIZE_KEY, APP_QUERY_QUEUE_SIZE_DEFAULT );
+        properties.setProperty( APP_QUERY_CACHE_SIZE_KEY, APP_QUERY_CACHE_SIZE_DEFAULT );
+        properties.setProperty( APP_QUERY_SLOW_THRESHOLD_KEY, APP_QUERY_SLOW_THRESHOLD_DEFAULT );
+        properties.setProperty( APP_QUERY_SLOW_LOG_KEY, APP_QUERY_SLOW_LOG_DEFAULT );
+        properties.setProperty( APP_RESULT_CACHE_SIZE_KEY, APP_RESULT_CACHE_SIZE_DEFAULT );
+        properties.setProperty( APP_RESULT_CACHE_ENTRY_MAX_KEY, APP_RESULT_CACHE_ENTRY_MAX_DEFAULT );
+        properties.setProperty( APP_RESULT_CACHE_TTL_KEY, APP_RESULT_CACHE_TTL_DEFAULT );
+        properties.setProperty( APP_NAMESPACES_SNAPSHOT_KEY, APP_NAMESPACES_SNAPSHOT_DEFAULT );
+        properties.setProperty( APP_NAMESPACES_PRELOAD_THREADS_KEY, APP_NAMESPACES_PRELOAD_THREADS_DEFAULT );
+        properties.setProperty( APP_NAMESPACES_REFRESH_HOURS_KEY, APP_NAMESPACES_REFRESH_HOURS_DEFAULT );
+        properties.setProperty( APP_STARTUP_SNAPSHOT_KEY, APP_STARTUP_SNAPSHOT_DEFAULT );
+        properties.setProperty( APP_REPOSITORY_SITES_CAPACITY_KEY, APP_REPOSITORY_SITES_CAPACITY_DEFAULT );
+        properties.setProperty( APP_REPOSITORY_SITES_IDLE_KEY, APP_REPOSITORY_SITES_IDLE_DEFAULT );
+        properties.setProperty( APP_REPOSITORY_SITES_COMBINATIONS_KEY, APP_REPOSITORY_SITES_COMBINATIONS_DEFAULT );
+        properties.setProperty( APP_CROSSWIKI_THREADS_KEY, APP_CROSSWIKI_THREADS_DEFAULT );
+        properties.setProperty( APP_CROSSWIKI_TIMEOUT_KEY, APP_CROSSWIKI_TIMEOUT_DEFAULT );
+        properties.setProperty( APP_CROSSWIKI_MAX_WIKIS_KEY, APP_CROSSWIKI_MAX_WIKIS_DEFAULT );
+        properties.setProperty( APP_BATCH_THREADS_KEY, APP_BATCH_THREADS_DEFAULT );
+        properties.setProperty( APP_BATCH_PARALLELISM_KEY, APP_BATCH_PARALLELISM_DEFAULT );
+        properties.setProperty( APP_BATCH_MAX_QUERIES_KEY, APP_BATCH_MAX_QUERIES_DEFAULT );
+        properties.setProperty( APP_BATCH_MAX_RESULT_BYTES_KEY, APP_BATCH_MAX_RESULT_BYTES_DEFAULT );
+        properties.setProperty( APP_BATCH_MAX_REQUEST_BYTES_KEY, APP_BATCH_MAX_REQUEST_BYTES_DEFAULT );
+        properties.setProperty( APP_CLIENT_KEY_KEY, APP_CLIENT_KEY_DEFAULT );
+        properties.setProperty( APP_CLIENT_RATE_KEY, APP_CLIENT_RATE_DEFAULT );
+        properties.setProperty( APP_CLIENT_BURST_KEY, APP_CLIENT_BURST_DEFAULT );
+        properties.setProperty( APP_CLIENT_MAX_CONCURRENT_KEY, APP_CLIENT_MAX_CONCURRENT_DEFAULT );
+        properties.setProperty( APP_WARMUP_BUDGET_KEY, APP_WARMUP_BUDGET_DEFAULT );
 
         try ( InputStream input = Configuration.class.getClassLoader().getResourceAsStream( "application.properties" ) ) {
             properties.load( input );
@@ -99,9 +397,7 @@ public class Configuration {
     private static Configuration loadConfiguration() {
         Properties properties = loadDefaultProperties();
         try {
-            URL location = Configuration.class.getProtectionDomain().getCodeSource().getLocation();
-            File basePath = new File( location.toURI() ).getParentFile();
-            try ( InputStream inputStream = new FileInputStream( new File( basePath, "config.properties" ) ) ) {
+            try ( InputStream inputStream = new FileInputStream( new File( getBasePath(), "config.properties" ) ) ) {
                 properties.load( inputStream );
                 return new Configuration( properties );
             }
@@ -112,6 +408,15 @@ public class Configuration {
         }
     }
 
+    /**
+     * @return directory of the .jar file, where local files like config.properties are stored.
+     */
+    @NonNull
+    private static File getBasePath() throws URISyntaxException {
+        URL location = Configuration.class.getProtectionDomain().getCodeSource().getLocation();
+        return new File( location.toURI() ).getParentFile();
+    }
+
     @NonNull
     public URI getBaseURI() {
         String baseUri = getProperty( APP_HTTP_BASE_URI_KEY );
@@ -131,6 +436,25 @@ public class Configuration {
         return getProperty( APP_DB_HOST_KEY );
     }
 
+    /**
+     * @return the host of the replica of each wiki, with {@code {section}} replaced by the wiki section, like {@code {section}.labsdb},
+     * or {@code {siteId}} by the wiki id.
+     */
+    @Nullable
+    public String getDatabaseHostPattern() {
+        return getProperty( APP_DB_HOST_PATTERN_KEY );
+    }
+
+    @NonNull
+    public String getDatabaseDriver() {
+        return StringUtils.defaultIfBlank( StringUtils.trim( getProperty( APP_DB_DRIVER_KEY ) ), APP_DB_DRIVER_DEFAULT );
+    }
+
+    @NonNull
+    public String getDatabaseUrl() {
+        return StringUtils.defaultIfBlank( StringUtils.trim( getProperty( APP_DB_URL_KEY ) ), APP_DB_URL_DEFAULT );
+    }
+
     @Nullable
     public String getDatabaseUser() {
         return getProperty( APP_DB_USER_KEY );
@@ -151,6 +475,208 @@ public class Configuration {
         return getPropertyAsList( APP_DB_FILTERED_WIKI_DB_NAMES_KEY );
     }
 
+    public int getDatabasePoolMinIdle() {
+        return (int) getPropertyAsLong( APP_DB_POOL_MIN_KEY, Long.parseLong( APP_DB_POOL_MIN_DEFAULT ) );
+    }
+
+    public int getDatabasePoolMaxSize() {
+        return (int) getPropertyAsLong( APP_DB_POOL_MAX_KEY, Long.parseLong( APP_DB_POOL_MAX_DEFAULT ) );
+    }
+
+    public int getDatabasePoolMaxTotal() {
+        return (int) getPropertyAsLong( APP_DB_POOL_MAX_TOTAL_KEY, Long.parseLong( APP_DB_POOL_MAX_TOTAL_DEFAULT ) );
+    }
+
+    public long getDatabasePoolTimeoutMillis() {
+        return getPropertyAsLong( APP_DB_POOL_TIMEOUT_KEY, Long.parseLong( APP_DB_POOL_TIMEOUT_DEFAULT ) );
+    }
+
+    public long getDatabasePoolValidationTimeoutMillis() {
+        return getPropertyAsLong( APP_DB_POOL_VALIDATION_TIMEOUT_KEY, Long.parseLong( APP_DB_POOL_VALIDATION_TIMEOUT_DEFAULT ) );
+    }
+
+    public long getDatabasePoolLeakDetectionMillis() {
+        return getPropertyAsLong( APP_DB_POOL_LEAK_DETECTION_KEY, Long.parseLong( APP_DB_POOL_LEAK_DETECTION_DEFAULT ) );
+    }
+
+    public int getDatabaseStatementsCacheSize() {
+        return (int) getPropertyAsLong( APP_DB_STATEMENTS_CACHE_SIZE_KEY, Long.parseLong( APP_DB_STATEMENTS_CACHE_SIZE_DEFAULT ) );
+    }
+
+    public int getDatabaseStatementsCacheSqlLimit() {
+        return (int) getPropertyAsLong( APP_DB_STATEMENTS_CACHE_SQL_LIMIT_KEY, Long.parseLong( APP_DB_STATEMENTS_CACHE_SQL_LIMIT_DEFAULT ) );
+    }
+
+    public boolean isDatabaseServerStatements() {
+        return "true".equalsIgnoreCase( StringUtils.trim( getProperty( APP_DB_STATEMENTS_SERVER_KEY ) ) );
+    }
+
+    public int getHttpThreads() {
+        return (int) getPropertyAsLong( APP_HTTP_THREADS_KEY, Long.parseLong( APP_HTTP_THREADS_DEFAULT ) );
+    }
+
+    public boolean isHttpVirtualThreads() {
+        return "virtual".equalsIgnoreCase( StringUtils.trim( getProperty( APP_HTTP_THREADS_TYPE_KEY ) ) );
+    }
+
+    public int getHttpQueueSize() {
+        return (int) getPropertyAsLong( APP_HTTP_QUEUE_SIZE_KEY, Long.parseLong( APP_HTTP_QUEUE_SIZE_DEFAULT ) );
+    }
+
+    public long getHttpRetryAfterSeconds() {
+        return getPropertyAsLong( APP_HTTP_RETRY_AFTER_KEY, Long.parseLong( APP_HTTP_RETRY_AFTER_DEFAULT ) );
+    }
+
+    public long getQueryTimeoutSeconds() {
+        return getPropertyAsLong( APP_QUERY_TIMEOUT_KEY, Long.parseLong( APP_QUERY_TIMEOUT_DEFAULT ) );
+    }
+
+    public long getQueryTimeoutMaxSeconds() {
+        return getPropertyAsLong( APP_QUERY_TIMEOUT_MAX_KEY, Long.parseLong( APP_QUERY_TIMEOUT_MAX_DEFAULT ) );
+    }
+
+    public int getQueryThreads() {
+        return (int) getPropertyAsLong( APP_QUERY_THREADS_KEY, Long.parseLong( APP_QUERY_THREADS_DEFAULT ) );
+    }
+
+    public int getQueryQueueSize() {
+        return (int) getPropertyAsLong( APP_QUERY_QUEUE_SIZE_KEY, Long.parseLong( APP_QUERY_QUEUE_SIZE_DEFAULT ) );
+    }
+
+    public long getQueryCacheSize() {
+        return getPropertyAsLong( APP_QUERY_CACHE_SIZE_KEY, Long.parseLong( APP_QUERY_CACHE_SIZE_DEFAULT ) );
+    }
+
+    public long getSlowQueryThresholdMillis() {
+        return getPropertyAsLong( APP_QUERY_SLOW_THRESHOLD_KEY, Long.parseLong( APP_QUERY_SLOW_THRESHOLD_DEFAULT ) );
+    }
+
+    @NonNull
+    public File getSlowQueryLogFile() {
+        return getLocalFile( getProperty( APP_QUERY_SLOW_LOG_KEY ) );
+    }
+
+    public long getResultCacheSize() {
+        return getPropertyAsLong( APP_RESULT_CACHE_SIZE_KEY, Long.parseLong( APP_RESULT_CACHE_SIZE_DEFAULT ) );
+    }
+
+    public long getResultCacheEntryMaxSize() {
+        return getPropertyAsLong( APP_RESULT_CACHE_ENTRY_MAX_KEY, Long.parseLong( APP_RESULT_CACHE_ENTRY_MAX_DEFAULT ) );
+    }
+
+    public long getResultCacheTtlSeconds() {
+        return getPropertyAsLong( APP_RESULT_CACHE_TTL_KEY, Long.parseLong( APP_RESULT_CACHE_TTL_DEFAULT ) );
+    }
+
+    @NonNull
+    public File getNamespacesSnapshotFile() {
+        return getLocalFile( getProperty( APP_NAMESPACES_SNAPSHOT_KEY ) );
+    }
+
+    public int getNamespacesPreloadThreads() {
+        return (int) getPropertyAsLong( APP_NAMESPACES_PRELOAD_THREADS_KEY, Long.parseLong( APP_NAMESPACES_PRELOAD_THREADS_DEFAULT ) );
+    }
+
+    public long getNamespacesRefreshHours() {
+        return getPropertyAsLong( APP_NAMESPACES_REFRESH_HOURS_KEY, Long.parseLong( APP_NAMESPACES_REFRESH_HOURS_DEFAULT ) );
+    }
+
+    @NonNull
+    public File getStartupSnapshotFile() {
+        return getLocalFile( getProperty( APP_STARTUP_SNAPSHOT_KEY ) );
+    }
+
+    public long getSiteRepositoriesCapacity() {
+        return getPropertyAsLong( APP_REPOSITORY_SITES_CAPACITY_KEY, Long.parseLong( APP_REPOSITORY_SITES_CAPACITY_DEFAULT ) );
+    }
+
+    public long getSiteRepositoriesIdleMinutes() {
+        return getPropertyAsLong( APP_REPOSITORY_SITES_IDLE_KEY, Long.parseLong( APP_REPOSITORY_SITES_IDLE_DEFAULT ) );
+    }
+
+    public long getSiteRepositoriesCombinationCapacity() {
+        return getPropertyAsLong( APP_REPOSITORY_SITES_COMBINATIONS_KEY, Long.parseLong( APP_REPOSITORY_SITES_COMBINATIONS_DEFAULT ) );
+    }
+
+    public int getCrossWikiThreads() {
+        return (int) getPropertyAsLong( APP_CROSSWIKI_THREADS_KEY, Long.parseLong( APP_CROSSWIKI_THREADS_DEFAULT ) );
+    }
+
+    public long getCrossWikiTimeoutSeconds() {
+        return getPropertyAsLong( APP_CROSSWIKI_TIMEOUT_KEY, Long.parseLong( APP_CROSSWIKI_TIMEOUT_DEFAULT ) );
+    }
+
+    public int getCrossWikiMaxWikis() {
+        return (int) getPropertyAsLong( APP_CROSSWIKI_MAX_WIKIS_KEY, Long.parseLong( APP_CROSSWIKI_MAX_WIKIS_DEFAULT ) );
+    }
+
+    public int getBatchThreads() {
+        return (int) getPropertyAsLong( APP_BATCH_THREADS_KEY, Long.parseLong( APP_BATCH_THREADS_DEFAULT ) );
+    }
+
+    public int getBatchParallelism() {
+        return (int) getPropertyAsLong( APP_BATCH_PARALLELISM_KEY, Long.parseLong( APP_BATCH_PARALLELISM_DEFAULT ) );
+    }
+
+    public int getBatchMaxQueries() {
+        return (int) getPropertyAsLong( APP_BATCH_MAX_QUERIES_KEY, Long.parseLong( APP_BATCH_MAX_QUERIES_DEFAULT ) );
+    }
+
+    public int getBatchMaxResultBytes() {
+        return (int) getPropertyAsLong( APP_BATCH_MAX_RESULT_BYTES_KEY, Long.parseLong( APP_BATCH_MAX_RESULT_BYTES_DEFAULT ) );
+    }
+
+    public int getBatchMaxRequestBytes() {
+        return (int) getPropertyAsLong( APP_BATCH_MAX_REQUEST_BYTES_KEY, Long.parseLong( APP_BATCH_MAX_REQUEST_BYTES_DEFAULT ) );
+    }
+
+    @NonNull
+    public String getClientKey() {
+        return StringUtils.defaultIfBlank( StringUtils.trim( getProperty( APP_CLIENT_KEY_KEY ) ), APP_CLIENT_KEY_DEFAULT ).toLowerCase( Locale.ROOT );
+    }
+
+    public long getClientRatePerMinute() {
+        return getPropertyAsLong( APP_CLIENT_RATE_KEY, Long.parseLong( APP_CLIENT_RATE_DEFAULT ) );
+    }
+
+    public long getClientBurst() {
+        return getPropertyAsLong( APP_CLIENT_BURST_KEY, Long.parseLong( APP_CLIENT_BURST_DEFAULT ) );
+    }
+
+    public int getClientMaxConcurrentQueries() {
+        return (int) getPropertyAsLong( APP_CLIENT_MAX_CONCURRENT_KEY, Long.parseLong( APP_CLIENT_MAX_CONCURRENT_DEFAULT ) );
+    }
+
+    /**
+     * @return the file of the queries to replay before the server starts, {@code null} if there is no warm-up.
+     */
+    @Nullable
+    public File getWarmupQueriesFile() {
+        String path = getProperty( APP_WARMUP_QUERIES_KEY );
+        return StringUtils.isBlank( path ) ? null : getLocalFile( path.trim() );
+    }
+
+    public long getWarmupBudgetSeconds() {
+        return getPropertyAsLong( APP_WARMUP_BUDGET_KEY, Long.parseLong( APP_WARMUP_BUDGET_DEFAULT ) );
+    }
+
+    /**
+     * Resolves a path relative to the .jar directory. Absolute paths are kept as is.
+     */
+    @NonNull
+    public File getLocalFile( @NonNull String path ) {
+        File file = new File( path );
+        if ( file.isAbsolute() ) {
+            return file;
+        }
+        try {
+            return new File( getBasePath(), path );
+        } catch ( URISyntaxException e ) {
+            LOGGER.error( e.getMessage() );
+            return file;
+        }
+    }
+
     @Nullable
     public String getProperty( @NonNull String key ) {
         return properties.getProperty( key );
@@ -173,4 +699,24 @@ public class Configuration {
         String[] splitResult = property.split( "," );
         return Stream.of( splitResult ).filter( StringUtils::isNotBlank ).map( String::trim ).collect( Collectors.toList() );
     }
+
+    /**
+     * Receive a property as a number.
+     *
+     * @return {@code defaultValue} if the property is not set or is not a valid number.
+     */
+    public long getPropertyAsLong( @NonNull String key, long defaultValue ) {
+        String property = getProperty( key );
+
+        if ( StringUtils.isBlank( property ) ) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong( property.trim() );
+        } catch ( NumberFormatException e ) {
+            LOGGER.error( "Invalid number '" + property + "' for '" + key + "'. Default value " + defaultValue + " will be used!" );
+            return defaultValue;
+        }
+    }
 }
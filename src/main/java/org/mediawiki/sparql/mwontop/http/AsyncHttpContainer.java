@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsExchange;
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerException;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.server.spi.Container;
+import org.glassfish.jersey.server.spi.ContainerResponseWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.core.Application;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.SecurityContext;
+import javax.ws.rs.core.UriBuilder;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.Principal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Jersey container on the JDK HTTP server supporting asynchronous responses.
+ * <p>
+ * The Jersey JDK HTTP container closes the exchange as soon as the resource method returns, so it rejects
+ * {@link javax.ws.rs.container.AsyncResponse}. This one keeps the exchange of a suspended request open until its
+ * response is resumed, from any thread, or its suspend timeout is reached. The HTTP worker is released meanwhile.
+ */
+final class AsyncHttpContainer implements HttpHandler, Container {
+    /**
+     * Request property holding the IP address of the client connection.
+     */
+    static final String REMOTE_ADDRESS_PROPERTY = "org.mediawiki.sparql.mwontop.http.remoteAddress";
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncHttpContainer.class);
+    /**
+     * System property of the JDK server enabling TCP_NODELAY on the accepted connections, read when the first server is created.
+     */
+    private static final String NODELAY_PROPERTY = "sun.net.httpserver.nodelay";
+    private static final ScheduledExecutorService TIMEOUTS = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "async-response-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile ApplicationHandler appHandler;
+
+    private AsyncHttpContainer(Application application) {
+        appHandler = new ApplicationHandler(application);
+    }
+
+    /**
+     * @param executor the executor of the server, {@code null} to process requests on the server dispatcher thread.
+     * @return a server of the application at {@code baseURI}, not started yet.
+     */
+    static HttpServer createHttpServer(URI baseURI, Application application, Executor executor) {
+        String path = baseURI.getPath() == null || baseURI.getPath().isEmpty() ? "/" : baseURI.getPath();
+        int port = baseURI.getPort() == -1 ? 80 : baseURI.getPort();
+        // without it the last chunk of a response on a kept-alive connection waits ~40ms for the delayed ACK of the client
+        if (System.getProperty(NODELAY_PROPERTY) == null) {
+            System.setProperty(NODELAY_PROPERTY, "true");
+        }
+        HttpServer server;
+        try {
+            server = HttpServer.create(new InetSocketAddress(port), 0);
+        } catch (IOException e) {
+            throw new ProcessingException("Not able to create the HTTP server on port " + port, e);
+        }
+        AsyncHttpContainer container = new AsyncHttpContainer(application);
+        server.setExecutor(executor);
+        server.createContext(path, container);
+        container.appHandler.onStartup(container);
+        return server;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        URI requestUri = exchange.getRequestURI();
+        String basePath = exchange.getHttpContext().getPath();
+        if (!basePath.endsWith("/")) {
+            if (basePath.equals(requestUri.getPath())) {
+                requestUri = UriBuilder.fromUri(requestUri).path("/").build();
+            }
+            basePath += "/";
+        }
+        boolean secure = exchange instanceof HttpsExchange;
+        URI baseUri = getBaseUri(exchange, basePath, secure ? "https" : "http");
+        ResponseWriter writer = new ResponseWriter(exchange);
+        ContainerRequest request = new ContainerRequest(
+                baseUri, getRequestUri(baseUri, requestUri), exchange.getRequestMethod(),
+                getSecurityContext(exchange.getPrincipal(), secure), new MapPropertiesDelegate()
+        );
+        request.setEntityStream(exchange.getRequestBody());
+        request.getHeaders().putAll(exchange.getRequestHeaders());
+        request.setWriter(writer);
+        InetSocketAddress remoteAddress = exchange.getRemoteAddress();
+        if (remoteAddress != null && remoteAddress.getAddress() != null) {
+            request.setProperty(REMOTE_ADDRESS_PROPERTY, remoteAddress.getAddress().getHostAddress());
+        }
+        try {
+            appHandler.handle(request);
+        } finally {
+            writer.closeIfNotSuspended();
+        }
+    }
+
+    private static URI getBaseUri(HttpExchange exchange, String basePath, String scheme) {
+        try {
+            List<String> host = exchange.getRequestHeaders().get("Host");
+            if (host != null) {
+                return new URI(scheme + "://" + host.get(0) + basePath);
+            }
+            InetSocketAddress address = exchange.getLocalAddress();
+            return new URI(scheme, null, address.getHostName(), address.getPort(), basePath, null, null);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static URI getRequestUri(URI baseUri, URI requestUri) {
+        try {
+            URI serverAddress = new URI(baseUri.getScheme(), null, baseUri.getHost(), baseUri.getPort(), null, null, null);
+            return new URI(serverAddress + requestUri.toString());
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static SecurityContext getSecurityContext(Principal principal, boolean secure) {
+        return new SecurityContext() {
+            @Override
+            public Principal getUserPrincipal() {
+                return principal;
+            }
+
+            @Override
+            public boolean isUserInRole(String role) {
+                return false;
+            }
+
+            @Override
+            public boolean isSecure() {
+                return secure;
+            }
+
+            @Override
+            public String getAuthenticationScheme() {
+                return null;
+            }
+        };
+    }
+
+    @Override
+    public ResourceConfig getConfiguration() {
+        return appHandler.getConfiguration();
+    }
+
+    @Override
+    public ApplicationHandler getApplicationHandler() {
+        return appHandler;
+    }
+
+    @Override
+    public void reload() {
+        reload(getConfiguration());
+    }
+
+    @Override
+    public void reload(ResourceConfig configuration) {
+        appHandler.onShutdown(this);
+        appHandler = new ApplicationHandler(configuration);
+        appHandler.onReload(this);
+        appHandler.onStartup(this);
+    }
+
+    /**
+     * Writer of the response of an exchange, closing it on commit.
+     */
+    private static final class ResponseWriter implements ContainerResponseWriter {
+        private final HttpExchange exchange;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean suspended;
+        private TimeoutHandler timeoutHandler;
+        private ScheduledFuture<?> timeout;
+
+        private ResponseWriter(HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        @Override
+        public OutputStream writeResponseStatusAndHeaders(long contentLength, ContainerResponse response) {
+            for (Map.Entry<String, List<String>> header : response.getStringHeaders().entrySet()) {
+                for (String value : header.getValue()) {
+                    exchange.getResponseHeaders().add(header.getKey(), value);
+                }
+            }
+            try {
+                if (response.getStatus() == Response.Status.NO_CONTENT.getStatusCode()) {
+                    exchange.sendResponseHeaders(response.getStatus(), -1);
+                } else {
+                    exchange.sendResponseHeaders(response.getStatus(), getResponseLength(contentLength));
+                }
+            } catch (IOException e) {
+                throw new ContainerException("Error while writing the response headers", e);
+            }
+            return exchange.getResponseBody();
+        }
+
+        /**
+         * @return the length as expected by the JDK server: -1 for no body and 0 for an unknown length.
+         */
+        private static long getResponseLength(long contentLength) {
+            if (contentLength == 0) {
+                return -1;
+            }
+            return contentLength < 0 ? 0 : contentLength;
+        }
+
+        @Override
+        public synchronized boolean suspend(long timeOut, TimeUnit timeUnit, TimeoutHandler timeoutHandler) {
+            this.timeoutHandler = timeoutHandler;
+            suspended = true;
+            scheduleTimeout(timeOut, timeUnit);
+            return true;
+        }
+
+        @Override
+        public synchronized void setSuspendTimeout(long timeOut, TimeUnit timeUnit) {
+            if (timeoutHandler == null) {
+                throw new IllegalStateException("The response is not suspended");
+            }
+            scheduleTimeout(timeOut, timeUnit);
+        }
+
+        private void scheduleTimeout(long timeOut, TimeUnit timeUnit) {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            timeout = timeOut <= 0 ? null : TIMEOUTS.schedule(() -> timeoutHandler.onTimeout(this), timeOut, timeUnit);
+        }
+
+        @Override
+        public void commit() {
+            synchronized (this) {
+                if (timeout != null) {
+                    timeout.cancel(false);
+                }
+            }
+            if (closed.compareAndSet(false, true)) {
+                exchange.close();
+            }
+        }
+
+        @Override
+        public void failure(Throwable error) {
+            try {
+                if (!closed.get()) {
+                    exchange.sendResponseHeaders(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(), -1);
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Not able to send the failure response: " + e.getMessage(), e);
+            } finally {
+                commit();
+            }
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            }
+            throw new ContainerException(error);
+        }
+
+        @Override
+        public boolean enableResponseBuffering() {
+            return true;
+        }
+
+        /**
+         * Closes the exchange if Jersey neither suspended nor committed the response.
+         */
+        private void closeIfNotSuspended() {
+            if (!suspended && closed.compareAndSet(false, true)) {
+                exchange.close();
+                LOGGER.warn("The response was not committed, the exchange has been closed");
+            }
+        }
+    }
+}
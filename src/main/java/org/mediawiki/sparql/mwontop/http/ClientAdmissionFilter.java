@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.http;
+
+import com.google.common.io.ByteStreams;
+import org.apache.commons.lang3.StringUtils;
+import org.glassfish.jersey.server.CloseableService;
+import org.mediawiki.sparql.mwontop.Configuration;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.Path;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Applies the {@link ClientQuotas} to the requests to {@link SPARQLActions}: queries over the quotas of their client
+ * are answered with 429 and a {@code Retry-After} header. A batch takes a single running query slot but a token per query.
+ * <p>
+ * Clients are identified according to {@link Configuration#getClientKey()}: {@code ip} uses the address of the connection,
+ * {@code forwarded} the last address of the {@code X-Forwarded-For} header, as added by a reverse proxy,
+ * and {@code user-agent} the {@code User-Agent} header.
+ */
+class ClientAdmissionFilter implements ContainerRequestFilter {
+    static final String KEY_FORWARDED = "forwarded";
+    static final String KEY_USER_AGENT = "user-agent";
+    private static final String UNKNOWN_CLIENT = "unknown";
+    private static final int MAX_CLIENT_LENGTH = 200;
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    @Context
+    private CloseableService closeableService;
+
+    @Override
+    public void filter(ContainerRequestContext request) {
+        ClientQuotas quotas = ClientQuotas.getInstance();
+        if (!quotas.isEnabled() || resourceInfo.getResourceClass() != SPARQLActions.class || request.getProperty(QueryWarmup.REQUEST_PROPERTY) != null) {
+            return;
+        }
+        String client = clientKey(
+                Configuration.instance().getClientKey(),
+                (String) request.getProperty(AsyncHttpContainer.REMOTE_ADDRESS_PROPERTY),
+                request.getHeaderString("X-Forwarded-For"),
+                request.getHeaderString(HttpHeaders.USER_AGENT)
+        );
+        ClientQuotas.Permit permit = quotas.acquire(client, isBatch() ? batchSize(request) : 1);
+        if (permit.isAdmitted()) {
+            closeableService.add(permit);
+        } else {
+            request.abortWith(Response.status(429)
+                    .header(HttpHeaders.RETRY_AFTER, permit.getRetryAfterSeconds())
+                    .type(MediaType.TEXT_PLAIN_TYPE)
+                    .entity("Too many queries, please retry in " + permit.getRetryAfterSeconds() + " seconds")
+                    .build());
+        }
+    }
+
+    private boolean isBatch() {
+        Path path = resourceInfo.getResourceMethod().getAnnotation(Path.class);
+        return path != null && SPARQLActions.BATCH_PATH.equals(path.value());
+    }
+
+    /**
+     * @return the number of queries of the batch, whose body is read then put back for {@link SPARQLActions}.
+     * Invalid batches count as a single query as they are rejected anyway.
+     */
+    private static int batchSize(ContainerRequestContext request) {
+        if (!QueryBatch.isEnabled()) {
+            return 1;
+        }
+        byte[] body;
+        try (InputStream entityStream = request.getEntityStream()) {
+            body = readBatch(entityStream, Configuration.instance().getBatchMaxRequestBytes());
+        } catch (IOException e) {
+            throw new BadRequestException("Unable to read the batch: " + e.getMessage(), e);
+        }
+        request.setEntityStream(new ByteArrayInputStream(body));
+        try {
+            return QueryBatch.parseQueries(new String(body, StandardCharsets.UTF_8), Configuration.instance().getBatchMaxQueries()).size();
+        } catch (BadRequestException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * Reads at most {@code maxBytes} bytes, so clients over their quota can not make the server buffer large bodies before their 429.
+     *
+     * @throws WebApplicationException with the 413 status if the batch is larger.
+     */
+    static byte[] readBatch(InputStream entityStream, int maxBytes) throws IOException {
+        byte[] body = ByteStreams.toByteArray(ByteStreams.limit(entityStream, maxBytes + 1L));
+        if (body.length > maxBytes) {
+            throw new WebApplicationException(Response.status(Response.Status.REQUEST_ENTITY_TOO_LARGE)
+                    .type(MediaType.TEXT_PLAIN_TYPE)
+                    .entity("The batch is larger than the " + maxBytes + " bytes allowed")
+                    .build());
+        }
+        return body;
+    }
+
+    static String clientKey(String keyType, String remoteAddress, String forwardedFor, String userAgent) {
+        String client = null;
+        if (KEY_USER_AGENT.equals(keyType)) {
+            client = StringUtils.trimToNull(userAgent);
+        } else if (KEY_FORWARDED.equals(keyType) && forwardedFor != null) {
+            client = StringUtils.trimToNull(StringUtils.substringAfterLast("," + forwardedFor, ","));
+        }
+        if (client == null) {
+            client = StringUtils.defaultIfBlank(remoteAddress, UNKNOWN_CLIENT);
+        }
+        return StringUtils.left(client, MAX_CLIENT_LENGTH);
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.http;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.mediawiki.sparql.mwontop.Configuration;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Query quotas of each client: a token bucket refilled at a fixed rate and a maximal number of running queries.
+ * <p>
+ * Clients are forgotten once idle for {@value #IDLE_MINUTES} minutes, so the tracked clients stay bounded.
+ */
+final class ClientQuotas implements ClientQuotasMXBean {
+    static final String OBJECT_NAME = "org.mediawiki.sparql.mwontop:type=ClientQuotas";
+    private static final int IDLE_MINUTES = 10;
+    private static final int MAX_TRACKED_CLIENTS = 10_000;
+    private static final int MAX_REPORTED_CLIENTS = 100;
+    private static final ClientQuotas INSTANCE = new ClientQuotas(
+            Configuration.instance().getClientRatePerMinute(),
+            Configuration.instance().getClientBurst(),
+            Configuration.instance().getClientMaxConcurrentQueries(),
+            Ticker.systemTicker()
+    );
+
+    private final long ratePerMinute;
+    private final long burst;
+    private final int maxConcurrentQueries;
+    private final Ticker ticker;
+    private final Cache<String, Client> clients;
+    private final AtomicInteger activeQueries = new AtomicInteger();
+    private final AtomicLong admittedQueries = new AtomicLong();
+    private final AtomicLong rateLimitedQueries = new AtomicLong();
+    private final AtomicLong concurrencyLimitedQueries = new AtomicLong();
+
+    ClientQuotas(long ratePerMinute, long burst, int maxConcurrentQueries, Ticker ticker) {
+        this.ratePerMinute = Math.max(ratePerMinute, 0);
+        this.burst = Math.max(burst, 1);
+        this.maxConcurrentQueries = Math.max(maxConcurrentQueries, 0);
+        this.ticker = ticker;
+        clients = CacheBuilder.newBuilder()
+                .maximumSize(MAX_TRACKED_CLIENTS)
+                .expireAfterAccess(IDLE_MINUTES, TimeUnit.MINUTES)
+                .ticker(ticker)
+                .build();
+    }
+
+    static ClientQuotas getInstance() {
+        return INSTANCE;
+    }
+
+    boolean isEnabled() {
+        return ratePerMinute > 0 || maxConcurrentQueries > 0;
+    }
+
+    /**
+     * Admits a query of the client if it has a token left and not too many queries running.
+     * The returned permit should be closed once the query response is written.
+     */
+    Permit acquire(String client) {
+        return acquire(client, 1);
+    }
+
+    /**
+     * Admits a request of {@code queries} queries, like a batch, taking a running query slot and a token per query.
+     * A request of more queries than the burst is admitted once the bucket is full, and the client then waits
+     * for the tokens it overspent to be refilled.
+     */
+    Permit acquire(String client, int queries) {
+        Client state;
+        try {
+            state = clients.get(client, Client::new);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+        return state.acquire(Math.max(queries, 1));
+    }
+
+    @Override
+    public long getRatePerMinute() {
+        return ratePerMinute;
+    }
+
+    @Override
+    public long getBurst() {
+        return burst;
+    }
+
+    @Override
+    public int getMaxConcurrentQueries() {
+        return maxConcurrentQueries;
+    }
+
+    @Override
+    public long getTrackedClients() {
+        clients.cleanUp();
+        return clients.size();
+    }
+
+    @Override
+    public long getAdmittedQueries() {
+        return admittedQueries.get();
+    }
+
+    @Override
+    public long getRateLimitedQueries() {
+        return rateLimitedQueries.get();
+    }
+
+    @Override
+    public long getConcurrencyLimitedQueries() {
+        return concurrencyLimitedQueries.get();
+    }
+
+    @Override
+    public int getActiveQueries() {
+        return activeQueries.get();
+    }
+
+    @Override
+    public List<ClientUsage> getClients() {
+        return clients.asMap().entrySet().stream()
+                .map(client -> client.getValue().usage(client.getKey()))
+                .sorted(Comparator.comparingLong(ClientUsage::getAdmittedQueries).reversed())
+                .limit(MAX_REPORTED_CLIENTS)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Writes the totals of all the clients in the Prometheus text exposition format.
+     * The usage of each client, which would make a series per client address or user agent, is only exposed over JMX.
+     */
+    void writePrometheus(Writer writer) throws IOException {
+        writer.write("# HELP mw2sparql_client_active_queries Number of queries being evaluated or streamed, over all the clients.\n");
+        writer.write("# TYPE mw2sparql_client_active_queries gauge\n");
+        writer.write("mw2sparql_client_active_queries " + getActiveQueries() + "\n");
+        writer.write("# HELP mw2sparql_client_admitted_queries_total Number of admitted queries.\n");
+        writer.write("# TYPE mw2sparql_client_admitted_queries_total counter\n");
+        writer.write("mw2sparql_client_admitted_queries_total " + getAdmittedQueries() + "\n");
+        writer.write("# HELP mw2sparql_client_rejected_queries_total Number of queries answered with 429, by exceeded quota.\n");
+        writer.write("# TYPE mw2sparql_client_rejected_queries_total counter\n");
+        writer.write("mw2sparql_client_rejected_queries_total{quota=\"rate\"} " + getRateLimitedQueries() + "\n");
+        writer.write("mw2sparql_client_rejected_queries_total{quota=\"concurrency\"} " + getConcurrencyLimitedQueries() + "\n");
+    }
+
+    private final class Client {
+        private double tokens = burst;
+        private long lastRefillNanos = ticker.read();
+        private int activeQueries;
+        private long admitted;
+        private long rejected;
+
+        private synchronized Permit acquire(int queries) {
+            if (maxConcurrentQueries > 0 && activeQueries >= maxConcurrentQueries) {
+                rejected++;
+                concurrencyLimitedQueries.incrementAndGet();
+                return new Permit(this, Math.max(1, Configuration.instance().getHttpRetryAfterSeconds()));
+            }
+            if (ratePerMinute > 0) {
+                refill();
+                double requiredTokens = Math.min(queries, burst);
+                if (tokens < requiredTokens) {
+                    rejected++;
+                    rateLimitedQueries.incrementAndGet();
+                    double missingNanos = (requiredTokens - tokens) * TimeUnit.MINUTES.toNanos(1) / ratePerMinute;
+                    return new Permit(this, Math.max(1, (long) Math.ceil(missingNanos / TimeUnit.SECONDS.toNanos(1))));
+                }
+                tokens -= queries;
+            }
+            activeQueries++;
+            ClientQuotas.this.activeQueries.incrementAndGet();
+            admitted += queries;
+            admittedQueries.addAndGet(queries);
+            return new Permit(this, 0);
+        }
+
+        private void refill() {
+            long now = ticker.read();
+            tokens = Math.min(burst, tokens + (double) (now - lastRefillNanos) * ratePerMinute / TimeUnit.MINUTES.toNanos(1));
+            lastRefillNanos = now;
+        }
+
+        private synchronized void release() {
+            activeQueries--;
+            ClientQuotas.this.activeQueries.decrementAndGet();
+        }
+
+        private synchronized ClientUsage usage(String client) {
+            return new ClientUsage(client, activeQueries, admitted, rejected);
+        }
+    }
+
+    /**
+     * Outcome of the admission of a query. Closing an admitted permit gives back its concurrency slot.
+     */
+    static final class Permit implements Closeable {
+        private final Client client;
+        private final long retryAfterSeconds;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Client client, long retryAfterSeconds) {
+            this.client = client;
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        boolean isAdmitted() {
+            return retryAfterSeconds == 0;
+        }
+
+        /**
+         * @return the number of seconds the client should wait before retrying a rejected query.
+         */
+        long getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+
+        @Override
+        public void close() {
+            if (isAdmitted() && released.compareAndSet(false, true)) {
+                client.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.http;
+
+import org.mediawiki.sparql.mwontop.metrics.Counter;
+
+import java.util.List;
+
+/**
+ * Metrics of the per-client query quotas, exposed over JMX as {@value ClientQuotas#OBJECT_NAME}.
+ */
+public interface ClientQuotasMXBean {
+    long getRatePerMinute();
+
+    long getBurst();
+
+    int getMaxConcurrentQueries();
+
+    /**
+     * @return number of clients that sent a query recently.
+     */
+    long getTrackedClients();
+
+    /**
+     * @return number of queries being evaluated or streamed, over all the clients.
+     */
+    int getActiveQueries();
+
+    @Counter
+    long getAdmittedQueries();
+
+    /**
+     * @return number of queries answered with 429 because their client exceeded its rate.
+     */
+    @Counter
+    long getRateLimitedQueries();
+
+    /**
+     * @return number of queries answered with 429 because their client had too many queries running.
+     */
+    @Counter
+    long getConcurrencyLimitedQueries();
+
+    /**
+     * @return usage of the tracked clients with the most admitted queries.
+     */
+    List<ClientUsage> getClients();
+
+    final class ClientUsage {
+        private final String client;
+        private final int activeQueries;
+        private final long admittedQueries;
+        private final long rejectedQueries;
+
+        public ClientUsage(String client, int activeQueries, long admittedQueries, long rejectedQueries) {
+            this.client = client;
+            this.activeQueries = activeQueries;
+            this.admittedQueries = admittedQueries;
+            this.rejectedQueries = rejectedQueries;
+        }
+
+        public String getClient() {
+            return client;
+        }
+
+        public int getActiveQueries() {
+            return activeQueries;
+        }
+
+        public long getAdmittedQueries() {
+            return admittedQueries;
+        }
+
+        public long getRejectedQueries() {
+            return rejectedQueries;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.http;
+
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.TupleQuery;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.query.TupleQueryResultHandler;
+import org.eclipse.rdf4j.query.impl.MapBindingSet;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.mediawiki.sparql.mwontop.Configuration;
+import org.mediawiki.sparql.mwontop.metrics.QueryMetrics;
+import org.mediawiki.sparql.mwontop.sql.RepositoryFactory;
+import org.mediawiki.sparql.mwontop.sql.RunningStatements;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Evaluation of a SELECT query on each wiki of a list, as if the query had no site IRI and each wiki was the default one.
+ * <p>
+ * The wikis are evaluated in parallel on a shared bounded executor, each on its own single site repository and within
+ * its own time limit. Solutions are written as soon as they are read, whatever the wiki, with the base URL of their wiki
+ * in the {@value #WIKI_BINDING} binding. The failure of a wiki does not fail the query: it is written as a solution
+ * with only {@value #WIKI_BINDING} and the error message in {@value #ERROR_BINDING}.
+ */
+final class CrossWikiQuery {
+    static final String WIKI_BINDING = "sourceWiki";
+    static final String ERROR_BINDING = "sourceWikiError";
+    private static final Logger LOGGER = LoggerFactory.getLogger(CrossWikiQuery.class);
+    /**
+     * Maximal number of solutions read from the wikis and not written yet. The wikis wait when it is reached.
+     */
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    private final Executor executor;
+    private final Function<String, Repository> repositoryForWiki;
+    private final long wikiTimeoutMillis;
+
+    CrossWikiQuery(Executor executor, Function<String, Repository> repositoryForWiki, long wikiTimeoutMillis) {
+        this.executor = executor;
+        this.repositoryForWiki = repositoryForWiki;
+        this.wikiTimeoutMillis = wikiTimeoutMillis;
+    }
+
+    static CrossWikiQuery fromConfiguration() {
+        return new CrossWikiQuery(
+                Workers.INSTANCE,
+                RepositoryFactory.getInstance()::getSiteRepository,
+                TimeUnit.SECONDS.toMillis(Configuration.instance().getCrossWikiTimeoutSeconds())
+        );
+    }
+
+    /**
+     * @return if cross-wiki queries are enabled, which requires site repositories.
+     */
+    static boolean isEnabled() {
+        return Configuration.instance().getCrossWikiThreads() > 0 && RepositoryFactory.getInstance().hasSiteRepositories();
+    }
+
+    /**
+     * Evaluates the query on all the wikis and writes the merged solutions, returning once every wiki is done.
+     *
+     * @param bindingNames the variables projected by the query.
+     * @param baseURLs     base URLs of the wikis, like "https://fr.wikipedia.org".
+     */
+    void evaluate(String mutatedQuery, List<String> bindingNames, Collection<String> baseURLs, QueryDeadline deadline,
+                  TupleQueryResultHandler writer, QueryMetrics.QueryTimer timer) {
+        Evaluation evaluation = new Evaluation(mutatedQuery, deadline, baseURLs.size());
+        List<String> mergedBindingNames = new ArrayList<>(bindingNames);
+        mergedBindingNames.add(WIKI_BINDING);
+        mergedBindingNames.add(ERROR_BINDING);
+        long startNanos = timer.nanoTime();
+        try {
+            for (String baseURL : baseURLs) {
+                try {
+                    executor.execute(() -> evaluation.evaluateOn(baseURL));
+                } catch (RejectedExecutionException e) {
+                    evaluation.fail(baseURL, "cross-wiki executor is shut down");
+                    evaluation.done();
+                }
+            }
+            writer.startQueryResult(mergedBindingNames);
+            Item item;
+            while ((item = evaluation.take()) != Item.LAST) {
+                writer.handleSolution(item.bindingSet);
+                if (item.isSolution) {
+                    timer.addRows(1);
+                }
+            }
+            writer.endQueryResult();
+        } finally {
+            evaluation.cancel();
+            timer.record(QueryMetrics.Phase.EXECUTION, startNanos);
+        }
+    }
+
+    private static final class Item {
+        static final Item LAST = new Item(null, false);
+
+        private final BindingSet bindingSet;
+        private final boolean isSolution;
+
+        private Item(BindingSet bindingSet, boolean isSolution) {
+            this.bindingSet = bindingSet;
+            this.isSolution = isSolution;
+        }
+    }
+
+    /**
+     * State shared by the evaluations on each wiki of a query and the thread writing the solutions.
+     */
+    private final class Evaluation {
+        private final String mutatedQuery;
+        private final QueryDeadline deadline;
+        private final BlockingQueue<Item> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final List<QueryDeadline> wikiDeadlines = new ArrayList<>();
+        private final AtomicInteger pendingWikis;
+        private volatile boolean cancelled;
+
+        private Evaluation(String mutatedQuery, QueryDeadline deadline, int wikiCount) {
+            this.mutatedQuery = mutatedQuery;
+            this.deadline = deadline;
+            this.pendingWikis = new AtomicInteger(wikiCount);
+            if (wikiCount == 0) {
+                queue.add(Item.LAST);
+            }
+        }
+
+        private void evaluateOn(String baseURL) {
+            QueryDeadline wikiDeadline = new QueryDeadline(wikiTimeoutMillis, System::nanoTime);
+            synchronized (this) {
+                wikiDeadlines.add(wikiDeadline);
+            }
+            try {
+                if (cancelled) {
+                    return;
+                }
+                if (deadline.isExpired()) {
+                    fail(baseURL, "query timeout reached before the evaluation on this wiki started");
+                    return;
+                }
+                RunningStatements.Scope wikiScope = wikiDeadline.cancelStatementsOfCurrentThread();
+                RunningStatements.Scope scope = deadline.cancelStatementsOfCurrentThread();
+                try (RepositoryConnection connection = repositoryForWiki.apply(baseURL).getConnection()) {
+                    wikiDeadline.closeOnCancel(connection);
+                    deadline.closeOnCancel(connection);
+                    TupleQuery query = connection.prepareTupleQuery(QueryLanguage.SPARQL, mutatedQuery);
+                    QueryDeadline.setTimeout(query, Math.min(wikiDeadline.getRemainingSeconds(), deadline.getRemainingSeconds()));
+                    try (TupleQueryResult result = query.evaluate()) {
+                        while (result.hasNext()) {
+                            MapBindingSet solution = SPARQLActions.decodeNamespaces(result.next());
+                            solution.addBinding(WIKI_BINDING, SimpleValueFactory.getInstance().createIRI(baseURL));
+                            if (!put(new Item(solution, true))) {
+                                return;
+                            }
+                        }
+                    }
+                } finally {
+                    scope.close();
+                    wikiScope.close();
+                }
+            } catch (RuntimeException e) {
+                if (cancelled) {
+                    return;
+                }
+                if (wikiDeadline.isExpired()) {
+                    fail(baseURL, "wiki timeout of " + TimeUnit.MILLISECONDS.toSeconds(wikiTimeoutMillis) + " seconds exceeded");
+                } else if (deadline.isExpired()) {
+                    fail(baseURL, "query timeout reached");
+                } else {
+                    LOGGER.info("Cross-wiki query failed on " + baseURL + ": " + e.getMessage(), e);
+                    fail(baseURL, String.valueOf(e.getMessage()));
+                }
+            } finally {
+                wikiDeadline.close();
+                done();
+            }
+        }
+
+        private void fail(String baseURL, String message) {
+            MapBindingSet failure = new MapBindingSet();
+            failure.addBinding(WIKI_BINDING, SimpleValueFactory.getInstance().createIRI(baseURL));
+            failure.addBinding(ERROR_BINDING, SimpleValueFactory.getInstance().createLiteral(message));
+            put(new Item(failure, false));
+        }
+
+        private void done() {
+            if (pendingWikis.decrementAndGet() == 0) {
+                put(Item.LAST);
+            }
+        }
+
+        /**
+         * Waits for room in the queue as long as the query is not cancelled.
+         *
+         * @return {@code false} if the query has been cancelled.
+         */
+        private boolean put(Item item) {
+            try {
+                while (!cancelled) {
+                    if (queue.offer(item, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+
+        private Item take() {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new QueryEvaluationException("Interrupted while waiting for the wikis results", e);
+            }
+        }
+
+        /**
+         * Stops the evaluations still running, for example because the client went away.
+         */
+        private void cancel() {
+            cancelled = true;
+            List<QueryDeadline> toCancel;
+            synchronized (this) {
+                toCancel = new ArrayList<>(wikiDeadlines);
+            }
+            toCancel.forEach(wikiDeadline -> wikiDeadline.cancelInBackground("cross-wiki query ended"));
+        }
+    }
+
+    /**
+     * Threads shared by all the cross-wiki queries, created on the first one.
+     */
+    private static final class Workers {
+        private static final ExecutorService INSTANCE = newExecutor(Configuration.instance().getCrossWikiThreads());
+
+        private static ExecutorService newExecutor(int threads) {
+            AtomicInteger counter = new AtomicInteger();
+            return Executors.newFixedThreadPool(Math.max(threads, 1), runnable -> {
+                Thread thread = new Thread(runnable, "crosswiki-worker-" + counter.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
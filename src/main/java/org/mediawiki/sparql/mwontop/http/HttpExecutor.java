@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.http;
+
+import org.mediawiki.sparql.mwontop.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor of the HTTP server: a fixed number of workers with a bounded queue of waiting requests.
+ * <p>
+ * When the queue is full the request is not dropped: it is run on the calling server dispatcher thread,
+ * flagged as rejected, so {@link OverloadFilter} answers it with 503 before any resource method is called.
+ * <p>
+ * With virtual threads, each request gets its own thread instead of waiting for a pooled one: a semaphore bounds the
+ * requests running at once to the number of workers, the others waiting for a permit up to the queue capacity.
+ */
+final class HttpExecutor implements Executor, HttpExecutorMXBean {
+    static final String OBJECT_NAME = "org.mediawiki.sparql.mwontop:type=HttpExecutor";
+    private static final Logger LOGGER = LoggerFactory.getLogger(HttpExecutor.class);
+    private static final ThreadLocal<Boolean> REJECTED = new ThreadLocal<>();
+
+    /**
+     * The pooled platform threads, {@code null} with virtual threads.
+     */
+    private final ThreadPoolExecutor workers;
+    private final ThreadFactory virtualThreadFactory;
+    private final int workerCount;
+    private final int queueCapacity;
+    private final Semaphore admissions;
+    private final Semaphore runningPermits;
+    private final AtomicLong rejectedRequests = new AtomicLong();
+    private final AtomicLong completedRequests = new AtomicLong();
+    private volatile boolean shutdown;
+
+    HttpExecutor(int threads, int queueCapacity, boolean useVirtualThreads) {
+        this(threads, queueCapacity, useVirtualThreads ? virtualThreadFactory() : null);
+    }
+
+    /**
+     * @param virtualThreadFactory creates a thread per request, {@code null} to use a pool of platform threads.
+     */
+    HttpExecutor(int threads, int queueCapacity, ThreadFactory virtualThreadFactory) {
+        this.virtualThreadFactory = virtualThreadFactory;
+        this.workerCount = Math.max(threads, 1);
+        this.queueCapacity = Math.max(queueCapacity, 0);
+        if (virtualThreadFactory == null) {
+            BlockingQueue<Runnable> queue = this.queueCapacity > 0 ? new ArrayBlockingQueue<>(this.queueCapacity) : new SynchronousQueue<>();
+            workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS, queue, platformThreadFactory());
+            admissions = null;
+            runningPermits = null;
+        } else {
+            workers = null;
+            admissions = new Semaphore(workerCount + this.queueCapacity);
+            runningPermits = new Semaphore(workerCount, true);
+        }
+    }
+
+    static HttpExecutor fromConfiguration() {
+        Configuration configuration = Configuration.instance();
+        HttpExecutor executor = new HttpExecutor(
+                configuration.getHttpThreads(),
+                configuration.getHttpQueueSize(),
+                configuration.isHttpVirtualThreads()
+        );
+        LOGGER.info("HTTP requests processed by " + executor.getMaximumWorkers() + (executor.isVirtualThreads() ? " virtual" : " platform") +
+                " threads with a queue of " + executor.getQueueCapacity());
+        return executor;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        try {
+            if (workers == null) {
+                startVirtualThread(command);
+            } else {
+                workers.execute(command);
+            }
+        } catch (RejectedExecutionException e) {
+            rejectedRequests.incrementAndGet();
+            REJECTED.set(Boolean.TRUE);
+            try {
+                command.run();
+            } finally {
+                REJECTED.remove();
+            }
+        }
+    }
+
+    private void startVirtualThread(Runnable command) {
+        if (shutdown || !admissions.tryAcquire()) {
+            throw new RejectedExecutionException("HTTP executor is saturated");
+        }
+        try {
+            virtualThreadFactory.newThread(() -> {
+                try {
+                    runningPermits.acquireUninterruptibly();
+                    try {
+                        command.run();
+                    } finally {
+                        runningPermits.release();
+                        completedRequests.incrementAndGet();
+                    }
+                } finally {
+                    admissions.release();
+                }
+            }).start();
+        } catch (RuntimeException | Error e) {
+            admissions.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return if the request processed by the current thread did not fit in the queue.
+     */
+    static boolean isCurrentRequestRejected() {
+        return REJECTED.get() != null;
+    }
+
+    void shutdown() {
+        shutdown = true;
+        if (workers != null) {
+            workers.shutdown();
+        }
+    }
+
+    @Override
+    public int getQueueDepth() {
+        if (workers == null) {
+            return Math.max(0, workerCount + queueCapacity - admissions.availablePermits() - getActiveWorkers());
+        }
+        return workers.getQueue().size();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    @Override
+    public int getActiveWorkers() {
+        return workers == null ? workerCount - runningPermits.availablePermits() : workers.getActiveCount();
+    }
+
+    @Override
+    public int getMaximumWorkers() {
+        return workerCount;
+    }
+
+    @Override
+    public long getRejectedRequests() {
+        return rejectedRequests.get();
+    }
+
+    @Override
+    public long getCompletedRequests() {
+        return workers == null ? completedRequests.get() : workers.getCompletedTaskCount();
+    }
+
+    @Override
+    public boolean isVirtualThreads() {
+        return virtualThreadFactory != null;
+    }
+
+    private static ThreadFactory platformThreadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> new Thread(runnable, "http-worker-" + counter.getAndIncrement());
+    }
+
+    /**
+     * Virtual threads are only available from Java 21 and are looked up by reflection to keep running on older versions.
+     *
+     * @return {@code null} if virtual threads are not supported by the current Java version.
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "http-worker-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            LOGGER.warn("Virtual threads are not supported by Java " + System.getProperty("java.version") + ", platform threads will be used");
+            return null;
+        }
+    }
+}
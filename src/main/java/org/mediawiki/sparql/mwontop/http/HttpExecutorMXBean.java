@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.http;
+
+import org.mediawiki.sparql.mwontop.metrics.Counter;
+
+/**
+ * Metrics of the HTTP worker pool, exposed over JMX as {@value HttpExecutor#OBJECT_NAME}.
+ */
+public interface HttpExecutorMXBean {
+    /**
+     * @return number of requests waiting for a worker.
+     */
+    int getQueueDepth();
+
+    int getQueueCapacity();
+
+    /**
+     * @return number of workers processing a request.
+     */
+    int getActiveWorkers();
+
+    int getMaximumWorkers();
+
+    /**
+     * @return number of requests answered with 503 because the queue was full.
+     */
+    @Counter
+    long getRejectedRequests();
+
+    @Counter
+    long getCompletedRequests();
+
+    boolean isVirtualThreads();
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.mediawiki.sparql.mwontop.http;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Single pass implementation of {@link MWNamespace#mutateNamespace}.
+ * <p>
+ * It rewrites the page part of every {@code //host/wiki/namespace:title} IRI found in a text, like the
+ * {@code //([^/]*)/wiki/([^:^>]*:)?([^>]+)} regular expression would match them,
+ * with the same percent encoding and decoding rules as {@link java.net.URLEncoder} and {@link java.net.URLDecoder}.
+ * Buffers are reused per thread and the input text is returned as is when no IRI is changed.
+ */
+final class IRINamespaceTranslator {
+    private static final String WIKI_PATH = "/wiki/";
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    /**
+     * Characters {@link MWNamespace#mutateNamespace} keeps unescaped in encoded page titles.
+     */
+    private static final String TITLE_SAFE_CHARS = "!(),/:;";
+    private static final ThreadLocal<IRINamespaceTranslator> TRANSLATORS = ThreadLocal.withInitial( IRINamespaceTranslator::new );
+
+    private final StringBuilder output = new StringBuilder();
+    private final StringBuilder replacement = new StringBuilder();
+    private final CharsetDecoder utf8Decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput( CodingErrorAction.REPLACE )
+            .onUnmappableCharacter( CodingErrorAction.REPLACE );
+    private ByteBuffer escapedBytes = ByteBuffer.allocate( 64 );
+    private CharBuffer decodedChars = CharBuffer.allocate( 64 );
+    private String lastHost;
+
+    private IRINamespaceTranslator() {
+    }
+
+    /**
+     * @param namespacesForHost namespace names mapping for a wiki host, like {@code en.wikipedia.org}
+     * @see MWNamespace#mutateNamespace
+     */
+    @NonNull
+    static String translate( @NonNull String text, boolean decodeTitles, @NonNull Function<String, NamespaceTable> namespacesForHost ) {
+        return TRANSLATORS.get().translateText( text, decodeTitles, namespacesForHost );
+    }
+
+    @NonNull
+    private String translateText( @NonNull String text, boolean decodeTitles, @NonNull Function<String, NamespaceTable> namespacesForHost ) {
+        int length = text.length();
+        int copied = 0;
+        boolean changed = false;
+        int from = 0;
+        int iriStart;
+        while ( ( iriStart = text.indexOf( "//", from ) ) >= 0 ) {
+            int hostStart = iriStart + 2;
+            int hostEnd = text.indexOf( '/', hostStart );
+            if ( hostEnd < 0 ) {
+                break;
+            }
+            if ( !text.startsWith( WIKI_PATH, hostEnd ) ) {
+                from = iriStart + 1;
+                continue;
+            }
+            int pageStart = hostEnd + WIKI_PATH.length();
+
+            int namespaceEnd = pageStart;
+            while ( namespaceEnd < length && !isNamespaceEnd( text.charAt( namespaceEnd ) ) ) {
+                namespaceEnd++;
+            }
+            int titleStart;
+            if ( namespaceEnd + 1 < length && text.charAt( namespaceEnd ) == ':' && text.charAt( namespaceEnd + 1 ) != '>' ) {
+                titleStart = namespaceEnd + 1;
+            } else {
+                namespaceEnd = pageStart;
+                titleStart = pageStart;
+            }
+            int titleEnd = text.indexOf( '>', titleStart );
+            if ( titleEnd < 0 ) {
+                titleEnd = length;
+            }
+            if ( titleEnd == titleStart ) {
+                from = iriStart + 1;
+                continue;
+            }
+
+            NamespaceTable namespaces = namespacesForHost( text, hostStart, hostEnd, namespacesForHost );
+            replacement.setLength( 0 );
+            if ( decodeTitles ) {
+                decode( text, pageStart, namespaceEnd, false );
+                String namespace = namespaces.get( replacement, 0, replacement.length() );
+                if ( namespace != null ) {
+                    replacement.setLength( 0 );
+                    replacement.append( namespace );
+                }
+                if ( replacement.length() > 0 ) {
+                    replacement.append( ':' );
+                }
+                decode( text, titleStart, titleEnd, true );
+            } else {
+                String namespace = namespaces.get( text, pageStart, namespaceEnd );
+                if ( namespace != null ) {
+                    encode( namespace, 0, namespace.length(), false );
+                } else {
+                    encode( text, pageStart, namespaceEnd, false );
+                }
+                if ( replacement.length() > 0 ) {
+                    replacement.append( ':' );
+                }
+                encode( text, titleStart, titleEnd, true );
+            }
+
+            if ( !regionEquals( text, pageStart, titleEnd, replacement ) ) {
+                if ( !changed ) {
+                    output.setLength( 0 );
+                    changed = true;
+                }
+                output.append( text, copied, pageStart ).append( replacement );
+                copied = titleEnd;
+            }
+            from = titleEnd;
+        }
+
+        if ( !changed ) {
+            return text;
+        }
+        return output.append( text, copied, length ).toString();
+    }
+
+    /**
+     * The host string is kept between calls so it is not rebuilt for every IRI of the same wiki.
+     */
+    @NonNull
+    private NamespaceTable namespacesForHost( @NonNull String text, int hostStart, int hostEnd,
+                                              @NonNull Function<String, NamespaceTable> namespacesForHost ) {
+        if ( lastHost == null || !regionEquals( text, hostStart, hostEnd, lastHost ) ) {
+            lastHost = text.substring( hostStart, hostEnd );
+        }
+        return namespacesForHost.apply( lastHost );
+    }
+
+    private static boolean isNamespaceEnd( char c ) {
+        return c == ':' || c == '^' || c == '>';
+    }
+
+    private static boolean regionEquals( @NonNull String text, int start, int end, @NonNull CharSequence expected ) {
+        if ( end - start != expected.length() ) {
+            return false;
+        }
+        for ( int i = start; i < end; i++ ) {
+            if ( text.charAt( i ) != expected.charAt( i - start ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends {@code text[start, end)} encoded like {@link java.net.URLEncoder#encode(String, String)} with UTF-8.
+     *
+     * @param keepTitleSafeChars keep {@link #TITLE_SAFE_CHARS} unescaped
+     */
+    private void encode( @NonNull CharSequence text, int start, int end, boolean keepTitleSafeChars ) {
+        int i = start;
+        while ( i < end ) {
+            char c = text.charAt( i );
+            if ( isUnreserved( c ) ) {
+                replacement.append( c == ' ' ? '+' : c );
+                i++;
+                continue;
+            }
+            int codePoint;
+            if ( Character.isHighSurrogate( c ) && i + 1 < end && Character.isLowSurrogate( text.charAt( i + 1 ) ) ) {
+                codePoint = Character.toCodePoint( c, text.charAt( i + 1 ) );
+                i += 2;
+            } else if ( Character.isSurrogate( c ) ) {
+                //unpaired surrogates are replaced by '?' by the UTF-8 encoder
+                codePoint = '?';
+                i++;
+            } else {
+                codePoint = c;
+                i++;
+            }
+
+            if ( codePoint < 0x80 ) {
+                if ( keepTitleSafeChars && TITLE_SAFE_CHARS.indexOf( codePoint ) >= 0 ) {
+                    replacement.append( (char) codePoint );
+                } else {
+                    appendEscapedByte( codePoint );
+                }
+            } else if ( codePoint < 0x800 ) {
+                appendEscapedByte( 0xC0 | ( codePoint >> 6 ) );
+                appendEscapedByte( 0x80 | ( codePoint & 0x3F ) );
+            } else if ( codePoint < 0x10000 ) {
+                appendEscapedByte( 0xE0 | ( codePoint >> 12 ) );
+                appendEscapedByte( 0x80 | ( ( codePoint >> 6 ) & 0x3F ) );
+                appendEscapedByte( 0x80 | ( codePoint & 0x3F ) );
+            } else {
+                appendEscapedByte( 0xF0 | ( codePoint >> 18 ) );
+                appendEscapedByte( 0x80 | ( ( codePoint >> 12 ) & 0x3F ) );
+                appendEscapedByte( 0x80 | ( ( codePoint >> 6 ) & 0x3F ) );
+                appendEscapedByte( 0x80 | ( codePoint & 0x3F ) );
+            }
+        }
+    }
+
+    private static boolean isUnreserved( char c ) {
+        return ( c >= 'a' && c <= 'z' ) || ( c >= 'A' && c <= 'Z' ) || ( c >= '0' && c <= '9' ) ||
+                c == ' ' || c == '-' || c == '_' || c == '.' || c == '*';
+    }
+
+    private void appendEscapedByte( int b ) {
+        replacement.append( '%' ).append( HEX_DIGITS[( b >> 4 ) & 0xF] ).append( HEX_DIGITS[b & 0xF] );
+    }
+
+    /**
+     * Appends {@code text[start, end)} decoded like {@link java.net.URLDecoder#decode(String, String)} with UTF-8.
+     *
+     * @param escapeTitleChars escape '`', '^' and '"' again after decoding
+     * @throws IllegalArgumentException if the text contains an invalid escape sequence
+     */
+    private void decode( @NonNull String text, int start, int end, boolean escapeTitleChars ) {
+        int i = start;
+        while ( i < end ) {
+            char c = text.charAt( i );
+            if ( c == '+' ) {
+                appendDecoded( ' ', escapeTitleChars );
+                i++;
+            } else if ( c == '%' ) {
+                escapedBytes.clear();
+                while ( i + 2 < end && text.charAt( i ) == '%' ) {
+                    if ( !escapedBytes.hasRemaining() ) {
+                        escapedBytes = grow( escapedBytes );
+                    }
+                    escapedBytes.put( parseEscapedByte( text, i + 1 ) );
+                    i += 3;
+                }
+                if ( i < end && text.charAt( i ) == '%' ) {
+                    throw new IllegalArgumentException( "URLDecoder: Incomplete trailing escape (%) pattern" );
+                }
+                appendDecodedBytes( escapeTitleChars );
+            } else {
+                appendDecoded( c, escapeTitleChars );
+                i++;
+            }
+        }
+    }
+
+    private static byte parseEscapedByte( @NonNull String text, int start ) {
+        //same rules as Integer.parseInt(text.substring(start, start + 2), 16)
+        char first = text.charAt( start );
+        int value;
+        if ( first == '+' || first == '-' ) {
+            int digit = Character.digit( text.charAt( start + 1 ), 16 );
+            if ( digit < 0 ) {
+                throw new IllegalArgumentException( "URLDecoder: Illegal hex characters in escape (%) pattern" );
+            }
+            value = first == '-' ? -digit : digit;
+        } else {
+            int high = Character.digit( first, 16 );
+            int low = Character.digit( text.charAt( start + 1 ), 16 );
+            if ( high < 0 || low < 0 ) {
+                throw new IllegalArgumentException( "URLDecoder: Illegal hex characters in escape (%) pattern" );
+            }
+            value = high * 16 + low;
+        }
+        if ( value < 0 ) {
+            throw new IllegalArgumentException( "URLDecoder: Illegal hex characters in escape (%) pattern - negative value" );
+        }
+        return (byte) value;
+    }
+
+    private void appendDecodedBytes( boolean escapeTitleChars ) {
+        escapedBytes.flip();
+        if ( decodedChars.capacity() < escapedBytes.remaining() ) {
+            decodedChars = CharBuffer.allocate( escapedBytes.remaining() * 2 );
+        }
+        decodedChars.clear();
+        utf8Decoder.reset();
+        utf8Decoder.decode( escapedBytes, decodedChars, true );
+        utf8Decoder.flush( decodedChars );
+        decodedChars.flip();
+        while ( decodedChars.hasRemaining() ) {
+            appendDecoded( decodedChars.get(), escapeTitleChars );
+        }
+    }
+
+    private void appendDecoded( char c, boolean escapeTitleChars ) {
+        if ( escapeTitleChars && c == '`' ) {
+            replacement.append( "%60" );
+        } else if ( escapeTitleChars && c == '^' ) {
+            replacement.append( "%5E" );
+        } else if ( escapeTitleChars && c == '"' ) {
+            replacement.append( "%22" );
+        } else {
+            replacement.append( c );
+        }
+    }
+
+    @NonNull
+    private static ByteBuffer grow( @NonNull ByteBuffer buffer ) {
+        ByteBuffer newBuffer = ByteBuffer.allocate( buffer.capacity() * 2 );
+        buffer.flip();
+        newBuffer.put( buffer );
+        return newBuffer;
+    }
+
+    /**
+     * Hash table from namespace names to their replacement that is queried with a region of a {@link CharSequence},
+     * so lookups do not need to build a key string.
+     */
+    static final class NamespaceTable {
+        private final String[] keys;
+        private final String[] values;
+        private final int mask;
+
+        NamespaceTable( @NonNull Map<String, String> namespaces ) {
+            int capacity = Integer.highestOneBit( Math.max( namespaces.size(), 1 ) * 4 - 1 ) << 1;
+            keys = new String[capacity];
+            values = new String[capacity];
+            mask = capacity - 1;
+            for ( Map.Entry<String, String> entry : namespaces.entrySet() ) {
+                int index = spread( entry.getKey().hashCode() ) & mask;
+                while ( keys[index] != null ) {
+                    index = ( index + 1 ) & mask;
+                }
+                keys[index] = entry.getKey();
+                values[index] = entry.getValue();
+            }
+        }
+
+        @Nullable
+        String get( @NonNull CharSequence text, int start, int end ) {
+            int hash = 0;
+            for ( int i = start; i < end; i++ ) {
+                hash = 31 * hash + text.charAt( i );
+            }
+            int index = spread( hash ) & mask;
+            String key;
+            while ( ( key = keys[index] ) != null ) {
+                if ( key.length() == end - start && regionMatches( key, text, start ) ) {
+                    return values[index];
+                }
+                index = ( index + 1 ) & mask;
+            }
+            return null;
+        }
+
+        @NonNull
+        Map<String, String> toMap() {
+            Map<String, String> namespaces = new HashMap<>();
+            for ( int i = 0; i < keys.length; i++ ) {
+                if ( keys[i] != null ) {
+                    namespaces.put( keys[i], values[i] );
+                }
+            }
+            return namespaces;
+        }
+
+        private static boolean regionMatches( @NonNull String key, @NonNull CharSequence text, int start ) {
+            for ( int i = 0; i < key.length(); i++ ) {
+                if ( key.charAt( i ) != text.charAt( start + i ) ) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int spread( int hash ) {
+            return hash ^ ( hash >>> 16 );
+        }
+    }
+}
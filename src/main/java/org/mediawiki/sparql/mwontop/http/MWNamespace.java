@@ -16,39 +16,21 @@
  */
 package org.mediawiki.sparql.mwontop.http;
 
-import org.apache.commons.lang3.StringUtils;
-import org.mediawiki.sparql.mwontop.api.SiteInfo;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.mediawiki.sparql.mwontop.Configuration;
 
-import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
-import java.net.URLEncoder;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Collection;
 
 final class MWNamespace {
-    private static final Logger LOGGER = LoggerFactory.getLogger(MWNamespace.class);
-    private static final Map<String, Map<String, String>> NAMESPACES = new HashMap<>();
-    private static final Pattern NAMESPACE_URI_REGEX = Pattern.compile("//([^/]*)/wiki/([^:^>]*:)?([^>]+)");
+    private MWNamespace() {
+    }
 
-    private static Map<String, String> getNamespaces(String projectHost) {
-        if (!NAMESPACES.containsKey(projectHost)) {
-            Map<String, String> ns = new HashMap<>();
-            try {
-                LOGGER.info("Loading namespaces for " + projectHost);
-                SiteInfo siteInfo = SiteInfo.loadSiteInfo(projectHost);
-                siteInfo.getNamespaceNames().forEach((nsId, nsName) -> ns.put("mw" + nsId + "ns", nsName));
-                siteInfo.getAllNamespaceNames().forEach((nsName, nsId) -> ns.put(nsName, "mw" + nsId + "ns"));
-            } catch (IOException e) {
-                LOGGER.error(e.getMessage(), e);
-            }
-            NAMESPACES.put(projectHost, ns);
-        }
-        return NAMESPACES.get(projectHost);
+    /**
+     * Loads the namespaces of the given wikis before the first queries.
+     *
+     * @param projectHosts wiki hosts like {@code en.wikipedia.org}
+     */
+    static void preloadNamespaces(Collection<String> projectHosts) {
+        NamespaceRegistry.getInstance().preload(projectHosts, Configuration.instance().getNamespacesPreloadThreads());
     }
 
     /**
@@ -67,52 +49,9 @@ final class MWNamespace {
      * @param text         to be processed with urls to WikiMedia projects
      * @param decodeTitles defines whenever namespace and page titles should be decoded or encoded
      * @return text with mutated namespaces in WikiMedia urls
+     * @see IRINamespaceTranslator
      */
     static String mutateNamespace(String text, boolean decodeTitles) {
-        StringBuffer buf = new StringBuffer();
-        Matcher m = NAMESPACE_URI_REGEX.matcher(text);
-        while (m.find()) {
-            String namespaceGroup = m.group( 2 );
-            String namespace = StringUtils.defaultIfBlank( namespaceGroup, "");
-            if (StringUtils.isNotBlank( namespace )) {
-                namespace = namespace.substring( 0, namespace.length() - 1 );
-            }
-            String pageTitle = m.group(3);
-            try {
-                String utfCharset = "UTF-8";
-                if (decodeTitles) {
-                    namespace = URLDecoder.decode(namespace, utfCharset );
-                    pageTitle = URLDecoder.decode(pageTitle, utfCharset )
-                            .replace("`", "%60")
-                            .replace("^", "%5E")
-                            .replace("\"", "%22");
-                }
-                String baseUrl = m.group( 1 );
-                if (getNamespaces( baseUrl ).containsKey(namespace)) {
-                    namespace = getNamespaces( baseUrl ).get(namespace);
-                }
-                if (!decodeTitles) {
-                    namespace = URLEncoder.encode(namespace, utfCharset );
-                    pageTitle = URLEncoder.encode(pageTitle, utfCharset )
-                            .replace("%21", "!")
-                            .replace("%28", "(")
-                            .replace("%29", ")")
-                            .replace("%2C", ",")
-                            .replace("%2F", "/")
-                            .replace("%3A", ":")
-                            .replace("%3B", ";");
-                }
-            } catch (UnsupportedEncodingException ex) {
-                //should not be thrown
-                throw new RuntimeException( ex );
-            }
-            if (!namespace.isEmpty()) {
-                pageTitle = namespace + ':' + pageTitle;
-            }
-            m.appendReplacement(buf, text.substring(m.start(), namespaceGroup != null ? m.start(2) : m.start(3)) +
-                    pageTitle + text.substring(m.end(3), m.end()));
-        }
-        m.appendTail(buf);
-        return buf.toString();
+        return IRINamespaceTranslator.translate(text, decodeTitles, NamespaceRegistry.getInstance()::getNamespaces);
     }
 }
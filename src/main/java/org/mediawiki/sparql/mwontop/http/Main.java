@@ -18,17 +18,20 @@
 package org.mediawiki.sparql.mwontop.http;
 
 import com.sun.net.httpserver.HttpServer;
-import org.glassfish.jersey.jdkhttp.JdkHttpServerFactory;
 import org.glassfish.jersey.message.DeflateEncoder;
 import org.glassfish.jersey.message.GZipEncoder;
 import org.glassfish.jersey.server.ResourceConfig;
 import org.glassfish.jersey.server.filter.EncodingFilter;
 import org.mediawiki.sparql.mwontop.Configuration;
+import org.mediawiki.sparql.mwontop.metrics.JmxMetrics;
+import org.mediawiki.sparql.mwontop.metrics.QueryMetrics;
 import org.mediawiki.sparql.mwontop.sql.RepositoryFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.URI;
+import java.util.Objects;
+import java.util.stream.Collectors;
 
 /**
  * @author Thomas Pellissier Tanon
@@ -40,8 +43,11 @@ public class Main extends ResourceConfig {
         packages("org.mediawiki.sparql.mwontop.http");
 
         register(CORSFilter.class);
+        register(ClientAdmissionFilter.class);
+        register(OverloadFilter.class);
         EncodingFilter.enableFor(this, GZipEncoder.class);
         EncodingFilter.enableFor(this, DeflateEncoder.class);
+        register(PreEncodedBody.Writer.class);
     }
 
     public static void main(String[] args) {
@@ -50,13 +56,32 @@ public class Main extends ResourceConfig {
         } catch (Exception e) {
             LOGGER.error(e.getMessage(), e);
         }
-        HttpServer server = startServer();
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(0)));
+        MWNamespace.preloadNamespaces(RepositoryFactory.getInstance().getSiteBaseURLs().stream()
+                .map(baseURL -> URI.create(baseURL).getAuthority())
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList()));
+        HttpExecutor executor = HttpExecutor.fromConfiguration();
+        JmxMetrics.register(executor, HttpExecutor.OBJECT_NAME);
+        JmxMetrics.register(ResultCache.getInstance(), ResultCache.OBJECT_NAME);
+        JmxMetrics.register(QueryExecutor.getInstance(), QueryExecutor.OBJECT_NAME);
+        JmxMetrics.register(ClientQuotas.getInstance(), ClientQuotas.OBJECT_NAME);
+        // serializes the ontology before the first request
+        SerializedOntology.getInstance();
+        QueryWarmup.runFromConfiguration(new Main());
+        HttpServer server = startServer(executor);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(0);
+            executor.shutdown();
+            QueryExecutor.getInstance().shutdown();
+            QueryMetrics.getInstance().close();
+        }));
     }
 
-    private static HttpServer startServer() {
+    private static HttpServer startServer(HttpExecutor executor) {
         URI baseURI = Configuration.instance().getBaseURI();
         LOGGER.info("Starting server at: " + baseURI.toString());
-        return JdkHttpServerFactory.createHttpServer(baseURI, new Main());
+        HttpServer server = AsyncHttpContainer.createHttpServer(baseURI, new Main(), executor);
+        server.start();
+        return server;
     }
 }
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.http;
+
+import org.mediawiki.sparql.mwontop.metrics.JmxMetrics;
+import org.mediawiki.sparql.mwontop.metrics.QueryMetrics;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Service metrics in the Prometheus text exposition format.
+ */
+@Path("/metrics")
+public class MetricsAction {
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    @GET
+    @Produces(CONTENT_TYPE)
+    public StreamingOutput get() {
+        return outputStream -> {
+            Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+            QueryMetrics.getInstance().writePrometheus(writer);
+            JmxMetrics.writePrometheus(writer);
+            ClientQuotas.getInstance().writePrometheus(writer);
+            writer.flush();
+        };
+    }
+}
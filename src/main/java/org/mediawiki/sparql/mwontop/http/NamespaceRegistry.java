@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.mediawiki.sparql.mwontop.http;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.mediawiki.sparql.mwontop.Configuration;
+import org.mediawiki.sparql.mwontop.api.SiteInfo;
+import org.mediawiki.sparql.mwontop.http.IRINamespaceTranslator.NamespaceTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * Namespace names of the wikis, by host like {@code en.wikipedia.org}.
+ * <p>
+ * Namespaces are read from a local snapshot file, preloaded in parallel for all the wikis at startup
+ * and otherwise loaded from the wiki API on first use. Concurrent requests for the same host share one API call.
+ * A failed load is not cached: the host is retried on a later request, after an exponential backoff.
+ * The snapshot file is rewritten by a background task after loads on first use, at most once per
+ * {@link #SNAPSHOT_WRITE_DELAY_SECONDS}, so request threads never wait for the disk.
+ * Namespaces older than {@link Configuration#getNamespacesRefreshHours()}, the ones read from the snapshot being as old as the file,
+ * are reloaded in the background by {@link #refreshOlderThan(long)}.
+ */
+final class NamespaceRegistry {
+    private static final Logger LOGGER = LoggerFactory.getLogger( NamespaceRegistry.class );
+    private static final NamespaceTable NO_NAMESPACES = new NamespaceTable( Collections.emptyMap() );
+    private static final long INITIAL_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis( 1 );
+    private static final long MAX_RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis( 10 );
+    private static final long SNAPSHOT_WRITE_DELAY_SECONDS = 10;
+    private static final long REFRESH_CHECK_MINUTES = 10;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final ScheduledExecutorService MAINTENANCE = Executors.newSingleThreadScheduledExecutor( runnable -> {
+        Thread thread = new Thread( runnable, "namespaces-maintenance" );
+        thread.setDaemon( true );
+        return thread;
+    } );
+    private static final NamespaceRegistry INSTANCE = createInstance();
+
+    private final ConcurrentMap<String, NamespaceTable> namespaces = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CompletableFuture<NamespaceTable>> loadsInProgress = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Failure> failures = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> loadTimes = new ConcurrentHashMap<>();
+    private final NamespaceLoader loader;
+    @Nullable
+    private final File snapshotFile;
+    private final LongSupplier clock;
+    private final Executor snapshotWriter;
+    private final AtomicBoolean snapshotWriteScheduled = new AtomicBoolean();
+
+    /**
+     * @param snapshotWriter runs the snapshot writes following loads on first use, usually after a delay
+     */
+    NamespaceRegistry( @NonNull NamespaceLoader loader, @Nullable File snapshotFile, @NonNull LongSupplier clock,
+                       @NonNull Executor snapshotWriter ) {
+        this.loader = loader;
+        this.snapshotFile = snapshotFile;
+        this.clock = clock;
+        this.snapshotWriter = snapshotWriter;
+        readSnapshot();
+    }
+
+    @NonNull
+    private static NamespaceRegistry createInstance() {
+        Configuration configuration = Configuration.instance();
+        NamespaceRegistry registry = new NamespaceRegistry(
+                NamespaceRegistry::loadFromApi,
+                configuration.getNamespacesSnapshotFile(),
+                System::currentTimeMillis,
+                command -> MAINTENANCE.schedule( command, SNAPSHOT_WRITE_DELAY_SECONDS, TimeUnit.SECONDS )
+        );
+        long refreshHours = configuration.getNamespacesRefreshHours();
+        if ( refreshHours > 0 ) {
+            long maxAgeMillis = TimeUnit.HOURS.toMillis( refreshHours );
+            MAINTENANCE.scheduleWithFixedDelay( () -> registry.refreshOlderThan( maxAgeMillis ),
+                    REFRESH_CHECK_MINUTES, REFRESH_CHECK_MINUTES, TimeUnit.MINUTES );
+        }
+        return registry;
+    }
+
+    @NonNull
+    static NamespaceRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the namespaces of the wiki, or no namespace if they could not be loaded.
+     */
+    @NonNull
+    NamespaceTable getNamespaces( @NonNull String projectHost ) {
+        return getNamespaces( projectHost, true );
+    }
+
+    /**
+     * @param persist schedule an update of the snapshot file if the namespaces are loaded from the API
+     */
+    @NonNull
+    private NamespaceTable getNamespaces( @NonNull String projectHost, boolean persist ) {
+        NamespaceTable table = namespaces.get( projectHost );
+        if ( table != null ) {
+            return table;
+        }
+        Failure failure = failures.get( projectHost );
+        if ( failure != null && clock.getAsLong() < failure.nextAttempt ) {
+            return NO_NAMESPACES;
+        }
+
+        CompletableFuture<NamespaceTable> load = new CompletableFuture<>();
+        CompletableFuture<NamespaceTable> loadInProgress = loadsInProgress.putIfAbsent( projectHost, load );
+        if ( loadInProgress != null ) {
+            try {
+                return loadInProgress.join();
+            } catch ( CompletionException e ) {
+                // the failure of the leading call, as it saw it
+                if ( e.getCause() instanceof RuntimeException ) {
+                    throw (RuntimeException) e.getCause();
+                } else if ( e.getCause() instanceof Error ) {
+                    throw (Error) e.getCause();
+                }
+                throw e;
+            }
+        }
+        try {
+            table = namespaces.get( projectHost );
+            if ( table == null ) {
+                table = load( projectHost );
+                if ( persist && table != NO_NAMESPACES ) {
+                    scheduleSnapshotWrite();
+                }
+            }
+            load.complete( table );
+            return table;
+        } catch ( RuntimeException | Error e ) {
+            load.completeExceptionally( e );
+            throw e;
+        } finally {
+            loadsInProgress.remove( projectHost, load );
+        }
+    }
+
+    /**
+     * Loads in parallel the namespaces of the hosts missing from the registry, then updates the snapshot file.
+     */
+    void preload( @NonNull Collection<String> projectHosts, int threads ) {
+        List<String> missingHosts = new ArrayList<>();
+        for ( String projectHost : projectHosts ) {
+            if ( !namespaces.containsKey( projectHost ) ) {
+                missingHosts.add( projectHost );
+            }
+        }
+        if ( missingHosts.isEmpty() ) {
+            return;
+        }
+
+        LOGGER.info( "Loading namespaces for " + missingHosts.size() + " sites" );
+        ExecutorService executor = Executors.newFixedThreadPool( Math.max( threads, 1 ) );
+        try {
+            List<Future<NamespaceTable>> loads = new ArrayList<>();
+            for ( String projectHost : missingHosts ) {
+                loads.add( executor.submit( () -> getNamespaces( projectHost, false ) ) );
+            }
+            for ( Future<NamespaceTable> load : loads ) {
+                load.get();
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        } catch ( ExecutionException e ) {
+            LOGGER.error( e.getMessage(), e );
+        } finally {
+            executor.shutdownNow();
+        }
+        writeSnapshot();
+    }
+
+    @NonNull
+    private NamespaceTable load( @NonNull String projectHost ) {
+        try {
+            LOGGER.info( "Loading namespaces for " + projectHost );
+            NamespaceTable table = new NamespaceTable( loader.load( projectHost ) );
+            namespaces.put( projectHost, table );
+            loadTimes.put( projectHost, clock.getAsLong() );
+            failures.remove( projectHost );
+            return table;
+        } catch ( IOException e ) {
+            Failure failure = failures.compute( projectHost, ( host, previous ) -> new Failure( previous, clock.getAsLong() ) );
+            LOGGER.error( "Unable to load namespaces for " + projectHost + ", next attempt in " + failure.delay + "ms: " + e.getMessage(), e );
+            return NO_NAMESPACES;
+        }
+    }
+
+    /**
+     * Reloads the namespaces loaded at least {@code maxAgeMillis} ago, then rewrites the snapshot file.
+     * The previous namespaces of a wiki are kept if its reload fails, it is retried on the next call.
+     */
+    void refreshOlderThan( long maxAgeMillis ) {
+        long now = clock.getAsLong();
+        List<String> staleHosts = new ArrayList<>();
+        loadTimes.forEach( ( projectHost, loadTime ) -> {
+            if ( now - loadTime >= maxAgeMillis ) {
+                staleHosts.add( projectHost );
+            }
+        } );
+        if ( staleHosts.isEmpty() ) {
+            return;
+        }
+
+        LOGGER.info( "Reloading namespaces for " + staleHosts.size() + " sites" );
+        int reloaded = 0;
+        for ( String projectHost : staleHosts ) {
+            try {
+                namespaces.put( projectHost, new NamespaceTable( loader.load( projectHost ) ) );
+                loadTimes.put( projectHost, clock.getAsLong() );
+                reloaded++;
+            } catch ( IOException | RuntimeException e ) {
+                LOGGER.warn( "Unable to reload namespaces for " + projectHost + ", keeping the previous ones: " + e.getMessage(), e );
+            }
+        }
+        if ( reloaded > 0 ) {
+            writeSnapshot();
+        }
+    }
+
+    private void readSnapshot() {
+        if ( snapshotFile == null || !snapshotFile.isFile() ) {
+            return;
+        }
+        try {
+            Map<String, Map<String, String>> snapshot = OBJECT_MAPPER.readValue( snapshotFile, new TypeReference<Map<String, Map<String, String>>>() {
+            } );
+            long snapshotTime = snapshotFile.lastModified();
+            snapshot.forEach( ( projectHost, hostNamespaces ) -> {
+                namespaces.put( projectHost, new NamespaceTable( hostNamespaces ) );
+                loadTimes.put( projectHost, snapshotTime );
+            } );
+            LOGGER.info( "Namespaces of " + snapshot.size() + " sites read from " + snapshotFile );
+        } catch ( IOException e ) {
+            LOGGER.error( "Unable to read namespaces snapshot " + snapshotFile + ": " + e.getMessage(), e );
+        }
+    }
+
+    /**
+     * Schedules a write of the snapshot file, unless one is already pending: it will include the latest namespaces.
+     */
+    private void scheduleSnapshotWrite() {
+        if ( snapshotFile == null || !snapshotWriteScheduled.compareAndSet( false, true ) ) {
+            return;
+        }
+        try {
+            snapshotWriter.execute( () -> {
+                snapshotWriteScheduled.set( false );
+                writeSnapshot();
+            } );
+        } catch ( RejectedExecutionException e ) {
+            snapshotWriteScheduled.set( false );
+            LOGGER.warn( "Unable to schedule the namespaces snapshot write: " + e.getMessage() );
+        }
+    }
+
+    synchronized void writeSnapshot() {
+        if ( snapshotFile == null ) {
+            return;
+        }
+        Map<String, Map<String, String>> snapshot = new TreeMap<>();
+        namespaces.forEach( ( projectHost, table ) -> snapshot.put( projectHost, new TreeMap<>( table.toMap() ) ) );
+        try {
+            File tempFile = new File( snapshotFile.getPath() + ".tmp" );
+            OBJECT_MAPPER.writeValue( tempFile, snapshot );
+            Files.move( tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        } catch ( IOException e ) {
+            LOGGER.error( "Unable to write namespaces snapshot " + snapshotFile + ": " + e.getMessage(), e );
+        }
+    }
+
+    @NonNull
+    private static Map<String, String> loadFromApi( @NonNull String projectHost ) throws IOException {
+        Map<String, String> ns = new HashMap<>();
+        SiteInfo siteInfo = SiteInfo.loadSiteInfo( projectHost );
+        siteInfo.getNamespaceNames().forEach( ( nsId, nsName ) -> ns.put( "mw" + nsId + "ns", nsName ) );
+        siteInfo.getAllNamespaceNames().forEach( ( nsName, nsId ) -> ns.put( nsName, "mw" + nsId + "ns" ) );
+        return ns;
+    }
+
+    @FunctionalInterface
+    interface NamespaceLoader {
+        @NonNull
+        Map<String, String> load( @NonNull String projectHost ) throws IOException;
+    }
+
+    private static class Failure {
+        private final long delay;
+        private final long nextAttempt;
+
+        Failure( @Nullable Failure previous, long now ) {
+            delay = previous == null ? INITIAL_RETRY_DELAY_MILLIS : Math.min( previous.delay * 2, MAX_RETRY_DELAY_MILLIS );
+            nextAttempt = now + delay;
+        }
+    }
+}
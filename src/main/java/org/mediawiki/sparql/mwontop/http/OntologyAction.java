@@ -18,41 +18,109 @@
 package org.mediawiki.sparql.mwontop.http;
 
 
-import org.eclipse.rdf4j.rio.*;
-import org.mediawiki.sparql.mwontop.utils.InternalFilesManager;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFWriterFactory;
+import org.eclipse.rdf4j.rio.RDFWriterRegistry;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.InternalServerErrorException;
 import javax.ws.rs.Path;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
-import javax.ws.rs.core.StreamingOutput;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
 
 /**
+ * Serves the ontology from its {@link SerializedOntology pre-serialized} forms, gzipped or deflated if the client accepts it.
+ * Every coding of the {@code EncodingFilter} is handled here, so the filter never picks another coding than the one of the entity tag,
+ * and the bytes are written as they are by {@link PreEncodedBody.Writer}.
+ *
  * @author Thomas Pellissier Tanon
  */
 @Path("/ontology")
 public class OntologyAction {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(SPARQLActions.class);
+    private static final String GZIP = "gzip";
+    private static final String DEFLATE = "deflate";
 
     @GET
-    public Response get(@Context Request request) {
+    public Response get(@Context Request request, @Context HttpHeaders headers) {
         RDFContentNegotiation.FormatService<RDFWriterFactory> format =
                 RDFContentNegotiation.getServiceForFormat(RDFWriterRegistry.getInstance(), request);
-        return Response.ok(
-                (StreamingOutput) outputStream -> {
-                    try {
-                        Rio.write(InternalFilesManager.parseTurtleFile("/ontology.ttl"), format.getService().getWriter(outputStream));
-                    } catch (RDFParseException | RDFHandlerException e) {
-                        LOGGER.warn(e.getMessage(), e);
-                        throw new InternalServerErrorException(e);
-                    }
-                },
-                RDFContentNegotiation.variantForFormat(format.getFormat())
-        ).build();
+        SerializedOntology.Serialization serialization = SerializedOntology.getInstance().get((RDFFormat) format.getFormat());
+        if (serialization == null) {
+            throw new InternalServerErrorException("Unable to write " + format.getFormat());
+        }
+        SerializedOntology.Coding coding = contentCoding(headers.getRequestHeader(HttpHeaders.ACCEPT_ENCODING));
+        EntityTag tag = serialization.getTag(coding);
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+        if (notModified != null) {
+            return notModified.tag(tag).header(HttpHeaders.VARY, HttpHeaders.ACCEPT).header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING).build();
+        }
+        Response.ResponseBuilder response = RDFContentNegotiation.negotiatedResponse(new PreEncodedBody(serialization.getBody(coding)), format.getFormat())
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                .tag(tag);
+        if (coding != SerializedOntology.Coding.IDENTITY) {
+            response.header(HttpHeaders.CONTENT_ENCODING, coding.getName());
+        }
+        return response.build();
+    }
+
+    /**
+     * @return gzip if accepted, else deflate if accepted, else identity.
+     */
+    static SerializedOntology.Coding contentCoding(List<String> acceptEncoding) {
+        if (acceptsGzip(acceptEncoding)) {
+            return SerializedOntology.Coding.GZIP;
+        } else if (accepts(acceptEncoding, DEFLATE)) {
+            return SerializedOntology.Coding.DEFLATE;
+        }
+        return SerializedOntology.Coding.IDENTITY;
+    }
+
+    /**
+     * @param acceptEncoding values of the {@code Accept-Encoding} header, if any
+     * @return if gzip is explicitly or through {@code *} accepted with a non zero quality.
+     */
+    static boolean acceptsGzip(List<String> acceptEncoding) {
+        return accepts(acceptEncoding, GZIP, "x-gzip");
+    }
+
+    private static boolean accepts(List<String> acceptEncoding, String... codings) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Boolean wildcard = null;
+        for (String value : acceptEncoding) {
+            for (String coding : value.split(",")) {
+                String[] parameters = coding.split(";");
+                String name = parameters[0].trim().toLowerCase(Locale.ROOT);
+                boolean accepted = quality(parameters) > 0;
+                if (Arrays.asList(codings).contains(name)) {
+                    return accepted;
+                } else if (name.equals("*")) {
+                    wildcard = accepted;
+                }
+            }
+        }
+        return wildcard != null && wildcard;
+    }
+
+    private static double quality(String[] parameters) {
+        for (int i = 1; i < parameters.length; i++) {
+            String parameter = parameters[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
     }
 }
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.mediawiki.sparql.mwontop.http;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.IOException;
+
+/**
+ * Response body already in its final {@code Content-Encoding}, like the gzipped {@link SerializedOntology}.
+ * <p>
+ * The content encoders enabled by {@code EncodingFilter} compress every body whose {@code Content-Encoding} they support,
+ * so {@link Writer} writes these bodies as they are, before the encoders run.
+ */
+final class PreEncodedBody {
+    private final byte[] bytes;
+
+    PreEncodedBody(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    @Priority(Priorities.ENTITY_CODER - 1)
+    static final class Writer implements WriterInterceptor {
+        @Override
+        public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+            if (context.getEntity() instanceof PreEncodedBody) {
+                context.getOutputStream().write(((PreEncodedBody) context.getEntity()).bytes);
+            } else {
+                context.proceed();
+            }
+        }
+    }
+}
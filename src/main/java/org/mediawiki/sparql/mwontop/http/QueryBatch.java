@@ -0,0 +1,415 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.http;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.rdf4j.model.BNode;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
+import org.eclipse.rdf4j.query.*;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.RepositoryException;
+import org.mediawiki.sparql.mwontop.Configuration;
+import org.mediawiki.sparql.mwontop.metrics.QueryMetrics;
+import org.mediawiki.sparql.mwontop.sql.BoundedQueryCache;
+import org.mediawiki.sparql.mwontop.sql.RepositoryFactory;
+import org.mediawiki.sparql.mwontop.sql.RunningStatements;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.mediawiki.sparql.mwontop.http.MWNamespace.mutateNamespace;
+
+/**
+ * Evaluation of a batch of ASK and SELECT queries sent in a single request.
+ * <p>
+ * The queries are evaluated by a bounded number of lanes running on a shared executor. Each lane takes the next query
+ * of the batch and keeps one connection per repository for all the queries it evaluates.
+ * The response is a JSON array streamed as the queries complete, whatever their order, with one object per query:
+ * its {@code index} in the batch and either its {@code result} in the SPARQL 1.1 JSON results format or its HTTP
+ * {@code status} and {@code error} message. The failure of a query does not fail the batch.
+ * <p>
+ * The result of a query is serialized in memory before being written, so it is bounded by {@code maxResultBytes}:
+ * a query with a larger result fails with the {@link Response.Status#REQUEST_ENTITY_TOO_LARGE} status.
+ */
+final class QueryBatch {
+    static final String RESULTS_MIME_TYPE = "application/sparql-results+json";
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryBatch.class);
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final JsonFactory JSON_FACTORY = OBJECT_MAPPER.getFactory();
+
+    private final Executor executor;
+    private final Function<String, Repository> repositoryForQuery;
+    private final int parallelism;
+    private final int maxResultBytes;
+
+    QueryBatch(Executor executor, Function<String, Repository> repositoryForQuery, int parallelism, int maxResultBytes) {
+        this.executor = executor;
+        this.repositoryForQuery = repositoryForQuery;
+        this.parallelism = Math.max(parallelism, 1);
+        this.maxResultBytes = maxResultBytes;
+    }
+
+    static QueryBatch fromConfiguration() {
+        return new QueryBatch(Workers.INSTANCE, RepositoryFactory.getInstance()::getRepository, Configuration.instance().getBatchParallelism(),
+                Configuration.instance().getBatchMaxResultBytes());
+    }
+
+    static boolean isEnabled() {
+        return Configuration.instance().getBatchThreads() > 0;
+    }
+
+    /**
+     * @param body a JSON array of SPARQL queries.
+     * @throws BadRequestException if the body is not such an array or has more than {@code maxQueries} queries.
+     */
+    static List<String> parseQueries(String body, int maxQueries) {
+        JsonNode array;
+        try {
+            array = OBJECT_MAPPER.readTree(body == null ? "" : body);
+        } catch (IOException e) {
+            throw new BadRequestException("The batch should be a JSON array of SPARQL queries: " + e.getMessage(), e);
+        }
+        if (array == null || !array.isArray()) {
+            throw new BadRequestException("The batch should be a JSON array of SPARQL queries");
+        }
+        if (array.size() > maxQueries) {
+            throw new BadRequestException("A batch may contain at most " + maxQueries + " queries, not " + array.size());
+        }
+        List<String> queries = new ArrayList<>(array.size());
+        for (JsonNode query : array) {
+            if (!query.isTextual()) {
+                throw new BadRequestException("The batch should be a JSON array of SPARQL queries, not contain " + query);
+            }
+            queries.add(query.asText());
+        }
+        return queries;
+    }
+
+    /**
+     * Evaluates the queries and writes their results, returning once all of them are written.
+     */
+    void evaluate(List<String> queries, QueryDeadline deadline, OutputStream outputStream) throws IOException {
+        Evaluation evaluation = new Evaluation(queries, deadline);
+        try {
+            int lanes = Math.min(parallelism, queries.size());
+            for (int i = 0; i < lanes; i++) {
+                try {
+                    executor.execute(evaluation::runLane);
+                } catch (RejectedExecutionException e) {
+                    evaluation.runLane();
+                }
+            }
+            try (JsonGenerator generator = JSON_FACTORY.createGenerator(outputStream)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generator.writeStartArray();
+                for (int i = 0; i < queries.size(); i++) {
+                    evaluation.take().write(generator);
+                    generator.flush();
+                }
+                generator.writeEndArray();
+            }
+        } finally {
+            evaluation.cancelled = true;
+        }
+    }
+
+    private static final class Result {
+        private final int index;
+        private final String json;
+        private final int status;
+        private final String error;
+
+        private Result(int index, String json, int status, String error) {
+            this.index = index;
+            this.json = json;
+            this.status = status;
+            this.error = error;
+        }
+
+        private static Result success(int index, String json) {
+            return new Result(index, json, Response.Status.OK.getStatusCode(), null);
+        }
+
+        private static Result failure(int index, Response.Status status, String error) {
+            return new Result(index, null, status.getStatusCode(), error);
+        }
+
+        private void write(JsonGenerator generator) throws IOException {
+            generator.writeStartObject();
+            generator.writeNumberField("index", index);
+            if (json != null) {
+                generator.writeFieldName("result");
+                generator.writeRawValue(json);
+            } else {
+                generator.writeNumberField("status", status);
+                generator.writeStringField("error", error);
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * State shared by the lanes of a batch and the thread writing the results.
+     */
+    private final class Evaluation {
+        private final List<String> queries;
+        private final QueryDeadline deadline;
+        private final AtomicInteger nextIndex = new AtomicInteger();
+        private final BlockingQueue<Result> results = new LinkedBlockingQueue<>();
+        private volatile boolean cancelled;
+
+        private Evaluation(List<String> queries, QueryDeadline deadline) {
+            this.queries = queries;
+            this.deadline = deadline;
+        }
+
+        private void runLane() {
+            Map<Repository, RepositoryConnection> connections = new HashMap<>();
+            RunningStatements.Scope scope = deadline.cancelStatementsOfCurrentThread();
+            try {
+                int index;
+                while (!cancelled && (index = nextIndex.getAndIncrement()) < queries.size()) {
+                    try {
+                        results.add(evaluate(index, connections));
+                    } catch (Error e) {
+                        // the writer waits for a result per query
+                        results.add(Result.failure(index, Response.Status.INTERNAL_SERVER_ERROR, String.valueOf(e.getMessage())));
+                        throw e;
+                    }
+                }
+            } finally {
+                scope.close();
+                for (RepositoryConnection connection : connections.values()) {
+                    try {
+                        connection.close();
+                    } catch (RepositoryException e) {
+                        LOGGER.debug("Error while closing a batch connection: " + e.getMessage(), e);
+                    }
+                }
+            }
+        }
+
+        private Result evaluate(int index, Map<Repository, RepositoryConnection> connections) {
+            String queryString = queries.get(index);
+            try (QueryMetrics.QueryTimer timer = QueryMetrics.getInstance().startQuery()) {
+                timer.setFormat(RESULTS_MIME_TYPE);
+                try {
+                    if (deadline.isExpired()) {
+                        timer.failed(QueryDeadline.TIMEOUT_STATUS.getStatusCode());
+                        return Result.failure(index, QueryDeadline.TIMEOUT_STATUS, deadline.timeoutFailure().getMessage());
+                    }
+                    long startNanos = timer.nanoTime();
+                    String mutatedQuery = mutateNamespace(queryString, true);
+                    timer.record(QueryMetrics.Phase.NAMESPACE_MUTATION, startNanos);
+                    timer.setQuery(queryString, () -> BoundedQueryCache.getSQL(mutatedQuery));
+                    RepositoryConnection connection = getConnection(repositoryForQuery.apply(mutatedQuery), connections);
+                    startNanos = timer.nanoTime();
+                    Query query = connection.prepareQuery(QueryLanguage.SPARQL, mutatedQuery);
+                    timer.record(QueryMetrics.Phase.PARSING, startNanos);
+                    if (!(query instanceof BooleanQuery) && !(query instanceof TupleQuery)) {
+                        timer.failed(Response.Status.BAD_REQUEST.getStatusCode());
+                        return Result.failure(index, Response.Status.BAD_REQUEST, "Only ASK and SELECT queries may be batched");
+                    }
+                    deadline.limit(query);
+                    return Result.success(index, query instanceof BooleanQuery
+                            ? evaluateBooleanQuery((BooleanQuery) query, timer)
+                            : evaluateTupleQuery((TupleQuery) query, timer));
+                } catch (MalformedQueryException e) {
+                    timer.failed(Response.Status.BAD_REQUEST.getStatusCode());
+                    return Result.failure(index, Response.Status.BAD_REQUEST, e.getMessage());
+                } catch (ResultTooLargeException e) {
+                    timer.failed(Response.Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode());
+                    return Result.failure(index, Response.Status.REQUEST_ENTITY_TOO_LARGE, e.getMessage());
+                } catch (RuntimeException | IOException e) {
+                    if (deadline.isExpired()) {
+                        timer.failed(QueryDeadline.TIMEOUT_STATUS.getStatusCode());
+                        return Result.failure(index, QueryDeadline.TIMEOUT_STATUS, deadline.timeoutFailure().getMessage());
+                    }
+                    LOGGER.warn(e.getMessage(), e);
+                    LOGGER.info("Original query: " + queryString);
+                    timer.failed(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode());
+                    return Result.failure(index, Response.Status.INTERNAL_SERVER_ERROR, String.valueOf(e.getMessage()));
+                }
+            }
+        }
+
+        /**
+         * @return the connection of the lane to the repository, replaced if a cancellation closed it.
+         */
+        private RepositoryConnection getConnection(Repository repository, Map<Repository, RepositoryConnection> connections) {
+            RepositoryConnection connection = connections.get(repository);
+            if (connection == null || !connection.isOpen()) {
+                connection = repository.getConnection();
+                connections.put(repository, connection);
+                deadline.closeOnCancel(connection);
+            }
+            return connection;
+        }
+
+        private Result take() {
+            try {
+                return results.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new QueryEvaluationException("Interrupted while waiting for the batch results", e);
+            }
+        }
+    }
+
+    private String evaluateBooleanQuery(BooleanQuery query, QueryMetrics.QueryTimer timer) throws IOException {
+        long startNanos = timer.nanoTime();
+        boolean result = query.evaluate();
+        startNanos = timer.record(QueryMetrics.Phase.EXECUTION, startNanos);
+        timer.addRows(1);
+        BoundedBuffer buffer = new BoundedBuffer(maxResultBytes);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(timer.countBytes(buffer))) {
+            generator.writeStartObject();
+            generator.writeObjectFieldStart("head");
+            generator.writeEndObject();
+            generator.writeBooleanField("boolean", result);
+            generator.writeEndObject();
+        }
+        timer.record(QueryMetrics.Phase.SERIALIZATION, startNanos);
+        return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private String evaluateTupleQuery(TupleQuery query, QueryMetrics.QueryTimer timer) throws IOException {
+        long startNanos = timer.nanoTime();
+        BoundedBuffer buffer = new BoundedBuffer(maxResultBytes);
+        try (TupleQueryResult result = query.evaluate();
+             JsonGenerator generator = JSON_FACTORY.createGenerator(timer.countBytes(buffer))) {
+            startNanos = timer.record(QueryMetrics.Phase.EXECUTION, startNanos);
+            generator.writeStartObject();
+            generator.writeObjectFieldStart("head");
+            generator.writeArrayFieldStart("vars");
+            for (String bindingName : result.getBindingNames()) {
+                generator.writeString(bindingName);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.writeObjectFieldStart("results");
+            generator.writeArrayFieldStart("bindings");
+            while (result.hasNext()) {
+                generator.writeStartObject();
+                for (Binding binding : SPARQLActions.decodeNamespaces(result.next())) {
+                    generator.writeFieldName(binding.getName());
+                    writeValue(binding.getValue(), generator);
+                }
+                generator.writeEndObject();
+                timer.addRows(1);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+        timer.record(QueryMetrics.Phase.SERIALIZATION, startNanos);
+        return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void writeValue(Value value, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        if (value instanceof IRI) {
+            generator.writeStringField("type", "uri");
+        } else if (value instanceof BNode) {
+            generator.writeStringField("type", "bnode");
+        } else {
+            generator.writeStringField("type", "literal");
+        }
+        generator.writeStringField("value", value.stringValue());
+        if (value instanceof Literal) {
+            Literal literal = (Literal) value;
+            if (literal.getLanguage().isPresent()) {
+                generator.writeStringField("xml:lang", literal.getLanguage().get());
+            } else if (!XMLSchema.STRING.equals(literal.getDatatype()) && !RDF.LANGSTRING.equals(literal.getDatatype())) {
+                generator.writeStringField("datatype", literal.getDatatype().stringValue());
+            }
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Buffer of the serialization of a result, failing once it exceeds its capacity.
+     */
+    private static final class BoundedBuffer extends ByteArrayOutputStream {
+        private final int capacity;
+
+        private BoundedBuffer(int capacity) {
+            this.capacity = capacity;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            ensureCapacity(1);
+            super.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            ensureCapacity(len);
+            super.write(b, off, len);
+        }
+
+        private void ensureCapacity(int length) {
+            if (count + (long) length > capacity) {
+                throw new ResultTooLargeException(capacity);
+            }
+        }
+    }
+
+    private static final class ResultTooLargeException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private ResultTooLargeException(int capacity) {
+            super("The result is larger than the " + capacity + " bytes allowed in a batch, send the query alone");
+        }
+    }
+
+    /**
+     * Threads shared by all the batches, created on the first one.
+     */
+    private static final class Workers {
+        private static final ExecutorService INSTANCE = newExecutor(Configuration.instance().getBatchThreads());
+
+        private static ExecutorService newExecutor(int threads) {
+            AtomicInteger counter = new AtomicInteger();
+            return Executors.newFixedThreadPool(Math.max(threads, 1), runnable -> {
+                Thread thread = new Thread(runnable, "batch-worker-" + counter.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
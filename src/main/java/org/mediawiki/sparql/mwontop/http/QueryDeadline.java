@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.http;
+
+import org.eclipse.rdf4j.query.Query;
+import org.mediawiki.sparql.mwontop.Configuration;
+import org.mediawiki.sparql.mwontop.sql.RunningStatements;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Time limit of the evaluation of a query, from the request arrival to the end of the response.
+ * <p>
+ * The remaining time is given to Ontop, which sets it as the JDBC statement timeout. In addition, a watchdog cancels
+ * the query when the deadline is reached while results are still streamed, or as soon as writing to the client fails:
+ * the SQL statements created within {@link #cancelStatementsOfCurrentThread()} are cancelled, which kills them on the
+ * database from another connection, then the resources registered with {@link #closeOnCancel(AutoCloseable)},
+ * like the repository connection, are closed. Closing a connection waits for its running statement,
+ * so cancellations from the shared watchdog and timeout threads are run by {@link #cancelInBackground(String)}.
+ */
+final class QueryDeadline implements Closeable {
+    /**
+     * Status of the responses to queries reaching their deadline.
+     */
+    static final Response.Status TIMEOUT_STATUS = Response.Status.GATEWAY_TIMEOUT;
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryDeadline.class);
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "query-deadline-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final AtomicInteger CANCELLER_COUNTER = new AtomicInteger();
+    private static final ExecutorService CANCELLERS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "query-canceller-" + CANCELLER_COUNTER.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long timeoutMillis;
+    private final long expirationNanos;
+    private final LongSupplier nanoClock;
+    private final Deque<AutoCloseable> resources = new ArrayDeque<>();
+    private ScheduledFuture<?> watchdog;
+    private boolean cancelled;
+
+    QueryDeadline(long timeoutMillis, LongSupplier nanoClock) {
+        this.timeoutMillis = timeoutMillis;
+        this.nanoClock = nanoClock;
+        this.expirationNanos = nanoClock.getAsLong() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * @param requestedTimeout the client {@code timeout} parameter in seconds, if any.
+     *                         It is capped by {@link Configuration#getQueryTimeoutMaxSeconds()}.
+     * @throws BadRequestException if the requested timeout is not a positive number.
+     */
+    static QueryDeadline forRequest(String requestedTimeout) {
+        Configuration configuration = Configuration.instance();
+        long timeoutSeconds = configuration.getQueryTimeoutSeconds();
+        if (requestedTimeout != null && !requestedTimeout.trim().isEmpty()) {
+            try {
+                timeoutSeconds = Long.parseLong(requestedTimeout.trim());
+            } catch (NumberFormatException e) {
+                throw new BadRequestException("The timeout parameter should be a number of seconds, not '" + requestedTimeout + "'");
+            }
+            if (timeoutSeconds <= 0) {
+                throw new BadRequestException("The timeout parameter should be a positive number of seconds");
+            }
+        }
+        timeoutSeconds = Math.min(timeoutSeconds, configuration.getQueryTimeoutMaxSeconds());
+        return new QueryDeadline(TimeUnit.SECONDS.toMillis(timeoutSeconds), System::nanoTime);
+    }
+
+    long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    boolean isExpired() {
+        return nanoClock.getAsLong() - expirationNanos >= 0;
+    }
+
+    /**
+     * @return the remaining time rounded up to the second, at least one second as 0 means no limit for JDBC.
+     */
+    int getRemainingSeconds() {
+        long remainingNanos = expirationNanos - nanoClock.getAsLong();
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, (remainingNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    /**
+     * Sets the remaining time as the JDBC statement timeout of the query.
+     */
+    void limit(Query query) {
+        setTimeout(query, getRemainingSeconds());
+    }
+
+    /**
+     * Sets the timeout of the query in seconds. Ontop throws an {@link UnsupportedOperationException} from
+     * {@link Query#setMaxExecutionTime(int)} and only reads the deprecated {@link Query#setMaxQueryTime(int)},
+     * which the RDF4J queries forward to the former.
+     */
+    @SuppressWarnings("deprecation")
+    static void setTimeout(Query query, int seconds) {
+        query.setMaxQueryTime(seconds);
+    }
+
+    /**
+     * Registers a resource to close if the query is cancelled. The watchdog is started on the first registration.
+     * Resources are closed in the reverse order of their registration.
+     */
+    synchronized void closeOnCancel(AutoCloseable resource) {
+        if (cancelled) {
+            closeQuietly(resource);
+            return;
+        }
+        resources.push(resource);
+        if (watchdog == null) {
+            long delayNanos = Math.max(0, expirationNanos - nanoClock.getAsLong());
+            watchdog = WATCHDOG.schedule(() -> cancelInBackground("deadline of " + timeoutMillis + "ms reached"), delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Cancels the SQL statements created on the current thread until the returned scope is closed, when the query is cancelled.
+     */
+    RunningStatements.Scope cancelStatementsOfCurrentThread() {
+        return RunningStatements.track(statement -> closeOnCancel(statement::cancel));
+    }
+
+    /**
+     * Cancels the query on another thread, so the caller is not blocked until the database stops working on the query.
+     */
+    void cancelInBackground(String reason) {
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+        }
+        CANCELLERS.execute(() -> cancel(reason));
+    }
+
+    /**
+     * Cancels the registered statements and closes the registered resources so the database stops working on the query.
+     */
+    void cancel(String reason) {
+        Deque<AutoCloseable> toClose;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            toClose = new ArrayDeque<>(resources);
+            resources.clear();
+        }
+        if (!toClose.isEmpty()) {
+            LOGGER.info("Cancelling query: " + reason);
+        }
+        toClose.forEach(QueryDeadline::closeQuietly);
+    }
+
+    /**
+     * @return a stream cancelling the query when a write fails, e.g. because the client went away.
+     */
+    OutputStream guard(OutputStream outputStream) {
+        return new FilterOutputStream(outputStream) {
+            @Override
+            public void write(int b) throws IOException {
+                try {
+                    out.write(b);
+                } catch (IOException e) {
+                    cancel("client connection lost");
+                    throw e;
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                try {
+                    out.write(b, off, len);
+                } catch (IOException e) {
+                    cancel("client connection lost");
+                    throw e;
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    cancel("client connection lost");
+                    throw e;
+                }
+            }
+        };
+    }
+
+    WebApplicationException timeoutFailure() {
+        return new WebApplicationException(
+                "Query timeout of " + TimeUnit.MILLISECONDS.toSeconds(timeoutMillis) + " seconds exceeded",
+                Response.status(TIMEOUT_STATUS).type(MediaType.TEXT_PLAIN_TYPE).build()
+        );
+    }
+
+    /**
+     * Stops the watchdog once the response is written. Registered resources are left to their owner.
+     */
+    @Override
+    public synchronized void close() {
+        if (watchdog != null) {
+            watchdog.cancel(false);
+        }
+        resources.clear();
+    }
+
+    private static void closeQuietly(AutoCloseable resource) {
+        try {
+            resource.close();
+        } catch (Exception e) {
+            LOGGER.debug("Error while cancelling query: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.http;
+
+import org.mediawiki.sparql.mwontop.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Executor of the SPARQL queries: a fixed number of workers with a bounded queue of waiting queries.
+ * <p>
+ * The SPARQL resources suspend their request and hand its evaluation to this executor, which also writes the results,
+ * so HTTP workers are not blocked by the database. Queries whose response has been sent while they were waiting,
+ * because of their timeout, are dropped without being evaluated. When the queue is full, the response is a 503 error.
+ */
+final class QueryExecutor implements QueryExecutorMXBean {
+    static final String OBJECT_NAME = "org.mediawiki.sparql.mwontop:type=QueryExecutor";
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryExecutor.class);
+    private static final QueryExecutor INSTANCE = new QueryExecutor(
+            Configuration.instance().getQueryThreads(),
+            Configuration.instance().getQueryQueueSize()
+    );
+
+    private final ThreadPoolExecutor workers;
+    private final int queueCapacity;
+    private final AtomicLong rejectedQueries = new AtomicLong();
+    private final AtomicLong abandonedQueries = new AtomicLong();
+
+    QueryExecutor(int threads, int queueCapacity) {
+        this.queueCapacity = Math.max(queueCapacity, 0);
+        BlockingQueue<Runnable> queue = this.queueCapacity > 0 ? new ArrayBlockingQueue<>(this.queueCapacity) : new SynchronousQueue<>();
+        int workerCount = Math.max(threads, 1);
+        AtomicInteger counter = new AtomicInteger();
+        workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS, queue, runnable -> {
+            Thread thread = new Thread(runnable, "query-worker-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    static QueryExecutor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Resumes the suspended response with the response built by {@code evaluation} on a worker,
+     * or with the exception it throws.
+     */
+    void resume(AsyncResponse asyncResponse, Supplier<Response> evaluation) {
+        try {
+            workers.execute(() -> {
+                if (asyncResponse.isDone()) {
+                    abandonedQueries.incrementAndGet();
+                    return;
+                }
+                try {
+                    asyncResponse.resume(evaluation.get());
+                } catch (Throwable e) {
+                    asyncResponse.resume(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedQueries.incrementAndGet();
+            LOGGER.info("Query rejected: " + getQueueDepth() + " queries are waiting");
+            asyncResponse.resume(OverloadFilter.overloadedResponse());
+        }
+    }
+
+    void shutdown() {
+        workers.shutdown();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return workers.getQueue().size();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    @Override
+    public int getActiveWorkers() {
+        return workers.getActiveCount();
+    }
+
+    @Override
+    public int getMaximumWorkers() {
+        return workers.getMaximumPoolSize();
+    }
+
+    @Override
+    public long getRejectedQueries() {
+        return rejectedQueries.get();
+    }
+
+    @Override
+    public long getAbandonedQueries() {
+        return abandonedQueries.get();
+    }
+
+    @Override
+    public long getCompletedQueries() {
+        return workers.getCompletedTaskCount();
+    }
+}
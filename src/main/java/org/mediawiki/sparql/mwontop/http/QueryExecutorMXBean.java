@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.http;
+
+import org.mediawiki.sparql.mwontop.metrics.Counter;
+
+/**
+ * Metrics of the SPARQL query worker pool, exposed over JMX as {@value QueryExecutor#OBJECT_NAME}.
+ */
+public interface QueryExecutorMXBean {
+    /**
+     * @return number of queries waiting for a worker.
+     */
+    int getQueueDepth();
+
+    int getQueueCapacity();
+
+    /**
+     * @return number of workers evaluating a query.
+     */
+    int getActiveWorkers();
+
+    int getMaximumWorkers();
+
+    /**
+     * @return number of queries answered with 503 because the queue was full.
+     */
+    @Counter
+    long getRejectedQueries();
+
+    /**
+     * @return number of queries dropped from the queue because their response was already sent, e.g. on timeout.
+     */
+    @Counter
+    long getAbandonedQueries();
+
+    @Counter
+    long getCompletedQueries();
+}
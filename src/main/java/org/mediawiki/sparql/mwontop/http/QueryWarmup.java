@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.http;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.mediawiki.sparql.mwontop.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.Application;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.UriBuilder;
+import java.io.*;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
+
+/**
+ * Replays representative queries through {@link SPARQLActions} before the server starts, so the first real queries
+ * do not pay for the cold JIT, the empty {@link MWNamespace} maps and the Ontop structures built on first use.
+ * <p>
+ * The queries are read from {@link Configuration#getWarmupQueriesFile()}: one query per line, either as SPARQL or as a
+ * JSON object with a {@code sparql} field, like the entries of the slow query log. Blank lines and lines starting with
+ * {@code #} are skipped. They are replayed one after the other in memory, without going through the network,
+ * until all of them are answered or the time budget is spent. They are POSTed, so the {@link ResultCache} is left empty.
+ */
+final class QueryWarmup {
+    /**
+     * Request property flagging the warm-up queries, which are not subject to the {@link ClientQuotas}.
+     */
+    static final String REQUEST_PROPERTY = "org.mediawiki.sparql.mwontop.http.warmup";
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryWarmup.class);
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final URI BASE_URI = URI.create("http://localhost/");
+    private static final int LOGGED_QUERY_LENGTH = 200;
+
+    private final ApplicationHandler handler;
+    private final long budgetNanos;
+    private final LongSupplier nanoClock;
+
+    QueryWarmup(Application application, long budgetMillis, LongSupplier nanoClock) {
+        this.handler = new ApplicationHandler(application);
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(budgetMillis, 0));
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Replays the configured warm-up queries, if any. Failures are logged and never prevent the server from starting.
+     */
+    static void runFromConfiguration(Application application) {
+        Configuration configuration = Configuration.instance();
+        File file = configuration.getWarmupQueriesFile();
+        if (file == null) {
+            return;
+        }
+        List<String> queries;
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            queries = readQueries(reader);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to read the warm-up queries " + file + ": " + e.getMessage(), e);
+            return;
+        }
+        new QueryWarmup(application, TimeUnit.SECONDS.toMillis(configuration.getWarmupBudgetSeconds()), System::nanoTime).run(queries);
+    }
+
+    static List<String> readQueries(BufferedReader reader) throws IOException {
+        List<String> queries = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            if (line.startsWith("{")) {
+                JsonNode query = OBJECT_MAPPER.readTree(line).path("sparql");
+                if (query.isTextual()) {
+                    queries.add(query.textValue());
+                }
+            } else {
+                queries.add(line);
+            }
+        }
+        return queries;
+    }
+
+    /**
+     * @return the timing of each replayed query, in the order of {@code queries}.
+     */
+    List<Timing> run(List<String> queries) {
+        long startNanos = nanoClock.getAsLong();
+        List<Timing> timings = new ArrayList<>();
+        int failures = 0;
+        for (String query : queries) {
+            long queryStartNanos = nanoClock.getAsLong();
+            long remainingNanos = budgetNanos - (queryStartNanos - startNanos);
+            if (remainingNanos <= 0) {
+                break;
+            }
+            int status = replay(query, remainingNanos);
+            Timing timing = new Timing(status, nanoClock.getAsLong() - queryStartNanos);
+            timings.add(timing);
+            if (!timing.isSuccessful()) {
+                failures++;
+            }
+            LOGGER.info("Warm-up query " + timings.size() + "/" + queries.size() + (status == 0 ? " got no response" : " answered " + status) +
+                    " in " + timing.getDurationMillis() + "ms: " + abbreviate(query));
+        }
+        LOGGER.info("Warm-up replayed " + timings.size() + " of " + queries.size() + " queries with " + failures + " failures in " +
+                TimeUnit.NANOSECONDS.toMillis(nanoClock.getAsLong() - startNanos) + "ms" +
+                (timings.size() < queries.size() ? ", its budget of " + TimeUnit.NANOSECONDS.toSeconds(budgetNanos) + "s is spent" : ""));
+        return timings;
+    }
+
+    /**
+     * @return the HTTP status of the response, {@code 0} if there is none within the remaining time.
+     */
+    private int replay(String query, long remainingNanos) {
+        long timeoutSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(remainingNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+        ContainerRequest request = new ContainerRequest(
+                BASE_URI, UriBuilder.fromUri(BASE_URI).path("sparql").queryParam("timeout", timeoutSeconds).build(), "POST",
+                null, new MapPropertiesDelegate()
+        );
+        request.getHeaders().putSingle(HttpHeaders.CONTENT_TYPE, "application/sparql-query");
+        request.setEntityStream(new ByteArrayInputStream(query.getBytes(StandardCharsets.UTF_8)));
+        request.setProperty(REQUEST_PROPERTY, Boolean.TRUE);
+        Future<ContainerResponse> response = handler.apply(request, new DiscardingOutputStream());
+        try {
+            return response.get(remainingNanos, TimeUnit.NANOSECONDS).getStatus();
+        } catch (TimeoutException e) {
+            response.cancel(true);
+            return 0;
+        } catch (ExecutionException e) {
+            LOGGER.warn("Warm-up query failed: " + e.getCause().getMessage(), e.getCause());
+            return 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+    }
+
+    private static String abbreviate(String query) {
+        String singleLine = query.replaceAll("\\s+", " ");
+        return singleLine.length() <= LOGGED_QUERY_LENGTH ? singleLine : singleLine.substring(0, LOGGED_QUERY_LENGTH) + "...";
+    }
+
+    static final class Timing {
+        private final int status;
+        private final long durationNanos;
+
+        private Timing(int status, long durationNanos) {
+            this.status = status;
+            this.durationNanos = durationNanos;
+        }
+
+        /**
+         * @return the HTTP status of the response, {@code 0} if there is none.
+         */
+        int getStatus() {
+            return status;
+        }
+
+        long getDurationMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(durationNanos);
+        }
+
+        boolean isSuccessful() {
+            return status >= 200 && status < 300;
+        }
+    }
+
+    private static final class DiscardingOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
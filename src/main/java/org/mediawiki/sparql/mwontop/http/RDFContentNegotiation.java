@@ -17,62 +17,150 @@
 
 package org.mediawiki.sparql.mwontop.http;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.eclipse.rdf4j.common.lang.FileFormat;
 import org.eclipse.rdf4j.common.lang.service.FileFormatServiceRegistry;
+import org.eclipse.rdf4j.query.resultio.BooleanQueryResultWriterRegistry;
+import org.eclipse.rdf4j.query.resultio.TupleQueryResultWriterRegistry;
+import org.eclipse.rdf4j.rio.RDFWriterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.InternalServerErrorException;
 import javax.ws.rs.NotAcceptableException;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Variant;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
+ * Selection of the writer of a registry from the {@code Accept} header.
+ * <p>
+ * The variants of each registry are built once, and the formats selected for the last seen {@code Accept} headers are kept,
+ * so negotiating a format for a usual client is a map lookup.
+ * As {@link Request#selectVariant(List)} is then skipped, responses should be built with {@link #negotiatedResponse(Object, FileFormat)}
+ * to keep the {@code Vary} header it sets.
+ *
  * @author Thomas Pellissier Tanon
  */
 class RDFContentNegotiation {
 
+    /**
+     * Maximal number of distinct {@code Accept} headers whose negotiated format is kept per registry.
+     */
+    static final int ACCEPT_CACHE_SIZE = 256;
     private static final Logger LOGGER = LoggerFactory.getLogger(RDFContentNegotiation.class);
+    private static final Map<FileFormatServiceRegistry<?, ?>, Negotiator<?, ?>> NEGOTIATORS = new ConcurrentHashMap<>();
+
+    static {
+        getNegotiator(BooleanQueryResultWriterRegistry.getInstance());
+        getNegotiator(TupleQueryResultWriterRegistry.getInstance());
+        getNegotiator(RDFWriterRegistry.getInstance());
+    }
 
-    static  <FF extends FileFormat, S> FormatService<S> getServiceForFormat(FileFormatServiceRegistry<FF, S> writerRegistry, Request request) {
-        List<Variant> acceptedVariants = buildVariants(writerRegistry.getKeys());
-        Variant bestResponseVariant = request.selectVariant(acceptedVariants);
-        if (bestResponseVariant == null) {
-            throw new NotAcceptableException("No acceptable result format found. Accepted format are: " +
-                    acceptedVariants.stream().map(variant -> variant.getMediaType().toString()).collect(Collectors.joining(", ")));
+    static <FF extends FileFormat, S> FormatService<S> getServiceForFormat(FileFormatServiceRegistry<FF, S> writerRegistry, Request request) {
+        Negotiator<FF, S> negotiator = getNegotiator(writerRegistry);
+        String acceptKey = acceptKey(request);
+        if (acceptKey == null) {
+            return negotiator.negotiate(request);
         }
-        FF fileFormat = writerRegistry.getFileFormatForMIMEType(bestResponseVariant.getMediaType().toString()).orElseThrow(() -> {
-            LOGGER.error("Not able to retrieve writer for " + bestResponseVariant.getMediaType());
-            return new InternalServerErrorException("Not able to retrieve writer for " + bestResponseVariant.getMediaType());
-        });
-        return new FormatService<>(fileFormat, writerRegistry.get(fileFormat).orElseThrow(() -> {
-            LOGGER.error("Unable to write " + fileFormat);
-            return new InternalServerErrorException("Unable to write " + fileFormat);
-        }));
+        FormatService<S> formatService = negotiator.formatServicesByAccept.getIfPresent(acceptKey);
+        if (formatService == null) {
+            formatService = negotiator.negotiate(request);
+            negotiator.formatServicesByAccept.put(acceptKey, formatService);
+        }
+        return formatService;
     }
 
-    private static <FF extends FileFormat> List<Variant> buildVariants(Set<FF> acceptedFormats) {
-        return Variant.mediaTypes(
-                acceptedFormats.stream()
-                        .flatMap(fileFormat -> fileFormat.getMIMETypes().stream())
-                        .map(MediaType::valueOf)
-                        .toArray(MediaType[]::new)
-        ).add().build();
+    /**
+     * @return an OK response in the given format, flagged as depending on the {@code Accept} header.
+     */
+    static Response.ResponseBuilder negotiatedResponse(Object entity, FileFormat format) {
+        return Response.ok(entity, variantForFormat(format)).header(HttpHeaders.VARY, HttpHeaders.ACCEPT);
     }
 
     static <FF extends FileFormat> Variant variantForFormat(FF format) {
         return new Variant(MediaType.valueOf(format.getDefaultMIMEType()), (Locale) null, null);
     }
 
+    @SuppressWarnings("unchecked")
+    private static <FF extends FileFormat, S> Negotiator<FF, S> getNegotiator(FileFormatServiceRegistry<FF, S> writerRegistry) {
+        return (Negotiator<FF, S>) NEGOTIATORS.computeIfAbsent(writerRegistry, registry -> new Negotiator<>(writerRegistry));
+    }
+
+    /**
+     * @return the {@code Accept} header values without spaces and in lower case, or {@code null} if the request headers are not available.
+     */
+    static String acceptKey(Request request) {
+        if (!(request instanceof HttpHeaders)) {
+            return null;
+        }
+        List<String> accept = ((HttpHeaders) request).getRequestHeader(HttpHeaders.ACCEPT);
+        if (accept == null) {
+            return "";
+        }
+        StringBuilder key = new StringBuilder();
+        for (String value : accept) {
+            if (key.length() > 0) {
+                key.append(',');
+            }
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (!Character.isWhitespace(c)) {
+                    key.append(Character.toLowerCase(c));
+                }
+            }
+        }
+        return key.toString();
+    }
+
+    private static final class Negotiator<FF extends FileFormat, S> {
+        private final FileFormatServiceRegistry<FF, S> writerRegistry;
+        private final List<Variant> variants;
+        private final String acceptedFormats;
+        private final Cache<String, FormatService<S>> formatServicesByAccept = CacheBuilder.newBuilder()
+                .maximumSize(ACCEPT_CACHE_SIZE)
+                .build();
+
+        private Negotiator(FileFormatServiceRegistry<FF, S> writerRegistry) {
+            this.writerRegistry = writerRegistry;
+            this.variants = Collections.unmodifiableList(Variant.mediaTypes(
+                    writerRegistry.getKeys().stream()
+                            .flatMap(fileFormat -> fileFormat.getMIMETypes().stream())
+                            .map(MediaType::valueOf)
+                            .toArray(MediaType[]::new)
+            ).add().build());
+            this.acceptedFormats = variants.stream().map(variant -> variant.getMediaType().toString()).collect(Collectors.joining(", "));
+        }
+
+        private FormatService<S> negotiate(Request request) {
+            Variant bestResponseVariant = request.selectVariant(variants);
+            if (bestResponseVariant == null) {
+                throw new NotAcceptableException("No acceptable result format found. Accepted format are: " + acceptedFormats);
+            }
+            FF fileFormat = writerRegistry.getFileFormatForMIMEType(bestResponseVariant.getMediaType().toString()).orElseThrow(() -> {
+                LOGGER.error("Not able to retrieve writer for " + bestResponseVariant.getMediaType());
+                return new InternalServerErrorException("Not able to retrieve writer for " + bestResponseVariant.getMediaType());
+            });
+            return new FormatService<>(fileFormat, writerRegistry.get(fileFormat).orElseThrow(() -> {
+                LOGGER.error("Unable to write " + fileFormat);
+                return new InternalServerErrorException("Unable to write " + fileFormat);
+            }));
+        }
+    }
+
     static class FormatService<S> {
 
-        private FileFormat format;
-        private S service;
+        private final FileFormat format;
+        private final S service;
 
         FormatService(FileFormat format, S service) {
             this.format = format;
@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.http;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.mediawiki.sparql.mwontop.Configuration;
+
+import javax.ws.rs.core.EntityTag;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serialized results of GET SPARQL requests, keyed by the mutated query and the normalized {@code Accept} header,
+ * so cached results are found without parsing the query to negotiate their format.
+ * <p>
+ * The replicas lag behind the wikis anyway, so results are reused until their time to live expires.
+ * The cache is bounded by the total size of the stored results, least recently used ones are evicted first.
+ * Each result gets an entity tag when its evaluation starts, so clients can revalidate it with {@code If-None-Match}.
+ * The tags are weak: the {@code EncodingFilter} may send the same result with different content codings.
+ */
+final class ResultCache implements ResultCacheMXBean {
+    static final String OBJECT_NAME = "org.mediawiki.sparql.mwontop:type=ResultCache";
+    private static final ResultCache INSTANCE = new ResultCache(
+            Configuration.instance().getResultCacheSize(),
+            Configuration.instance().getResultCacheEntryMaxSize(),
+            TimeUnit.SECONDS.toMillis(Configuration.instance().getResultCacheTtlSeconds()),
+            Ticker.systemTicker()
+    );
+
+    private final Cache<Key, Entry> entries;
+    private final long maximumSize;
+    private final long entryMaximumSize;
+    private final long ttlMillis;
+    private final Ticker ticker;
+    private final AtomicLong size = new AtomicLong();
+    private final AtomicLong tagCounter = new AtomicLong();
+
+    ResultCache(long maximumSize, long entryMaximumSize, long ttlMillis, Ticker ticker) {
+        this.maximumSize = Math.max(maximumSize, 0);
+        this.entryMaximumSize = Math.min(Math.max(entryMaximumSize, 0), Integer.MAX_VALUE);
+        this.ttlMillis = Math.max(ttlMillis, 0);
+        this.ticker = ticker;
+        entries = CacheBuilder.newBuilder()
+                .maximumWeight(this.maximumSize)
+                .weigher((Key key, Entry entry) -> entry.weight())
+                .expireAfterWrite(this.ttlMillis, TimeUnit.MILLISECONDS)
+                .ticker(ticker)
+                .<Key, Entry>removalListener(notification -> size.addAndGet(-notification.getValue().weight()))
+                .recordStats()
+                .build();
+    }
+
+    static ResultCache getInstance() {
+        return INSTANCE;
+    }
+
+    boolean isEnabled() {
+        return maximumSize > 0 && ttlMillis > 0;
+    }
+
+    Entry get(Key key) {
+        return entries.getIfPresent(key);
+    }
+
+    /**
+     * @return a new weak entity tag for a result that is going to be evaluated.
+     */
+    EntityTag newTag(Key key) {
+        return new EntityTag(Integer.toHexString(key.hashCode()) + "-" + Long.toHexString(ticker.read()) + "-" + tagCounter.incrementAndGet(), true);
+    }
+
+    /**
+     * @return a stream writing to {@code outputStream} while recording what is written,
+     * so that the result can be cached with {@link Recording#complete()} once fully written.
+     *
+     * @param mimeType the negotiated MIME type of the result.
+     */
+    Recording record(Key key, EntityTag tag, String mimeType, OutputStream outputStream) {
+        return new Recording(key, tag, mimeType, outputStream);
+    }
+
+    /**
+     * @return the number of seconds a result may be reused by clients.
+     */
+    long getMaxAgeSeconds() {
+        return TimeUnit.MILLISECONDS.toSeconds(ttlMillis);
+    }
+
+    /**
+     * @return the remaining number of seconds a cached result may be reused by clients.
+     */
+    long getMaxAgeSeconds(Entry entry) {
+        long remainingNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis) - (ticker.read() - entry.creationNanos);
+        return Math.max(0, TimeUnit.NANOSECONDS.toSeconds(remainingNanos));
+    }
+
+    @Override
+    public long getHitCount() {
+        return entries.stats().hitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return entries.stats().missCount();
+    }
+
+    @Override
+    public double getHitRatio() {
+        CacheStats stats = entries.stats();
+        return stats.requestCount() == 0 ? 0 : stats.hitRate();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return entries.stats().evictionCount();
+    }
+
+    @Override
+    public long getEntryCount() {
+        entries.cleanUp();
+        return entries.size();
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        entries.cleanUp();
+        return size.get();
+    }
+
+    @Override
+    public long getMaximumSizeInBytes() {
+        return maximumSize;
+    }
+
+    static final class Key {
+        private final String query;
+        private final String accept;
+
+        /**
+         * @param accept the {@code Accept} header normalized by {@link RDFContentNegotiation#acceptKey}.
+         */
+        Key(String query, String accept) {
+            this.query = query;
+            this.accept = accept;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return query.equals(key.query) && accept.equals(key.accept);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(query, accept);
+        }
+    }
+
+    static final class Entry {
+        private final Key key;
+        private final EntityTag tag;
+        private final String mimeType;
+        private final byte[] body;
+        private final long creationNanos;
+
+        private Entry(Key key, EntityTag tag, String mimeType, byte[] body, long creationNanos) {
+            this.key = key;
+            this.tag = tag;
+            this.mimeType = mimeType;
+            this.body = body;
+            this.creationNanos = creationNanos;
+        }
+
+        EntityTag getTag() {
+            return tag;
+        }
+
+        String getMimeType() {
+            return mimeType;
+        }
+
+        byte[] getBody() {
+            return body;
+        }
+
+        private int weight() {
+            return body.length + 2 * (key.query.length() + key.accept.length());
+        }
+    }
+
+    /**
+     * Copy of a result being written to the client. It is dropped if it gets bigger than the maximal entry size.
+     */
+    final class Recording extends FilterOutputStream {
+        private final Key key;
+        private final EntityTag tag;
+        private final String mimeType;
+        private final long startNanos;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        private Recording(Key key, EntityTag tag, String mimeType, OutputStream outputStream) {
+            super(outputStream);
+            this.key = key;
+            this.tag = tag;
+            this.mimeType = mimeType;
+            this.startNanos = ticker.read();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (copy != null) {
+                copy.write(b);
+                checkCopySize();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (copy != null) {
+                copy.write(b, off, len);
+                checkCopySize();
+            }
+        }
+
+        private void checkCopySize() {
+            if (copy.size() > entryMaximumSize) {
+                copy = null;
+            }
+        }
+
+        /**
+         * Caches the recorded result. To be called only if the result has been fully and successfully written.
+         */
+        void complete() {
+            if (copy == null) {
+                return;
+            }
+            Entry entry = new Entry(key, tag, mimeType, copy.toByteArray(), startNanos);
+            copy = null;
+            if (entry.weight() <= maximumSize) {
+                size.addAndGet(entry.weight());
+                entries.put(key, entry);
+            }
+        }
+    }
+}
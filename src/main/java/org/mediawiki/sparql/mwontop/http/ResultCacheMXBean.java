@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.http;
+
+import org.mediawiki.sparql.mwontop.metrics.Counter;
+
+/**
+ * Metrics of the SPARQL results cache, exposed over JMX as {@value ResultCache#OBJECT_NAME}.
+ */
+public interface ResultCacheMXBean {
+    @Counter
+    long getHitCount();
+
+    @Counter
+    long getMissCount();
+
+    /**
+     * @return ratio of the lookups served from the cache, between 0 and 1.
+     */
+    double getHitRatio();
+
+    @Counter
+    long getEvictionCount();
+
+    long getEntryCount();
+
+    /**
+     * @return approximate memory used by the cached results.
+     */
+    long getSizeInBytes();
+
+    long getMaximumSizeInBytes();
+}
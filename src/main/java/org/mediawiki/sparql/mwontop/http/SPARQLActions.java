@@ -17,28 +17,49 @@
 
 package org.mediawiki.sparql.mwontop.http;
 
+import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
 import org.eclipse.rdf4j.query.*;
 import org.eclipse.rdf4j.query.impl.MapBindingSet;
+import org.eclipse.rdf4j.query.parser.ParsedQuery;
+import org.eclipse.rdf4j.query.parser.ParsedTupleQuery;
+import org.eclipse.rdf4j.query.parser.QueryParserUtil;
 import org.eclipse.rdf4j.query.parser.sparql.SPARQLUtil;
 import org.eclipse.rdf4j.query.resultio.*;
 import org.eclipse.rdf4j.queryrender.RenderUtils;
-import org.eclipse.rdf4j.repository.Repository;
 import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.rio.RDFHandler;
 import org.eclipse.rdf4j.rio.RDFHandlerException;
 import org.eclipse.rdf4j.rio.RDFWriterFactory;
 import org.eclipse.rdf4j.rio.RDFWriterRegistry;
+import org.eclipse.rdf4j.rio.helpers.RDFHandlerWrapper;
+import org.glassfish.jersey.server.CloseableService;
+import org.mediawiki.sparql.mwontop.Configuration;
+import org.mediawiki.sparql.mwontop.metrics.QueryMetrics;
+import org.mediawiki.sparql.mwontop.sql.BoundedQueryCache;
 import org.mediawiki.sparql.mwontop.sql.RepositoryFactory;
+import org.mediawiki.sparql.mwontop.sql.RunningStatements;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.CacheControl;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
-import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static org.mediawiki.sparql.mwontop.http.MWNamespace.mutateNamespace;
 
@@ -48,113 +69,340 @@ import static org.mediawiki.sparql.mwontop.http.MWNamespace.mutateNamespace;
 @Path("/sparql")
 public class SPARQLActions {
 
+    static final String BATCH_PATH = "batch";
     private static final Logger LOGGER = LoggerFactory.getLogger(SPARQLActions.class);
-    private static Repository REPOSITORY = RepositoryFactory.getInstance().getRepository();
+    private static final ResultCache RESULT_CACHE = ResultCache.getInstance();
+    private static final QueryExecutor QUERY_EXECUTOR = QueryExecutor.getInstance();
+
+    @Context
+    private CloseableService closeableService;
 
     @GET
-    public Response get(@QueryParam("query") String query, @Context Request request) {
+    public void get(@QueryParam("query") String query, @QueryParam("timeout") String timeout, @QueryParam("wikis") String wikis,
+                    @Context Request request, @Suspended AsyncResponse asyncResponse) {
         if (query == null) {
             throw new BadRequestException("You should set a SPARQL query using the 'query' URL query parameter");
         }
-        return executeQuery(query, request);
+        QueryDeadline deadline = suspend(asyncResponse, timeout);
+        QUERY_EXECUTOR.resume(asyncResponse, () -> executeQuery(query, deadline, wikis, request, true));
     }
 
     @POST
     @Consumes({"application/x-www-form-urlencoded", "multipart/form-data"})
-    public Response postForm(@FormParam("query") String query, @Context Request request) {
+    public void postForm(@FormParam("query") String query, @FormParam("timeout") String timeout, @FormParam("wikis") String wikis,
+                         @Context Request request, @Suspended AsyncResponse asyncResponse) {
         if (query == null) {
             throw new BadRequestException("You should POST a SPARQL query with the application/sparql-query content type");
         }
-        return executeQuery(query, request);
+        QueryDeadline deadline = suspend(asyncResponse, timeout);
+        QUERY_EXECUTOR.resume(asyncResponse, () -> executeQuery(query, deadline, wikis, request, false));
     }
 
     @POST
     @Consumes("application/sparql-query")
-    public Response postDirect(String query, @Context Request request) {
-        return executeQuery(query, request);
-    }
-
-    private Response executeQuery(String queryString, Request request) {
-        try (RepositoryConnection repositoryConnection = REPOSITORY.getConnection()) {
-            Query query = repositoryConnection.prepareQuery(QueryLanguage.SPARQL, mutateNamespace(queryString, true));
-            if (query instanceof BooleanQuery) {
-                return evaluateBooleanQuery((BooleanQuery) query, request);
-            } else if (query instanceof GraphQuery) {
-                return evaluateGraphQuery((GraphQuery) query, request);
-            } else if (query instanceof TupleQuery) {
-                return evaluateTupleQuery((TupleQuery) query, request);
-            } else {
-                throw new BadRequestException("Unsupported kind of query: " + queryString);
+    public void postDirect(String query, @QueryParam("timeout") String timeout, @QueryParam("wikis") String wikis, @Context Request request,
+                           @Suspended AsyncResponse asyncResponse) {
+        QueryDeadline deadline = suspend(asyncResponse, timeout);
+        QUERY_EXECUTOR.resume(asyncResponse, () -> executeQuery(query, deadline, wikis, request, false));
+    }
+
+    /**
+     * Evaluates a JSON array of ASK and SELECT queries with {@link QueryBatch}.
+     * The {@code timeout} parameter bounds the evaluation of the whole batch.
+     */
+    @POST
+    @Path(BATCH_PATH)
+    @Consumes(MediaType.APPLICATION_JSON)
+    public void postBatch(String queries, @QueryParam("timeout") String timeout, @Suspended AsyncResponse asyncResponse) {
+        if (!QueryBatch.isEnabled()) {
+            throw new BadRequestException("Batches of queries are not enabled on this server");
+        }
+        List<String> queryList = QueryBatch.parseQueries(queries, Configuration.instance().getBatchMaxQueries());
+        QueryDeadline deadline = suspend(asyncResponse, timeout);
+        QUERY_EXECUTOR.resume(asyncResponse, () -> Response.ok(
+                (StreamingOutput) outputStream -> QueryBatch.fromConfiguration().evaluate(queryList, deadline, deadline.guard(outputStream)),
+                MediaType.APPLICATION_JSON_TYPE
+        ).build());
+    }
+
+    /**
+     * Bounds the suspended request by its {@link QueryDeadline}: if the response has not started when the deadline is reached,
+     * the evaluation is cancelled and the request answered with {@link QueryDeadline#TIMEOUT_STATUS}.
+     * Once the results are streamed, the deadline watchdog takes over.
+     */
+    private QueryDeadline suspend(AsyncResponse asyncResponse, String timeout) {
+        QueryDeadline deadline = QueryDeadline.forRequest(timeout);
+        closeableService.add(deadline);
+        asyncResponse.setTimeoutHandler(response -> {
+            deadline.cancelInBackground("deadline of " + deadline.getTimeoutMillis() + "ms reached before the results");
+            response.resume(deadline.timeoutFailure());
+        });
+        asyncResponse.setTimeout(deadline.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+        return deadline;
+    }
+
+    /**
+     * The repository connection stays open until the response entity is written:
+     * results are streamed to the client while they are read from the database.
+     * Errors happening before Jersey flushes its first output buffer are reported with the usual error status,
+     * later ones are logged and abort the response, so the client gets a truncated body.
+     * <p>
+     * The evaluation is bounded by a {@link QueryDeadline}. Queries reaching it get a {@link QueryDeadline#TIMEOUT_STATUS} error.
+     * The duration of each evaluation phase is recorded in {@link QueryMetrics}, slow queries are written with their SQL to the slow query log.
+     *
+     * @param deadline  the deadline of the request, started on its arrival so it includes the time spent waiting in {@link QueryExecutor}.
+     * @param wikis     comma separated wikis to evaluate the query on with {@link CrossWikiQuery}, if any.
+     * @param cacheable if the result may be served from and stored in the {@link ResultCache}.
+     */
+    private Response executeQuery(String queryString, QueryDeadline deadline, String wikis, Request request, boolean cacheable) {
+        QueryMetrics.QueryTimer timer = QueryMetrics.getInstance().startQuery();
+        closeableService.add(timer);
+        try {
+            long startNanos = timer.nanoTime();
+            String mutatedQuery = mutateNamespace(queryString, true);
+            timer.record(QueryMetrics.Phase.NAMESPACE_MUTATION, startNanos);
+            timer.setQuery(queryString, () -> BoundedQueryCache.getSQL(mutatedQuery));
+            if (wikis != null && !wikis.trim().isEmpty()) {
+                return evaluateCrossWikiQuery(queryString, mutatedQuery, wikis, deadline, timer, request);
+            }
+            timer.setWikis(RepositoryFactory.getInstance().getSiteBaseURLs(mutatedQuery));
+            String acceptKey = RDFContentNegotiation.acceptKey(request);
+            if (cacheable && RESULT_CACHE.isEnabled() && acceptKey != null) {
+                ResultCache.Key cacheKey = new ResultCache.Key(mutatedQuery, acceptKey);
+                ResultCache.Entry cachedResult = RESULT_CACHE.get(cacheKey);
+                if (cachedResult != null) {
+                    timer.setFormat(cachedResult.getMimeType());
+                    return cachedResponse(cachedResult, request);
+                }
+                return recordInCache(evaluateQuery(queryString, mutatedQuery, deadline, timer, request), cacheKey);
             }
+            return evaluateQuery(queryString, mutatedQuery, deadline, timer, request);
         } catch (MalformedQueryException e) {
             LOGGER.warn(e.getMessage(), e);
             LOGGER.info("Original query: " + queryString);
+            timer.failed(Response.Status.BAD_REQUEST.getStatusCode());
             throw new BadRequestException(e.getMessage(), e);
+        } catch (WebApplicationException e) {
+            timer.failed(e.getResponse().getStatus());
+            throw e;
         } catch (Exception e) {
-            LOGGER.warn(e.getMessage(), e);
-            LOGGER.info("Original query: " + queryString);
-            throw new InternalServerErrorException(e.getMessage(), e);
+            throw evaluationFailure(e, queryString, deadline, timer);
         }
     }
 
-    private Response evaluateBooleanQuery(BooleanQuery query, Request request) {
-        RDFContentNegotiation.FormatService<BooleanQueryResultWriterFactory> format =
-                RDFContentNegotiation.getServiceForFormat(BooleanQueryResultWriterRegistry.getInstance(), request);
+    private Response evaluateQuery(String queryString, String mutatedQuery, QueryDeadline deadline, QueryMetrics.QueryTimer timer, Request request) {
+        RepositoryConnection repositoryConnection = RepositoryFactory.getInstance().getRepository(mutatedQuery).getConnection();
+        closeableService.add(repositoryConnection::close);
+        deadline.closeOnCancel(repositoryConnection);
+        long startNanos = timer.nanoTime();
+        Query query = repositoryConnection.prepareQuery(QueryLanguage.SPARQL, mutatedQuery);
+        timer.record(QueryMetrics.Phase.PARSING, startNanos);
+        if (query instanceof BooleanQuery) {
+            return evaluateBooleanQuery((BooleanQuery) query, queryString, deadline, timer, request);
+        } else if (query instanceof GraphQuery) {
+            return evaluateGraphQuery((GraphQuery) query, queryString, deadline, timer, request);
+        } else if (query instanceof TupleQuery) {
+            return evaluateTupleQuery((TupleQuery) query, queryString, deadline, timer, request);
+        } else {
+            throw new BadRequestException("Unsupported kind of query: " + queryString);
+        }
+    }
+
+    private Response evaluateCrossWikiQuery(String queryString, String mutatedQuery, String wikis, QueryDeadline deadline,
+                                            QueryMetrics.QueryTimer timer, Request request) {
+        if (!CrossWikiQuery.isEnabled()) {
+            throw new BadRequestException("Cross-wiki queries are not enabled on this server");
+        }
+        long startNanos = timer.nanoTime();
+        ParsedQuery parsedQuery = QueryParserUtil.parseQuery(QueryLanguage.SPARQL, mutatedQuery, null);
+        timer.record(QueryMetrics.Phase.PARSING, startNanos);
+        if (!(parsedQuery instanceof ParsedTupleQuery)) {
+            throw new BadRequestException("Only SELECT queries may be evaluated on several wikis");
+        }
+        Set<String> baseURLs;
         try {
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            format.getService().getWriter(outputStream).handleBoolean(query.evaluate());
-            return Response.ok(outputStream.toByteArray(), RDFContentNegotiation.variantForFormat(format.getFormat())).build();
-        } catch (QueryResultHandlerException | QueryEvaluationException e) {
-            LOGGER.warn(e.getMessage(), e);
-            throw new InternalServerErrorException(e.getMessage(), e);
+            baseURLs = RepositoryFactory.getInstance().resolveSiteBaseURLs(
+                    Arrays.stream(wikis.split(",")).map(String::trim).filter(wiki -> !wiki.isEmpty()).collect(Collectors.toList())
+            );
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage(), e);
+        }
+        int maxWikis = Configuration.instance().getCrossWikiMaxWikis();
+        if (baseURLs.size() > maxWikis) {
+            throw new BadRequestException("A query may be evaluated on at most " + maxWikis + " wikis, not " + baseURLs.size());
         }
+        timer.setWikis(baseURLs);
+        List<String> bindingNames = new ArrayList<>(parsedQuery.getTupleExpr().getBindingNames());
+
+        RDFContentNegotiation.FormatService<TupleQueryResultWriterFactory> format =
+                RDFContentNegotiation.getServiceForFormat(TupleQueryResultWriterRegistry.getInstance(), request);
+        timer.setFormat(format.getFormat().getDefaultMIMEType());
+        return RDFContentNegotiation.negotiatedResponse(
+                (StreamingOutput) outputStream -> {
+                    try {
+                        CrossWikiQuery.fromConfiguration().evaluate(
+                                mutatedQuery, bindingNames, baseURLs, deadline, format.getService().getWriter(deadline.guard(timer.countBytes(outputStream))), timer
+                        );
+                    } catch (TupleQueryResultHandlerException | QueryEvaluationException e) {
+                        throw evaluationFailure(e, queryString, deadline, timer);
+                    }
+                },
+                format.getFormat()
+        ).build();
+    }
+
+    private static Response cachedResponse(ResultCache.Entry cachedResult, Request request) {
+        CacheControl cacheControl = cacheControl(RESULT_CACHE.getMaxAgeSeconds(cachedResult));
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(cachedResult.getTag());
+        if (notModified != null) {
+            return notModified.tag(cachedResult.getTag()).cacheControl(cacheControl).header(HttpHeaders.VARY, HttpHeaders.ACCEPT).build();
+        }
+        return Response.ok(cachedResult.getBody(), cachedResult.getMimeType())
+                .tag(cachedResult.getTag())
+                .cacheControl(cacheControl)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                .build();
+    }
+
+    /**
+     * Stores the result in the cache once it has been fully written to the client.
+     */
+    private static Response recordInCache(Response response, ResultCache.Key cacheKey) {
+        StreamingOutput output = (StreamingOutput) response.getEntity();
+        EntityTag tag = RESULT_CACHE.newTag(cacheKey);
+        String mimeType = response.getMediaType().toString();
+        return Response.fromResponse(response)
+                .entity((StreamingOutput) outputStream -> {
+                    ResultCache.Recording recording = RESULT_CACHE.record(cacheKey, tag, mimeType, outputStream);
+                    output.write(recording);
+                    recording.complete();
+                })
+                .tag(tag)
+                .cacheControl(cacheControl(RESULT_CACHE.getMaxAgeSeconds()))
+                .build();
+    }
+
+    private static CacheControl cacheControl(long maxAgeSeconds) {
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setMaxAge((int) Math.min(maxAgeSeconds, Integer.MAX_VALUE));
+        return cacheControl;
+    }
+
+    private Response evaluateBooleanQuery(BooleanQuery query, String queryString, QueryDeadline deadline, QueryMetrics.QueryTimer timer, Request request) {
+        RDFContentNegotiation.FormatService<BooleanQueryResultWriterFactory> format =
+                RDFContentNegotiation.getServiceForFormat(BooleanQueryResultWriterRegistry.getInstance(), request);
+        timer.setFormat(format.getFormat().getDefaultMIMEType());
+        return RDFContentNegotiation.negotiatedResponse(
+                (StreamingOutput) outputStream -> {
+                    RunningStatements.Scope scope = deadline.cancelStatementsOfCurrentThread();
+                    try {
+                        deadline.limit(query);
+                        long startNanos = timer.nanoTime();
+                        boolean result = query.evaluate();
+                        startNanos = timer.record(QueryMetrics.Phase.EXECUTION, startNanos);
+                        timer.addRows(1);
+                        format.getService().getWriter(deadline.guard(timer.countBytes(outputStream))).handleBoolean(result);
+                        timer.record(QueryMetrics.Phase.SERIALIZATION, startNanos);
+                    } catch (QueryResultHandlerException | QueryEvaluationException e) {
+                        throw evaluationFailure(e, queryString, deadline, timer);
+                    } finally {
+                        scope.close();
+                    }
+                },
+                format.getFormat()
+        ).build();
     }
 
-    private Response evaluateGraphQuery(GraphQuery query, Request request) {
+    private Response evaluateGraphQuery(GraphQuery query, String queryString, QueryDeadline deadline, QueryMetrics.QueryTimer timer, Request request) {
         RDFContentNegotiation.FormatService<RDFWriterFactory> format =
                 RDFContentNegotiation.getServiceForFormat(RDFWriterRegistry.getInstance(), request);
-        return Response.ok(
+        timer.setFormat(format.getFormat().getDefaultMIMEType());
+        return RDFContentNegotiation.negotiatedResponse(
                 (StreamingOutput) outputStream -> {
+                    RunningStatements.Scope scope = deadline.cancelStatementsOfCurrentThread();
                     try {
-                        query.evaluate(format.getService().getWriter(outputStream));
+                        deadline.limit(query);
+                        long startNanos = timer.nanoTime();
+                        try (GraphQueryResult result = query.evaluate()) {
+                            startNanos = timer.record(QueryMetrics.Phase.EXECUTION, startNanos);
+                            RDFHandler writer = new RDFHandlerWrapper(format.getService().getWriter(deadline.guard(timer.countBytes(outputStream)))) {
+                                @Override
+                                public void handleStatement(Statement statement) {
+                                    super.handleStatement(statement);
+                                    timer.addRows(1);
+                                }
+                            };
+                            QueryResults.report(result, writer);
+                        }
+                        timer.record(QueryMetrics.Phase.SERIALIZATION, startNanos);
                     } catch (RDFHandlerException | QueryEvaluationException e) {
-                        LOGGER.warn(e.getMessage(), e);
-                        throw new InternalServerErrorException(e.getMessage(), e);
+                        throw evaluationFailure(e, queryString, deadline, timer);
+                    } finally {
+                        scope.close();
                     }
                 },
-                RDFContentNegotiation.variantForFormat(format.getFormat())
+                format.getFormat()
         ).build();
     }
 
-    private Response evaluateTupleQuery(TupleQuery query, Request request) {
+    private Response evaluateTupleQuery(TupleQuery query, String queryString, QueryDeadline deadline, QueryMetrics.QueryTimer timer, Request request) {
         RDFContentNegotiation.FormatService<TupleQueryResultWriterFactory> format =
                 RDFContentNegotiation.getServiceForFormat(TupleQueryResultWriterRegistry.getInstance(), request);
-        try {
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            evaluateAndDecodeNamespaces(query, format.getService().getWriter(outputStream));
-            return Response.ok(outputStream.toByteArray(), RDFContentNegotiation.variantForFormat(format.getFormat())).build();
-        } catch (TupleQueryResultHandlerException | QueryEvaluationException e) {
-            LOGGER.warn(e.getMessage(), e);
-            throw new InternalServerErrorException(e.getMessage(), e);
+        timer.setFormat(format.getFormat().getDefaultMIMEType());
+        return RDFContentNegotiation.negotiatedResponse(
+                (StreamingOutput) outputStream -> {
+                    RunningStatements.Scope scope = deadline.cancelStatementsOfCurrentThread();
+                    try {
+                        deadline.limit(query);
+                        evaluateAndDecodeNamespaces(query, format.getService().getWriter(deadline.guard(timer.countBytes(outputStream))), timer);
+                    } catch (TupleQueryResultHandlerException | QueryEvaluationException e) {
+                        throw evaluationFailure(e, queryString, deadline, timer);
+                    } finally {
+                        scope.close();
+                    }
+                },
+                format.getFormat()
+        ).build();
+    }
+
+    private static WebApplicationException evaluationFailure(Exception e, String queryString, QueryDeadline deadline, QueryMetrics.QueryTimer timer) {
+        if (deadline.isExpired()) {
+            LOGGER.info("Query timeout of " + deadline.getTimeoutMillis() + "ms exceeded: " + queryString);
+            timer.failed(QueryDeadline.TIMEOUT_STATUS.getStatusCode());
+            return deadline.timeoutFailure();
         }
+        LOGGER.warn(e.getMessage(), e);
+        LOGGER.info("Original query: " + queryString);
+        timer.failed(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode());
+        return new InternalServerErrorException(e.getMessage(), e);
     }
 
-    private void evaluateAndDecodeNamespaces(TupleQuery query, TupleQueryResultWriter writer) {
-        TupleQueryResult result = query.evaluate();
+    static void evaluateAndDecodeNamespaces(TupleQuery query, TupleQueryResultWriter writer, QueryMetrics.QueryTimer timer) {
+        long startNanos = timer.nanoTime();
+        try (TupleQueryResult result = query.evaluate()) {
+            startNanos = timer.record(QueryMetrics.Phase.EXECUTION, startNanos);
+            writer.startQueryResult(result.getBindingNames());
+            while (result.hasNext()) {
+                writer.handleSolution(decodeNamespaces(result.next()));
+                timer.addRows(1);
+            }
+            writer.endQueryResult();
+        }
+        timer.record(QueryMetrics.Phase.SERIALIZATION, startNanos);
+    }
 
-        writer.startQueryResult(result.getBindingNames());
-        while (result.hasNext()) {
-            BindingSet oldSet = result.next();
-            MapBindingSet newSet = new MapBindingSet();
-            for (Binding binding : oldSet) {
-                Value value = binding.getValue();
-                if (binding.getValue() instanceof org.eclipse.rdf4j.model.IRI) {
-                    value = SimpleValueFactory.getInstance().createIRI(mutateNamespace(value.stringValue(), false));
-                }
-                newSet.addBinding(binding.getName(), value);
+    /**
+     * @return the solution with the namespaces of its IRIs translated back from the mw{n}ns form.
+     */
+    static MapBindingSet decodeNamespaces(BindingSet bindingSet) {
+        MapBindingSet newSet = new MapBindingSet();
+        for (Binding binding : bindingSet) {
+            Value value = binding.getValue();
+            if (binding.getValue() instanceof org.eclipse.rdf4j.model.IRI) {
+                value = SimpleValueFactory.getInstance().createIRI(mutateNamespace(value.stringValue(), false));
             }
-            writer.handleSolution(newSet);
+            newSet.addBinding(binding.getName(), value);
         }
-        writer.endQueryResult();
+        return newSet;
     }
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.http;
+
+import com.google.common.hash.Hashing;
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.rio.*;
+import org.mediawiki.sparql.mwontop.utils.InternalFilesManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.EntityTag;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The ontology serialized once in every RDF format a writer is available for, raw, gzipped and deflated.
+ * It never changes at runtime, so each serialization gets a strong entity tag derived from its content and its coding.
+ */
+final class SerializedOntology {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SerializedOntology.class);
+    private static final String ONTOLOGY_FILE = "/ontology.ttl";
+    private static final SerializedOntology INSTANCE = new SerializedOntology(loadOntology());
+
+    private final Map<RDFFormat, Serialization> serializations = new HashMap<>();
+
+    SerializedOntology(Model ontology) {
+        for (RDFFormat format : RDFWriterRegistry.getInstance().getKeys()) {
+            try {
+                serializations.put(format, new Serialization(serialize(ontology, format)));
+            } catch (RDFHandlerException | UnsupportedRDFormatException e) {
+                LOGGER.warn("Unable to serialize the ontology in " + format + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    static SerializedOntology getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return {@code null} if the ontology could not be serialized in this format.
+     */
+    Serialization get(RDFFormat format) {
+        return serializations.get(format);
+    }
+
+    private static Model loadOntology() {
+        try {
+            return InternalFilesManager.parseTurtleFile(ONTOLOGY_FILE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read the ontology", e);
+        }
+    }
+
+    private static byte[] serialize(Model ontology, RDFFormat format) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Rio.write(ontology, outputStream, format);
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Content codings the ontology is served with.
+     */
+    enum Coding {
+        IDENTITY("identity"),
+        GZIP("gzip"),
+        DEFLATE("deflate");
+
+        private final String name;
+
+        Coding(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return the name of the coding in the {@code Content-Encoding} header.
+         */
+        String getName() {
+            return name;
+        }
+    }
+
+    static final class Serialization {
+        private final Map<Coding, byte[]> bodies = new EnumMap<>(Coding.class);
+        private final Map<Coding, EntityTag> tags = new EnumMap<>(Coding.class);
+
+        private Serialization(byte[] body) {
+            String hash = Hashing.sha256().hashBytes(body).toString().substring(0, 32);
+            for (Coding coding : Coding.values()) {
+                bodies.put(coding, encode(body, coding));
+                tags.put(coding, new EntityTag(coding == Coding.IDENTITY ? hash : hash + "-" + coding.getName()));
+            }
+        }
+
+        byte[] getBody(Coding coding) {
+            return bodies.get(coding);
+        }
+
+        EntityTag getTag(Coding coding) {
+            return tags.get(coding);
+        }
+
+        private static byte[] encode(byte[] body, Coding coding) {
+            if (coding == Coding.IDENTITY) {
+                return body;
+            }
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            try (OutputStream encodingStream = coding == Coding.GZIP ? new GZIPOutputStream(outputStream) : new DeflaterOutputStream(outputStream)) {
+                encodingStream.write(body);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return outputStream.toByteArray();
+        }
+    }
+}
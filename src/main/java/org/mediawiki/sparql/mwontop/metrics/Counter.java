@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.mediawiki.sparql.mwontop.metrics;
+
+import javax.management.DescriptorKey;
+import java.lang.annotation.*;
+
+/**
+ * Marks an MXBean attribute counting events since the start of the service, like completed requests.
+ * <p>
+ * The attribute descriptor gets a {@code metricType} field with the {@code counter} value,
+ * so {@link JmxMetrics} exports the attribute as a Prometheus counter instead of a gauge.
+ */
+@Documented
+@Retention( RetentionPolicy.RUNTIME )
+@Target( ElementType.METHOD )
+public @interface Counter {
+    String METRIC_TYPE_FIELD = "metricType";
+    String COUNTER_TYPE = "counter";
+
+    @DescriptorKey( METRIC_TYPE_FIELD )
+    String metricType() default COUNTER_TYPE;
+}
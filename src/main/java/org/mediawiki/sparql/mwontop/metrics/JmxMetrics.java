@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.metrics;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.*;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Registration of the service metrics in the platform MBean server.
+ * <p>
+ * The numeric and boolean attributes of the registered MXBeans are also exported as Prometheus gauges,
+ * named after the bean type and the attribute, like {@code mw2sparql_http_executor_queue_depth}.
+ * The attributes annotated with {@link Counter} are exported as counters with the {@code _total} suffix,
+ * like {@code mw2sparql_http_executor_completed_requests_total}.
+ * The other properties of the bean name, like {@code host} in {@code type=DatabaseHost,host=...}, become labels.
+ */
+public final class JmxMetrics {
+    private static final Logger LOGGER = LoggerFactory.getLogger( JmxMetrics.class );
+    private static final String TYPE_PROPERTY = "type";
+    private static final List<ObjectName> REGISTERED = new CopyOnWriteArrayList<>();
+
+    private JmxMetrics() {
+    }
+
+    public static void register( @NonNull Object mxBean, @NonNull String objectName ) {
+        try {
+            ObjectName name = new ObjectName( objectName );
+            ManagementFactory.getPlatformMBeanServer().registerMBean( mxBean, name );
+            REGISTERED.add( name );
+        } catch ( JMException e ) {
+            LOGGER.warn( "Unable to register metrics " + objectName + ": " + e.getMessage(), e );
+        }
+    }
+
+    public static void unregister( @NonNull String objectName ) {
+        try {
+            ObjectName name = new ObjectName( objectName );
+            REGISTERED.remove( name );
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean( name );
+        } catch ( JMException e ) {
+            LOGGER.warn( "Unable to unregister metrics " + objectName + ": " + e.getMessage(), e );
+        }
+    }
+
+    public static void writePrometheus( @NonNull Writer writer ) throws IOException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Map<String, List<String>> samplesByMetric = new LinkedHashMap<>();
+        Map<String, String> types = new HashMap<>();
+        for ( ObjectName name : REGISTERED ) {
+            String prefix = "mw2sparql_" + toSnakeCase( name.getKeyProperty( TYPE_PROPERTY ) ) + "_";
+            String labels = labels( name );
+            try {
+                for ( MBeanAttributeInfo attribute : server.getMBeanInfo( name ).getAttributes() ) {
+                    Object value = server.getAttribute( name, attribute.getName() );
+                    if ( value instanceof Boolean ) {
+                        value = (Boolean) value ? 1 : 0;
+                    }
+                    if ( value instanceof Number ) {
+                        boolean counter = Counter.COUNTER_TYPE.equals( attribute.getDescriptor().getFieldValue( Counter.METRIC_TYPE_FIELD ) );
+                        String metric = prefix + toSnakeCase( attribute.getName() ) + ( counter ? "_total" : "" );
+                        types.put( metric, counter ? "counter" : "gauge" );
+                        samplesByMetric.computeIfAbsent( metric, key -> new ArrayList<>() ).add( metric + labels + " " + value + "\n" );
+                    }
+                }
+            } catch ( JMException e ) {
+                LOGGER.warn( "Unable to read metrics " + name + ": " + e.getMessage(), e );
+            }
+        }
+        for ( Map.Entry<String, List<String>> metric : samplesByMetric.entrySet() ) {
+            writer.write( "# TYPE " + metric.getKey() + " " + types.get( metric.getKey() ) + "\n" );
+            for ( String sample : metric.getValue() ) {
+                writer.write( sample );
+            }
+        }
+    }
+
+    @NonNull
+    private static String labels( @NonNull ObjectName name ) {
+        List<String> labels = new ArrayList<>();
+        for ( Map.Entry<String, String> property : name.getKeyPropertyList().entrySet() ) {
+            if ( !property.getKey().equals( TYPE_PROPERTY ) ) {
+                String value = property.getValue();
+                if ( value.startsWith( "\"" ) ) {
+                    value = ObjectName.unquote( value );
+                }
+                labels.add( toSnakeCase( property.getKey() ) + "=\"" + QueryMetrics.escapeLabelValue( value ) + "\"" );
+            }
+        }
+        return labels.isEmpty() ? "" : "{" + String.join( ",", labels ) + "}";
+    }
+
+    @NonNull
+    private static String toSnakeCase( @NonNull String camelCase ) {
+        return camelCase.replaceAll( "([a-z0-9])([A-Z])", "$1_$2" ).toLowerCase();
+    }
+}
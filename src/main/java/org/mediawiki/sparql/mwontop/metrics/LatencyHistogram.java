@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.metrics;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of durations in fixed buckets, from half a millisecond to five minutes.
+ * <p>
+ * Recording is lock free and does not allocate, so it can be done on every query from many threads.
+ */
+public final class LatencyHistogram {
+    private static final double[] BUCKET_BOUNDS_SECONDS = {
+            0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300
+    };
+    private static final long[] BUCKET_BOUNDS_NANOS = new long[BUCKET_BOUNDS_SECONDS.length];
+
+    static {
+        for ( int i = 0; i < BUCKET_BOUNDS_SECONDS.length; i++ ) {
+            BUCKET_BOUNDS_NANOS[i] = (long) ( BUCKET_BOUNDS_SECONDS[i] * TimeUnit.SECONDS.toNanos( 1 ) );
+        }
+    }
+
+    /**
+     * Counts of durations per bucket, the last one being for durations above all the bounds.
+     */
+    private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS_NANOS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    LatencyHistogram() {
+        for ( int i = 0; i < buckets.length; i++ ) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record( long durationNanos ) {
+        int bucket = 0;
+        while ( bucket < BUCKET_BOUNDS_NANOS.length && durationNanos > BUCKET_BOUNDS_NANOS[bucket] ) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        sumNanos.add( Math.max( durationNanos, 0 ) );
+    }
+
+    long getCount() {
+        long count = 0;
+        for ( LongAdder bucket : buckets ) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * Writes the histogram samples in the Prometheus text format.
+     *
+     * @param labels labels of the samples, like {@code phase="parsing"}, or an empty string
+     */
+    void writePrometheus( @NonNull Writer writer, @NonNull String name, @NonNull String labels ) throws IOException {
+        String labelsPrefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulativeCount = 0;
+        for ( int i = 0; i < buckets.length; i++ ) {
+            cumulativeCount += buckets[i].sum();
+            String bound = i < BUCKET_BOUNDS_SECONDS.length ? Double.toString( BUCKET_BOUNDS_SECONDS[i] ) : "+Inf";
+            writer.write( name + "_bucket{" + labelsPrefix + "le=\"" + bound + "\"} " + cumulativeCount + "\n" );
+        }
+        String sampleLabels = labels.isEmpty() ? "" : "{" + labels + "}";
+        writer.write( name + "_sum" + sampleLabels + " " + toSeconds( sumNanos.sum() ) + "\n" );
+        writer.write( name + "_count" + sampleLabels + " " + cumulativeCount + "\n" );
+    }
+
+    static double toSeconds( long nanos ) {
+        return nanos / (double) TimeUnit.SECONDS.toNanos( 1 );
+    }
+}
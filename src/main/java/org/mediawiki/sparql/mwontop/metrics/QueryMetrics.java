@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.metrics;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.io.*;
+import java.net.URI;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Latencies of the SPARQL queries, per evaluation phase, per result format and per wiki, exposed in the Prometheus text format.
+ * Queries slower than the configured threshold are also written to the {@link SlowQueryLog}.
+ */
+public final class QueryMetrics {
+    /**
+     * Maximal number of distinct wikis with their own samples, so that queries with made up IRIs do not fill the memory.
+     */
+    static final int MAX_WIKIS = 1024;
+    static final String OTHER_WIKIS = "other";
+    static final String NO_WIKI = "none";
+    static final String UNKNOWN_FORMAT = "unknown";
+    private static final QueryMetrics INSTANCE = new QueryMetrics( System::nanoTime, SlowQueryLog.fromConfiguration() );
+
+    private final LongSupplier nanoClock;
+    private final SlowQueryLog slowQueryLog;
+    private final Map<Phase, LatencyHistogram> phaseDurations = new EnumMap<>( Phase.class );
+    private final ConcurrentMap<String, LatencyHistogram> durationsByFormat = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, WikiCounters> countersByWiki = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, LongAdder> errorsByStatus = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlightQueries = new AtomicInteger();
+
+    QueryMetrics( @NonNull LongSupplier nanoClock, @NonNull SlowQueryLog slowQueryLog ) {
+        this.nanoClock = nanoClock;
+        this.slowQueryLog = slowQueryLog;
+        for ( Phase phase : Phase.values() ) {
+            phaseDurations.put( phase, new LatencyHistogram() );
+        }
+    }
+
+    @NonNull
+    public static QueryMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    public long nanoTime() {
+        return nanoClock.getAsLong();
+    }
+
+    /**
+     * Records the duration of a phase started at {@code startNanos}.
+     *
+     * @return the end time of the phase, to be used as start of the next one
+     */
+    public long record( @NonNull Phase phase, long startNanos ) {
+        long endNanos = nanoClock.getAsLong();
+        phaseDurations.get( phase ).record( endNanos - startNanos );
+        return endNanos;
+    }
+
+    /**
+     * @return the timer of a new query, to be closed once its response is written.
+     */
+    @NonNull
+    public QueryTimer startQuery() {
+        inFlightQueries.incrementAndGet();
+        return new QueryTimer( nanoClock.getAsLong() );
+    }
+
+    public void writePrometheus( @NonNull Writer writer ) throws IOException {
+        writer.write( "# HELP mw2sparql_query_phase_duration_seconds Duration of the query evaluation phases.\n" );
+        writer.write( "# TYPE mw2sparql_query_phase_duration_seconds histogram\n" );
+        for ( Map.Entry<Phase, LatencyHistogram> phase : phaseDurations.entrySet() ) {
+            phase.getValue().writePrometheus( writer, "mw2sparql_query_phase_duration_seconds", label( "phase", phase.getKey().getLabel() ) );
+        }
+
+        writer.write( "# HELP mw2sparql_query_duration_seconds Duration of the queries, from their arrival to the end of their response, per result format.\n" );
+        writer.write( "# TYPE mw2sparql_query_duration_seconds histogram\n" );
+        for ( Map.Entry<String, LatencyHistogram> format : new TreeMap<>( durationsByFormat ).entrySet() ) {
+            format.getValue().writePrometheus( writer, "mw2sparql_query_duration_seconds", label( "format", format.getKey() ) );
+        }
+
+        Map<String, WikiCounters> wikis = new TreeMap<>( countersByWiki );
+        writer.write( "# HELP mw2sparql_wiki_queries_total Number of queries per wiki of their IRIs.\n" );
+        writer.write( "# TYPE mw2sparql_wiki_queries_total counter\n" );
+        for ( Map.Entry<String, WikiCounters> wiki : wikis.entrySet() ) {
+            writer.write( "mw2sparql_wiki_queries_total{" + label( "wiki", wiki.getKey() ) + "} " + wiki.getValue().queries.sum() + "\n" );
+        }
+        writer.write( "# HELP mw2sparql_wiki_query_duration_seconds_total Total duration of the queries per wiki of their IRIs.\n" );
+        writer.write( "# TYPE mw2sparql_wiki_query_duration_seconds_total counter\n" );
+        for ( Map.Entry<String, WikiCounters> wiki : wikis.entrySet() ) {
+            writer.write( "mw2sparql_wiki_query_duration_seconds_total{" + label( "wiki", wiki.getKey() ) + "} " +
+                    LatencyHistogram.toSeconds( wiki.getValue().durationNanos.sum() ) + "\n" );
+        }
+        writer.write( "# HELP mw2sparql_wiki_query_errors_total Number of failed queries per wiki of their IRIs.\n" );
+        writer.write( "# TYPE mw2sparql_wiki_query_errors_total counter\n" );
+        for ( Map.Entry<String, WikiCounters> wiki : wikis.entrySet() ) {
+            writer.write( "mw2sparql_wiki_query_errors_total{" + label( "wiki", wiki.getKey() ) + "} " + wiki.getValue().errors.sum() + "\n" );
+        }
+
+        writer.write( "# HELP mw2sparql_query_errors_total Number of failed queries per HTTP status.\n" );
+        writer.write( "# TYPE mw2sparql_query_errors_total counter\n" );
+        for ( Map.Entry<Integer, LongAdder> status : new TreeMap<>( errorsByStatus ).entrySet() ) {
+            writer.write( "mw2sparql_query_errors_total{" + label( "status", status.getKey().toString() ) + "} " + status.getValue().sum() + "\n" );
+        }
+
+        writer.write( "# HELP mw2sparql_queries_in_flight Number of queries being evaluated or streamed.\n" );
+        writer.write( "# TYPE mw2sparql_queries_in_flight gauge\n" );
+        writer.write( "mw2sparql_queries_in_flight " + inFlightQueries.get() + "\n" );
+
+        writer.write( "# HELP mw2sparql_slow_query_log_dropped_entries_total Number of slow query log entries dropped because the writer fell behind.\n" );
+        writer.write( "# TYPE mw2sparql_slow_query_log_dropped_entries_total counter\n" );
+        writer.write( "mw2sparql_slow_query_log_dropped_entries_total " + slowQueryLog.getDroppedEntries() + "\n" );
+    }
+
+    /**
+     * Writes the pending entries of the slow query log, on shutdown.
+     */
+    public void close() {
+        slowQueryLog.close();
+    }
+
+    int getInFlightQueries() {
+        return inFlightQueries.get();
+    }
+
+    @NonNull
+    private static String label( @NonNull String name, @NonNull String value ) {
+        return name + "=\"" + escapeLabelValue( value ) + "\"";
+    }
+
+    @NonNull
+    static String escapeLabelValue( @NonNull String value ) {
+        return value.replace( "\\", "\\\\" ).replace( "\"", "\\\"" ).replace( "\n", "\\n" );
+    }
+
+    public enum Phase {
+        NAMESPACE_MUTATION,
+        PARSING,
+        /**
+         * Unfolding of the query on the mapping by {@link org.mediawiki.sparql.mwontop.utils.SiteSpecificUnfolder}.
+         * Reformulations served by the query cache are not recorded.
+         */
+        REFORMULATION,
+        /**
+         * From the start of the evaluation to the first results, including the reformulation and the SQL query.
+         */
+        EXECUTION,
+        /**
+         * From the first results to the end of the response, including the reading of the rows the database streams.
+         */
+        SERIALIZATION;
+
+        @NonNull
+        String getLabel() {
+            return name().toLowerCase( Locale.ROOT );
+        }
+    }
+
+    private static final class WikiCounters {
+        private final LongAdder queries = new LongAdder();
+        private final LongAdder durationNanos = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+    }
+
+    /**
+     * Timer of a single query. Its total duration is recorded when it is closed.
+     */
+    public final class QueryTimer implements Closeable {
+        private final long startNanos;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final AtomicLongArray phaseNanos = new AtomicLongArray( Phase.values().length );
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private volatile String format = UNKNOWN_FORMAT;
+        private volatile Set<String> wikis = Collections.emptySet();
+        private volatile int errorStatus;
+        private volatile String query;
+        private volatile Supplier<String> sql = () -> null;
+
+        private QueryTimer( long startNanos ) {
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * @see QueryMetrics#record(Phase, long)
+         */
+        public long record( @NonNull Phase phase, long phaseStartNanos ) {
+            long endNanos = QueryMetrics.this.record( phase, phaseStartNanos );
+            phaseNanos.addAndGet( phase.ordinal(), endNanos - phaseStartNanos );
+            return endNanos;
+        }
+
+        public long nanoTime() {
+            return nanoClock.getAsLong();
+        }
+
+        public void setFormat( @NonNull String mimeType ) {
+            format = mimeType;
+        }
+
+        /**
+         * @param siteBaseURLs base URLs of the wikis of the query IRIs, like {@code https://en.wikipedia.org}
+         */
+        public void setWikis( @NonNull Set<String> siteBaseURLs ) {
+            Set<String> hosts = new TreeSet<>();
+            for ( String siteBaseURL : siteBaseURLs ) {
+                String host = URI.create( siteBaseURL ).getAuthority();
+                if ( host != null ) {
+                    hosts.add( host );
+                }
+            }
+            wikis = hosts;
+        }
+
+        /**
+         * @param query the SPARQL query sent by the client
+         * @param sql   looks up the SQL generated for the query, only called if the query is slow
+         */
+        public void setQuery( @NonNull String query, @NonNull Supplier<String> sql ) {
+            this.query = query;
+            this.sql = sql;
+        }
+
+        public void addRows( long count ) {
+            rows.addAndGet( count );
+        }
+
+        /**
+         * @return a stream counting the bytes of the response written to {@code outputStream}
+         */
+        @NonNull
+        public OutputStream countBytes( @NonNull OutputStream outputStream ) {
+            return new FilterOutputStream( outputStream ) {
+                @Override
+                public void write( int b ) throws IOException {
+                    out.write( b );
+                    bytes.incrementAndGet();
+                }
+
+                @Override
+                public void write( @NonNull byte[] b, int off, int len ) throws IOException {
+                    out.write( b, off, len );
+                    bytes.addAndGet( len );
+                }
+            };
+        }
+
+        /**
+         * Flags the query as failed. Only the first reported status is kept.
+         */
+        public void failed( int status ) {
+            if ( errorStatus == 0 ) {
+                errorStatus = status;
+            }
+        }
+
+        @Override
+        public void close() {
+            if ( !closed.compareAndSet( false, true ) ) {
+                return;
+            }
+            long durationNanos = nanoClock.getAsLong() - startNanos;
+            inFlightQueries.decrementAndGet();
+            durationsByFormat.computeIfAbsent( format, key -> new LatencyHistogram() ).record( durationNanos );
+            for ( String wiki : wikis.isEmpty() ? Collections.singleton( NO_WIKI ) : wikis ) {
+                WikiCounters counters = getWikiCounters( wiki );
+                counters.queries.increment();
+                counters.durationNanos.add( durationNanos );
+                if ( errorStatus != 0 ) {
+                    counters.errors.increment();
+                }
+            }
+            if ( errorStatus != 0 ) {
+                errorsByStatus.computeIfAbsent( errorStatus, key -> new LongAdder() ).increment();
+            }
+            if ( slowQueryLog.isSlow( durationNanos ) ) {
+                slowQueryLog.log( toSlowQueryLogEntry( durationNanos ) );
+            }
+        }
+
+        @NonNull
+        private ObjectNode toSlowQueryLogEntry( long durationNanos ) {
+            ObjectNode entry = slowQueryLog.newEntry();
+            entry.put( "timestamp", Instant.now().toString() );
+            entry.put( "durationMillis", toMillis( durationNanos ) );
+            entry.put( "status", errorStatus == 0 ? 200 : errorStatus );
+            entry.put( "format", format );
+            ArrayNode wikisNode = entry.putArray( "wikis" );
+            wikis.forEach( wikisNode::add );
+            entry.put( "rows", rows.get() );
+            entry.put( "bytes", bytes.get() );
+            ObjectNode phasesNode = entry.putObject( "phasesMillis" );
+            for ( Phase phase : Phase.values() ) {
+                // the reformulation happens in an Ontop thread and is only recorded globally
+                if ( phase != Phase.REFORMULATION ) {
+                    phasesNode.put( phase.getLabel(), toMillis( phaseNanos.get( phase.ordinal() ) ) );
+                }
+            }
+            entry.put( "sparql", query );
+            entry.put( "sql", sql.get() );
+            return entry;
+        }
+    }
+
+    private static double toMillis( long nanos ) {
+        return nanos / 1_000_000.0;
+    }
+
+    @NonNull
+    private WikiCounters getWikiCounters( @NonNull String wiki ) {
+        WikiCounters counters = countersByWiki.get( wiki );
+        if ( counters != null ) {
+            return counters;
+        }
+        return countersByWiki.computeIfAbsent( countersByWiki.size() < MAX_WIKIS ? wiki : OTHER_WIKIS, key -> new WikiCounters() );
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.metrics;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.mediawiki.sparql.mwontop.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Log of the queries slower than a threshold, one JSON object per line.
+ * <p>
+ * Entries are written by a background thread, started on the first slow query, so the request threads never wait for the disk.
+ * If the writer falls behind, entries not fitting in its queue are dropped and counted.
+ * If the log cannot be opened or written, the error is logged and the writer is restarted by the first entry
+ * logged after {@link #RESTART_DELAY_NANOS}, the entries queued meanwhile being kept up to the queue capacity.
+ */
+public final class SlowQueryLog implements Closeable {
+    static final int QUEUE_CAPACITY = 1024;
+    static final long RESTART_DELAY_NANOS = TimeUnit.MINUTES.toNanos( 1 );
+    private static final Logger LOGGER = LoggerFactory.getLogger( SlowQueryLog.class );
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final long thresholdNanos;
+    @NonNull
+    private final Callable<Writer> writerFactory;
+    @NonNull
+    private final LongSupplier nanoClock;
+    @NonNull
+    private final BlockingQueue<ObjectNode> queue = new ArrayBlockingQueue<>( QUEUE_CAPACITY );
+    @NonNull
+    private final AtomicLong droppedEntries = new AtomicLong();
+    @Nullable
+    private Thread writerThread;
+    private boolean failed;
+    private long failureNanos;
+    private volatile boolean closed;
+
+    /**
+     * @param thresholdNanos minimal duration of the logged queries, {@code 0} or less disables the log
+     * @param writerFactory  opens the log output, called by the background thread before writing the first entry
+     */
+    SlowQueryLog( long thresholdNanos, @NonNull Callable<Writer> writerFactory, @NonNull LongSupplier nanoClock ) {
+        this.thresholdNanos = thresholdNanos;
+        this.writerFactory = writerFactory;
+        this.nanoClock = nanoClock;
+    }
+
+    @NonNull
+    static SlowQueryLog fromConfiguration() {
+        Configuration configuration = Configuration.instance();
+        File file = configuration.getSlowQueryLogFile();
+        return new SlowQueryLog(
+                TimeUnit.MILLISECONDS.toNanos( configuration.getSlowQueryThresholdMillis() ),
+                () -> new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file, true ), StandardCharsets.UTF_8 ) ),
+                System::nanoTime
+        );
+    }
+
+    boolean isSlow( long durationNanos ) {
+        return thresholdNanos > 0 && durationNanos >= thresholdNanos && !closed;
+    }
+
+    /**
+     * Queues an entry to be written. Never blocks.
+     */
+    void log( @NonNull ObjectNode entry ) {
+        startWriterThread();
+        if ( !queue.offer( entry ) ) {
+            droppedEntries.incrementAndGet();
+        }
+    }
+
+    @NonNull
+    ObjectNode newEntry() {
+        return OBJECT_MAPPER.createObjectNode();
+    }
+
+    long getDroppedEntries() {
+        return droppedEntries.get();
+    }
+
+    /**
+     * Writes the queued entries and stops the background thread.
+     */
+    @Override
+    public void close() {
+        Thread thread;
+        synchronized ( this ) {
+            if ( closed ) {
+                return;
+            }
+            closed = true;
+            thread = writerThread;
+        }
+        if ( thread != null ) {
+            thread.interrupt();
+            try {
+                thread.join( TimeUnit.SECONDS.toMillis( 10 ) );
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if ( ( thread == null || !thread.isAlive() ) && !queue.isEmpty() ) {
+            // the writer failed, last attempt to write the entries queued since
+            writeEntries();
+        }
+    }
+
+    private synchronized void startWriterThread() {
+        if ( writerThread == null && !closed && ( !failed || nanoClock.getAsLong() - failureNanos >= RESTART_DELAY_NANOS ) ) {
+            writerThread = new Thread( this::writeEntries, "slow-query-log" );
+            writerThread.setDaemon( true );
+            writerThread.start();
+        }
+    }
+
+    private void writeEntries() {
+        try ( Writer writer = writerFactory.call() ) {
+            while ( !closed || !queue.isEmpty() ) {
+                ObjectNode entry = queue.poll();
+                if ( entry == null ) {
+                    writer.flush();
+                    try {
+                        entry = queue.take();
+                    } catch ( InterruptedException e ) {
+                        continue;
+                    }
+                }
+                writer.write( OBJECT_MAPPER.writeValueAsString( entry ) );
+                writer.write( '\n' );
+            }
+            writer.flush();
+        } catch ( Exception e ) {
+            LOGGER.error( "Unable to write the slow query log, retrying in " + TimeUnit.NANOSECONDS.toSeconds( RESTART_DELAY_NANOS ) +
+                    " seconds: " + e.getMessage(), e );
+            synchronized ( this ) {
+                failed = true;
+                failureNanos = nanoClock.getAsLong();
+                writerThread = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.sql;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import it.unibz.inf.ontop.answering.reformulation.ExecutableQuery;
+import it.unibz.inf.ontop.answering.reformulation.QueryCache;
+import it.unibz.inf.ontop.answering.reformulation.impl.SQLExecutableQuery;
+import it.unibz.inf.ontop.answering.reformulation.input.InputQuery;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.mediawiki.sparql.mwontop.Configuration;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Ontop cache of reformulated queries, so a repeated SPARQL query skips the unfolding and SQL generation
+ * and only runs its SQL.
+ * <p>
+ * Entries are keyed by the SPARQL text given to the repository, that is after the namespaces mutation,
+ * and weighted by the length of this text and of the generated SQL.
+ * Least recently used entries are evicted once {@link Configuration#getQueryCacheSize()} is reached.
+ * <p>
+ * Registered in Ontop by {@link RepositoryFactory} in place of its default {@code DummyQueryCache}.
+ */
+public class BoundedQueryCache implements QueryCache {
+    @NonNull
+    private static final Set<BoundedQueryCache> INSTANCES = Collections.synchronizedSet( Collections.newSetFromMap( new WeakHashMap<>() ) );
+
+    @NonNull
+    private final Cache<String, ExecutableQuery> cache;
+
+    public BoundedQueryCache() {
+        this( Configuration.instance().getQueryCacheSize() );
+    }
+
+    BoundedQueryCache( long maximumSize ) {
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight( Math.max( maximumSize, 0 ) )
+                .weigher( ( String query, ExecutableQuery executableQuery ) -> weightOf( query, executableQuery ) )
+                .recordStats()
+                .build();
+        INSTANCES.add( this );
+    }
+
+    // Ontop's QueryCache interface takes a raw InputQuery
+    @SuppressWarnings( "rawtypes" )
+    @Nullable
+    @Override
+    public ExecutableQuery get( @NonNull InputQuery inputQuery ) {
+        return cache.getIfPresent( inputQuery.getInputString() );
+    }
+
+    // Ontop's QueryCache interface takes a raw InputQuery
+    @SuppressWarnings( "rawtypes" )
+    @Override
+    public void put( @NonNull InputQuery inputQuery, @NonNull ExecutableQuery executableQuery ) {
+        cache.put( inputQuery.getInputString(), executableQuery );
+    }
+
+    @Override
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    @NonNull
+    CacheStats getStats() {
+        return cache.stats();
+    }
+
+    long size() {
+        return cache.size();
+    }
+
+    /**
+     * @return hit and miss counters summed over every live repository cache.
+     */
+    @NonNull
+    public static CacheStats getGlobalStats() {
+        CacheStats stats = new CacheStats( 0, 0, 0, 0, 0, 0 );
+        synchronized ( INSTANCES ) {
+            for ( BoundedQueryCache instance : INSTANCES ) {
+                stats = stats.plus( instance.getStats() );
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Looks up the SQL generated for a query in every live repository cache, without counting it as a cache hit.
+     *
+     * @param query the SPARQL query given to the repository, after the namespaces mutation.
+     * @return {@code null} if the query is not cached anymore.
+     */
+    @Nullable
+    public static String getSQL( @NonNull String query ) {
+        synchronized ( INSTANCES ) {
+            for ( BoundedQueryCache instance : INSTANCES ) {
+                ExecutableQuery executableQuery = instance.cache.asMap().get( query );
+                if ( executableQuery instanceof SQLExecutableQuery ) {
+                    return ( (SQLExecutableQuery) executableQuery ).getSQL();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int weightOf( @NonNull String query, @NonNull ExecutableQuery executableQuery ) {
+        int weight = query.length();
+        if ( executableQuery instanceof SQLExecutableQuery ) {
+            String sql = ( (SQLExecutableQuery) executableQuery ).getSQL();
+            if ( sql != null ) {
+                weight += sql.length();
+            }
+        }
+        return weight;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.sql;
+
+import org.mediawiki.sparql.mwontop.metrics.Counter;
+
+/**
+ * Metrics of the connection pool of a database host, exposed over JMX as {@value HostConnectionPools#OBJECT_NAME_PREFIX} followed by the host.
+ */
+public interface DatabaseHostMXBean {
+
+    String getHost();
+
+    /**
+     * @return if the last connection acquisition or health check succeeded.
+     */
+    boolean isHealthy();
+
+    int getActiveConnections();
+
+    int getIdleConnections();
+
+    int getThreadsAwaitingConnection();
+
+    int getTotalConnections();
+
+    int getMaximumConnections();
+
+    @Counter
+    long getAcquiredConnections();
+
+    @Counter
+    long getFailedAcquisitions();
+
+    /**
+     * @return the number of queries that waited for a free connection longer than the pool timeout.
+     */
+    @Counter
+    long getTimedOutAcquisitions();
+
+    /**
+     * @return the total time spent waiting for connections, in milliseconds.
+     */
+    double getAcquisitionTimeMillis();
+
+    /**
+     * @return the duration of the last health check, in milliseconds.
+     */
+    double getHealthCheckLatencyMillis();
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.sql;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.mediawiki.sparql.mwontop.Configuration;
+import org.mediawiki.sparql.mwontop.sql.RepositoryFactory.SiteConfig;
+
+import java.util.Collection;
+
+/**
+ * Resolution of the database host of each wiki from {@link Configuration#getDatabaseHostPattern()}.
+ * <p>
+ * The replicas are split in sections, each wiki being only on the hosts of its section. With a {@value #SECTION_PLACEHOLDER}
+ * pattern, like {@code {section}.analytics.db.svc.wikimedia.cloud}, the SQL about a wiki goes to the host of its section,
+ * read from the {@code slice} column of {@code meta_p.wiki}, so the wikis of a section share a host and its connection pool.
+ * With a {@value #SITE_ID_PLACEHOLDER} pattern, each wiki has its own host.
+ * Without pattern, everything goes to {@link Configuration#getDatabaseHost()}.
+ */
+final class DatabaseHosts {
+    static final String SITE_ID_PLACEHOLDER = "{siteId}";
+    static final String SECTION_PLACEHOLDER = "{section}";
+    /**
+     * Wiki whose host serves {@code meta_p} when no default host is configured.
+     */
+    private static final String META_SITE_ID = "meta";
+    /**
+     * Section of {@link #META_SITE_ID}.
+     */
+    private static final String META_SECTION = "s7";
+
+    @Nullable
+    private final String defaultHost;
+    @Nullable
+    private final String hostPattern;
+
+    DatabaseHosts( @Nullable String defaultHost, @Nullable String hostPattern ) {
+        this.defaultHost = isBlank( defaultHost ) ? null : defaultHost.trim();
+        this.hostPattern = isBlank( hostPattern ) || !( hostPattern.contains( SITE_ID_PLACEHOLDER ) || hostPattern.contains( SECTION_PLACEHOLDER ) )
+                ? null : hostPattern.trim();
+        if ( this.defaultHost == null && this.hostPattern == null ) {
+            throw new IllegalArgumentException( "Either app.db.host or app.db.hostPattern with " + SITE_ID_PLACEHOLDER + " or " +
+                    SECTION_PLACEHOLDER + " should be configured" );
+        }
+    }
+
+    @NonNull
+    static DatabaseHosts fromConfiguration() {
+        Configuration configuration = Configuration.instance();
+        return new DatabaseHosts( configuration.getDatabaseHost(), configuration.getDatabaseHostPattern() );
+    }
+
+    /**
+     * @return the host of the queries about several sections, and of {@code meta_p}.
+     */
+    @NonNull
+    String getDefaultHost() {
+        return defaultHost != null ? defaultHost : forSite( META_SITE_ID, META_SECTION );
+    }
+
+    /**
+     * @param siteId  the wiki id, like {@code enwiki}
+     * @param section the section of the wiki, like {@code s1}, if known.
+     * @return the host of the wiki, the default host if the pattern needs the section and it is not known.
+     */
+    @NonNull
+    String forSite( @NonNull String siteId, @Nullable String section ) {
+        if ( hostPattern == null || ( section == null && hostPattern.contains( SECTION_PLACEHOLDER ) ) ) {
+            return getDefaultHost();
+        }
+        String host = hostPattern.replace( SITE_ID_PLACEHOLDER, siteId );
+        return section == null ? host : host.replace( SECTION_PLACEHOLDER, section );
+    }
+
+    @NonNull
+    String forSite( @NonNull SiteConfig site ) {
+        return forSite( site.getDatabaseName(), site.getSection() );
+    }
+
+    /**
+     * @return the host of all the given wikis if they share one, the default host otherwise.
+     */
+    @NonNull
+    String forSites( @NonNull Collection<SiteConfig> sites ) {
+        String host = null;
+        for ( SiteConfig site : sites ) {
+            String siteHost = forSite( site );
+            if ( host != null && !host.equals( siteHost ) ) {
+                return getDefaultHost();
+            }
+            host = siteHost;
+        }
+        return host != null ? host : getDefaultHost();
+    }
+
+    private static boolean isBlank( @Nullable String value ) {
+        return value == null || value.trim().isEmpty();
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.sql;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import it.unibz.inf.ontop.dbschema.RDBMetadata;
+import it.unibz.inf.ontop.dbschema.RDBMetadataExtractionTools;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+
+/**
+ * The properties of the database {@link RDBMetadataExtractionTools#createMetadata(Connection)} reads
+ * to build an empty {@link RDBMetadata}: product, driver and identifiers case handling.
+ * <p>
+ * They are saved in the {@link StartupSnapshot} so the metadata can be created again without a database connection.
+ */
+final class DatabaseProperties {
+    @Nullable
+    private final String productName;
+    @Nullable
+    private final String productVersion;
+    @Nullable
+    private final String driverName;
+    @Nullable
+    private final String driverVersion;
+    private final boolean storesMixedCaseIdentifiers;
+    private final boolean storesLowerCaseIdentifiers;
+    private final boolean storesUpperCaseIdentifiers;
+
+    DatabaseProperties( @Nullable String productName, @Nullable String productVersion, @Nullable String driverName, @Nullable String driverVersion,
+                        boolean storesMixedCaseIdentifiers, boolean storesLowerCaseIdentifiers, boolean storesUpperCaseIdentifiers ) {
+        this.productName = productName;
+        this.productVersion = productVersion;
+        this.driverName = driverName;
+        this.driverVersion = driverVersion;
+        this.storesMixedCaseIdentifiers = storesMixedCaseIdentifiers;
+        this.storesLowerCaseIdentifiers = storesLowerCaseIdentifiers;
+        this.storesUpperCaseIdentifiers = storesUpperCaseIdentifiers;
+    }
+
+    @NonNull
+    static DatabaseProperties of( @NonNull Connection connection ) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        return new DatabaseProperties(
+                metaData.getDatabaseProductName(),
+                metaData.getDatabaseProductVersion(),
+                metaData.getDriverName(),
+                metaData.getDriverVersion(),
+                metaData.storesMixedCaseIdentifiers(),
+                metaData.storesLowerCaseIdentifiers(),
+                metaData.storesUpperCaseIdentifiers()
+        );
+    }
+
+    /**
+     * @return new metadata without relations, as {@link RDBMetadataExtractionTools#createMetadata(Connection)}
+     * would return it for the database these properties were read from.
+     */
+    @NonNull
+    RDBMetadata createMetadata() {
+        try {
+            return RDBMetadataExtractionTools.createMetadata( asConnection() );
+        } catch ( SQLException e ) {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    /**
+     * @return a connection only able to return the metadata of these properties.
+     */
+    @NonNull
+    private Connection asConnection() {
+        DatabaseMetaData metaData = (DatabaseMetaData) Proxy.newProxyInstance(
+                DatabaseMetaData.class.getClassLoader(),
+                new Class<?>[]{DatabaseMetaData.class},
+                ( proxy, method, args ) -> {
+                    switch ( method.getName() ) {
+                        case "getDatabaseProductName":
+                            return productName;
+                        case "getDatabaseProductVersion":
+                            return productVersion;
+                        case "getDriverName":
+                            return driverName;
+                        case "getDriverVersion":
+                            return driverVersion;
+                        case "storesMixedCaseIdentifiers":
+                            return storesMixedCaseIdentifiers;
+                        case "storesLowerCaseIdentifiers":
+                            return storesLowerCaseIdentifiers;
+                        case "storesUpperCaseIdentifiers":
+                            return storesUpperCaseIdentifiers;
+                        case "supportsMixedCaseIdentifiers":
+                        case "storesLowerCaseQuotedIdentifiers":
+                        case "storesUpperCaseQuotedIdentifiers":
+                        case "storesMixedCaseQuotedIdentifiers":
+                        case "supportsMixedCaseQuotedIdentifiers":
+                            return false;
+                        default:
+                            throw new SQLException( "Not available from the saved database properties: " + method.getName() );
+                    }
+                }
+        );
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                ( proxy, method, args ) -> {
+                    if ( method.getName().equals( "getMetaData" ) ) {
+                        return metaData;
+                    }
+                    throw new SQLException( "Not available from the saved database properties: " + method.getName() );
+                }
+        );
+    }
+
+    @NonNull
+    ObjectNode toJson() {
+        ObjectNode node = JsonNodeFactory.instance.objectNode();
+        node.put( "productName", productName );
+        node.put( "productVersion", productVersion );
+        node.put( "driverName", driverName );
+        node.put( "driverVersion", driverVersion );
+        node.put( "storesMixedCaseIdentifiers", storesMixedCaseIdentifiers );
+        node.put( "storesLowerCaseIdentifiers", storesLowerCaseIdentifiers );
+        node.put( "storesUpperCaseIdentifiers", storesUpperCaseIdentifiers );
+        return node;
+    }
+
+    @NonNull
+    static DatabaseProperties fromJson( @NonNull JsonNode node ) {
+        return new DatabaseProperties(
+                node.path( "productName" ).textValue(),
+                node.path( "productVersion" ).textValue(),
+                node.path( "driverName" ).textValue(),
+                node.path( "driverVersion" ).textValue(),
+                node.path( "storesMixedCaseIdentifiers" ).asBoolean(),
+                node.path( "storesLowerCaseIdentifiers" ).asBoolean(),
+                node.path( "storesUpperCaseIdentifiers" ).asBoolean()
+        );
+    }
+}
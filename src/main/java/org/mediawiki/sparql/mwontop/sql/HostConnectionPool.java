@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.sql;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Pool of the connections to a database host, shared by all the repositories whose SQL goes to this host.
+ * <p>
+ * Each connection in use also holds a permit of a semaphore shared by the pools of all the hosts,
+ * so the service as a whole never uses more connections than it has permits.
+ */
+final class HostConnectionPool implements DatabaseHostMXBean, AutoCloseable {
+    private static final int HEALTH_CHECK_TIMEOUT_SECONDS = 5;
+
+    @NonNull
+    private final String host;
+    @NonNull
+    private final HikariDataSource dataSource;
+    @NonNull
+    private final Semaphore connectionPermits;
+    @NonNull
+    private final LongSupplier nanoClock;
+    private final LongAdder acquiredConnections = new LongAdder();
+    private final LongAdder failedAcquisitions = new LongAdder();
+    private final LongAdder timedOutAcquisitions = new LongAdder();
+    private final LongAdder acquisitionNanos = new LongAdder();
+    private final AtomicLong healthCheckNanos = new AtomicLong();
+    private volatile boolean healthy = true;
+
+    HostConnectionPool( @NonNull String host, @NonNull HikariConfig config, @NonNull Semaphore connectionPermits, @NonNull LongSupplier nanoClock ) {
+        this.host = host;
+        this.connectionPermits = connectionPermits;
+        this.nanoClock = nanoClock;
+        config.setPoolName( "mw2sparql-" + host );
+        // the pool is created before the host is reachable, e.g. when a repository is built from the startup snapshot
+        config.setInitializationFailTimeout( -1 );
+        this.dataSource = new HikariDataSource( config );
+    }
+
+    @NonNull
+    Connection getConnection() throws SQLException {
+        long startNanos = nanoClock.getAsLong();
+        try {
+            acquirePermit();
+            Connection connection;
+            try {
+                connection = dataSource.getConnection();
+            } catch ( SQLException | RuntimeException e ) {
+                connectionPermits.release();
+                throw e;
+            }
+            acquiredConnections.increment();
+            healthy = true;
+            return releasingPermitOnClose( connection );
+        } catch ( SQLException e ) {
+            failedAcquisitions.increment();
+            if ( e instanceof SQLTransientConnectionException ) {
+                timedOutAcquisitions.increment();
+            }
+            // without cause, the timeout is only due to all the connections being in use
+            if ( !( e instanceof SQLTransientConnectionException ) || e.getCause() != null ) {
+                healthy = false;
+            }
+            throw e;
+        } finally {
+            acquisitionNanos.add( nanoClock.getAsLong() - startNanos );
+        }
+    }
+
+    private void acquirePermit() throws SQLException {
+        try {
+            if ( !connectionPermits.tryAcquire( dataSource.getConnectionTimeout(), TimeUnit.MILLISECONDS ) ) {
+                throw new SQLTransientConnectionException( "All the database connections of the service are in use, " + host + " waited for " +
+                        dataSource.getConnectionTimeout() + "ms" );
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException( "Interrupted while waiting for a database connection to " + host );
+        }
+    }
+
+    /**
+     * @return the connection, releasing its permit when it is closed for the first time
+     * and giving the statements it creates to {@link RunningStatements}.
+     */
+    @NonNull
+    private Connection releasingPermitOnClose( @NonNull Connection connection ) {
+        AtomicBoolean closed = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance( Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, ( proxy, method, args ) -> {
+            if ( method.getName().equals( "close" ) && method.getParameterCount() == 0 && closed.compareAndSet( false, true ) ) {
+                try {
+                    connection.close();
+                } finally {
+                    connectionPermits.release();
+                }
+                return null;
+            }
+            Object result;
+            try {
+                result = method.invoke( connection, args );
+            } catch ( InvocationTargetException e ) {
+                throw e.getCause();
+            }
+            if ( result instanceof Statement ) {
+                RunningStatements.created( (Statement) result );
+            }
+            return result;
+        } );
+    }
+
+    /**
+     * Checks that a connection to the host can be acquired and is valid.
+     * The check is skipped when all the connections of the service are in use.
+     */
+    void checkHealth() {
+        if ( !connectionPermits.tryAcquire() ) {
+            return;
+        }
+        long startNanos = nanoClock.getAsLong();
+        try ( Connection connection = dataSource.getConnection() ) {
+            healthy = connection.isValid( HEALTH_CHECK_TIMEOUT_SECONDS );
+        } catch ( SQLException e ) {
+            healthy = false;
+        } finally {
+            connectionPermits.release();
+            healthCheckNanos.set( nanoClock.getAsLong() - startNanos );
+        }
+    }
+
+    @Override
+    public String getHost() {
+        return host;
+    }
+
+    @Override
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    @Override
+    public int getActiveConnections() {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        return pool == null ? 0 : pool.getActiveConnections();
+    }
+
+    @Override
+    public int getIdleConnections() {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        return pool == null ? 0 : pool.getIdleConnections();
+    }
+
+    @Override
+    public int getThreadsAwaitingConnection() {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        return pool == null ? 0 : pool.getThreadsAwaitingConnection();
+    }
+
+    @Override
+    public int getTotalConnections() {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        return pool == null ? 0 : pool.getTotalConnections();
+    }
+
+    @Override
+    public int getMaximumConnections() {
+        return dataSource.getMaximumPoolSize();
+    }
+
+    @Override
+    public long getAcquiredConnections() {
+        return acquiredConnections.sum();
+    }
+
+    @Override
+    public long getFailedAcquisitions() {
+        return failedAcquisitions.sum();
+    }
+
+    @Override
+    public long getTimedOutAcquisitions() {
+        return timedOutAcquisitions.sum();
+    }
+
+    @Override
+    public double getAcquisitionTimeMillis() {
+        return acquisitionNanos.sum() / (double) TimeUnit.MILLISECONDS.toNanos( 1 );
+    }
+
+    @Override
+    public double getHealthCheckLatencyMillis() {
+        return healthCheckNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos( 1 );
+    }
+
+    @Override
+    public void close() {
+        dataSource.close();
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.sql;
+
+import com.zaxxer.hikari.HikariConfig;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.mediawiki.sparql.mwontop.Configuration;
+import org.mediawiki.sparql.mwontop.metrics.JmxMetrics;
+
+import javax.management.ObjectName;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection pools of the database hosts, one per host whatever the number of repositories using it.
+ * Each user of a pool gets it with {@link #acquire(String, String, String)} and gives it back with {@link #release(HostConnectionPool)}.
+ * Pools without users nor connections in use are closed every minute, like the pools of the evicted site repositories.
+ * <p>
+ * Their sizes, timeouts and statement caching are set by the {@code app.db.pool.*} and {@code app.db.statements.*}
+ * entries of {@link Configuration}. When all the connections of a host are in use, queries wait for one
+ * up to {@link Configuration#getDatabasePoolTimeoutMillis()} instead of opening more. So do they when the service as a whole
+ * uses {@link Configuration#getDatabasePoolMaxTotal()} connections, whatever their hosts.
+ * <p>
+ * Each pool is exposed over JMX as {@value #OBJECT_NAME_PREFIX} followed by the quoted host,
+ * and its host is checked every minute so that an unreachable host is reported even without queries.
+ */
+final class HostConnectionPools {
+    static final String OBJECT_NAME_PREFIX = "org.mediawiki.sparql.mwontop:type=DatabaseHost,host=";
+    static final String HOST_PLACEHOLDER = "{host}";
+    private static final Map<String, HostConnectionPool> POOLS = new HashMap<>();
+    private static final Map<HostConnectionPool, Integer> USERS = new HashMap<>();
+    private static final Semaphore CONNECTION_PERMITS = new Semaphore( Math.max( Configuration.instance().getDatabasePoolMaxTotal(), 1 ), true );
+    private static final ScheduledExecutorService HEALTH_CHECKER = Executors.newSingleThreadScheduledExecutor( runnable -> {
+        Thread thread = new Thread( runnable, "database-health-check" );
+        thread.setDaemon( true );
+        return thread;
+    } );
+
+    static {
+        HEALTH_CHECKER.scheduleWithFixedDelay( () -> {
+            closeUnused();
+            openPools().forEach( HostConnectionPool::checkHealth );
+        }, 1, 1, TimeUnit.MINUTES );
+    }
+
+    private HostConnectionPools() {
+    }
+
+    /**
+     * @return the pool of the host, created with the credentials of its first user. It should be given back with {@link #release(HostConnectionPool)}.
+     */
+    @NonNull
+    static synchronized HostConnectionPool acquire( @NonNull String host, @Nullable String user, @Nullable String password ) {
+        HostConnectionPool pool = POOLS.computeIfAbsent( host, key -> {
+            HostConnectionPool newPool = new HostConnectionPool( host, poolConfig( host, user, password, Configuration.instance() ),
+                    CONNECTION_PERMITS, System::nanoTime );
+            JmxMetrics.register( newPool, objectName( host ) );
+            return newPool;
+        } );
+        USERS.merge( pool, 1, Integer::sum );
+        return pool;
+    }
+
+    /**
+     * Gives back a pool returned by {@link #acquire(String, String, String)}. It is closed later if it has no other user.
+     */
+    static synchronized void release( @NonNull HostConnectionPool pool ) {
+        USERS.computeIfPresent( pool, ( key, users ) -> users > 1 ? users - 1 : null );
+    }
+
+    /**
+     * Closes the pools without users nor connections in use.
+     */
+    static void closeUnused() {
+        List<HostConnectionPool> unused = new ArrayList<>();
+        synchronized ( HostConnectionPools.class ) {
+            for ( Iterator<HostConnectionPool> pools = POOLS.values().iterator(); pools.hasNext(); ) {
+                HostConnectionPool pool = pools.next();
+                if ( !USERS.containsKey( pool ) && pool.getActiveConnections() == 0 ) {
+                    pools.remove();
+                    unused.add( pool );
+                }
+            }
+        }
+        for ( HostConnectionPool pool : unused ) {
+            JmxMetrics.unregister( objectName( pool.getHost() ) );
+            pool.close();
+        }
+    }
+
+    @NonNull
+    private static synchronized List<HostConnectionPool> openPools() {
+        return new ArrayList<>( POOLS.values() );
+    }
+
+    @NonNull
+    private static String objectName( @NonNull String host ) {
+        return OBJECT_NAME_PREFIX + ObjectName.quote( host );
+    }
+
+    /**
+     * @return the JDBC URL of the host. No database is selected as the tables are always qualified by their database.
+     */
+    @NonNull
+    static String jdbcUrl( @NonNull String host, @NonNull Configuration configuration ) {
+        return configuration.getDatabaseUrl().replace( HOST_PLACEHOLDER, host );
+    }
+
+    @NonNull
+    static HikariConfig poolConfig( @NonNull String host, @Nullable String user, @Nullable String password, @NonNull Configuration configuration ) {
+        HikariConfig config = new HikariConfig();
+        config.setDriverClassName( configuration.getDatabaseDriver() );
+        config.setJdbcUrl( jdbcUrl( host, configuration ) );
+        config.setUsername( user );
+        config.setPassword( password );
+        int maximumPoolSize = Math.max( configuration.getDatabasePoolMaxSize(), 1 );
+        config.setMaximumPoolSize( maximumPoolSize );
+        config.setMinimumIdle( Math.min( Math.max( configuration.getDatabasePoolMinIdle(), 0 ), maximumPoolSize ) );
+        config.setConnectionTimeout( configuration.getDatabasePoolTimeoutMillis() );
+        config.setValidationTimeout( configuration.getDatabasePoolValidationTimeoutMillis() );
+        config.setLeakDetectionThreshold( Math.max( configuration.getDatabasePoolLeakDetectionMillis(), 0 ) );
+        config.setReadOnly( true );
+
+        if ( !Configuration.APP_DB_DRIVER_DEFAULT.equals( configuration.getDatabaseDriver() ) ) {
+            return config;
+        }
+        // MySQL Connector/J properties
+        int statementsCacheSize = Math.max( configuration.getDatabaseStatementsCacheSize(), 0 );
+        config.addDataSourceProperty( "cachePrepStmts", Boolean.toString( statementsCacheSize > 0 ) );
+        config.addDataSourceProperty( "prepStmtCacheSize", Integer.toString( statementsCacheSize ) );
+        config.addDataSourceProperty( "prepStmtCacheSqlLimit", Integer.toString( configuration.getDatabaseStatementsCacheSqlLimit() ) );
+        config.addDataSourceProperty( "useServerPrepStmts", Boolean.toString( configuration.isDatabaseServerStatements() ) );
+        return config;
+    }
+}
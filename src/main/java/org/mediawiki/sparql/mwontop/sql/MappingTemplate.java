@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.sql;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.eclipse.rdf4j.model.*;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.mediawiki.sparql.mwontop.utils.InternalFilesManager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * R2RML mapping template, parsed once, from which the mapping of each site is built.
+ * <p>
+ * The template contains the {@code {lang}}, {@code {db}}, {@code {site_id}} and {@code {base_url}} placeholders
+ * in its literals and IRIs (see mapping.ttl). The mapping of a site is a copy of the template statements
+ * with these placeholders replaced and with blank nodes renamed to be unique to the site.
+ */
+final class MappingTemplate {
+    private static final ValueFactory VALUE_FACTORY = SimpleValueFactory.getInstance();
+
+    @NonNull
+    private final List<Statement> statements;
+
+    private MappingTemplate( @NonNull Model model ) {
+        statements = new ArrayList<>( model );
+    }
+
+    @NonNull
+    static MappingTemplate load( @NonNull String fileName ) throws IOException {
+        return new MappingTemplate( InternalFilesManager.parseTurtleFile( fileName ) );
+    }
+
+    /**
+     * @param siteId       the site id like "enwiki"
+     * @param languageCode the wiki language code like "en"
+     * @param baseURL      the wiki base URL like "https://en.wikipedia.org"
+     * @return the statements of the site mapping
+     */
+    @NonNull
+    List<Statement> instantiate( @NonNull String siteId, @NonNull String languageCode, @NonNull String baseURL ) {
+        Substitution substitution = new Substitution( siteId, languageCode, baseURL );
+        List<Statement> siteStatements = new ArrayList<>( statements.size() );
+        for ( Statement statement : statements ) {
+            siteStatements.add( VALUE_FACTORY.createStatement(
+                    (Resource) substitution.apply( statement.getSubject() ),
+                    (IRI) substitution.apply( statement.getPredicate() ),
+                    substitution.apply( statement.getObject() )
+            ) );
+        }
+        return siteStatements;
+    }
+
+    private static class Substitution {
+        private final String siteId;
+        private final String databaseName;
+        private final String languageCode;
+        private final String baseURL;
+        private final Map<BNode, BNode> blankNodes = new HashMap<>();
+
+        Substitution( String siteId, String languageCode, String baseURL ) {
+            this.siteId = siteId;
+            this.databaseName = siteId + "_p";
+            this.languageCode = languageCode;
+            this.baseURL = baseURL;
+        }
+
+        Value apply( Value value ) {
+            if ( value instanceof BNode ) {
+                return blankNodes.computeIfAbsent( (BNode) value, bNode -> VALUE_FACTORY.createBNode( siteId + "-" + bNode.getID() ) );
+            } else if ( value instanceof IRI ) {
+                String iri = value.stringValue();
+                return hasPlaceholder( iri ) ? VALUE_FACTORY.createIRI( replacePlaceholders( iri ) ) : value;
+            } else if ( value instanceof Literal ) {
+                Literal literal = (Literal) value;
+                if ( !hasPlaceholder( literal.getLabel() ) ) {
+                    return literal;
+                }
+                String label = replacePlaceholders( literal.getLabel() );
+                return literal.getLanguage()
+                        .map( language -> VALUE_FACTORY.createLiteral( label, language ) )
+                        .orElseGet( () -> VALUE_FACTORY.createLiteral( label, literal.getDatatype() ) );
+            }
+            return value;
+        }
+
+        private static boolean hasPlaceholder( String text ) {
+            return text.indexOf( '{' ) >= 0;
+        }
+
+        private String replacePlaceholders( String text ) {
+            return text
+                    .replace( "{lang}", languageCode )
+                    .replace( "{db}", databaseName )
+                    .replace( "{site_id}", siteId )
+                    .replace( "{base_url}", baseURL );
+        }
+    }
+}
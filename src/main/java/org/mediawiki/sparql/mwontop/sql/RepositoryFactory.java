@@ -17,6 +17,7 @@
 
 package org.mediawiki.sparql.mwontop.sql;
 
+import com.google.common.base.Ticker;
 import it.unibz.inf.ontop.dbschema.*;
 import it.unibz.inf.ontop.injection.OntopSQLOWLAPIConfiguration;
 import it.unibz.inf.ontop.injection.OntopSystemConfiguration;
@@ -24,19 +25,24 @@ import it.unibz.inf.ontop.rdf4j.repository.OntopRepository;
 import org.apache.commons.rdf.rdf4j.RDF4J;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.model.impl.LinkedHashModel;
 import org.eclipse.rdf4j.repository.Repository;
 import org.mediawiki.sparql.mwontop.Configuration;
+import org.mediawiki.sparql.mwontop.sql.StartupSnapshot.Inputs;
 import org.mediawiki.sparql.mwontop.utils.InternalFilesManager;
+import org.mediawiki.sparql.mwontop.utils.SiteSpecificUnfolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.sql.*;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Properties;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * @author Thomas Pellissier Tanon
@@ -46,9 +52,41 @@ public final class RepositoryFactory {
     private static final Logger LOGGER = LoggerFactory.getLogger( RepositoryFactory.class );
     @NonNull
     private static final RepositoryFactory INSTANCE = new RepositoryFactory();
+    private static final long RETIRED_REPOSITORY_SHUTDOWN_DELAY_MILLIS = TimeUnit.MINUTES.toMillis( 10 );
+    /**
+     * Site of the queries without any site IRI, like the default domain of {@link SiteSpecificUnfolder}.
+     */
+    private static final String DEFAULT_SITE_BASE_URL = "https://en.wikipedia.org";
+    /**
+     * Site whose database is used to load the {@link DatabaseProperties}.
+     */
+    private static final String DATABASE_PROPERTIES_SITE_ID = "enwiki";
+    /**
+     * Column of {@code meta_p.wiki} with the replica section of each wiki, like {@code s1.labsdb}.
+     */
+    private static final String SLICE_COLUMN = "slice";
+    /**
+     * Wiki list meaning all the mapped wikis in {@link #resolveSiteBaseURLs(Collection)}.
+     */
+    public static final String ALL_SITES = "*";
 
-
-    private Repository repository;
+    @NonNull
+    private final ScheduledExecutorService maintenanceExecutor = Executors.newSingleThreadScheduledExecutor( runnable -> {
+        Thread thread = new Thread( runnable, "repository-maintenance" );
+        thread.setDaemon( true );
+        return thread;
+    } );
+    private DatabaseHosts databaseHosts;
+    private MySQLConnectionInformation connectionInformation;
+    private MappingTemplate mappingTemplate;
+    /**
+     * Repository of all the sites, or {@code null} when {@link #siteRepositories} are used instead.
+     */
+    private volatile Repository repository;
+    private volatile SiteRepositories siteRepositories;
+    private volatile DatabaseProperties databaseProperties;
+    private volatile Map<String, SiteConfig> sitesByBaseURL = Collections.emptyMap();
+    private volatile List<String> siteBaseURLs = Collections.emptyList();
 
     public static RepositoryFactory getInstance() {
         return INSTANCE;
@@ -58,41 +96,300 @@ public final class RepositoryFactory {
         //simple instance creation protection
     }
 
+    /**
+     * Builds the repository from the startup snapshot if there is an up to date one, then checks in background
+     * that the site list did not change. Otherwise loads everything from the database and writes a new snapshot.
+     * <p>
+     * If {@link Configuration#getSiteRepositoriesCapacity()} is positive, no repository of all the sites is built:
+     * a small repository per site is built on the first query about it, and a bounded number of repositories of
+     * several sites for the queries about more than one. Its SQL goes to the database host
+     * of these sites if {@link Configuration#getDatabaseHostPattern()} is set and they share the same host.
+     */
     public void initializeRepository() throws Exception {
-        repository = buildVirtualRepository( connectionInformationForSiteId() );
+        databaseHosts = DatabaseHosts.fromConfiguration();
+        connectionInformation = connectionInformationForSiteId();
+        mappingTemplate = MappingTemplate.load( "/mapping.ttl" );
+        initializeSiteRepositories();
+
+        File snapshotFile = Configuration.instance().getStartupSnapshotFile();
+        Inputs snapshotInputs = snapshotInputs( connectionInformation.getHost() );
+
+        StartupSnapshot snapshot = StartupSnapshot.read( snapshotFile, snapshotInputs );
+        if ( snapshot == null ) {
+            snapshot = loadSnapshot( connectionInformation );
+            useSnapshot( connectionInformation, snapshot );
+            writeSnapshot( snapshot, snapshotFile, snapshotInputs );
+        } else {
+            LOGGER.info( "Building repository for " + snapshot.getSites().size() + " sites from startup snapshot " + snapshotFile );
+            useSnapshot( connectionInformation, snapshot );
+            refreshInBackground( connectionInformation, snapshot, snapshotFile, snapshotInputs );
+        }
+    }
+
+    private void initializeSiteRepositories() {
+        Configuration configuration = Configuration.instance();
+        long capacity = configuration.getSiteRepositoriesCapacity();
+        if ( capacity <= 0 ) {
+            return;
+        }
+        siteRepositories = new SiteRepositories(
+                this::buildSiteRepository,
+                this::shutDownLater,
+                capacity,
+                configuration.getSiteRepositoriesCombinationCapacity(),
+                TimeUnit.MINUTES.toMillis( configuration.getSiteRepositoriesIdleMinutes() ),
+                Ticker.systemTicker()
+        );
+        maintenanceExecutor.scheduleWithFixedDelay( siteRepositories::cleanUp, 1, 1, TimeUnit.MINUTES );
     }
 
+    /**
+     * @return the current repository for queries without any site IRI.
+     * @see #getRepository(String)
+     */
     public Repository getRepository() {
-        return repository;
+        return getRepository( "" );
+    }
+
+    /**
+     * @param query the SPARQL query, after the namespaces mutation.
+     * @return the repository to evaluate the query on: the repository of all the sites, or the repository of the sites
+     * whose IRIs are in the query. It may be replaced after a background refresh of the site list.
+     */
+    public Repository getRepository( @NonNull String query ) {
+        SiteRepositories siteRepositories = this.siteRepositories;
+        if ( siteRepositories == null ) {
+            return repository;
+        }
+        Set<String> baseURLs = getSiteBaseURLs( query );
+        if ( baseURLs.isEmpty() ) {
+            baseURLs.add( DEFAULT_SITE_BASE_URL );
+        }
+        return siteRepositories.get( baseURLs );
+    }
+
+    /**
+     * @param query the SPARQL query, after the namespaces mutation.
+     * @return base URLs, like "https://en.wikipedia.org", of the mapped sites whose IRIs are in the query.
+     */
+    @NonNull
+    public Set<String> getSiteBaseURLs( @NonNull String query ) {
+        Set<String> baseURLs = SiteRepositories.extractSiteBaseURLs( query );
+        baseURLs.retainAll( sitesByBaseURL.keySet() );
+        return baseURLs;
+    }
+
+    /**
+     * @return if each query is evaluated on a repository of its sites, so {@link #getSiteRepository(String)} may be used.
+     */
+    public boolean hasSiteRepositories() {
+        return siteRepositories != null;
+    }
+
+    /**
+     * @param baseURL base URL of a mapped site, like "https://fr.wikipedia.org".
+     * @return the repository of this site only, on which queries without any site IRI are about this site.
+     * @throws IllegalStateException if there are no site repositories.
+     */
+    public Repository getSiteRepository( @NonNull String baseURL ) {
+        SiteRepositories siteRepositories = this.siteRepositories;
+        if ( siteRepositories == null ) {
+            throw new IllegalStateException( "Site repositories are disabled" );
+        }
+        return siteRepositories.get( baseURL );
+    }
+
+    /**
+     * @param wikis wiki ids like "frwiki" or base URLs like "https://fr.wikipedia.org", or {@link #ALL_SITES}.
+     * @return the base URLs of the wikis, in the given order.
+     * @throws IllegalArgumentException if a wiki is not mapped.
+     */
+    @NonNull
+    public Set<String> resolveSiteBaseURLs( @NonNull Collection<String> wikis ) {
+        Map<String, SiteConfig> sitesByBaseURL = this.sitesByBaseURL;
+        if ( wikis.contains( ALL_SITES ) ) {
+            return new LinkedHashSet<>( sitesByBaseURL.keySet() );
+        }
+        Set<String> baseURLs = new LinkedHashSet<>();
+        for ( String wiki : wikis ) {
+            if ( sitesByBaseURL.containsKey( wiki ) ) {
+                baseURLs.add( wiki );
+                continue;
+            }
+            String baseURL = sitesByBaseURL.values().stream()
+                    .filter( site -> site.getDatabaseName().equals( wiki ) )
+                    .map( SiteConfig::getBaseURL )
+                    .findFirst()
+                    .orElseThrow( () -> new IllegalArgumentException( "Unknown wiki: " + wiki ) );
+            baseURLs.add( baseURL );
+        }
+        return baseURLs;
+    }
+
+    /**
+     * @return base URLs, like "https://en.wikipedia.org", of the sites mapped by the repository.
+     */
+    @NonNull
+    public List<String> getSiteBaseURLs() {
+        return siteBaseURLs;
     }
 
     @NonNull
     private MySQLConnectionInformation connectionInformationForSiteId() {
         Configuration configuration = Configuration.instance();
         return new MySQLConnectionInformation(
-                configuration.getDatabaseHost(),
+                databaseHosts.getDefaultHost(),
                 "meta_p",
                 configuration.getDatabaseUser(),
                 configuration.getDatabasePassword()
         );
     }
 
+    /**
+     * @param host the host of {@code meta_p}.
+     * @return what the startup snapshot depends on besides the database content.
+     */
     @NonNull
-    private Repository buildVirtualRepository( @NonNull MySQLConnectionInformation connectionInformation ) throws Exception {
+    static Inputs snapshotInputs( @NonNull String host ) throws IOException {
+        Configuration configuration = Configuration.instance();
+        return new Inputs(
+                InternalFilesManager.getFileAsString( "/mapping.ttl" ),
+                host,
+                String.join( ",", configuration.getFilteredWikiFamilies() ),
+                String.join( ",", configuration.getFilteredWikiDBNames() )
+        );
+    }
+
+    @NonNull
+    private StartupSnapshot loadSnapshot( @NonNull MySQLConnectionInformation connectionInformation ) throws SQLException, IOException {
         List<SiteConfig> sitesConfig = loadSitesConfig( connectionInformation );
+        return new StartupSnapshot( sitesConfig, loadDatabaseProperties( connectionInformation, sitesConfig ), buildRDFMappingModel( sitesConfig ) );
+    }
 
-        Model rdfMapping = new LinkedHashModel();
-        String mappingTemplate = InternalFilesManager.getFileAsString( "/mapping.ttl" );
-        for ( SiteConfig c : sitesConfig ) {
-            rdfMapping.addAll( loadRDFMappingModelForSite( c, mappingTemplate ) );
+    private void writeSnapshot( @NonNull StartupSnapshot snapshot, @NonNull File snapshotFile, @NonNull Inputs snapshotInputs ) {
+        try {
+            snapshot.write( snapshotFile, snapshotInputs );
+            LOGGER.info( "Startup snapshot written to " + snapshotFile );
+        } catch ( IOException e ) {
+            LOGGER.error( "Unable to write startup snapshot " + snapshotFile + ": " + e.getMessage(), e );
+        }
+    }
+
+    private void useSnapshot( @NonNull MySQLConnectionInformation connectionInformation, @NonNull StartupSnapshot snapshot ) throws Exception {
+        if ( siteRepositories == null ) {
+            repository = buildVirtualRepository(
+                    connectionInformation, snapshot.getSites(), snapshot.getDatabaseProperties(), snapshot.getMapping(), ontopProperties()
+            );
+        }
+        Map<String, SiteConfig> sites = new LinkedHashMap<>();
+        snapshot.getSites().forEach( site -> sites.put( site.getBaseURL(), site ) );
+        databaseProperties = snapshot.getDatabaseProperties();
+        sitesByBaseURL = Collections.unmodifiableMap( sites );
+        siteBaseURLs = Collections.unmodifiableList( new ArrayList<>( sites.keySet() ) );
+        if ( siteRepositories != null ) {
+            siteRepositories.invalidateAll();
+        }
+    }
+
+    @NonNull
+    private Repository buildSiteRepository( @NonNull Set<String> baseURLs ) throws Exception {
+        List<SiteConfig> sitesConfig = new ArrayList<>();
+        for ( String baseURL : baseURLs ) {
+            SiteConfig siteConfig = sitesByBaseURL.get( baseURL );
+            if ( siteConfig != null ) {
+                sitesConfig.add( siteConfig );
+            }
+        }
+        MySQLConnectionInformation sitesConnectionInformation = sitesConfig.isEmpty() ? connectionInformation : connectionInformation.forSite(
+                databaseHosts.forSites( sitesConfig ), sitesConfig.get( 0 ).getDatabaseName()
+        );
+        Properties prop = ontopProperties();
+        if ( sitesConfig.size() == 1 ) {
+            prop.put( SiteSpecificUnfolder.DEFAULT_SITE_PROPERTY, sitesConfig.get( 0 ).getBaseURL() );
         }
+        return buildVirtualRepository( sitesConnectionInformation, sitesConfig, databaseProperties, buildRDFMappingModel( sitesConfig ), prop );
+    }
+
+    /**
+     * Shuts down a repository that is not used anymore, after a delay to let the queries it is running finish.
+     */
+    private void shutDownLater( @NonNull Repository retiredRepository ) {
+        maintenanceExecutor.schedule( () -> {
+            try {
+                retiredRepository.shutDown();
+            } catch ( RuntimeException e ) {
+                LOGGER.warn( "Unable to shut down repository: " + e.getMessage(), e );
+            }
+        }, RETIRED_REPOSITORY_SHUTDOWN_DELAY_MILLIS, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Reloads the site list from the database and, if it changed since the snapshot was written,
+     * replaces the repositories and the snapshot.
+     */
+    private void refreshInBackground( @NonNull MySQLConnectionInformation connectionInformation, @NonNull StartupSnapshot snapshot,
+                                      @NonNull File snapshotFile, @NonNull Inputs snapshotInputs ) {
+        maintenanceExecutor.execute( () -> {
+            try {
+                List<SiteConfig> sitesConfig = loadSitesConfig( connectionInformation );
+                if ( sitesConfig.equals( snapshot.getSites() ) ) {
+                    LOGGER.info( "Startup snapshot is up to date" );
+                    return;
+                }
+                LOGGER.info( "Site list changed since the startup snapshot, rebuilding repository for " + sitesConfig.size() + " sites" );
+                StartupSnapshot freshSnapshot = new StartupSnapshot(
+                        sitesConfig, loadDatabaseProperties( connectionInformation, sitesConfig ), buildRDFMappingModel( sitesConfig )
+                );
+                Repository previousRepository = repository;
+                useSnapshot( connectionInformation, freshSnapshot );
+                writeSnapshot( freshSnapshot, snapshotFile, snapshotInputs );
+                if ( previousRepository != null ) {
+                    shutDownLater( previousRepository );
+                }
+            } catch ( Exception e ) {
+                LOGGER.error( "Unable to refresh startup snapshot: " + e.getMessage(), e );
+            }
+        } );
+    }
+
+    @NonNull
+    private Repository buildVirtualRepository( @NonNull MySQLConnectionInformation connectionInformation, @NonNull List<SiteConfig> sitesConfig,
+                                               @NonNull DatabaseProperties databaseProperties, @NonNull Model rdfMapping,
+                                               @NonNull Properties prop ) throws Exception {
+        OntopRepository repository = OntopRepository.defaultRepository(
+                buildOntopConfiguration( connectionInformation, sitesConfig, databaseProperties, rdfMapping, prop )
+        );
+        repository.initialize();
+        return repository;
+    }
 
+    /**
+     * @return the Ontop implementations overridden by MW2SPARQL.
+     */
+    @NonNull
+    static Properties ontopProperties() {
         Properties prop = new Properties();
         prop.put( "ontop.completeProvidedMetadata", "false" );
         prop.put( "it.unibz.inf.ontop.answering.reformulation.unfolding.QueryUnfolder", "org.mediawiki.sparql.mwontop.utils.SiteSpecificUnfolder" );
+        prop.put( "it.unibz.inf.ontop.answering.reformulation.QueryCache", BoundedQueryCache.class.getName() );
+        prop.put( "it.unibz.inf.ontop.answering.connection.pool.JDBCConnectionPool", SharedConnectionPool.class.getName() );
+        prop.put( "it.unibz.inf.ontop.answering.reformulation.generation.NativeQueryGenerator", UnionLimitSQLGenerator.class.getName() );
+        return prop;
+    }
 
-        OntopSystemConfiguration configuration = OntopSQLOWLAPIConfiguration.defaultBuilder()
-                .dbMetadata( loadDBMetadata( connectionInformation, sitesConfig ) )
+    /**
+     * Builds the Ontop configuration of the given sites. No database connection is opened.
+     * The connections are taken from the pool of the host of {@code connectionInformation}.
+     */
+    @NonNull
+    static OntopSystemConfiguration buildOntopConfiguration( @NonNull MySQLConnectionInformation connectionInformation, @NonNull List<SiteConfig> sitesConfig,
+                                                            @NonNull DatabaseProperties databaseProperties, @NonNull Model rdfMapping,
+                                                            @NonNull Properties prop ) {
+        Properties ontopProperties = new Properties();
+        ontopProperties.putAll( prop );
+        ontopProperties.put( SharedConnectionPool.HOST_PROPERTY, connectionInformation.getHost() );
+        return OntopSQLOWLAPIConfiguration.defaultBuilder()
+                .dbMetadata( loadDBMetadata( databaseProperties, sitesConfig ) )
                 .enableIRISafeEncoding( false )
                 .jdbcDriver( "com.mysql.jdbc.Driver" )
                 .jdbcUrl( "jdbc:mysql://" + connectionInformation.getHost() + "/" +
@@ -100,23 +397,23 @@ public final class RepositoryFactory {
                 .jdbcName( connectionInformation.getDatabaseName() )
                 .jdbcUser( connectionInformation.getUser() )
                 .jdbcPassword( connectionInformation.getPassword() )
-                .properties( prop )
+                .properties( ontopProperties )
                 .r2rmlMappingGraph( ( new RDF4J() ).asGraph( rdfMapping ) )
                 .build();
-
-        OntopRepository repository = OntopRepository.defaultRepository( configuration );
-        repository.initialize();
-        return repository;
     }
 
-    private Model loadRDFMappingModelForSite( @NonNull SiteConfig siteConfig, @NonNull String mappingTemplate ) throws IOException {
-        return InternalFilesManager.parseTurtle(
-                mappingTemplate
-                        .replace( "{lang}", siteConfig.getLanguageCode() )
-                        .replace( "{db}", siteConfig.getDatabaseName() + "_p" )
-                        .replace( "{site_id}", siteConfig.getDatabaseName() )
-                        .replace( "{base_url}", siteConfig.getBaseURL() )
-        );
+    /**
+     * Instantiates the mapping template for every site in parallel.
+     */
+    @NonNull
+    private Model buildRDFMappingModel( @NonNull List<SiteConfig> sitesConfig ) {
+        List<List<Statement>> sitesMapping = sitesConfig.parallelStream()
+                .map( c -> mappingTemplate.instantiate( c.getDatabaseName(), c.getLanguageCode(), c.getBaseURL() ) )
+                .collect( Collectors.toList() );
+
+        Model rdfMapping = new LinkedHashModel();
+        sitesMapping.forEach( rdfMapping::addAll );
+        return rdfMapping;
     }
 
     @NonNull
@@ -126,11 +423,13 @@ public final class RepositoryFactory {
               PreparedStatement statement = prepareSiteConfigStatement( connection );
               ResultSet resultSet = statement.executeQuery() ) {
             List<SiteConfig> siteConfig = new ArrayList<>();
+            boolean hasSlice = hasColumn( resultSet, SLICE_COLUMN );
             while ( resultSet.next() ) {
                 siteConfig.add( new SiteConfig(
                         resultSet.getString( "dbname" ),
                         resultSet.getString( "lang" ),
-                        resultSet.getString( "url" )
+                        resultSet.getString( "url" ),
+                        hasSlice ? sectionOfSlice( resultSet.getString( SLICE_COLUMN ) ) : null
                 ) );
             }
             LOGGER.debug( siteConfig.size() + " sites retrived" );
@@ -138,6 +437,28 @@ public final class RepositoryFactory {
         }
     }
 
+    private static boolean hasColumn( @NonNull ResultSet resultSet, @NonNull String column ) throws SQLException {
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        for ( int i = 1; i <= metaData.getColumnCount(); i++ ) {
+            if ( column.equalsIgnoreCase( metaData.getColumnLabel( i ) ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param slice the {@code slice} of a wiki in {@code meta_p.wiki}, like {@code s1.labsdb}.
+     * @return its section, like {@code s1}.
+     */
+    static String sectionOfSlice( String slice ) {
+        if ( slice == null || slice.trim().isEmpty() ) {
+            return null;
+        }
+        int dot = slice.indexOf( '.' );
+        return ( dot < 0 ? slice : slice.substring( 0, dot ) ).trim();
+    }
+
     @NonNull
     private PreparedStatement prepareSiteConfigStatement( @NonNull Connection connection ) throws SQLException {
 
@@ -161,11 +482,25 @@ public final class RepositoryFactory {
     }
 
     @NonNull
-    private DBMetadata loadDBMetadata( @NonNull MySQLConnectionInformation connectionInformation, @NonNull List<SiteConfig> sitesConfig ) throws SQLException {
-        RDBMetadata dbMetadata;
-        try ( Connection connection = connectionInformation.withDatabase().createConnection() ) {
-            dbMetadata = RDBMetadataExtractionTools.createMetadata( connection );
+    private DatabaseProperties loadDatabaseProperties( @NonNull MySQLConnectionInformation connectionInformation,
+                                                       @NonNull List<SiteConfig> sitesConfig ) throws SQLException {
+        String section = sitesConfig.stream()
+                .filter( site -> site.getDatabaseName().equals( DATABASE_PROPERTIES_SITE_ID ) )
+                .map( SiteConfig::getSection )
+                .filter( Objects::nonNull )
+                .findFirst()
+                .orElse( null );
+        MySQLConnectionInformation propertiesConnectionInformation = connectionInformation.forSite(
+                databaseHosts.forSite( DATABASE_PROPERTIES_SITE_ID, section ), DATABASE_PROPERTIES_SITE_ID
+        );
+        try ( Connection connection = propertiesConnectionInformation.createConnection() ) {
+            return DatabaseProperties.of( connection );
         }
+    }
+
+    @NonNull
+    private static DBMetadata loadDBMetadata( @NonNull DatabaseProperties databaseProperties, @NonNull List<SiteConfig> sitesConfig ) {
+        RDBMetadata dbMetadata = databaseProperties.createMetadata();
         QuotedIDFactory qidFactory = dbMetadata.getQuotedIDFactory();
         QuotedID rd_namespace = QuotedID.createIdFromDatabaseRecord( qidFactory, "rd_namespace" );
         QuotedID rd_title = QuotedID.createIdFromDatabaseRecord( qidFactory, "rd_title" );
@@ -223,7 +558,7 @@ public final class RepositoryFactory {
         return dbMetadata;
     }
 
-    private static class MySQLConnectionInformation {
+    static class MySQLConnectionInformation {
         private String host;
         private String dbName;
         private String user;
@@ -252,24 +587,50 @@ public final class RepositoryFactory {
             return password;
         }
 
+        /**
+         * @return a connection of the pool of the host, on the database. The pool is kept open while the connection is in use.
+         */
         Connection createConnection() throws SQLException {
-            return DriverManager.getConnection( "jdbc:mysql://" + getHost() + "/" + getDatabaseName(), getUser(), getPassword() );
+            HostConnectionPool pool = HostConnectionPools.acquire( host, user, password );
+            Connection connection;
+            try {
+                connection = pool.getConnection();
+            } finally {
+                HostConnectionPools.release( pool );
+            }
+            try {
+                connection.setCatalog( dbName );
+            } catch ( SQLException e ) {
+                connection.close();
+                throw e;
+            }
+            return connection;
         }
 
-        MySQLConnectionInformation withDatabase() {
-            return new MySQLConnectionInformation( host, "enwiki_p", user, password );
+        /**
+         * @param siteId the wiki id, like {@code enwiki}
+         * @return the information to connect to the database of the wiki on the given host.
+         */
+        MySQLConnectionInformation forSite( String host, String siteId ) {
+            return new MySQLConnectionInformation( host, siteId + "_p", user, password );
         }
     }
 
-    private static class SiteConfig {
+    static final class SiteConfig {
         private String dbName;
         private String lang;
         private String url;
+        private String section;
 
         SiteConfig( String dbName, String lang, String url ) {
+            this( dbName, lang, url, null );
+        }
+
+        SiteConfig( String dbName, String lang, String url, String section ) {
             this.dbName = dbName;
             this.lang = lang;
             this.url = url;
+            this.section = section;
         }
 
         String getDatabaseName() {
@@ -283,5 +644,30 @@ public final class RepositoryFactory {
         String getBaseURL() {
             return url;
         }
+
+        /**
+         * @return the replica section of the wiki, like {@code s1}, if known.
+         */
+        String getSection() {
+            return section;
+        }
+
+        @Override
+        public boolean equals( Object o ) {
+            if ( this == o ) {
+                return true;
+            }
+            if ( !( o instanceof SiteConfig ) ) {
+                return false;
+            }
+            SiteConfig that = (SiteConfig) o;
+            return Objects.equals( dbName, that.dbName ) && Objects.equals( lang, that.lang ) && Objects.equals( url, that.url ) &&
+                    Objects.equals( section, that.section );
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash( dbName, lang, url, section );
+        }
     }
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.sql;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.sql.Statement;
+import java.util.function.Consumer;
+
+/**
+ * Notification of the SQL statements created by the connections of {@link HostConnectionPool}.
+ * <p>
+ * Ontop creates the statement of a query on the thread evaluating it, then runs it on a thread of its own,
+ * so the statements created on a thread within a {@link #track(Consumer)} scope are the ones of the queries it evaluates.
+ * They can be cancelled with {@link Statement#cancel()}, which MySQL Connector/J implements by a {@code KILL QUERY}
+ * sent on another connection, unlike closing the connection that waits for the running statement to end.
+ */
+public final class RunningStatements {
+    private static final ThreadLocal<Consumer<Statement>> LISTENER = new ThreadLocal<>();
+
+    private RunningStatements() {
+    }
+
+    /**
+     * Calls {@code listener} with each statement created on the current thread until the returned scope is closed.
+     * Scopes may be nested, the statements being given to the listeners of all the open scopes.
+     */
+    @NonNull
+    public static Scope track( @NonNull Consumer<Statement> listener ) {
+        Consumer<Statement> previous = LISTENER.get();
+        LISTENER.set( previous == null ? listener : previous.andThen( listener ) );
+        return () -> {
+            if ( previous == null ) {
+                LISTENER.remove();
+            } else {
+                LISTENER.set( previous );
+            }
+        };
+    }
+
+    static void created( @Nullable Statement statement ) {
+        Consumer<Statement> listener = LISTENER.get();
+        if ( listener != null && statement != null ) {
+            listener.accept( statement );
+        }
+    }
+
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.sql;
+
+import com.google.inject.Inject;
+import it.unibz.inf.ontop.answering.connection.pool.JDBCConnectionPool;
+import it.unibz.inf.ontop.injection.OntopSystemSQLSettings;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Ontop connection pool of a repository, backed by the pool of its database host so that repositories
+ * about the same host, like the ones of {@link SiteRepositories}, share their connections.
+ * <p>
+ * The host is given by the {@value #HOST_PROPERTY} Ontop property.
+ */
+public final class SharedConnectionPool implements JDBCConnectionPool {
+    static final String HOST_PROPERTY = "mw2sparql.jdbc.host";
+
+    @NonNull
+    private final HostConnectionPool pool;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    @Inject
+    private SharedConnectionPool( OntopSystemSQLSettings settings ) {
+        String host = settings.getProperty( HOST_PROPERTY )
+                .orElseThrow( () -> new IllegalStateException( "The Ontop property " + HOST_PROPERTY + " should be set" ) );
+        pool = HostConnectionPools.acquire( host, settings.getJdbcUser(), settings.getJdbcPassword() );
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return pool.getConnection();
+    }
+
+    /**
+     * Gives the host pool back, it is closed once no repository uses it anymore.
+     */
+    @Override
+    public void close() {
+        if ( closed.compareAndSet( false, true ) ) {
+            HostConnectionPools.release( pool );
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.sql;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.eclipse.rdf4j.repository.Repository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Small repositories mapping only the sites a query is about, built on first use.
+ * <p>
+ * Repositories of a single site are keyed by its base URL, like {@code https://en.wikipedia.org}, and up to {@code capacity}
+ * of them are kept. The rare queries about several sites get a repository of their combination of sites, kept in a separate
+ * cache of {@code combinationCapacity} repositories so that arbitrary combinations cannot evict the per-site ones
+ * nor fill the memory.
+ * In both caches, the least recently used repositories are evicted when the capacity is reached or when they have not been
+ * used for {@code idleMillis} ({@code 0} disables idle eviction).
+ * Evicted repositories are given to the {@code onEviction} callback, which is expected to shut them down.
+ */
+final class SiteRepositories {
+    private static final Logger LOGGER = LoggerFactory.getLogger( SiteRepositories.class );
+    private static final Pattern SITE_BASE_URL = Pattern.compile( "https?://[^/\\s<>\"'{}|\\\\^`]+(?=/wiki/)" );
+
+    @NonNull
+    private final Cache<String, Repository> repositories;
+    @NonNull
+    private final Cache<Set<String>, Repository> combinedRepositories;
+    @NonNull
+    private final RepositoryBuilder builder;
+
+    /**
+     * @param combinationCapacity maximal number of repositories of several sites, at least one is kept
+     */
+    SiteRepositories( @NonNull RepositoryBuilder builder, @NonNull Consumer<Repository> onEviction,
+                      long capacity, long combinationCapacity, long idleMillis, @NonNull Ticker ticker ) {
+        this.builder = builder;
+        repositories = newCache( onEviction, Math.max( capacity, 0 ), idleMillis, ticker );
+        combinedRepositories = newCache( onEviction, Math.max( combinationCapacity, 1 ), idleMillis, ticker );
+    }
+
+    @NonNull
+    private static <K> Cache<K, Repository> newCache( @NonNull Consumer<Repository> onEviction,
+                                                      long capacity, long idleMillis, @NonNull Ticker ticker ) {
+        CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder()
+                .maximumSize( capacity )
+                .ticker( ticker );
+        if ( idleMillis > 0 ) {
+            cacheBuilder.expireAfterAccess( idleMillis, TimeUnit.MILLISECONDS );
+        }
+        return cacheBuilder
+                .<K, Repository>removalListener( notification -> {
+                    LOGGER.info( "Evicting repository of " + notification.getKey() + " (" + notification.getCause() + ")" );
+                    onEviction.accept( notification.getValue() );
+                } )
+                .build();
+    }
+
+    /**
+     * @return the repository mapping only the given site. Concurrent calls for the same site build it only once.
+     */
+    @NonNull
+    Repository get( @NonNull String siteBaseURL ) {
+        return get( repositories, siteBaseURL, Collections.singleton( siteBaseURL ) );
+    }
+
+    /**
+     * @return the repository mapping exactly the given sites. Concurrent calls for the same sites build it only once.
+     */
+    @NonNull
+    Repository get( @NonNull Set<String> siteBaseURLs ) {
+        if ( siteBaseURLs.size() == 1 ) {
+            return get( siteBaseURLs.iterator().next() );
+        }
+        Set<String> key = ImmutableSortedSet.copyOf( siteBaseURLs );
+        return get( combinedRepositories, key, key );
+    }
+
+    @NonNull
+    private <K> Repository get( @NonNull Cache<K, Repository> cache, @NonNull K key, @NonNull Set<String> siteBaseURLs ) {
+        try {
+            return cache.get( key, () -> {
+                LOGGER.info( "Building repository of " + key );
+                return builder.build( siteBaseURLs );
+            } );
+        } catch ( ExecutionException | UncheckedExecutionException e ) {
+            throw new IllegalStateException( "Unable to build repository of " + key + ": " + e.getCause().getMessage(), e.getCause() );
+        }
+    }
+
+    /**
+     * Evicts all repositories, e.g. after the site list changed.
+     */
+    void invalidateAll() {
+        repositories.invalidateAll();
+        combinedRepositories.invalidateAll();
+    }
+
+    /**
+     * Runs the pending idle evictions. They are otherwise only run on access.
+     */
+    void cleanUp() {
+        repositories.cleanUp();
+        combinedRepositories.cleanUp();
+    }
+
+    long size() {
+        return repositories.size() + combinedRepositories.size();
+    }
+
+    /**
+     * @return the base URLs, like "https://en.wikipedia.org", of all the wiki page IRIs and prefixes in a SPARQL query.
+     */
+    @NonNull
+    static Set<String> extractSiteBaseURLs( @NonNull String query ) {
+        Set<String> baseURLs = new TreeSet<>();
+        Matcher matcher = SITE_BASE_URL.matcher( query );
+        while ( matcher.find() ) {
+            baseURLs.add( matcher.group() );
+        }
+        return baseURLs;
+    }
+
+    @FunctionalInterface
+    interface RepositoryBuilder {
+        /**
+         * @param siteBaseURLs base URLs of the sites the repository should map
+         */
+        @NonNull
+        Repository build( @NonNull Set<String> siteBaseURLs ) throws Exception;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.sql;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.impl.LinkedHashModel;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFParseException;
+import org.eclipse.rdf4j.rio.RDFParser;
+import org.eclipse.rdf4j.rio.Rio;
+import org.eclipse.rdf4j.rio.helpers.StatementCollector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Everything {@link RepositoryFactory} reads from the database or computes at startup, saved on disk
+ * so a restart can build the repository without waiting for the database.
+ * <p>
+ * The file is gzipped. Its first line is a JSON header with the format version, the site list,
+ * the database properties used to build the metadata and a checksum. The following lines are the
+ * instantiated mapping in N-Triples.
+ * The checksum covers the site list, the database properties and the {@link Inputs} given by the caller
+ * (mapping template, site filters...), so a snapshot written from other inputs is ignored.
+ */
+final class StartupSnapshot {
+    private static final Logger LOGGER = LoggerFactory.getLogger( StartupSnapshot.class );
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final int FORMAT_VERSION = 2;
+
+    @NonNull
+    private final List<RepositoryFactory.SiteConfig> sites;
+    @NonNull
+    private final DatabaseProperties databaseProperties;
+    @NonNull
+    private final Model mapping;
+
+    StartupSnapshot( @NonNull List<RepositoryFactory.SiteConfig> sites, @NonNull DatabaseProperties databaseProperties, @NonNull Model mapping ) {
+        this.sites = Collections.unmodifiableList( new ArrayList<>( sites ) );
+        this.databaseProperties = databaseProperties;
+        this.mapping = mapping;
+    }
+
+    @NonNull
+    List<RepositoryFactory.SiteConfig> getSites() {
+        return sites;
+    }
+
+    @NonNull
+    DatabaseProperties getDatabaseProperties() {
+        return databaseProperties;
+    }
+
+    @NonNull
+    Model getMapping() {
+        return mapping;
+    }
+
+    /**
+     * @return the snapshot, or {@code null} if the file does not exist, is unreadable or was written from other inputs.
+     */
+    @Nullable
+    static StartupSnapshot read( @NonNull File file, @NonNull Inputs inputs ) {
+        if ( !file.isFile() ) {
+            return null;
+        }
+        try ( BufferedReader reader = new BufferedReader( new InputStreamReader( new GZIPInputStream( new FileInputStream( file ) ), StandardCharsets.UTF_8 ) ) ) {
+            String headerLine = reader.readLine();
+            if ( headerLine == null ) {
+                LOGGER.warn( "Ignoring empty startup snapshot " + file );
+                return null;
+            }
+            JsonNode header = OBJECT_MAPPER.readTree( headerLine );
+            if ( header.path( "version" ).asInt() != FORMAT_VERSION ) {
+                LOGGER.info( "Ignoring startup snapshot " + file + " written with format version " + header.path( "version" ).asInt() );
+                return null;
+            }
+            List<RepositoryFactory.SiteConfig> sites = new ArrayList<>();
+            for ( JsonNode site : header.path( "sites" ) ) {
+                sites.add( new RepositoryFactory.SiteConfig(
+                        site.path( "dbname" ).asText(), site.path( "lang" ).asText(), site.path( "url" ).asText(),
+                        site.hasNonNull( "section" ) ? site.get( "section" ).asText() : null
+                ) );
+            }
+            DatabaseProperties databaseProperties = DatabaseProperties.fromJson( header.path( "database" ) );
+            if ( !checksum( sites, databaseProperties, inputs ).equals( header.path( "checksum" ).asText() ) ) {
+                LOGGER.info( "Ignoring startup snapshot " + file + " written from other inputs" );
+                return null;
+            }
+
+            Model mapping = new LinkedHashModel();
+            RDFParser parser = Rio.createParser( RDFFormat.NTRIPLES );
+            parser.setRDFHandler( new StatementCollector( mapping ) );
+            parser.parse( reader, "" );
+            return new StartupSnapshot( sites, databaseProperties, mapping );
+        } catch ( IOException | RDFParseException e ) {
+            LOGGER.error( "Unable to read startup snapshot " + file + ": " + e.getMessage(), e );
+            return null;
+        }
+    }
+
+    /**
+     * Writes the snapshot to a temporary file then moves it in place, so readers never see a partial snapshot.
+     */
+    void write( @NonNull File file, @NonNull Inputs inputs ) throws IOException {
+        ObjectNode header = OBJECT_MAPPER.createObjectNode();
+        header.put( "version", FORMAT_VERSION );
+        header.put( "checksum", checksum( sites, databaseProperties, inputs ) );
+        header.set( "database", databaseProperties.toJson() );
+        ArrayNode sitesNode = header.putArray( "sites" );
+        for ( RepositoryFactory.SiteConfig site : sites ) {
+            sitesNode.addObject()
+                    .put( "dbname", site.getDatabaseName() )
+                    .put( "lang", site.getLanguageCode() )
+                    .put( "url", site.getBaseURL() )
+                    .put( "section", site.getSection() );
+        }
+
+        File tempFile = new File( file.getPath() + ".tmp" );
+        try ( Writer writer = new BufferedWriter( new OutputStreamWriter( new GZIPOutputStream( new FileOutputStream( tempFile ) ), StandardCharsets.UTF_8 ) ) ) {
+            writer.write( OBJECT_MAPPER.writeValueAsString( header ) );
+            writer.write( '\n' );
+            Rio.write( mapping, writer, RDFFormat.NTRIPLES );
+        }
+        Files.move( tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    @NonNull
+    private static String checksum( @NonNull List<RepositoryFactory.SiteConfig> sites, @NonNull DatabaseProperties databaseProperties, @NonNull Inputs inputs ) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance( "SHA-256" );
+        } catch ( NoSuchAlgorithmException e ) {
+            throw new IllegalStateException( e );
+        }
+        update( digest, Integer.toString( FORMAT_VERSION ) );
+        for ( String input : inputs.values ) {
+            update( digest, input );
+        }
+        update( digest, databaseProperties.toJson().toString() );
+        for ( RepositoryFactory.SiteConfig site : sites ) {
+            update( digest, site.getDatabaseName() );
+            update( digest, site.getLanguageCode() );
+            update( digest, site.getBaseURL() );
+            update( digest, site.getSection() );
+        }
+
+        StringBuilder checksum = new StringBuilder();
+        for ( byte b : digest.digest() ) {
+            checksum.append( String.format( "%02x", b ) );
+        }
+        return checksum.toString();
+    }
+
+    private static void update( @NonNull MessageDigest digest, @Nullable String value ) {
+        if ( value != null ) {
+            digest.update( value.getBytes( StandardCharsets.UTF_8 ) );
+        }
+        digest.update( (byte) 0 );
+    }
+
+    /**
+     * Values, besides the site list and the database properties, the snapshot content depends on.
+     */
+    static final class Inputs {
+        @NonNull
+        private final List<String> values;
+
+        Inputs( @NonNull String... values ) {
+            this.values = Collections.unmodifiableList( Arrays.asList( values.clone() ) );
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2017 MW2SPARQL developers.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mediawiki.sparql.mwontop.sql;
+
+import com.google.common.collect.ImmutableList;
+import com.google.inject.assistedinject.Assisted;
+import com.google.inject.assistedinject.AssistedInject;
+import it.unibz.inf.ontop.answering.reformulation.ExecutableQuery;
+import it.unibz.inf.ontop.answering.reformulation.IRIDictionary;
+import it.unibz.inf.ontop.answering.reformulation.generation.NativeQueryGenerator;
+import it.unibz.inf.ontop.answering.reformulation.generation.impl.LegacySQLGenerator;
+import it.unibz.inf.ontop.answering.reformulation.impl.SQLExecutableQuery;
+import it.unibz.inf.ontop.datalog.IntermediateQuery2DatalogTranslator;
+import it.unibz.inf.ontop.dbschema.DBMetadata;
+import it.unibz.inf.ontop.dbschema.JdbcTypeMapper;
+import it.unibz.inf.ontop.exception.OntopReformulationException;
+import it.unibz.inf.ontop.injection.OntopReformulationSQLSettings;
+import it.unibz.inf.ontop.iq.IntermediateQuery;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import javax.annotation.Nullable;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Ontop SQL generator pushing the limit of a query into the branches of the union it reads from.
+ * <p>
+ * Queries about several sites are unions with one branch per site and Ontop only applies the limit to the outer query,
+ * so MySQL would evaluate every branch completely before keeping the first rows.
+ * When the union is read as is, without ordering, deduplication or filtering, no branch can contribute more
+ * than {@code offset + limit} rows to the result, so each branch gets this limit.
+ * <p>
+ * The SQL is generated by the default {@link LegacySQLGenerator} and then rewritten.
+ * Registered in Ontop by {@link RepositoryFactory}.
+ */
+public final class UnionLimitSQLGenerator implements NativeQueryGenerator {
+    private static final long serialVersionUID = 1L;
+    private static final Pattern OUTER_QUERY = Pattern.compile(
+            "\\s*SELECT\\s+\\*\\s+FROM\\s+\\((.*)\\)\\s*SUB_QVIEW\\s+LIMIT\\s+(?:(\\d+)\\s*,\\s*)?(\\d+)\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL
+    );
+    private static final Pattern PROJECTION = Pattern.compile( "\\s*SELECT\\s+(?!DISTINCT\\b)", Pattern.CASE_INSENSITIVE );
+    private static final Pattern ALIAS = Pattern.compile( "\\s*`[^`]+`\\s*" );
+    private static final Pattern UNION_ALL = Pattern.compile( "UNION\\s+ALL\\s*", Pattern.CASE_INSENSITIVE );
+
+    @NonNull
+    private final NativeQueryGenerator generator;
+
+    @AssistedInject
+    private UnionLimitSQLGenerator( @Assisted DBMetadata metadata, @Nullable IRIDictionary iriDictionary, OntopReformulationSQLSettings settings,
+                                    IntermediateQuery2DatalogTranslator translator, JdbcTypeMapper jdbcTypeMapper ) {
+        try {
+            // The constructor is private as Ontop only builds it through Guice
+            Constructor<LegacySQLGenerator> constructor = LegacySQLGenerator.class.getDeclaredConstructor(
+                    DBMetadata.class, IRIDictionary.class, OntopReformulationSQLSettings.class,
+                    IntermediateQuery2DatalogTranslator.class, JdbcTypeMapper.class
+            );
+            constructor.setAccessible( true );
+            generator = constructor.newInstance( metadata, iriDictionary, settings, translator, jdbcTypeMapper );
+        } catch ( ReflectiveOperationException e ) {
+            throw new IllegalStateException( "Not able to create the Ontop SQL generator", e );
+        }
+    }
+
+    @Override
+    public ExecutableQuery generateSourceQuery( IntermediateQuery query, ImmutableList<String> signature ) throws OntopReformulationException {
+        ExecutableQuery executableQuery = generator.generateSourceQuery( query, signature );
+        if ( !( executableQuery instanceof SQLExecutableQuery ) ) {
+            return executableQuery;
+        }
+        SQLExecutableQuery sqlQuery = (SQLExecutableQuery) executableQuery;
+        String sql = pushLimitIntoUnion( sqlQuery.getSQL() );
+        return sql.equals( sqlQuery.getSQL() ) ? sqlQuery : new SQLExecutableQuery( sql, sqlQuery.getSignature() );
+    }
+
+    @Override
+    public ExecutableQuery generateEmptyQuery( ImmutableList<String> signature ) {
+        return generator.generateEmptyQuery( signature );
+    }
+
+    /**
+     * Rewrites {@code SELECT * FROM (SELECT ... FROM ((...) UNION ALL (...)) `alias`) SUB_QVIEW LIMIT offset,limit}
+     * by adding {@code LIMIT offset+limit} to each branch of the union.
+     *
+     * @return {@code sql} unchanged if it has not exactly this shape.
+     */
+    @NonNull
+    static String pushLimitIntoUnion( @NonNull String sql ) {
+        Matcher outer = OUTER_QUERY.matcher( sql );
+        if ( !outer.matches() ) {
+            return sql;
+        }
+        long branchLimit;
+        try {
+            long offset = outer.group( 2 ) == null ? 0 : Long.parseLong( outer.group( 2 ) );
+            branchLimit = Math.addExact( offset, Long.parseLong( outer.group( 3 ) ) );
+        } catch ( NumberFormatException | ArithmeticException e ) {
+            // No limit is written as the largest unsigned 64 bits number
+            return sql;
+        }
+
+        int start = outer.start( 1 );
+        int end = outer.end( 1 );
+        if ( !PROJECTION.matcher( sql ).region( start, end ).lookingAt() ) {
+            return sql;
+        }
+        int from = findTopLevelKeyword( sql, start, end, "FROM" );
+        if ( from < 0 ) {
+            return sql;
+        }
+        int unionStart = skipWhitespace( sql, from + "FROM".length(), end );
+        if ( unionStart == end || sql.charAt( unionStart ) != '(' ) {
+            return sql;
+        }
+        int unionEnd = findClosingParenthesis( sql, unionStart, end );
+        if ( unionEnd < 0 || !ALIAS.matcher( sql ).region( unionEnd + 1, end ).matches() ) {
+            return sql;
+        }
+
+        List<Integer> branchEnds = new ArrayList<>();
+        int position = skipWhitespace( sql, unionStart + 1, unionEnd );
+        while ( true ) {
+            if ( position == unionEnd || sql.charAt( position ) != '(' ) {
+                return sql;
+            }
+            int branchEnd = findClosingParenthesis( sql, position, unionEnd );
+            if ( branchEnd < 0 || findTopLevelKeyword( sql, position + 1, branchEnd, "LIMIT" ) >= 0 ) {
+                return sql;
+            }
+            branchEnds.add( branchEnd );
+            position = skipWhitespace( sql, branchEnd + 1, unionEnd );
+            if ( position == unionEnd ) {
+                break;
+            }
+            Matcher separator = UNION_ALL.matcher( sql ).region( position, unionEnd );
+            if ( !separator.lookingAt() ) {
+                return sql;
+            }
+            position = separator.end();
+        }
+        if ( branchEnds.size() < 2 ) {
+            return sql;
+        }
+
+        StringBuilder rewritten = new StringBuilder( sql );
+        for ( int i = branchEnds.size() - 1; i >= 0; i-- ) {
+            rewritten.insert( (int) branchEnds.get( i ), "\nLIMIT " + branchLimit );
+        }
+        return rewritten.toString();
+    }
+
+    /**
+     * @return the position of {@code keyword} in {@code sql} between {@code start} and {@code end},
+     * outside of any parenthesis or quotes, or -1.
+     */
+    private static int findTopLevelKeyword( String sql, int start, int end, String keyword ) {
+        int depth = 0;
+        for ( int i = start; i < end; i++ ) {
+            char c = sql.charAt( i );
+            if ( isQuote( c ) ) {
+                i = findClosingQuote( sql, i, end );
+                if ( i < 0 ) {
+                    return -1;
+                }
+            } else if ( c == '(' ) {
+                depth++;
+            } else if ( c == ')' ) {
+                depth--;
+            } else if ( depth == 0 && sql.regionMatches( true, i, keyword, 0, keyword.length() ) &&
+                    ( i == start || !isWordCharacter( sql.charAt( i - 1 ) ) ) &&
+                    ( i + keyword.length() == end || !isWordCharacter( sql.charAt( i + keyword.length() ) ) ) ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the position of the parenthesis closing the one at {@code open}, or -1.
+     */
+    private static int findClosingParenthesis( String sql, int open, int end ) {
+        int depth = 0;
+        for ( int i = open; i < end; i++ ) {
+            char c = sql.charAt( i );
+            if ( isQuote( c ) ) {
+                i = findClosingQuote( sql, i, end );
+                if ( i < 0 ) {
+                    return -1;
+                }
+            } else if ( c == '(' ) {
+                depth++;
+            } else if ( c == ')' ) {
+                depth--;
+                if ( depth == 0 ) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the position of the quote closing the one at {@code open}, or -1.
+     * Doubled quotes and, in strings, backslash escapes are skipped.
+     */
+    private static int findClosingQuote( String sql, int open, int end ) {
+        char quote = sql.charAt( open );
+        for ( int i = open + 1; i < end; i++ ) {
+            char c = sql.charAt( i );
+            if ( c == '\\' && quote != '`' ) {
+                i++;
+            } else if ( c == quote ) {
+                if ( i + 1 < end && sql.charAt( i + 1 ) == quote ) {
+                    i++;
+                } else {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static int skipWhitespace( String sql, int start, int end ) {
+        int i = start;
+        while ( i < end && Character.isWhitespace( sql.charAt( i ) ) ) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isQuote( char c ) {
+        return c == '\'' || c == '"' || c == '`';
+    }
+
+    private static boolean isWordCharacter( char c ) {
+        return Character.isLetterOrDigit( c ) || c == '_';
+    }
+}
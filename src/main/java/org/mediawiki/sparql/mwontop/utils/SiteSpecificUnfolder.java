@@ -1,10 +1,14 @@
 package org.mediawiki.sparql.mwontop.utils;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
 import it.unibz.inf.ontop.answering.reformulation.unfolding.QueryUnfolder;
 import it.unibz.inf.ontop.injection.OntopModelSettings;
+import it.unibz.inf.ontop.injection.OntopReformulationSettings;
 import it.unibz.inf.ontop.iq.IntermediateQuery;
 import it.unibz.inf.ontop.iq.exception.EmptyQueryException;
 import it.unibz.inf.ontop.iq.impl.IntermediateQueryImpl;
@@ -18,6 +22,7 @@ import it.unibz.inf.ontop.iq.optimizer.TrueNodesRemovalOptimizer;
 import it.unibz.inf.ontop.iq.proposal.QueryMergingProposal;
 import it.unibz.inf.ontop.iq.proposal.impl.QueryMergingProposalImpl;
 import it.unibz.inf.ontop.iq.tools.RootConstructionNodeEnforcer;
+import it.unibz.inf.ontop.model.atom.AtomPredicate;
 import it.unibz.inf.ontop.model.term.GroundFunctionalTerm;
 import it.unibz.inf.ontop.model.term.ImmutableTerm;
 import it.unibz.inf.ontop.model.term.NonGroundFunctionalTerm;
@@ -25,26 +30,51 @@ import it.unibz.inf.ontop.model.term.impl.ValueConstantImpl;
 import it.unibz.inf.ontop.spec.mapping.Mapping;
 import it.unibz.inf.ontop.substitution.ImmutableSubstitution;
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.mediawiki.sparql.mwontop.metrics.QueryMetrics;
 
-import java.util.HashSet;
 import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Stream;
 
-class SiteSpecificUnfolder implements QueryUnfolder {
-    private static final String DEFAULT_DOMAIN_FOR_QUERY = "https://en.wikipedia.org/wiki/mw{}ns:{}";
+public class SiteSpecificUnfolder implements QueryUnfolder {
+    /**
+     * Ontop property with the base URL of the site of the queries without any site IRI, like "https://fr.wikipedia.org".
+     * It is set by {@link org.mediawiki.sparql.mwontop.sql.RepositoryFactory} on the repositories of a single site.
+     */
+    public static final String DEFAULT_SITE_PROPERTY = "mw2sparql.unfolder.defaultSite";
+    private static final String DEFAULT_SITE = "https://en.wikipedia.org";
+    private static final String WIKI_PATH = "/wiki/";
+    private static final String PAGE_TEMPLATE = "mw{}ns:{}";
     private final Mapping mapping;
+    private final String defaultDomainForQuery;
     private final RootConstructionNodeEnforcer rootCnEnforcer;
+    /**
+     * For each mapped predicate, construction nodes of its definition indexed by the base URL of the site they belong to
+     * (like "https://en.wikipedia.org"). Nodes are kept in top-down order.
+     */
+    private final ImmutableMap<AtomPredicate, ImmutableSetMultimap<String, QueryNode>> constructionNodesBySite;
 
     @AssistedInject
-    private SiteSpecificUnfolder( @Assisted Mapping mapping, RootConstructionNodeEnforcer rootCnEnforcer ) {
+    SiteSpecificUnfolder( @Assisted Mapping mapping, RootConstructionNodeEnforcer rootCnEnforcer, OntopReformulationSettings settings ) {
         this.mapping = mapping;
+        this.defaultDomainForQuery = settings.getProperty( DEFAULT_SITE_PROPERTY ).orElse( DEFAULT_SITE ) + WIKI_PATH + PAGE_TEMPLATE;
         this.rootCnEnforcer = rootCnEnforcer;
+        this.constructionNodesBySite = indexConstructionNodesBySite( mapping );
     }
 
     @NonNull
     @Override
     public IntermediateQuery optimize( IntermediateQuery query ) throws EmptyQueryException {
+        long startNanos = QueryMetrics.getInstance().nanoTime();
+        try {
+            return unfold( query );
+        } finally {
+            QueryMetrics.getInstance().record( QueryMetrics.Phase.REFORMULATION, startNanos );
+        }
+    }
+
+    @NonNull
+    private IntermediateQuery unfold( @NonNull IntermediateQuery query ) throws EmptyQueryException {
         IntermediateQuery newQuery = null;
         String cachedSite = null;
 
@@ -69,7 +99,7 @@ class SiteSpecificUnfolder implements QueryUnfolder {
                 // we should define default domain at least for one node anyway, as we can't fetch data from over then 800 db's because of TimeoutException:
                 boolean useDefaultDomain = !domainTerm.isPresent() && ( leftNodesCount == 1 ) && noDomain;
                 if ( useDefaultDomain ) {
-                    domainTerm = Optional.of( DEFAULT_DOMAIN_FOR_QUERY );
+                    domainTerm = Optional.of( defaultDomainForQuery );
                 }
 
                 if ( domainTerm.isPresent() ) {
@@ -77,7 +107,8 @@ class SiteSpecificUnfolder implements QueryUnfolder {
                     String siteLink = domainTerm.get();
                     if ( !siteLink.equals( cachedSite ) ) {
                         IntermediateQuery modelQuery = optionalMappingAssertion.get();
-                        final Set<QueryNode> constructionNodesForSite = getApplicableMappings( siteLink, modelQuery, useDefaultDomain );
+                        final Set<QueryNode> constructionNodesForSite = getApplicableMappings( siteLink,
+                                intentionalNode.getProjectionAtom().getPredicate(), useDefaultDomain );
                         if ( !constructionNodesForSite.isEmpty() ) {
                             QueryNode rootNode = modelQuery.getRootNode();
                             if ( constructionNodesForSite.size() == 1 ) {
@@ -158,37 +189,78 @@ class SiteSpecificUnfolder implements QueryUnfolder {
      *                      So if this parameter is {@code true} we are fetching only the first node.
      */
     @NonNull
-    private HashSet<QueryNode> getApplicableMappings( @NonNull String siteLink, @NonNull IntermediateQuery modelQuery, boolean onlyFirstNode ) {
-        HashSet<QueryNode> constructionNodesForSidelines = new HashSet<>();
+    private Set<QueryNode> getApplicableMappings( @NonNull String siteLink, @NonNull AtomPredicate predicate, boolean onlyFirstNode ) {
+        ImmutableSetMultimap<String, QueryNode> nodesBySite = constructionNodesBySite.get( predicate );
+        String baseUrl = extractBaseUrl( siteLink );
+        if ( nodesBySite == null || baseUrl == null ) {
+            return ImmutableSet.of();
+        }
+        ImmutableSet<QueryNode> constructionNodesForSite = nodesBySite.get( baseUrl );
+        if ( onlyFirstNode && constructionNodesForSite.size() > 1 ) {
+            return ImmutableSet.of( constructionNodesForSite.iterator().next() );
+        }
+        return constructionNodesForSite;
+    }
 
+    @NonNull
+    private static ImmutableMap<AtomPredicate, ImmutableSetMultimap<String, QueryNode>> indexConstructionNodesBySite( @NonNull Mapping mapping ) {
+        ImmutableMap.Builder<AtomPredicate, ImmutableSetMultimap<String, QueryNode>> index = ImmutableMap.builder();
+        for ( AtomPredicate predicate : mapping.getPredicates() ) {
+            mapping.getDefinition( predicate ).ifPresent( modelQuery -> index.put( predicate, indexConstructionNodesBySite( modelQuery ) ) );
+        }
+        return index.build();
+    }
+
+    @NonNull
+    private static ImmutableSetMultimap<String, QueryNode> indexConstructionNodesBySite( @NonNull IntermediateQuery modelQuery ) {
+        ImmutableSetMultimap.Builder<String, QueryNode> nodesBySite = ImmutableSetMultimap.builder();
         ImmutableList<QueryNode> nodesInTopDownOrder = modelQuery.getNodesInTopDownOrder();
         if ( nodesInTopDownOrder != null ) {
-            Stream<ConstructionNodeImpl> constructionNodeStream = nodesInTopDownOrder.stream()
+            nodesInTopDownOrder.stream()
                     .filter( ConstructionNodeImpl.class::isInstance )
                     .map( ConstructionNodeImpl.class::cast )
-                    .filter( node -> filterNode( node, siteLink ) )
-                    .filter( node -> modelQuery.getFirstChild( node ).isPresent() );
-
-            if ( onlyFirstNode ) {
-                constructionNodeStream = constructionNodeStream
-                        .limit( 1 );
-            }
-            constructionNodeStream.forEach( constructionNodesForSidelines::add );
+                    .filter( node -> modelQuery.getFirstChild( node ).isPresent() )
+                    .forEach( node -> getSiteBaseUrls( node ).forEach( baseUrl -> nodesBySite.put( baseUrl, node ) ) );
         }
-        return constructionNodesForSidelines;
+        return nodesBySite.build();
     }
 
-    private boolean filterNode( @NonNull ConstructionNodeImpl node, @NonNull String siteLink ) {
+    @NonNull
+    private static Set<String> getSiteBaseUrls( @NonNull ConstructionNodeImpl node ) {
         ImmutableSubstitution<ImmutableTerm> substitution = node.getSubstitution();
         if ( substitution == null ) {
-            return false;
+            return ImmutableSet.of();
         }
-        return substitution.getImmutableMap().values().stream()
+        ImmutableSet.Builder<String> baseUrls = ImmutableSet.builder();
+        substitution.getImmutableMap().values().stream()
                 .filter( NonGroundFunctionalTerm.class::isInstance )
                 .map( NonGroundFunctionalTerm.class::cast )
                 .map( v -> v.getTerm( 0 ) )
                 .filter( ValueConstantImpl.class::isInstance )
                 .map( ValueConstantImpl.class::cast )
-                .anyMatch( t -> siteLink.contains( t.getValue() ) );
+                .map( t -> extractBaseUrl( t.getValue() ) )
+                .filter( baseUrl -> baseUrl != null )
+                .forEach( baseUrls::add );
+        return baseUrls.build();
+    }
+
+    /**
+     * Normalizes a site link or an IRI template to the base URL of its site,
+     * e.g. {@code "https://fr.wikipedia.org/wiki/mw{}ns:{}"} to {@code https://fr.wikipedia.org}.
+     * Leading quotes or brackets added by the term rendering are skipped.
+     *
+     * @return {@code null} if the link does not point to a wiki page.
+     */
+    @Nullable
+    static String extractBaseUrl( @NonNull String siteLink ) {
+        int end = siteLink.indexOf( WIKI_PATH );
+        if ( end < 0 ) {
+            return null;
+        }
+        int start = 0;
+        while ( start < end && !Character.isLetter( siteLink.charAt( start ) ) ) {
+            start++;
+        }
+        return siteLink.substring( start, end );
     }
-}
\ No newline at end of file
+}
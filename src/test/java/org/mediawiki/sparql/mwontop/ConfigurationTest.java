@@ -18,6 +18,8 @@ public class ConfigurationTest {
         System.setProperty( "app.test.list", "1,2,3" );
         System.setProperty( "app.test.list.spaces", "1, 2 ,  3" );
         System.setProperty( "app.test.list.empty", "" );
+        System.setProperty( "app.test.long", " 42 " );
+        System.setProperty( "app.test.long.invalid", "42a" );
     }
 
     @Test
@@ -46,4 +48,15 @@ public class ConfigurationTest {
         list = Configuration.instance().getPropertyAsList( "app.test.list.empty" );
         assertTrue( list.isEmpty() );
     }
+
+    @Test
+    public void shouldReturnLong() {
+        assertEquals( 42L, Configuration.instance().getPropertyAsLong( "app.test.long", 0 ) );
+    }
+
+    @Test
+    public void shouldReturnDefaultLongForMissingOrInvalidValue() {
+        assertEquals( 7L, Configuration.instance().getPropertyAsLong( "no.such.key", 7 ) );
+        assertEquals( 7L, Configuration.instance().getPropertyAsLong( "app.test.long.invalid", 7 ) );
+    }
 }
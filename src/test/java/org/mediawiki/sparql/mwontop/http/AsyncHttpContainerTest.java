@@ -0,0 +1,97 @@
+package org.mediawiki.sparql.mwontop.http;
+
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.test.JerseyTest;
+import org.glassfish.jersey.test.spi.TestContainerFactory;
+import org.junit.Test;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Application;
+import javax.ws.rs.core.Response;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AsyncHttpContainerTest extends JerseyTest {
+    private static final ExecutorService WORKERS = Executors.newCachedThreadPool();
+
+    @Override
+    protected Application configure() {
+        return new ResourceConfig(TestResource.class);
+    }
+
+    @Override
+    protected TestContainerFactory getTestContainerFactory() {
+        return new AsyncHttpTestContainerFactory();
+    }
+
+    @Test
+    public void shouldAnswerSynchronousRequest() {
+        Response response = target("test/sync").request().get();
+        assertEquals(200, response.getStatus());
+        assertEquals("sync", response.readEntity(String.class));
+    }
+
+    @Test
+    public void shouldAnswerRequestResumedFromAnotherThread() {
+        Response response = target("test/async").request().get();
+        assertEquals(200, response.getStatus());
+        assertEquals("async", response.readEntity(String.class));
+    }
+
+    @Test
+    public void shouldCallTimeoutHandlerOfSuspendedRequest() {
+        Response response = target("test/timeout").request().get();
+        assertEquals(504, response.getStatus());
+    }
+
+    @Test
+    public void shouldAnswerNoContent() {
+        assertEquals(204, target("test/empty").request().get().getStatus());
+    }
+
+    @Path("test")
+    public static class TestResource {
+
+        @GET
+        @Path("sync")
+        public String sync() {
+            return "sync";
+        }
+
+        @GET
+        @Path("async")
+        public void async(@Suspended AsyncResponse asyncResponse) {
+            WORKERS.execute(() -> {
+                sleepQuietly(100);
+                asyncResponse.resume("async");
+            });
+        }
+
+        @GET
+        @Path("timeout")
+        public void timeout(@Suspended AsyncResponse asyncResponse) {
+            asyncResponse.setTimeoutHandler(response -> response.resume(Response.status(Response.Status.GATEWAY_TIMEOUT).build()));
+            asyncResponse.setTimeout(100, TimeUnit.MILLISECONDS);
+        }
+
+        @GET
+        @Path("empty")
+        public void empty(@Suspended AsyncResponse asyncResponse) {
+            WORKERS.execute(() -> asyncResponse.resume(Response.noContent().build()));
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package org.mediawiki.sparql.mwontop.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.test.DeploymentContext;
+import org.glassfish.jersey.test.spi.TestContainer;
+import org.glassfish.jersey.test.spi.TestContainerFactory;
+
+import java.net.URI;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the tested resources in {@link AsyncHttpContainer}, as the Jersey JDK HTTP test container does not support asynchronous responses.
+ */
+public class AsyncHttpTestContainerFactory implements TestContainerFactory {
+
+    @Override
+    public TestContainer create(URI baseUri, DeploymentContext deploymentContext) {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        HttpServer server = AsyncHttpContainer.createHttpServer(baseUri, deploymentContext.getResourceConfig(), executor);
+        return new TestContainer() {
+            @Override
+            public ClientConfig getClientConfig() {
+                return null;
+            }
+
+            @Override
+            public URI getBaseUri() {
+                return baseUri;
+            }
+
+            @Override
+            public void start() {
+                server.start();
+            }
+
+            @Override
+            public void stop() {
+                server.stop(0);
+                executor.shutdownNow();
+            }
+        };
+    }
+}
@@ -0,0 +1,149 @@
+package org.mediawiki.sparql.mwontop.http;
+
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import javax.ws.rs.WebApplicationException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class ClientQuotasTest {
+    private final AtomicLong now = new AtomicLong();
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return now.get();
+        }
+    };
+
+    @Test
+    public void shouldBeDisabledWithoutLimits() {
+        assertFalse(new ClientQuotas(0, 10, 0, ticker).isEnabled());
+        assertTrue(new ClientQuotas(60, 10, 0, ticker).isEnabled());
+        assertTrue(new ClientQuotas(0, 10, 2, ticker).isEnabled());
+    }
+
+    @Test
+    public void shouldRejectQueriesOverTheBurst() {
+        ClientQuotas quotas = new ClientQuotas(60, 2, 0, ticker);
+        assertTrue(quotas.acquire("a").isAdmitted());
+        assertTrue(quotas.acquire("a").isAdmitted());
+        ClientQuotas.Permit rejected = quotas.acquire("a");
+        assertFalse(rejected.isAdmitted());
+        assertEquals(1, rejected.getRetryAfterSeconds());
+        assertTrue(quotas.acquire("b").isAdmitted());
+        assertEquals(1, quotas.getRateLimitedQueries());
+        assertEquals(3, quotas.getAdmittedQueries());
+    }
+
+    @Test
+    public void shouldRefillTokensAtTheRate() {
+        ClientQuotas quotas = new ClientQuotas(6, 1, 0, ticker);
+        assertTrue(quotas.acquire("a").isAdmitted());
+        ClientQuotas.Permit rejected = quotas.acquire("a");
+        assertFalse(rejected.isAdmitted());
+        assertEquals(10, rejected.getRetryAfterSeconds());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(4));
+        assertEquals(6, quotas.acquire("a").getRetryAfterSeconds());
+        now.addAndGet(TimeUnit.SECONDS.toNanos(6));
+        assertTrue(quotas.acquire("a").isAdmitted());
+    }
+
+    @Test
+    public void shouldChargeATokenPerBatchedQuery() {
+        ClientQuotas quotas = new ClientQuotas(60, 10, 0, ticker);
+        ClientQuotas.Permit batch = quotas.acquire("a", 4);
+        assertTrue(batch.isAdmitted());
+        assertEquals(4, quotas.getAdmittedQueries());
+        assertFalse(quotas.acquire("a", 7).isAdmitted());
+        assertTrue(quotas.acquire("a", 6).isAdmitted());
+        assertFalse(quotas.acquire("a").isAdmitted());
+    }
+
+    @Test
+    public void shouldChargeBatchesBiggerThanTheBurst() {
+        ClientQuotas quotas = new ClientQuotas(60, 10, 0, ticker);
+        assertTrue(quotas.acquire("a", 100).isAdmitted());
+        ClientQuotas.Permit rejected = quotas.acquire("a");
+        assertFalse(rejected.isAdmitted());
+        assertEquals(91, rejected.getRetryAfterSeconds());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(91));
+        assertTrue(quotas.acquire("a").isAdmitted());
+        assertFalse(quotas.acquire("a", 100).isAdmitted());
+    }
+
+    @Test
+    public void shouldLimitConcurrentQueries() {
+        ClientQuotas quotas = new ClientQuotas(0, 1, 2, ticker);
+        ClientQuotas.Permit first = quotas.acquire("a");
+        assertTrue(first.isAdmitted());
+        assertTrue(quotas.acquire("a").isAdmitted());
+        ClientQuotas.Permit rejected = quotas.acquire("a");
+        assertFalse(rejected.isAdmitted());
+        assertTrue(rejected.getRetryAfterSeconds() > 0);
+        rejected.close();
+        assertFalse(quotas.acquire("a").isAdmitted());
+
+        first.close();
+        first.close();
+        assertTrue(quotas.acquire("a").isAdmitted());
+        assertFalse(quotas.acquire("a").isAdmitted());
+        assertEquals(3, quotas.getConcurrencyLimitedQueries());
+    }
+
+    @Test
+    public void shouldExposeClientUsage() throws IOException {
+        ClientQuotas quotas = new ClientQuotas(0, 1, 1, ticker);
+        quotas.acquire("bot \"1\"");
+        quotas.acquire("bot \"1\"");
+        assertEquals(1, quotas.getTrackedClients());
+        ClientQuotasMXBean.ClientUsage usage = quotas.getClients().get(0);
+        assertEquals(1, usage.getActiveQueries());
+        assertEquals(1, usage.getAdmittedQueries());
+        assertEquals(1, usage.getRejectedQueries());
+
+        StringWriter writer = new StringWriter();
+        quotas.writePrometheus(writer);
+        assertTrue(writer.toString().contains("mw2sparql_client_active_queries 1\n"));
+        assertTrue(writer.toString().contains("mw2sparql_client_rejected_queries_total{quota=\"concurrency\"} 1\n"));
+        assertFalse(writer.toString().contains("bot"));
+    }
+
+    @Test
+    public void shouldForgetIdleClients() {
+        ClientQuotas quotas = new ClientQuotas(60, 1, 0, ticker);
+        quotas.acquire("a");
+        now.addAndGet(TimeUnit.HOURS.toNanos(1));
+        assertEquals(0, quotas.getTrackedClients());
+    }
+
+    @Test
+    public void shouldIdentifyClients() {
+        assertEquals("10.0.0.1", ClientAdmissionFilter.clientKey("ip", "10.0.0.1", "1.2.3.4", "bot"));
+        assertEquals("1.2.3.4", ClientAdmissionFilter.clientKey(ClientAdmissionFilter.KEY_FORWARDED, "10.0.0.1", "5.6.7.8, 1.2.3.4", "bot"));
+        assertEquals("10.0.0.1", ClientAdmissionFilter.clientKey(ClientAdmissionFilter.KEY_FORWARDED, "10.0.0.1", null, "bot"));
+        assertEquals("bot", ClientAdmissionFilter.clientKey(ClientAdmissionFilter.KEY_USER_AGENT, "10.0.0.1", null, " bot "));
+        assertEquals("10.0.0.1", ClientAdmissionFilter.clientKey(ClientAdmissionFilter.KEY_USER_AGENT, "10.0.0.1", null, ""));
+        assertEquals("unknown", ClientAdmissionFilter.clientKey("ip", null, null, null));
+    }
+
+    @Test
+    public void shouldBoundTheBatchRead() throws IOException {
+        byte[] batch = "[\"ASK {}\"]".getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(batch, ClientAdmissionFilter.readBatch(new ByteArrayInputStream(batch), batch.length));
+        try {
+            ClientAdmissionFilter.readBatch(new ByteArrayInputStream(batch), batch.length - 1);
+            fail();
+        } catch (WebApplicationException e) {
+            assertEquals(413, e.getResponse().getStatus());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.mediawiki.sparql.mwontop.http;
+
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.QueryResults;
+import org.eclipse.rdf4j.query.impl.TupleQueryResultBuilder;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.junit.Test;
+import org.mediawiki.sparql.mwontop.metrics.QueryMetrics;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class CrossWikiQueryTest {
+    private static final ValueFactory VALUE_FACTORY = SimpleValueFactory.getInstance();
+    private static final String QUERY = "SELECT ?title WHERE { ?page <http://example.org/title> ?title }";
+
+    @Test
+    public void shouldMergeSolutionsOfAllWikis() throws Exception {
+        Map<String, Repository> repositories = new HashMap<>();
+        repositories.put("https://en.wikipedia.org", repositoryWithTitles("Paris", "London"));
+        repositories.put("https://fr.wikipedia.org", repositoryWithTitles("Lyon"));
+
+        List<BindingSet> solutions = evaluate(repositories, Arrays.asList("https://en.wikipedia.org", "https://fr.wikipedia.org"));
+
+        assertEquals(3, solutions.size());
+        Map<String, Set<String>> titlesByWiki = solutions.stream().collect(Collectors.groupingBy(
+                solution -> solution.getValue(CrossWikiQuery.WIKI_BINDING).stringValue(),
+                Collectors.mapping(solution -> solution.getValue("title").stringValue(), Collectors.toSet())
+        ));
+        assertEquals(new HashSet<>(Arrays.asList("Paris", "London")), titlesByWiki.get("https://en.wikipedia.org"));
+        assertEquals(Collections.singleton("Lyon"), titlesByWiki.get("https://fr.wikipedia.org"));
+    }
+
+    @Test
+    public void shouldReportFailureOfSingleWiki() throws Exception {
+        Map<String, Repository> repositories = new HashMap<>();
+        repositories.put("https://en.wikipedia.org", repositoryWithTitles("Paris"));
+        repositories.put("https://de.wikipedia.org", failingRepository());
+
+        List<BindingSet> solutions = evaluate(repositories, Arrays.asList("https://en.wikipedia.org", "https://de.wikipedia.org"));
+
+        assertEquals(2, solutions.size());
+        BindingSet failure = solutions.stream().filter(solution -> solution.hasBinding(CrossWikiQuery.ERROR_BINDING)).findFirst().get();
+        assertEquals("https://de.wikipedia.org", failure.getValue(CrossWikiQuery.WIKI_BINDING).stringValue());
+        assertEquals("replica unavailable", failure.getValue(CrossWikiQuery.ERROR_BINDING).stringValue());
+        assertFalse(failure.hasBinding("title"));
+    }
+
+    @Test
+    public void shouldWriteEmptyResultWithoutWikis() throws Exception {
+        assertTrue(evaluate(Collections.emptyMap(), Collections.emptyList()).isEmpty());
+    }
+
+    private static List<BindingSet> evaluate(Map<String, Repository> repositories, List<String> wikis) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (QueryDeadline deadline = new QueryDeadline(10000, System::nanoTime);
+             QueryMetrics.QueryTimer timer = QueryMetrics.getInstance().startQuery()) {
+            TupleQueryResultBuilder results = new TupleQueryResultBuilder();
+            new CrossWikiQuery(executor, repositories::get, 10000)
+                    .evaluate(QUERY, Collections.singletonList("title"), wikis, deadline, results, timer);
+            assertEquals(Arrays.asList("title", CrossWikiQuery.WIKI_BINDING, CrossWikiQuery.ERROR_BINDING), results.getQueryResult().getBindingNames());
+            return QueryResults.asList(results.getQueryResult());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Repository repositoryWithTitles(String... titles) {
+        Repository repository = new SailRepository(new MemoryStore());
+        repository.initialize();
+        try (RepositoryConnection connection = repository.getConnection()) {
+            for (String title : titles) {
+                connection.add(VALUE_FACTORY.createBNode(), VALUE_FACTORY.createIRI("http://example.org/title"), VALUE_FACTORY.createLiteral(title));
+            }
+        }
+        return repository;
+    }
+
+    private static Repository failingRepository() {
+        return (Repository) Proxy.newProxyInstance(Repository.class.getClassLoader(), new Class<?>[]{Repository.class}, (proxy, method, args) -> {
+            throw new QueryEvaluationException("replica unavailable");
+        });
+    }
+}
@@ -0,0 +1,117 @@
+package org.mediawiki.sparql.mwontop.http;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HttpExecutorTest {
+
+    @Test
+    public void shouldRunRequestsOnWorkers() throws InterruptedException {
+        HttpExecutor executor = new HttpExecutor(2, 4, false);
+        try {
+            CountDownLatch done = new CountDownLatch(1);
+            AtomicBoolean rejected = new AtomicBoolean(true);
+            executor.execute(() -> {
+                rejected.set(HttpExecutor.isCurrentRequestRejected());
+                done.countDown();
+            });
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertFalse(rejected.get());
+            assertEquals(0, executor.getRejectedRequests());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldFlagRequestsWhenQueueIsFull() throws InterruptedException {
+        HttpExecutor executor = new HttpExecutor(1, 1, false);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            executor.execute(() -> {
+                started.countDown();
+                awaitQuietly(release);
+            });
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            executor.execute(() -> {
+            });
+            assertEquals(1, executor.getActiveWorkers());
+            assertEquals(1, executor.getQueueDepth());
+
+            AtomicBoolean rejected = new AtomicBoolean();
+            Thread caller = Thread.currentThread();
+            executor.execute(() -> rejected.set(HttpExecutor.isCurrentRequestRejected() && Thread.currentThread() == caller));
+            assertTrue(rejected.get());
+            assertFalse(HttpExecutor.isCurrentRequestRejected());
+            assertEquals(1, executor.getRejectedRequests());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldStartThreadPerRequestWithinBounds() throws InterruptedException {
+        AtomicInteger threads = new AtomicInteger();
+        HttpExecutor executor = new HttpExecutor(1, 1, runnable -> {
+            threads.incrementAndGet();
+            return new Thread(runnable);
+        });
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        try {
+            executor.execute(() -> {
+                started.countDown();
+                awaitQuietly(release);
+                done.countDown();
+            });
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            executor.execute(done::countDown);
+            assertEquals(1, executor.getActiveWorkers());
+            assertEquals(1, executor.getQueueDepth());
+
+            AtomicBoolean rejected = new AtomicBoolean();
+            executor.execute(() -> rejected.set(HttpExecutor.isCurrentRequestRejected()));
+            assertTrue(rejected.get());
+            assertEquals(1, executor.getRejectedRequests());
+
+            release.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(2, threads.get());
+            assertTrue(executor.isVirtualThreads());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldFallBackToPlatformThreadsIfVirtualThreadsAreMissing() {
+        boolean virtualThreadsSupported;
+        try {
+            Thread.class.getMethod("ofVirtual");
+            virtualThreadsSupported = true;
+        } catch (NoSuchMethodException e) {
+            virtualThreadsSupported = false;
+        }
+        HttpExecutor executor = new HttpExecutor(1, 0, true);
+        executor.shutdown();
+        assertEquals(virtualThreadsSupported, executor.isVirtualThreads());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
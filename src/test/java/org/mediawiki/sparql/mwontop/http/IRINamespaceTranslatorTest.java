@@ -0,0 +1,228 @@
+package org.mediawiki.sparql.mwontop.http;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+import org.mediawiki.sparql.mwontop.http.IRINamespaceTranslator.NamespaceTable;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class IRINamespaceTranslatorTest {
+
+    private static final Map<String, Map<String, String>> NAMESPACES = new HashMap<>();
+
+    static {
+        Map<String, String> en = new HashMap<>();
+        en.put( "", "mw0ns" );
+        en.put( "mw0ns", "" );
+        en.put( "Category", "mw14ns" );
+        en.put( "mw14ns", "Category" );
+        en.put( "Template", "mw10ns" );
+        en.put( "mw10ns", "Template" );
+        NAMESPACES.put( "en.wikipedia.org", en );
+
+        Map<String, String> fr = new HashMap<>();
+        fr.put( "", "mw0ns" );
+        fr.put( "mw0ns", "" );
+        fr.put( "Catégorie", "mw14ns" );
+        fr.put( "Category", "mw14ns" );
+        fr.put( "mw14ns", "Catégorie" );
+        fr.put( "Modèle", "mw10ns" );
+        fr.put( "mw10ns", "Modèle" );
+        NAMESPACES.put( "fr.wikipedia.org", fr );
+
+        NAMESPACES.put( "", new HashMap<>() );
+    }
+
+    private static final Function<String, NamespaceTable> TABLES = host -> new NamespaceTable( NAMESPACES.getOrDefault( host, new HashMap<>() ) );
+
+    @Test
+    public void shouldReturnTheSameInstanceWithoutChanges() {
+        String text = "SELECT * { ?a ?b <https://en.wikipedia.org/wiki/Unknown:Voice_types> }";
+        assertSame( text, IRINamespaceTranslator.translate( text, true, TABLES ) );
+
+        String iri = "https://en.wikipedia.org/wiki/Unknown:Voice_types";
+        assertSame( iri, IRINamespaceTranslator.translate( iri, false, TABLES ) );
+    }
+
+    @Test
+    public void shouldReplaceNamespaceForCategory() {
+        assertEquals( "https://en.wikipedia.org/wiki/mw14ns:Voice_types",
+                IRINamespaceTranslator.translate( "https://en.wikipedia.org/wiki/Category:Voice_types", true, TABLES ) );
+        assertEquals( "https://en.wikipedia.org/wiki/Category:Voice_types",
+                IRINamespaceTranslator.translate( "https://en.wikipedia.org/wiki/mw14ns:Voice_types", false, TABLES ) );
+    }
+
+    @Test
+    public void shouldDecodeUrlButLeaveExceptedSymbols() {
+        assertEquals( "https://en.wikipedia.org/wiki/mw14ns:test %60 %22 ( ) / : %60 %22 ( ) / :",
+                IRINamespaceTranslator.translate( "https://en.wikipedia.org/wiki/Category:test %60 %22 %28 %29 %2F %3A %60 %22 %28 %29 %2F %3A", true, TABLES ) );
+    }
+
+    @Test
+    public void shouldEncodeUrlButLeaveExceptedSymbols() {
+        assertEquals( "https://en.wikipedia.org/wiki/Category:test+%60+%22+(+)+/+:",
+                IRINamespaceTranslator.translate( "https://en.wikipedia.org/wiki/mw14ns:test ` \" ( ) / :", false, TABLES ) );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectIncompleteEscape() {
+        IRINamespaceTranslator.translate( "<https://en.wikipedia.org/wiki/Test%2>", true, TABLES );
+    }
+
+    @Test
+    public void shouldBehaveAsRegexImplementationOnKnownCases() {
+        String[] cases = {
+                "",
+                "test",
+                "//",
+                "https://en.wikipedia.org/wiki/",
+                "<https://en.wikipedia.org/wiki/>",
+                "<https://en.wikipedia.org/wiki/:Foo>",
+                "<https://en.wikipedia.org/wiki/Foo:>",
+                "<https://en.wikipedia.org/wiki/Category:>",
+                "<https://en.wikipedia.org/wiki/Category^Foo:Bar>",
+                "<https://en.wikipedia.org/w/index.php> <https://fr.wikipedia.org/wiki/Modèle:Infobox_Galaxie>",
+                "PREFIX mw: <http://mw2sparql.toolforge.org/ontology#> SELECT * {<https://fr.wikipedia.org/wiki/Catégorie:Langage_de_requête> ?p ?o}",
+                "<https://fr.wikipedia.org/wiki/Cat%C3%A9gorie:Langage+de+requ%C3%AAte>",
+                "<https://fr.wikipedia.org/wiki/`Anizzah> <https://en.wikipedia.org/wiki/Talk:國立宜蘭高級中學>",
+                "<https://en.wikipedia.org/wiki/mw0ns:%FF%FE%E2%82>",
+                "<https://en.wikipedia.org/wiki/mw0ns:%+1%-0>",
+                "<https://en.wikipedia.org/wiki/mw0ns:😀🐀\uDE00>",
+                "///wiki/Foo"
+        };
+        for ( String text : cases ) {
+            assertSameBehavior( text, true );
+            assertSameBehavior( text, false );
+        }
+    }
+
+    @Test
+    public void shouldBehaveAsRegexImplementationOnRandomTexts() {
+        Random random = new Random( 42 );
+        for ( int i = 0; i < 20000; i++ ) {
+            String text = randomText( random );
+            assertSameBehavior( text, true );
+            assertSameBehavior( text, false );
+        }
+    }
+
+    private static void assertSameBehavior( String text, boolean decodeTitles ) {
+        String expected;
+        try {
+            expected = regexMutateNamespace( text, decodeTitles );
+        } catch ( IllegalArgumentException e ) {
+            try {
+                IRINamespaceTranslator.translate( text, decodeTitles, TABLES );
+                fail( "IllegalArgumentException expected for " + text );
+            } catch ( IllegalArgumentException expectedException ) {
+                //same behavior
+            }
+            return;
+        }
+        assertEquals( "Translation of " + text, expected, IRINamespaceTranslator.translate( text, decodeTitles, TABLES ) );
+    }
+
+    /**
+     * '$' and '\' are not generated, even escaped: the regex implementation gives them a special meaning in Matcher.appendReplacement.
+     */
+    private static String randomText( Random random ) {
+        String[] hosts = {"en.wikipedia.org", "fr.wikipedia.org", ""};
+        String[] namespaces = {"", "Category", "mw14ns", "Catégorie", "Cat%C3%A9gorie", "mw10ns", "Mod%C3%A8le", "Unknown", "a+b"};
+        String titleChars = "abcXYZ019 _-.*!()/,;:`^\"'%+<>#?&=é國😀\uDE00";
+        String noiseChars = "ab <>{}?:#^\"%wiki";
+        StringBuilder text = new StringBuilder();
+        int parts = random.nextInt( 4 );
+        for ( int i = 0; i < parts; i++ ) {
+            text.append( randomString( random, noiseChars, 5 ) );
+            if ( random.nextInt( 5 ) == 0 ) {
+                text.append( "https://" ).append( hosts[random.nextInt( hosts.length )] ).append( "/w/" );
+                continue;
+            }
+            text.append( "<https://" ).append( hosts[random.nextInt( hosts.length )] ).append( "/wiki/" );
+            if ( random.nextBoolean() ) {
+                text.append( namespaces[random.nextInt( namespaces.length )] ).append( ':' );
+            }
+            text.append( randomString( random, titleChars, 12 ) );
+            if ( random.nextInt( 4 ) != 0 ) {
+                text.append( '>' );
+            }
+        }
+        return text.toString();
+    }
+
+    private static String randomString( Random random, String chars, int maxLength ) {
+        int length = random.nextInt( maxLength + 1 );
+        StringBuilder builder = new StringBuilder( length );
+        for ( int i = 0; i < length; i++ ) {
+            int escapedByte = random.nextInt( 256 );
+            if ( random.nextInt( 6 ) == 0 && escapedByte != '$' && escapedByte != '\\' ) {
+                builder.append( '%' ).append( StringUtils.leftPad( Integer.toHexString( escapedByte ), 2, '0' ) );
+            } else {
+                builder.append( chars.charAt( random.nextInt( chars.length() ) ) );
+            }
+        }
+        return builder.toString();
+    }
+
+    private static final Pattern NAMESPACE_URI_REGEX = Pattern.compile( "//([^/]*)/wiki/([^:^>]*:)?([^>]+)" );
+
+    /**
+     * Regex based implementation previously used by {@link MWNamespace#mutateNamespace}, kept as reference.
+     */
+    private static String regexMutateNamespace( String text, boolean decodeTitles ) {
+        StringBuffer buf = new StringBuffer();
+        Matcher m = NAMESPACE_URI_REGEX.matcher( text );
+        while ( m.find() ) {
+            String namespaceGroup = m.group( 2 );
+            String namespace = StringUtils.defaultIfBlank( namespaceGroup, "" );
+            if ( StringUtils.isNotBlank( namespace ) ) {
+                namespace = namespace.substring( 0, namespace.length() - 1 );
+            }
+            String pageTitle = m.group( 3 );
+            try {
+                String utfCharset = "UTF-8";
+                if ( decodeTitles ) {
+                    namespace = URLDecoder.decode( namespace, utfCharset );
+                    pageTitle = URLDecoder.decode( pageTitle, utfCharset )
+                            .replace( "`", "%60" )
+                            .replace( "^", "%5E" )
+                            .replace( "\"", "%22" );
+                }
+                Map<String, String> namespaces = NAMESPACES.getOrDefault( m.group( 1 ), new HashMap<>() );
+                if ( namespaces.containsKey( namespace ) ) {
+                    namespace = namespaces.get( namespace );
+                }
+                if ( !decodeTitles ) {
+                    namespace = URLEncoder.encode( namespace, utfCharset );
+                    pageTitle = URLEncoder.encode( pageTitle, utfCharset )
+                            .replace( "%21", "!" )
+                            .replace( "%28", "(" )
+                            .replace( "%29", ")" )
+                            .replace( "%2C", "," )
+                            .replace( "%2F", "/" )
+                            .replace( "%3A", ":" )
+                            .replace( "%3B", ";" );
+                }
+            } catch ( UnsupportedEncodingException ex ) {
+                throw new RuntimeException( ex );
+            }
+            if ( !namespace.isEmpty() ) {
+                pageTitle = namespace + ':' + pageTitle;
+            }
+            m.appendReplacement( buf, text.substring( m.start(), namespaceGroup != null ? m.start( 2 ) : m.start( 3 ) ) +
+                    pageTitle + text.substring( m.end( 3 ), m.end() ) );
+        }
+        m.appendTail( buf );
+        return buf.toString();
+    }
+}
@@ -0,0 +1,172 @@
+package org.mediawiki.sparql.mwontop.http;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class NamespaceRegistryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldShareConcurrentLoadsOfTheSameHost() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch( 1 );
+        NamespaceRegistry registry = new NamespaceRegistry( host -> {
+            calls.incrementAndGet();
+            try {
+                release.await();
+            } catch ( InterruptedException e ) {
+                throw new IOException( e );
+            }
+            return Collections.singletonMap( "Category", "mw14ns" );
+        }, null, System::currentTimeMillis, Runnable::run );
+
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try {
+            List<Future<IRINamespaceTranslator.NamespaceTable>> results = new ArrayList<>();
+            for ( int i = 0; i < 4; i++ ) {
+                results.add( executor.submit( () -> registry.getNamespaces( "en.wikipedia.org" ) ) );
+            }
+            Thread.sleep( 100 );
+            release.countDown();
+            for ( Future<IRINamespaceTranslator.NamespaceTable> result : results ) {
+                assertEquals( "mw14ns", result.get().get( "Category", 0, 8 ) );
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals( 1, calls.get() );
+    }
+
+    @Test
+    public void shouldRetryFailedLoadsAfterBackoff() {
+        AtomicInteger calls = new AtomicInteger();
+        AtomicLong now = new AtomicLong( 0 );
+        NamespaceRegistry registry = new NamespaceRegistry( host -> {
+            if ( calls.incrementAndGet() == 1 ) {
+                throw new IOException( "API not available" );
+            }
+            return Collections.singletonMap( "Category", "mw14ns" );
+        }, null, now::get, Runnable::run );
+
+        assertNull( registry.getNamespaces( "en.wikipedia.org" ).get( "Category", 0, 8 ) );
+        assertNull( registry.getNamespaces( "en.wikipedia.org" ).get( "Category", 0, 8 ) );
+        assertEquals( 1, calls.get() );
+
+        now.set( TimeUnit.MINUTES.toMillis( 1 ) );
+        assertEquals( "mw14ns", registry.getNamespaces( "en.wikipedia.org" ).get( "Category", 0, 8 ) );
+        assertEquals( 2, calls.get() );
+    }
+
+    @Test
+    public void shouldWriteSnapshotInBackgroundOnceForSeveralLoads() {
+        File snapshot = new File( folder.getRoot(), "namespaces.json" );
+        List<Runnable> pendingWrites = new ArrayList<>();
+        NamespaceRegistry registry = new NamespaceRegistry( host -> Collections.singletonMap( "Category", "mw14ns" ),
+                snapshot, System::currentTimeMillis, pendingWrites::add );
+        registry.getNamespaces( "en.wikipedia.org" );
+        registry.getNamespaces( "fr.wikipedia.org" );
+        assertFalse( snapshot.exists() );
+        assertEquals( 1, pendingWrites.size() );
+
+        pendingWrites.get( 0 ).run();
+        assertTrue( snapshot.isFile() );
+        registry.getNamespaces( "de.wikipedia.org" );
+        assertEquals( 2, pendingWrites.size() );
+    }
+
+    @Test
+    public void shouldRestoreNamespacesFromSnapshot() throws IOException {
+        File snapshot = new File( folder.getRoot(), "namespaces.json" );
+        NamespaceRegistry registry = new NamespaceRegistry( host -> Collections.singletonMap( "Category", "mw14ns" ),
+                snapshot, System::currentTimeMillis, Runnable::run );
+        registry.preload( Arrays.asList( "en.wikipedia.org", "fr.wikipedia.org" ), 2 );
+        assertTrue( snapshot.isFile() );
+
+        NamespaceRegistry restored = new NamespaceRegistry( host -> {
+            throw new IOException( "API should not be called" );
+        }, snapshot, System::currentTimeMillis, Runnable::run );
+        assertEquals( "mw14ns", restored.getNamespaces( "fr.wikipedia.org" ).get( "Category", 0, 8 ) );
+    }
+
+    @Test
+    public void shouldGiveTheLoadFailureToConcurrentCallers() throws Exception {
+        CountDownLatch release = new CountDownLatch( 1 );
+        NamespaceRegistry registry = new NamespaceRegistry( host -> {
+            try {
+                release.await();
+            } catch ( InterruptedException e ) {
+                throw new IOException( e );
+            }
+            throw new IllegalStateException( "Unexpected site info" );
+        }, null, System::currentTimeMillis, Runnable::run );
+
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try {
+            List<Future<IRINamespaceTranslator.NamespaceTable>> results = new ArrayList<>();
+            for ( int i = 0; i < 4; i++ ) {
+                results.add( executor.submit( () -> registry.getNamespaces( "en.wikipedia.org" ) ) );
+            }
+            Thread.sleep( 100 );
+            release.countDown();
+            for ( Future<IRINamespaceTranslator.NamespaceTable> result : results ) {
+                try {
+                    result.get();
+                    fail();
+                } catch ( ExecutionException e ) {
+                    assertTrue( e.getCause() instanceof IllegalStateException );
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldRefreshOldNamespacesFromSnapshot() throws IOException {
+        File snapshot = new File( folder.getRoot(), "namespaces.json" );
+        new NamespaceRegistry( host -> Collections.singletonMap( "Category", "mw14ns" ), snapshot, System::currentTimeMillis, Runnable::run )
+                .preload( Arrays.asList( "en.wikipedia.org", "fr.wikipedia.org" ), 2 );
+
+        AtomicLong now = new AtomicLong( snapshot.lastModified() );
+        AtomicInteger calls = new AtomicInteger();
+        NamespaceRegistry restored = new NamespaceRegistry( host -> {
+            calls.incrementAndGet();
+            if ( host.equals( "fr.wikipedia.org" ) ) {
+                throw new IOException( "API not available" );
+            }
+            return Collections.singletonMap( "Kategorie", "mw14ns" );
+        }, snapshot, now::get, Runnable::run );
+        long maxAge = TimeUnit.HOURS.toMillis( 24 );
+        restored.refreshOlderThan( maxAge );
+        assertEquals( 0, calls.get() );
+
+        now.addAndGet( maxAge );
+        restored.refreshOlderThan( maxAge );
+        assertEquals( 2, calls.get() );
+        assertEquals( "mw14ns", restored.getNamespaces( "en.wikipedia.org" ).get( "Kategorie", 0, 9 ) );
+        assertEquals( "mw14ns", restored.getNamespaces( "fr.wikipedia.org" ).get( "Category", 0, 8 ) );
+
+        NamespaceRegistry rewritten = new NamespaceRegistry( host -> {
+            throw new IOException( "API should not be called" );
+        }, snapshot, System::currentTimeMillis, Runnable::run );
+        assertEquals( "mw14ns", rewritten.getNamespaces( "en.wikipedia.org" ).get( "Kategorie", 0, 9 ) );
+
+        restored.refreshOlderThan( maxAge );
+        assertEquals( 3, calls.get() );
+    }
+}
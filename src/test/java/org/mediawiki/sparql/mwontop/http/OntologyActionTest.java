@@ -1,17 +1,29 @@
 package org.mediawiki.sparql.mwontop.http;
 
+import org.glassfish.jersey.message.DeflateEncoder;
+import org.glassfish.jersey.message.GZipEncoder;
 import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.server.filter.EncodingFilter;
 import org.glassfish.jersey.test.JerseyTest;
 import org.junit.Test;
 
 import javax.ws.rs.core.Application;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.IOUtils;
 
 import static org.junit.Assert.*;
 
@@ -22,7 +34,10 @@ public class OntologyActionTest extends JerseyTest {
 
     @Override
     protected Application configure() {
-        return new ResourceConfig( OntologyAction.class );
+        ResourceConfig config = new ResourceConfig( OntologyAction.class );
+        EncodingFilter.enableFor( config, GZipEncoder.class, DeflateEncoder.class );
+        config.register( PreEncodedBody.Writer.class );
+        return config;
     }
 
     @Test
@@ -46,4 +61,67 @@ public class OntologyActionTest extends JerseyTest {
         assertEquals( 200, response.getStatus() );
         assertEquals( ontologyResourceContent, response.readEntity( String.class ));
     }
+
+    @Test
+    public void ontologyShouldVaryOnAcceptHeader() {
+        for ( int i = 0; i < 2; i++ ) {
+            Response response = target( "ontology" ).request( "text/turtle" ).get();
+            assertEquals( 200, response.getStatus() );
+            assertTrue( Arrays.asList( response.getHeaderString( "Vary" ).split( "," ) ).contains( "Accept" ) );
+        }
+    }
+
+    @Test
+    public void ontologyShouldBeServedGzipped() throws IOException {
+        String plain = target( "ontology" ).request( "text/turtle" ).get().readEntity( String.class );
+        Response response = target( "ontology" ).request( "text/turtle" ).header( HttpHeaders.ACCEPT_ENCODING, "gzip, deflate" ).get();
+        assertEquals( 200, response.getStatus() );
+        assertEquals( "gzip", response.getHeaderString( HttpHeaders.CONTENT_ENCODING ) );
+        byte[] gzipped = response.readEntity( byte[].class );
+        try ( GZIPInputStream inputStream = new GZIPInputStream( new ByteArrayInputStream( gzipped ) ) ) {
+            assertEquals( plain, IOUtils.toString( inputStream, "UTF-8" ) );
+        }
+    }
+
+    @Test
+    public void ontologyShouldBeServedDeflatedWithItsOwnETag() throws IOException {
+        Response plain = target( "ontology" ).request( "text/turtle" ).get();
+        Response response = target( "ontology" ).request( "text/turtle" ).header( HttpHeaders.ACCEPT_ENCODING, "deflate" ).get();
+        assertEquals( 200, response.getStatus() );
+        assertEquals( "deflate", response.getHeaderString( HttpHeaders.CONTENT_ENCODING ) );
+        EntityTag tag = response.getEntityTag();
+        assertNotEquals( plain.getEntityTag(), tag );
+        byte[] deflated = response.readEntity( byte[].class );
+        try ( InflaterInputStream inputStream = new InflaterInputStream( new ByteArrayInputStream( deflated ) ) ) {
+            assertEquals( plain.readEntity( String.class ), IOUtils.toString( inputStream, "UTF-8" ) );
+        }
+
+        response = target( "ontology" ).request( "text/turtle" ).header( HttpHeaders.ACCEPT_ENCODING, "deflate" )
+                .header( HttpHeaders.IF_NONE_MATCH, tag.toString() ).get();
+        assertEquals( 304, response.getStatus() );
+    }
+
+    @Test
+    public void ontologyShouldBeRevalidatedWithStrongETag() {
+        Response response = target( "ontology" ).request( "text/turtle" ).get();
+        EntityTag tag = response.getEntityTag();
+        assertNotNull( tag );
+        assertFalse( tag.isWeak() );
+        assertEquals( tag, target( "ontology" ).request( "text/turtle" ).get().getEntityTag() );
+        assertNotEquals( tag, target( "ontology" ).request( "application/n-triples" ).get().getEntityTag() );
+
+        response = target( "ontology" ).request( "text/turtle" ).header( HttpHeaders.IF_NONE_MATCH, tag.toString() ).get();
+        assertEquals( 304, response.getStatus() );
+        assertEquals( tag, response.getEntityTag() );
+    }
+
+    @Test
+    public void shouldAcceptGzipOnlyWithPositiveQuality() {
+        assertTrue( OntologyAction.acceptsGzip( Collections.singletonList( "gzip" ) ) );
+        assertTrue( OntologyAction.acceptsGzip( Arrays.asList( "deflate", "GZIP;q=0.5" ) ) );
+        assertTrue( OntologyAction.acceptsGzip( Collections.singletonList( "*" ) ) );
+        assertFalse( OntologyAction.acceptsGzip( Collections.singletonList( "gzip;q=0, *" ) ) );
+        assertFalse( OntologyAction.acceptsGzip( Collections.singletonList( "deflate, identity" ) ) );
+        assertFalse( OntologyAction.acceptsGzip( null ) );
+    }
 }
@@ -0,0 +1,104 @@
+package org.mediawiki.sparql.mwontop.http;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.junit.Test;
+
+import javax.ws.rs.BadRequestException;
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class QueryBatchTest {
+    private static final ValueFactory VALUE_FACTORY = SimpleValueFactory.getInstance();
+
+    @Test
+    public void shouldWriteResultOfEachQueryWithItsIndex() throws Exception {
+        Map<Integer, JsonNode> results = evaluate(Arrays.asList(
+                "SELECT ?title WHERE { ?page <http://example.org/title> ?title } ORDER BY ?title",
+                "ASK { ?page <http://example.org/title> \"Lyon\"@fr }",
+                "SELECT WHERE {",
+                "CONSTRUCT { ?s ?p ?o } WHERE { ?s ?p ?o }"
+        ));
+
+        assertEquals(new HashSet<>(Arrays.asList(0, 1, 2, 3)), results.keySet());
+        JsonNode select = results.get(0).get("result");
+        assertEquals("title", select.get("head").get("vars").get(0).asText());
+        JsonNode bindings = select.get("results").get("bindings");
+        assertEquals(2, bindings.size());
+        assertEquals("Lyon", bindings.get(0).get("title").get("value").asText());
+        assertEquals("fr", bindings.get(0).get("title").get("xml:lang").asText());
+        assertEquals("Paris", bindings.get(1).get("title").get("value").asText());
+        assertFalse(bindings.get(1).get("title").has("datatype"));
+        assertTrue(results.get(1).get("result").get("boolean").asBoolean());
+        assertEquals(400, results.get(2).get("status").asInt());
+        assertTrue(results.get(2).has("error"));
+        assertEquals(400, results.get(3).get("status").asInt());
+    }
+
+    @Test
+    public void shouldWriteEmptyArrayForEmptyBatch() throws Exception {
+        assertTrue(evaluate(Collections.emptyList()).isEmpty());
+    }
+
+    @Test
+    public void shouldFailQueriesWithTooLargeResult() throws Exception {
+        Map<Integer, JsonNode> results = evaluate(Arrays.asList(
+                "SELECT ?title WHERE { ?page <http://example.org/title> ?title }",
+                "ASK { ?page <http://example.org/title> \"Lyon\"@fr }"
+        ), 64);
+
+        assertEquals(413, results.get(0).get("status").asInt());
+        assertTrue(results.get(1).get("result").get("boolean").asBoolean());
+    }
+
+    @Test
+    public void shouldParseArrayOfQueries() {
+        assertEquals(Arrays.asList("ASK {}", "SELECT * {}"), QueryBatch.parseQueries("[\"ASK {}\", \"SELECT * {}\"]", 2));
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void shouldRejectTooLargeBatch() {
+        QueryBatch.parseQueries("[\"ASK {}\", \"ASK {}\", \"ASK {}\"]", 2);
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void shouldRejectBatchNotMadeOfQueries() {
+        QueryBatch.parseQueries("{\"query\": \"ASK {}\"}", 10);
+    }
+
+    private static Map<Integer, JsonNode> evaluate(List<String> queries) throws Exception {
+        return evaluate(queries, 1024 * 1024);
+    }
+
+    private static Map<Integer, JsonNode> evaluate(List<String> queries, int maxResultBytes) throws Exception {
+        Repository repository = new SailRepository(new MemoryStore());
+        repository.initialize();
+        try (RepositoryConnection connection = repository.getConnection()) {
+            connection.add(VALUE_FACTORY.createBNode(), VALUE_FACTORY.createIRI("http://example.org/title"), VALUE_FACTORY.createLiteral("Paris"));
+            connection.add(VALUE_FACTORY.createBNode(), VALUE_FACTORY.createIRI("http://example.org/title"), VALUE_FACTORY.createLiteral("Lyon", "fr"));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (QueryDeadline deadline = new QueryDeadline(10000, System::nanoTime)) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            new QueryBatch(executor, query -> repository, 2, maxResultBytes).evaluate(queries, deadline, output);
+            Map<Integer, JsonNode> results = new HashMap<>();
+            for (JsonNode result : new ObjectMapper().readTree(output.toByteArray())) {
+                assertNull(results.put(result.get("index").asInt(), result));
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+            repository.shutDown();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.mediawiki.sparql.mwontop.http;
+
+import it.unibz.inf.ontop.rdf4j.query.impl.OntopTupleQuery;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.TupleQuery;
+import org.eclipse.rdf4j.query.parser.QueryParserUtil;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.junit.Test;
+
+import javax.ws.rs.BadRequestException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class QueryDeadlineTest {
+
+    @Test
+    public void shouldUseConfiguredDefaultAndMaximum() {
+        assertEquals(TimeUnit.SECONDS.toMillis(60), QueryDeadline.forRequest(null).getTimeoutMillis());
+        assertEquals(TimeUnit.SECONDS.toMillis(10), QueryDeadline.forRequest("10").getTimeoutMillis());
+        assertEquals(TimeUnit.SECONDS.toMillis(300), QueryDeadline.forRequest("100000").getTimeoutMillis());
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void shouldRejectInvalidTimeout() {
+        QueryDeadline.forRequest("soon");
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void shouldRejectNonPositiveTimeout() {
+        QueryDeadline.forRequest("0");
+    }
+
+    @Test
+    public void shouldRoundRemainingTimeUp() {
+        AtomicLong now = new AtomicLong();
+        QueryDeadline deadline = new QueryDeadline(2500, now::get);
+        assertEquals(3, deadline.getRemainingSeconds());
+        now.set(TimeUnit.MILLISECONDS.toNanos(2000));
+        assertEquals(1, deadline.getRemainingSeconds());
+        assertFalse(deadline.isExpired());
+        now.set(TimeUnit.MILLISECONDS.toNanos(2500));
+        assertTrue(deadline.isExpired());
+        assertEquals(1, deadline.getRemainingSeconds());
+    }
+
+    @Test
+    public void shouldCloseResourcesOnceInReverseOrder() {
+        List<String> closed = new ArrayList<>();
+        QueryDeadline deadline = new QueryDeadline(TimeUnit.MINUTES.toMillis(1), System::nanoTime);
+        deadline.closeOnCancel(() -> closed.add("connection"));
+        deadline.closeOnCancel(() -> closed.add("result"));
+        deadline.cancel("test");
+        deadline.cancel("test");
+        deadline.close();
+        assertEquals(Arrays.asList("result", "connection"), closed);
+    }
+
+    @Test
+    public void shouldCancelWhenDeadlineIsReached() throws InterruptedException {
+        CountDownLatch closed = new CountDownLatch(1);
+        QueryDeadline deadline = new QueryDeadline(10, System::nanoTime);
+        deadline.closeOnCancel(closed::countDown);
+        assertTrue(closed.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldNotBlockWhileCancellingInBackground() throws InterruptedException {
+        CountDownLatch closing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        QueryDeadline deadline = new QueryDeadline(TimeUnit.MINUTES.toMillis(1), System::nanoTime);
+        deadline.closeOnCancel(() -> {
+            closing.countDown();
+            release.await();
+        });
+        deadline.cancelInBackground("test");
+        assertTrue(closing.await(10, TimeUnit.SECONDS));
+        deadline.cancelInBackground("test");
+        release.countDown();
+        deadline.close();
+    }
+
+    @Test
+    public void shouldCancelWhenClientGoesAway() {
+        List<String> closed = new ArrayList<>();
+        QueryDeadline deadline = new QueryDeadline(TimeUnit.MINUTES.toMillis(1), System::nanoTime);
+        deadline.closeOnCancel(() -> closed.add("connection"));
+        OutputStream brokenStream = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+        try {
+            deadline.guard(brokenStream).write(new byte[]{1, 2});
+            fail();
+        } catch (IOException e) {
+            assertEquals("Broken pipe", e.getMessage());
+        }
+        deadline.close();
+        assertEquals(Arrays.asList("connection"), closed);
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void shouldSetTimeoutOfOntopQueries() {
+        String queryString = "SELECT * WHERE { ?s ?p ?o }";
+        TupleQuery query = new OntopTupleQuery(queryString, QueryParserUtil.parseQuery(QueryLanguage.SPARQL, queryString, null), null, null, null);
+        QueryDeadline.setTimeout(query, 7);
+        assertEquals(7, query.getMaxQueryTime());
+    }
+
+    @Test
+    public void shouldSetTimeoutOfRDF4JQueries() {
+        SailRepository repository = new SailRepository(new MemoryStore());
+        repository.initialize();
+        try (RepositoryConnection connection = repository.getConnection()) {
+            TupleQuery query = connection.prepareTupleQuery(QueryLanguage.SPARQL, "SELECT * WHERE { ?s ?p ?o }");
+            QueryDeadline.setTimeout(query, 7);
+            assertEquals(7, query.getMaxExecutionTime());
+        } finally {
+            repository.shutDown();
+        }
+    }
+}
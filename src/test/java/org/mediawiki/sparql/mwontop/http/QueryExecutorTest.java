@@ -0,0 +1,119 @@
+package org.mediawiki.sparql.mwontop.http;
+
+import org.junit.Test;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class QueryExecutorTest {
+
+    @Test
+    public void shouldResumeWithEvaluatedResponse() throws InterruptedException {
+        QueryExecutor executor = new QueryExecutor(1, 1);
+        try {
+            FakeAsyncResponse asyncResponse = new FakeAsyncResponse(false);
+            executor.resume(asyncResponse.proxy, () -> Response.ok("result").build());
+            assertEquals("result", ((Response) asyncResponse.await()).getEntity());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldResumeWithEvaluationFailure() throws InterruptedException {
+        QueryExecutor executor = new QueryExecutor(1, 1);
+        try {
+            FakeAsyncResponse asyncResponse = new FakeAsyncResponse(false);
+            executor.resume(asyncResponse.proxy, () -> {
+                throw new IllegalStateException("failure");
+            });
+            assertTrue(asyncResponse.await() instanceof IllegalStateException);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldAnswer503WhenQueueIsFull() throws InterruptedException {
+        QueryExecutor executor = new QueryExecutor(1, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            executor.resume(new FakeAsyncResponse(false).proxy, () -> {
+                started.countDown();
+                awaitQuietly(release);
+                return Response.ok().build();
+            });
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            executor.resume(new FakeAsyncResponse(false).proxy, () -> Response.ok().build());
+
+            FakeAsyncResponse rejected = new FakeAsyncResponse(false);
+            executor.resume(rejected.proxy, () -> Response.ok().build());
+            assertEquals(503, ((Response) rejected.await()).getStatus());
+            assertEquals(1, executor.getRejectedQueries());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldDropQueryWhoseResponseIsDone() throws InterruptedException {
+        QueryExecutor executor = new QueryExecutor(1, 1);
+        try {
+            AtomicBoolean evaluated = new AtomicBoolean();
+            executor.resume(new FakeAsyncResponse(true).proxy, () -> {
+                evaluated.set(true);
+                return Response.ok().build();
+            });
+            FakeAsyncResponse next = new FakeAsyncResponse(false);
+            executor.resume(next.proxy, () -> Response.ok().build());
+            next.await();
+            assertFalse(evaluated.get());
+            assertEquals(1, executor.getAbandonedQueries());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class FakeAsyncResponse {
+        private final CountDownLatch resumed = new CountDownLatch(1);
+        private final AtomicReference<Object> value = new AtomicReference<>();
+        private final AsyncResponse proxy;
+
+        private FakeAsyncResponse(boolean done) {
+            proxy = (AsyncResponse) Proxy.newProxyInstance(AsyncResponse.class.getClassLoader(), new Class<?>[]{AsyncResponse.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "isDone":
+                        return done;
+                    case "resume":
+                        value.set(args[0]);
+                        resumed.countDown();
+                        return true;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        }
+
+        private Object await() throws InterruptedException {
+            assertTrue(resumed.await(10, TimeUnit.SECONDS));
+            return value.get();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.mediawiki.sparql.mwontop.http;
+
+import org.glassfish.jersey.server.ResourceConfig;
+import org.junit.Test;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class QueryWarmupTest {
+    private static final List<String> RECEIVED_QUERIES = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void shouldReadSparqlAndSlowQueryLogLines() throws IOException {
+        List<String> queries = QueryWarmup.readQueries(new BufferedReader(new StringReader(
+                "# popular queries\n" +
+                        "ASK {}\n" +
+                        "\n" +
+                        "{\"durationMillis\":12000.5,\"sparql\":\"SELECT * { ?s ?p ?o }\",\"sql\":\"SELECT 1\"}\n" +
+                        "{\"durationMillis\":1}\n"
+        )));
+        assertEquals(Arrays.asList("ASK {}", "SELECT * { ?s ?p ?o }"), queries);
+    }
+
+    @Test
+    public void shouldReplayQueriesThroughTheApplication() {
+        RECEIVED_QUERIES.clear();
+        QueryWarmup warmup = new QueryWarmup(new ResourceConfig(TestResource.class), TimeUnit.MINUTES.toMillis(1), System::nanoTime);
+        List<QueryWarmup.Timing> timings = warmup.run(Arrays.asList("ASK {}", "invalid", "async"));
+
+        assertEquals(Arrays.asList("ASK {}", "invalid", "async"), RECEIVED_QUERIES);
+        assertEquals(3, timings.size());
+        assertEquals(200, timings.get(0).getStatus());
+        assertTrue(timings.get(0).isSuccessful());
+        assertEquals(400, timings.get(1).getStatus());
+        assertFalse(timings.get(1).isSuccessful());
+        assertEquals(200, timings.get(2).getStatus());
+    }
+
+    @Test
+    public void shouldStopWhenTheBudgetIsSpent() {
+        RECEIVED_QUERIES.clear();
+        AtomicLong now = new AtomicLong();
+        QueryWarmup warmup = new QueryWarmup(new ResourceConfig(TestResource.class), 2500, () -> now.getAndAdd(TimeUnit.MILLISECONDS.toNanos(500)));
+        List<QueryWarmup.Timing> timings = warmup.run(Collections.nCopies(10, "ASK {}"));
+
+        assertEquals(2, timings.size());
+        assertEquals(2, RECEIVED_QUERIES.size());
+        assertEquals(500, timings.get(0).getDurationMillis());
+    }
+
+    @Path("sparql")
+    public static class TestResource {
+
+        @POST
+        @Consumes("application/sparql-query")
+        public void post(String query, @QueryParam("timeout") String timeout, @Suspended AsyncResponse asyncResponse) {
+            RECEIVED_QUERIES.add(query);
+            assertNotNull(timeout);
+            if (query.equals("invalid")) {
+                throw new BadRequestException();
+            } else if (query.equals("async")) {
+                new Thread(() -> asyncResponse.resume("true")).start();
+            } else {
+                asyncResponse.resume("true");
+            }
+        }
+    }
+}
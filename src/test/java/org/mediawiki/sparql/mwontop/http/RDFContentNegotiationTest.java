@@ -0,0 +1,62 @@
+package org.mediawiki.sparql.mwontop.http;
+
+import org.eclipse.rdf4j.query.resultio.TupleQueryResultFormat;
+import org.eclipse.rdf4j.query.resultio.TupleQueryResultWriterFactory;
+import org.eclipse.rdf4j.query.resultio.TupleQueryResultWriterRegistry;
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.junit.Test;
+
+import javax.ws.rs.NotAcceptableException;
+import javax.ws.rs.core.HttpHeaders;
+import java.net.URI;
+
+import static org.junit.Assert.*;
+
+public class RDFContentNegotiationTest {
+
+    @Test
+    public void shouldReuseNegotiatedFormat() {
+        RDFContentNegotiation.FormatService<TupleQueryResultWriterFactory> first = negotiate("text/csv, application/xml;q=0.5");
+        RDFContentNegotiation.FormatService<TupleQueryResultWriterFactory> second = negotiate("Text/CSV,application/xml; q=0.5");
+        assertEquals(TupleQueryResultFormat.CSV, first.getFormat());
+        assertSame(first, second);
+    }
+
+    @Test
+    public void shouldNegotiateEachAcceptHeader() {
+        assertEquals(TupleQueryResultFormat.CSV, negotiate("text/csv").getFormat());
+        assertEquals(TupleQueryResultFormat.TSV, negotiate("text/tab-separated-values").getFormat());
+        assertNotNull(negotiate(null).getFormat());
+    }
+
+    @Test
+    public void shouldRejectUnacceptableFormatsEveryTime() {
+        for (int i = 0; i < 2; i++) {
+            try {
+                negotiate("image/png");
+                fail("Expected a NotAcceptableException");
+            } catch (NotAcceptableException e) {
+                assertTrue(e.getMessage().startsWith("No acceptable result format found. Accepted format are: "));
+            }
+        }
+    }
+
+    @Test
+    public void shouldNormalizeAcceptHeader() {
+        assertEquals("text/csv,application/xml;q=0.5", RDFContentNegotiation.acceptKey(request("Text/CSV, application/xml; q=0.5")));
+        assertEquals("", RDFContentNegotiation.acceptKey(request(null)));
+    }
+
+    private static RDFContentNegotiation.FormatService<TupleQueryResultWriterFactory> negotiate(String accept) {
+        return RDFContentNegotiation.getServiceForFormat(TupleQueryResultWriterRegistry.getInstance(), request(accept));
+    }
+
+    private static ContainerRequest request(String accept) {
+        ContainerRequest request = new ContainerRequest(URI.create("http://localhost/"), URI.create("http://localhost/sparql"), "GET", null, new MapPropertiesDelegate());
+        if (accept != null) {
+            request.header(HttpHeaders.ACCEPT, accept);
+        }
+        return request;
+    }
+}
@@ -0,0 +1,99 @@
+package org.mediawiki.sparql.mwontop.http;
+
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import javax.ws.rs.core.EntityTag;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class ResultCacheTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return now.get();
+        }
+    };
+
+    @Test
+    public void shouldServeRecordedResult() throws IOException {
+        ResultCache cache = new ResultCache(1000, 100, TimeUnit.MINUTES.toMillis(5), ticker);
+        ResultCache.Key key = new ResultCache.Key("ASK {}", "text/boolean");
+        assertNull(cache.get(key));
+
+        EntityTag tag = cache.newTag(key);
+        ByteArrayOutputStream client = new ByteArrayOutputStream();
+        record(cache, key, tag, client, "true");
+        assertEquals("true", client.toString("UTF-8"));
+
+        ResultCache.Entry entry = cache.get(key);
+        assertNotNull(entry);
+        assertEquals(tag, entry.getTag());
+        assertTrue(tag.isWeak());
+        assertEquals("text/boolean", entry.getMimeType());
+        assertArrayEquals("true".getBytes(StandardCharsets.UTF_8), entry.getBody());
+        assertNull(cache.get(new ResultCache.Key("ASK {}", "application/sparql-results+json")));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1 / 3.0, cache.getHitRatio(), 0.001);
+        assertEquals(4 + 2 * ("ASK {}".length() + "text/boolean".length()), cache.getSizeInBytes());
+    }
+
+    @Test
+    public void shouldExpireResult() throws IOException {
+        ResultCache cache = new ResultCache(1000, 100, TimeUnit.MINUTES.toMillis(5), ticker);
+        ResultCache.Key key = new ResultCache.Key("ASK {}", "text/boolean");
+        record(cache, key, cache.newTag(key), new ByteArrayOutputStream(), "true");
+
+        now.addAndGet(TimeUnit.MINUTES.toNanos(3));
+        assertEquals(120, cache.getMaxAgeSeconds(cache.get(key)));
+        now.addAndGet(TimeUnit.MINUTES.toNanos(3));
+        assertNull(cache.get(key));
+        assertEquals(0, cache.getSizeInBytes());
+    }
+
+    @Test
+    public void shouldNotCacheTooBigResult() throws IOException {
+        ResultCache cache = new ResultCache(1000, 10, TimeUnit.MINUTES.toMillis(5), ticker);
+        ResultCache.Key key = new ResultCache.Key("SELECT * {}", "text/csv");
+        ByteArrayOutputStream client = new ByteArrayOutputStream();
+        record(cache, key, cache.newTag(key), client, "a result longer than ten bytes");
+
+        assertEquals("a result longer than ten bytes", client.toString("UTF-8"));
+        assertNull(cache.get(key));
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    public void shouldEvictResultsWhenFull() throws IOException {
+        ResultCache cache = new ResultCache(1000, 100, TimeUnit.MINUTES.toMillis(5), ticker);
+        for (int i = 0; i < 100; i++) {
+            ResultCache.Key key = new ResultCache.Key("ASK { ?s ?p " + i + " }", "text/boolean");
+            record(cache, key, cache.newTag(key), new ByteArrayOutputStream(), "true");
+        }
+
+        assertTrue(cache.getSizeInBytes() <= 1000);
+        assertTrue(cache.getEvictionCount() > 0);
+        assertNotNull(cache.get(new ResultCache.Key("ASK { ?s ?p 99 }", "text/boolean")));
+    }
+
+    @Test
+    public void shouldBeDisabledWithoutSize() {
+        assertFalse(new ResultCache(0, 100, TimeUnit.MINUTES.toMillis(5), ticker).isEnabled());
+        assertFalse(new ResultCache(1000, 100, 0, ticker).isEnabled());
+        assertTrue(new ResultCache(1000, 100, TimeUnit.MINUTES.toMillis(5), ticker).isEnabled());
+    }
+
+    private static void record(ResultCache cache, ResultCache.Key key, EntityTag tag, ByteArrayOutputStream client, String result) throws IOException {
+        ResultCache.Recording recording = cache.record(key, tag, "text/boolean", client);
+        recording.write(result.getBytes(StandardCharsets.UTF_8));
+        recording.complete();
+    }
+}
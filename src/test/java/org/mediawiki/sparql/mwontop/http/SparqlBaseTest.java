@@ -2,6 +2,7 @@ package org.mediawiki.sparql.mwontop.http;
 
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.glassfish.jersey.test.JerseyTest;
+import org.glassfish.jersey.test.spi.TestContainerFactory;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
@@ -13,6 +14,11 @@ import static org.junit.Assert.assertEquals;
  */
 public class SparqlBaseTest extends JerseyTest {
 
+    @Override
+    protected TestContainerFactory getTestContainerFactory() {
+        return new AsyncHttpTestContainerFactory();
+    }
+
     /**
      * Removes trailing end of line characters from compare strings and asserts the result.
      */
@@ -0,0 +1,56 @@
+package org.mediawiki.sparql.mwontop.metrics;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class JmxMetricsTest {
+
+    private static final String OBJECT_NAME = "org.mediawiki.sparql.mwontop:type=TestPool,host=\"db1\"";
+
+    @Test
+    public void shouldExportCountersAndGauges() throws IOException {
+        JmxMetrics.register(new TestPool(), OBJECT_NAME);
+        try {
+            StringWriter writer = new StringWriter();
+            JmxMetrics.writePrometheus(writer);
+            String metrics = writer.toString();
+            assertTrue(metrics.contains("# TYPE mw2sparql_test_pool_active_connections gauge\n" +
+                    "mw2sparql_test_pool_active_connections{host=\"db1\"} 3\n"));
+            assertTrue(metrics.contains("# TYPE mw2sparql_test_pool_acquired_connections_total counter\n" +
+                    "mw2sparql_test_pool_acquired_connections_total{host=\"db1\"} 42\n"));
+            assertTrue(metrics.contains("mw2sparql_test_pool_healthy{host=\"db1\"} 1\n"));
+        } finally {
+            JmxMetrics.unregister(OBJECT_NAME);
+        }
+    }
+
+    public interface TestPoolMXBean {
+        int getActiveConnections();
+
+        @Counter
+        long getAcquiredConnections();
+
+        boolean isHealthy();
+    }
+
+    private static final class TestPool implements TestPoolMXBean {
+        @Override
+        public int getActiveConnections() {
+            return 3;
+        }
+
+        @Override
+        public long getAcquiredConnections() {
+            return 42;
+        }
+
+        @Override
+        public boolean isHealthy() {
+            return true;
+        }
+    }
+}
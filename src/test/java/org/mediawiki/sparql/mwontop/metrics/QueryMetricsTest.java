@@ -0,0 +1,164 @@
+package org.mediawiki.sparql.mwontop.metrics;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class QueryMetricsTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final StringWriter slowQueries = new StringWriter();
+    private final SlowQueryLog slowQueryLog = new SlowQueryLog(TimeUnit.SECONDS.toNanos(1), () -> slowQueries, now::get);
+    private final QueryMetrics metrics = new QueryMetrics(now::get, slowQueryLog);
+
+    @Test
+    public void shouldWriteCumulativeBuckets() throws IOException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+        histogram.record(TimeUnit.MINUTES.toNanos(10));
+        assertEquals(3, histogram.getCount());
+
+        StringWriter writer = new StringWriter();
+        histogram.writePrometheus(writer, "test_seconds", "phase=\"parsing\"");
+        String output = writer.toString();
+        assertTrue(output.contains("test_seconds_bucket{phase=\"parsing\",le=\"5.0E-4\"} 1\n"));
+        assertTrue(output.contains("test_seconds_bucket{phase=\"parsing\",le=\"0.0025\"} 1\n"));
+        assertTrue(output.contains("test_seconds_bucket{phase=\"parsing\",le=\"0.005\"} 2\n"));
+        assertTrue(output.contains("test_seconds_bucket{phase=\"parsing\",le=\"300.0\"} 2\n"));
+        assertTrue(output.contains("test_seconds_bucket{phase=\"parsing\",le=\"+Inf\"} 3\n"));
+        assertTrue(output.contains("test_seconds_sum{phase=\"parsing\"} 600.0031\n"));
+        assertTrue(output.contains("test_seconds_count{phase=\"parsing\"} 3\n"));
+    }
+
+    @Test
+    public void shouldRecordPhases() throws IOException {
+        long start = metrics.nanoTime();
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(20));
+        long end = metrics.record(QueryMetrics.Phase.PARSING, start);
+        assertEquals(now.get(), end);
+
+        String output = write();
+        assertTrue(output.contains("mw2sparql_query_phase_duration_seconds_count{phase=\"parsing\"} 1\n"));
+        assertTrue(output.contains("mw2sparql_query_phase_duration_seconds_bucket{phase=\"parsing\",le=\"0.01\"} 0\n"));
+        assertTrue(output.contains("mw2sparql_query_phase_duration_seconds_bucket{phase=\"parsing\",le=\"0.025\"} 1\n"));
+        assertTrue(output.contains("mw2sparql_query_phase_duration_seconds_count{phase=\"execution\"} 0\n"));
+    }
+
+    @Test
+    public void shouldAccountQueriesOnClose() throws IOException {
+        QueryMetrics.QueryTimer timer = metrics.startQuery();
+        assertEquals(1, metrics.getInFlightQueries());
+        timer.setFormat("text/csv");
+        timer.setWikis(new HashSet<>(Arrays.asList("https://en.wikipedia.org", "https://fr.wikipedia.org")));
+        timer.failed(504);
+        timer.failed(500);
+        now.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        timer.close();
+        timer.close();
+        assertEquals(0, metrics.getInFlightQueries());
+
+        String output = write();
+        assertTrue(output.contains("mw2sparql_query_duration_seconds_count{format=\"text/csv\"} 1\n"));
+        assertTrue(output.contains("mw2sparql_wiki_queries_total{wiki=\"en.wikipedia.org\"} 1\n"));
+        assertTrue(output.contains("mw2sparql_wiki_queries_total{wiki=\"fr.wikipedia.org\"} 1\n"));
+        assertTrue(output.contains("mw2sparql_wiki_query_duration_seconds_total{wiki=\"en.wikipedia.org\"} 2.0\n"));
+        assertTrue(output.contains("mw2sparql_wiki_query_errors_total{wiki=\"fr.wikipedia.org\"} 1\n"));
+        assertTrue(output.contains("mw2sparql_query_errors_total{status=\"504\"} 1\n"));
+        assertFalse(output.contains("status=\"500\""));
+        assertTrue(output.contains("mw2sparql_queries_in_flight 0\n"));
+    }
+
+    @Test
+    public void shouldAccountQueriesWithoutWiki() throws IOException {
+        QueryMetrics.QueryTimer timer = metrics.startQuery();
+        timer.setWikis(Collections.emptySet());
+        timer.close();
+
+        String output = write();
+        assertTrue(output.contains("mw2sparql_query_duration_seconds_count{format=\"unknown\"} 1\n"));
+        assertTrue(output.contains("mw2sparql_wiki_queries_total{wiki=\"none\"} 1\n"));
+        assertTrue(output.contains("mw2sparql_wiki_query_errors_total{wiki=\"none\"} 0\n"));
+    }
+
+    @Test
+    public void shouldLogSlowQueries() throws IOException {
+        QueryMetrics.QueryTimer fastTimer = metrics.startQuery();
+        fastTimer.setQuery("ASK {}", () -> "SELECT 1");
+        fastTimer.close();
+
+        QueryMetrics.QueryTimer timer = metrics.startQuery();
+        timer.setQuery("SELECT * WHERE { ?s ?p ?o }", () -> "SELECT * FROM page");
+        timer.setFormat("text/csv");
+        timer.setWikis(Collections.singleton("https://en.wikipedia.org"));
+        long start = timer.nanoTime();
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1500));
+        timer.record(QueryMetrics.Phase.EXECUTION, start);
+        timer.addRows(2);
+        try (OutputStream outputStream = timer.countBytes(new ByteArrayOutputStream())) {
+            outputStream.write(new byte[]{1, 2, 3});
+            outputStream.write(4);
+        }
+        timer.close();
+        slowQueryLog.close();
+
+        String[] lines = slowQueries.toString().split("\n");
+        assertEquals(1, lines.length);
+        JsonNode entry = new ObjectMapper().readTree(lines[0]);
+        assertEquals(1500.0, entry.get("durationMillis").asDouble(), 0);
+        assertEquals(200, entry.get("status").asInt());
+        assertEquals("text/csv", entry.get("format").asText());
+        assertEquals("en.wikipedia.org", entry.get("wikis").get(0).asText());
+        assertEquals(2, entry.get("rows").asLong());
+        assertEquals(4, entry.get("bytes").asLong());
+        assertEquals(1500.0, entry.get("phasesMillis").get("execution").asDouble(), 0);
+        assertEquals(0.0, entry.get("phasesMillis").get("parsing").asDouble(), 0);
+        assertEquals("SELECT * WHERE { ?s ?p ?o }", entry.get("sparql").asText());
+        assertEquals("SELECT * FROM page", entry.get("sql").asText());
+        assertEquals(0, slowQueryLog.getDroppedEntries());
+        assertTrue(write().contains("mw2sparql_slow_query_log_dropped_entries_total 0\n"));
+    }
+
+    @Test
+    public void shouldRestartSlowQueryLogWriterAfterFailure() throws InterruptedException {
+        AtomicInteger openings = new AtomicInteger();
+        CountDownLatch reopened = new CountDownLatch(1);
+        SlowQueryLog failingLog = new SlowQueryLog(1, () -> {
+            if (openings.getAndIncrement() == 0) {
+                throw new IOException("No space left on device");
+            }
+            reopened.countDown();
+            return slowQueries;
+        }, now::get);
+        failingLog.log(failingLog.newEntry().put("id", 0));
+        int entries = 1;
+        do {
+            now.addAndGet(SlowQueryLog.RESTART_DELAY_NANOS);
+            failingLog.log(failingLog.newEntry().put("id", entries++));
+        } while (!reopened.await(10, TimeUnit.MILLISECONDS));
+        failingLog.close();
+
+        assertEquals(2, openings.get());
+        assertEquals(entries, slowQueries.toString().split("\n").length);
+    }
+
+    private String write() throws IOException {
+        StringWriter writer = new StringWriter();
+        metrics.writePrometheus(writer);
+        return writer.toString();
+    }
+}
@@ -0,0 +1,59 @@
+package org.mediawiki.sparql.mwontop.sql;
+
+import com.google.common.collect.ImmutableList;
+import it.unibz.inf.ontop.answering.reformulation.ExecutableQuery;
+import it.unibz.inf.ontop.answering.reformulation.impl.SQLExecutableQuery;
+import it.unibz.inf.ontop.answering.reformulation.input.InputQuery;
+import it.unibz.inf.ontop.datalog.InternalSparqlQuery;
+import it.unibz.inf.ontop.answering.reformulation.input.translation.InputQueryTranslator;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BoundedQueryCacheTest {
+
+    @Test
+    public void shouldReturnCachedQueryAndCountHitsAndMisses() {
+        BoundedQueryCache cache = new BoundedQueryCache( 1000 );
+        ExecutableQuery executableQuery = new SQLExecutableQuery( "SELECT 1", ImmutableList.of( "x" ) );
+
+        assertNull( cache.get( inputQuery( "ASK {}" ) ) );
+        cache.put( inputQuery( "ASK {}" ), executableQuery );
+        assertSame( executableQuery, cache.get( inputQuery( "ASK {}" ) ) );
+
+        assertEquals( 1, cache.getStats().hitCount() );
+        assertEquals( 1, cache.getStats().missCount() );
+    }
+
+    @Test
+    public void shouldEvictWhenSizeIsExceeded() {
+        BoundedQueryCache cache = new BoundedQueryCache( 1000 );
+        cache.put( inputQuery( "ASK { ?a ?b ?c }" ), new SQLExecutableQuery( StringUtils.repeat( "SELECT 1 UNION ", 100 ), ImmutableList.of() ) );
+        assertEquals( 0, cache.size() );
+
+        cache.put( inputQuery( "ASK {}" ), new SQLExecutableQuery( "SELECT 1", ImmutableList.of() ) );
+        assertEquals( 1, cache.size() );
+    }
+
+    @Test
+    public void shouldNotCacheWhenDisabled() {
+        BoundedQueryCache cache = new BoundedQueryCache( 0 );
+        cache.put( inputQuery( "ASK {}" ), new SQLExecutableQuery( "SELECT 1", ImmutableList.of() ) );
+        assertNull( cache.get( inputQuery( "ASK {}" ) ) );
+    }
+
+    private static InputQuery inputQuery( String query ) {
+        return new InputQuery() {
+            @Override
+            public String getInputString() {
+                return query;
+            }
+
+            @Override
+            public InternalSparqlQuery translate( InputQueryTranslator translator ) {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,63 @@
+package org.mediawiki.sparql.mwontop.sql;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class DatabaseHostsTest {
+    private static final RepositoryFactory.SiteConfig ENWIKI = new RepositoryFactory.SiteConfig( "enwiki", "en", "https://en.wikipedia.org", "s1" );
+    private static final RepositoryFactory.SiteConfig FRWIKI = new RepositoryFactory.SiteConfig( "frwiki", "fr", "https://fr.wikipedia.org", "s6" );
+    private static final RepositoryFactory.SiteConfig JAWIKI = new RepositoryFactory.SiteConfig( "jawiki", "ja", "https://ja.wikipedia.org", "s6" );
+    private static final RepositoryFactory.SiteConfig ITWIKI = new RepositoryFactory.SiteConfig( "itwiki", "it", "https://it.wikipedia.org" );
+
+    @Test
+    public void shouldUseSingleHostWithoutPattern() {
+        DatabaseHosts hosts = new DatabaseHosts( "db.example", null );
+        assertEquals( "db.example", hosts.getDefaultHost() );
+        assertEquals( "db.example", hosts.forSite( ENWIKI ) );
+        assertEquals( "db.example", hosts.forSites( Arrays.asList( ENWIKI, FRWIKI ) ) );
+    }
+
+    @Test
+    public void shouldResolveHostOfEachSite() {
+        DatabaseHosts hosts = new DatabaseHosts( "db.example", "{siteId}.labsdb" );
+        assertEquals( "db.example", hosts.getDefaultHost() );
+        assertEquals( "enwiki.labsdb", hosts.forSite( ENWIKI ) );
+        assertEquals( "itwiki.labsdb", hosts.forSite( ITWIKI ) );
+        assertEquals( "frwiki.labsdb", hosts.forSites( Collections.singletonList( FRWIKI ) ) );
+    }
+
+    @Test
+    public void shouldResolveHostOfEachSection() {
+        DatabaseHosts hosts = new DatabaseHosts( null, "{section}.labsdb" );
+        assertEquals( "s7.labsdb", hosts.getDefaultHost() );
+        assertEquals( "s1.labsdb", hosts.forSite( ENWIKI ) );
+        assertEquals( "s1.labsdb", hosts.forSite( "enwiki", "s1" ) );
+        assertEquals( "s6.labsdb", hosts.forSites( Arrays.asList( FRWIKI, JAWIKI ) ) );
+        assertEquals( "s7.labsdb", hosts.forSite( ITWIKI ) );
+    }
+
+    @Test
+    public void shouldUseDefaultHostForSeveralHosts() {
+        assertEquals( "db.example", new DatabaseHosts( "db.example", "{siteId}.labsdb" ).forSites( Arrays.asList( ENWIKI, FRWIKI ) ) );
+        assertEquals( "meta.labsdb", new DatabaseHosts( null, "{siteId}.labsdb" ).forSites( Arrays.asList( ENWIKI, FRWIKI ) ) );
+        assertEquals( "db.example", new DatabaseHosts( "db.example", "{section}.labsdb" ).forSites( Arrays.asList( ENWIKI, FRWIKI ) ) );
+    }
+
+    @Test
+    public void shouldReadSectionOfSlice() {
+        assertEquals( "s1", RepositoryFactory.sectionOfSlice( "s1.labsdb" ) );
+        assertEquals( "s8", RepositoryFactory.sectionOfSlice( "s8" ) );
+        assertNull( RepositoryFactory.sectionOfSlice( "" ) );
+        assertNull( RepositoryFactory.sectionOfSlice( null ) );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void shouldRequireHost() {
+        new DatabaseHosts( " ", "labsdb" );
+    }
+}
@@ -0,0 +1,124 @@
+package org.mediawiki.sparql.mwontop.sql;
+
+import com.zaxxer.hikari.HikariConfig;
+import org.junit.Test;
+import org.mediawiki.sparql.mwontop.Configuration;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import static org.junit.Assert.*;
+
+public class HostConnectionPoolsTest {
+
+    @Test
+    public void shouldConfigurePoolFromConfiguration() {
+        Configuration configuration = Configuration.instance();
+        HikariConfig config = HostConnectionPools.poolConfig( "enwiki.labsdb", "user", "password", configuration );
+
+        assertEquals( "jdbc:mysql://enwiki.labsdb/?characterEncoding=UTF-8&sessionVariables=sql_mode='ANSI'", config.getJdbcUrl() );
+        assertEquals( "user", config.getUsername() );
+        assertEquals( configuration.getDatabasePoolMaxSize(), config.getMaximumPoolSize() );
+        assertEquals( configuration.getDatabasePoolMinIdle(), config.getMinimumIdle() );
+        assertEquals( configuration.getDatabasePoolTimeoutMillis(), config.getConnectionTimeout() );
+        assertEquals( configuration.getDatabasePoolLeakDetectionMillis(), config.getLeakDetectionThreshold() );
+        assertTrue( config.isReadOnly() );
+    }
+
+    @Test
+    public void shouldCachePreparedStatements() {
+        HikariConfig config = HostConnectionPools.poolConfig( "enwiki.labsdb", "user", "password", Configuration.instance() );
+
+        assertEquals( "true", config.getDataSourceProperties().getProperty( "cachePrepStmts" ) );
+        assertEquals( Configuration.APP_DB_STATEMENTS_CACHE_SIZE_DEFAULT, config.getDataSourceProperties().getProperty( "prepStmtCacheSize" ) );
+        assertEquals( Configuration.APP_DB_STATEMENTS_CACHE_SQL_LIMIT_DEFAULT, config.getDataSourceProperties().getProperty( "prepStmtCacheSqlLimit" ) );
+        assertEquals( "true", config.getDataSourceProperties().getProperty( "useServerPrepStmts" ) );
+    }
+
+    @Test
+    public void shouldCloseUnusedPools() {
+        HostConnectionPool pool = HostConnectionPools.acquire( "unused.invalid", "user", "password" );
+        assertSame( pool, HostConnectionPools.acquire( "unused.invalid", "user", "password" ) );
+
+        HostConnectionPools.release( pool );
+        HostConnectionPools.closeUnused();
+        assertSame( pool, HostConnectionPools.acquire( "unused.invalid", "user", "password" ) );
+
+        HostConnectionPools.release( pool );
+        HostConnectionPools.release( pool );
+        HostConnectionPools.closeUnused();
+        HostConnectionPool newPool = HostConnectionPools.acquire( "unused.invalid", "user", "password" );
+        assertNotSame( pool, newPool );
+        HostConnectionPools.release( newPool );
+        HostConnectionPools.closeUnused();
+    }
+
+    @Test
+    public void shouldBoundConnectionsOfAllHosts() throws SQLException {
+        Semaphore permits = new Semaphore( 1 );
+        try ( HostConnectionPool enwiki = new HostConnectionPool( "s1.labsdb", fakeConfig(), permits, System::nanoTime );
+              HostConnectionPool frwiki = new HostConnectionPool( "s6.labsdb", fakeConfig(), permits, System::nanoTime ) ) {
+            Connection connection = enwiki.getConnection();
+            try {
+                frwiki.getConnection();
+                fail( "the only connection of the service is in use" );
+            } catch ( SQLTransientConnectionException e ) {
+                assertEquals( 1, frwiki.getTimedOutAcquisitions() );
+                assertTrue( frwiki.isHealthy() );
+            }
+            connection.close();
+            connection.close();
+            assertEquals( 1, permits.availablePermits() );
+            frwiki.getConnection().close();
+            assertEquals( 1, permits.availablePermits() );
+        }
+    }
+
+    @Test
+    public void shouldNotifyStatementsCreatedInScope() throws SQLException {
+        List<Statement> created = new ArrayList<>();
+        try ( HostConnectionPool pool = new HostConnectionPool( "s1.labsdb", fakeConfig(), new Semaphore( 1 ), System::nanoTime );
+              Connection connection = pool.getConnection() ) {
+            connection.createStatement().close();
+            try ( RunningStatements.Scope ignored = RunningStatements.track( created::add ) ) {
+                Statement statement = connection.createStatement();
+                assertEquals( Collections.singletonList( statement ), created );
+                statement.close();
+            }
+            connection.createStatement().close();
+        }
+        assertEquals( 1, created.size() );
+    }
+
+    private static HikariConfig fakeConfig() {
+        HikariConfig config = new HikariConfig();
+        config.setDataSource( (DataSource) Proxy.newProxyInstance( DataSource.class.getClassLoader(), new Class<?>[]{DataSource.class},
+                ( proxy, method, args ) -> method.getName().equals( "getConnection" ) ? fakeConnection() : null ) );
+        config.setMaximumPoolSize( 2 );
+        config.setConnectionTimeout( 250 );
+        return config;
+    }
+
+    private static Connection fakeConnection() {
+        return (Connection) Proxy.newProxyInstance( Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, ( proxy, method, args ) -> {
+            Class<?> type = method.getReturnType();
+            if ( type == Statement.class ) {
+                return Proxy.newProxyInstance( Statement.class.getClassLoader(), new Class<?>[]{Statement.class},
+                        ( statement, statementMethod, statementArgs ) -> statementMethod.getReturnType() == boolean.class ? false : null );
+            } else if ( type == boolean.class ) {
+                return method.getName().equals( "isValid" );
+            } else if ( type == int.class ) {
+                return 0;
+            }
+            return null;
+        } );
+    }
+}
@@ -0,0 +1,42 @@
+package org.mediawiki.sparql.mwontop.sql;
+
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.impl.LinkedHashModel;
+import org.eclipse.rdf4j.model.util.Models;
+import org.junit.Test;
+import org.mediawiki.sparql.mwontop.utils.InternalFilesManager;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MappingTemplateTest {
+
+    @Test
+    public void shouldBuildTheSameMappingAsTextSubstitution() throws IOException {
+        MappingTemplate template = MappingTemplate.load( "/mapping.ttl" );
+        String templateText = InternalFilesManager.getFileAsString( "/mapping.ttl" );
+
+        Model expected = new LinkedHashModel();
+        Model actual = new LinkedHashModel();
+        for ( String[] site : new String[][]{{"enwiki", "en", "https://en.wikipedia.org"}, {"frwikiquote", "fr", "https://fr.wikiquote.org"}} ) {
+            expected.addAll( parseSiteMapping( templateText, site[0], site[1], site[2] ) );
+            actual.addAll( template.instantiate( site[0], site[1], site[2] ) );
+        }
+
+        assertEquals( expected.size(), actual.size() );
+        assertTrue( Models.isomorphic( expected, actual ) );
+    }
+
+    /**
+     * Former way to build a site mapping: text substitution on the whole template followed by a Turtle parsing.
+     */
+    static Model parseSiteMapping( String templateText, String siteId, String languageCode, String baseURL ) throws IOException {
+        return InternalFilesManager.parseTurtle( templateText
+                .replace( "{lang}", languageCode )
+                .replace( "{db}", siteId + "_p" )
+                .replace( "{site_id}", siteId )
+                .replace( "{base_url}", baseURL ) );
+    }
+}
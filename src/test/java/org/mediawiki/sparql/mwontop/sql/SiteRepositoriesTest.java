@@ -0,0 +1,123 @@
+package org.mediawiki.sparql.mwontop.sql;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableSet;
+import org.eclipse.rdf4j.repository.Repository;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class SiteRepositoriesTest {
+
+    @Test
+    public void shouldExtractSiteBaseURLs() {
+        String query = "PREFIX frwiki: <https://fr.wikipedia.org/wiki/>\n" +
+                "SELECT * WHERE { <https://en.wikipedia.org/wiki/mw0ns:Paris> mw:internalLinkTo ?page . " +
+                "?page mw:includesPage <http://fr.wikipedia.org/wiki/mw10ns:Infobox> . ?page mw:inCategory frwiki:mw14ns:Villes }";
+        assertEquals(
+                ImmutableSet.of( "http://fr.wikipedia.org", "https://en.wikipedia.org", "https://fr.wikipedia.org" ),
+                SiteRepositories.extractSiteBaseURLs( query )
+        );
+        assertEquals( Collections.emptySet(), SiteRepositories.extractSiteBaseURLs( "SELECT * WHERE { ?s <http://mw2sparql.toolforge.org/ontology#inCategory> ?o }" ) );
+    }
+
+    @Test
+    public void shouldBuildRepositoryOncePerSiteSet() {
+        AtomicInteger builds = new AtomicInteger();
+        SiteRepositories repositories = new SiteRepositories( sites -> {
+            builds.incrementAndGet();
+            return fakeRepository();
+        }, repository -> {
+        }, 10, 1, 0, Ticker.systemTicker() );
+
+        Repository enwiki = repositories.get( ImmutableSet.of( "https://en.wikipedia.org" ) );
+        assertSame( enwiki, repositories.get( ImmutableSet.of( "https://en.wikipedia.org" ) ) );
+        Repository crossWiki = repositories.get( ImmutableSet.of( "https://fr.wikipedia.org", "https://en.wikipedia.org" ) );
+        assertSame( crossWiki, repositories.get( ImmutableSet.of( "https://en.wikipedia.org", "https://fr.wikipedia.org" ) ) );
+        assertNotSame( enwiki, crossWiki );
+        assertSame( enwiki, repositories.get( "https://en.wikipedia.org" ) );
+        assertEquals( 2, builds.get() );
+    }
+
+    @Test
+    public void shouldBoundRepositoriesOfSeveralSitesApart() {
+        List<Repository> evicted = new ArrayList<>();
+        SiteRepositories repositories = new SiteRepositories( sites -> fakeRepository(), evicted::add, 10, 1, 0, Ticker.systemTicker() );
+
+        Repository enwiki = repositories.get( "https://en.wikipedia.org" );
+        Repository enFrWikis = repositories.get( ImmutableSet.of( "https://en.wikipedia.org", "https://fr.wikipedia.org" ) );
+        repositories.get( ImmutableSet.of( "https://en.wikipedia.org", "https://de.wikipedia.org" ) );
+
+        assertEquals( Collections.singletonList( enFrWikis ), evicted );
+        assertSame( enwiki, repositories.get( "https://en.wikipedia.org" ) );
+        assertEquals( 2, repositories.size() );
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedRepository() {
+        List<Repository> evicted = new ArrayList<>();
+        SiteRepositories repositories = new SiteRepositories( sites -> fakeRepository(), evicted::add, 2, 1, 0, Ticker.systemTicker() );
+
+        Repository enwiki = repositories.get( ImmutableSet.of( "https://en.wikipedia.org" ) );
+        Repository frwiki = repositories.get( ImmutableSet.of( "https://fr.wikipedia.org" ) );
+        repositories.get( ImmutableSet.of( "https://en.wikipedia.org" ) );
+        repositories.get( ImmutableSet.of( "https://de.wikipedia.org" ) );
+
+        assertEquals( Collections.singletonList( frwiki ), evicted );
+        assertSame( enwiki, repositories.get( ImmutableSet.of( "https://en.wikipedia.org" ) ) );
+    }
+
+    @Test
+    public void shouldEvictIdleRepository() {
+        AtomicLong now = new AtomicLong();
+        List<Repository> evicted = new ArrayList<>();
+        SiteRepositories repositories = new SiteRepositories( sites -> fakeRepository(), evicted::add, 10, 1, TimeUnit.MINUTES.toMillis( 30 ), new Ticker() {
+            @Override
+            public long read() {
+                return now.get();
+            }
+        } );
+
+        Repository enwiki = repositories.get( ImmutableSet.of( "https://en.wikipedia.org" ) );
+        now.addAndGet( TimeUnit.MINUTES.toNanos( 20 ) );
+        repositories.cleanUp();
+        assertTrue( evicted.isEmpty() );
+
+        now.addAndGet( TimeUnit.MINUTES.toNanos( 20 ) );
+        repositories.cleanUp();
+        assertEquals( Collections.singletonList( enwiki ), evicted );
+        assertEquals( 0, repositories.size() );
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void shouldReportBuildFailure() {
+        new SiteRepositories( sites -> {
+            throw new Exception( "no database" );
+        }, repository -> {
+        }, 10, 1, 0, Ticker.systemTicker() ).get( ImmutableSet.of( "https://en.wikipedia.org" ) );
+    }
+
+    private static Repository fakeRepository() {
+        return (Repository) Proxy.newProxyInstance( Repository.class.getClassLoader(), new Class<?>[]{Repository.class}, ( proxy, method, args ) -> {
+            switch ( method.getName() ) {
+                case "hashCode":
+                    return System.identityHashCode( proxy );
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "FakeRepository";
+                default:
+                    throw new UnsupportedOperationException( method.getName() );
+            }
+        } );
+    }
+}
@@ -0,0 +1,79 @@
+package org.mediawiki.sparql.mwontop.sql;
+
+import it.unibz.inf.ontop.dbschema.QuotedIDFactoryMySQL;
+import it.unibz.inf.ontop.dbschema.RDBMetadata;
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.impl.LinkedHashModel;
+import org.eclipse.rdf4j.model.util.Models;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StartupSnapshotTest {
+    private static final DatabaseProperties MYSQL_PROPERTIES = new DatabaseProperties(
+            "MySQL", "5.5.5-10.1.39-MariaDB", "MySQL Connector Java", "mysql-connector-java-5.1.42", false, true, false
+    );
+    private static final List<RepositoryFactory.SiteConfig> SITES = Arrays.asList(
+            new RepositoryFactory.SiteConfig( "enwiki", "en", "https://en.wikipedia.org", "s1" ),
+            new RepositoryFactory.SiteConfig( "frwikiquote", "fr", "https://fr.wikiquote.org" )
+    );
+    private static final StartupSnapshot.Inputs INPUTS = new StartupSnapshot.Inputs( "template", "host" );
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void shouldRestoreWrittenSnapshot() throws IOException {
+        File file = new File( temporaryFolder.getRoot(), "snapshot.gz" );
+        Model mapping = buildMapping();
+        new StartupSnapshot( SITES, MYSQL_PROPERTIES, mapping ).write( file, INPUTS );
+
+        StartupSnapshot snapshot = StartupSnapshot.read( file, INPUTS );
+        assertNotNull( snapshot );
+        assertEquals( SITES, snapshot.getSites() );
+        assertEquals( MYSQL_PROPERTIES.toJson(), snapshot.getDatabaseProperties().toJson() );
+        assertTrue( Models.isomorphic( mapping, snapshot.getMapping() ) );
+    }
+
+    @Test
+    public void shouldIgnoreSnapshotWrittenFromOtherInputs() throws IOException {
+        File file = new File( temporaryFolder.getRoot(), "snapshot.gz" );
+        new StartupSnapshot( SITES, MYSQL_PROPERTIES, buildMapping() ).write( file, INPUTS );
+
+        assertNull( StartupSnapshot.read( file, new StartupSnapshot.Inputs( "other template", "host" ) ) );
+    }
+
+    @Test
+    public void shouldIgnoreMissingOrCorruptedSnapshot() throws IOException {
+        File file = new File( temporaryFolder.getRoot(), "snapshot.gz" );
+        assertNull( StartupSnapshot.read( file, INPUTS ) );
+
+        Files.write( file.toPath(), new byte[]{1, 2, 3} );
+        assertNull( StartupSnapshot.read( file, INPUTS ) );
+    }
+
+    @Test
+    public void shouldCreateMetadataFromSavedProperties() {
+        RDBMetadata metadata = MYSQL_PROPERTIES.createMetadata();
+        assertTrue( metadata.getQuotedIDFactory() instanceof QuotedIDFactoryMySQL );
+        assertEquals( "MySQL", metadata.getDbmsProductName() );
+        assertEquals( "MySQL Connector Java", metadata.getDriverName() );
+    }
+
+    private static Model buildMapping() throws IOException {
+        MappingTemplate template = MappingTemplate.load( "/mapping.ttl" );
+        Model mapping = new LinkedHashModel();
+        for ( RepositoryFactory.SiteConfig site : SITES ) {
+            mapping.addAll( template.instantiate( site.getDatabaseName(), site.getLanguageCode(), site.getBaseURL() ) );
+        }
+        return mapping;
+    }
+}
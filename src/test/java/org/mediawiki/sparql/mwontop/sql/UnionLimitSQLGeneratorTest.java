@@ -0,0 +1,76 @@
+package org.mediawiki.sparql.mwontop.sql;
+
+import it.unibz.inf.ontop.answering.reformulation.QueryReformulator;
+import it.unibz.inf.ontop.answering.reformulation.impl.SQLExecutableQuery;
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.impl.LinkedHashModel;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class UnionLimitSQLGeneratorTest {
+    private static final String UNION = "SELECT *\nFROM (\nSELECT \n   `Q1View`.`v0` AS `p`\nFROM \n    (" +
+            "(SELECT `a`.`page_title` AS `v0`\nFROM `enwiki_p`.`page` `a`\nWHERE (`a`.`page_title` = 'A_(b)'))\n UNION ALL\n " +
+            "(SELECT `b`.`page_title` AS `v0`\nFROM `frwiki_p`.`page` `b`\nWHERE (`b`.`page_title` = 'C''(d'))) `Q1View`\n) SUB_QVIEW\n";
+
+    @Test
+    public void shouldPushLimitIntoUnionBranches() {
+        assertEquals(
+                "SELECT *\nFROM (\nSELECT \n   `Q1View`.`v0` AS `p`\nFROM \n    (" +
+                        "(SELECT `a`.`page_title` AS `v0`\nFROM `enwiki_p`.`page` `a`\nWHERE (`a`.`page_title` = 'A_(b)')\nLIMIT 15)\n UNION ALL\n " +
+                        "(SELECT `b`.`page_title` AS `v0`\nFROM `frwiki_p`.`page` `b`\nWHERE (`b`.`page_title` = 'C''(d')\nLIMIT 15)) `Q1View`\n) SUB_QVIEW\nLIMIT 5,10",
+                UnionLimitSQLGenerator.pushLimitIntoUnion( UNION + "LIMIT 5,10" )
+        );
+        assertTrue( UnionLimitSQLGenerator.pushLimitIntoUnion( UNION + "LIMIT 10" ).contains( "'A_(b)')\nLIMIT 10)" ) );
+    }
+
+    @Test
+    public void shouldNotPushLimitWhenRowsAreReorderedOrFiltered() {
+        assertUnchanged( UNION + "LIMIT 3,18446744073709551615" );
+        assertUnchanged( UNION + "ORDER BY SUB_QVIEW.`p`\nLIMIT 10" );
+        assertUnchanged( UNION.replace( "SELECT \n   `Q1View`", "SELECT DISTINCT \n   `Q1View`" ) + "LIMIT 10" );
+        assertUnchanged( UNION.replace( "UNION ALL", "UNION" ) + "LIMIT 10" );
+        assertUnchanged( UNION.replace( "`Q1View`\n)", "`Q1View`\nWHERE `Q1View`.`v0` IS NOT NULL\n)" ) + "LIMIT 10" );
+        assertUnchanged( "SELECT *\nFROM (\nSELECT `a`.`page_title` AS `p`\nFROM `enwiki_p`.`page` `a`\n) SUB_QVIEW\nLIMIT 10" );
+    }
+
+    @Test
+    public void shouldPushLimitIntoGeneratedMultiSiteQuery() throws Exception {
+        QueryReformulator reformulator = buildReformulator();
+        String sql = ( (SQLExecutableQuery) reformulator.reformulateIntoNativeQuery( reformulator.getInputQueryFactory().createSelectQuery(
+                "PREFIX mw: <http://mw2sparql.toolforge.org/ontology#>\n" +
+                        "SELECT ?page WHERE {\n" +
+                        "  { ?page mw:inCategory <https://en.wikipedia.org/wiki/mw14ns:Cities> }\n" +
+                        "  UNION { ?page mw:inCategory <https://fr.wikipedia.org/wiki/mw14ns:Villes> }\n" +
+                        "} LIMIT 10 OFFSET 5"
+        ) ) ).getSQL();
+        assertEquals( 2, sql.split( "\nLIMIT 15\\)", -1 ).length - 1 );
+        assertTrue( sql.trim().endsWith( "\nLIMIT 5,10" ) );
+    }
+
+    private static void assertUnchanged( String sql ) {
+        assertEquals( sql, UnionLimitSQLGenerator.pushLimitIntoUnion( sql ) );
+    }
+
+    private static QueryReformulator buildReformulator() throws Exception {
+        DatabaseProperties databaseProperties = new DatabaseProperties(
+                "MySQL", "5.5.5-10.1.39-MariaDB", "MySQL Connector Java", "mysql-connector-java-5.1.42", false, true, false
+        );
+        List<RepositoryFactory.SiteConfig> sites = Arrays.asList(
+                new RepositoryFactory.SiteConfig( "enwiki", "en", "https://en.wikipedia.org" ),
+                new RepositoryFactory.SiteConfig( "frwiki", "fr", "https://fr.wikipedia.org" )
+        );
+        MappingTemplate template = MappingTemplate.load( "/mapping.ttl" );
+        Model mapping = new LinkedHashModel();
+        for ( RepositoryFactory.SiteConfig site : sites ) {
+            mapping.addAll( template.instantiate( site.getDatabaseName(), site.getLanguageCode(), site.getBaseURL() ) );
+        }
+        return RepositoryFactory.buildOntopConfiguration(
+                new RepositoryFactory.MySQLConnectionInformation( "localhost", "enwiki_p", "user", "password" ),
+                sites, databaseProperties, mapping, RepositoryFactory.ontopProperties()
+        ).loadQueryReformulator();
+    }
+}
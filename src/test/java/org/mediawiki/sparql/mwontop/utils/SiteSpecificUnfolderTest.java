@@ -0,0 +1,25 @@
+package org.mediawiki.sparql.mwontop.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SiteSpecificUnfolderTest {
+
+    @Test
+    public void shouldExtractBaseUrlFromTemplate() {
+        assertEquals( "https://fr.wikipedia.org", SiteSpecificUnfolder.extractBaseUrl( "https://fr.wikipedia.org/wiki/mw{}ns:{}" ) );
+    }
+
+    @Test
+    public void shouldExtractBaseUrlFromQuotedTerm() {
+        assertEquals( "https://zh.wikiquote.org", SiteSpecificUnfolder.extractBaseUrl( "\"https://zh.wikiquote.org/wiki/mw14ns:{}\"" ) );
+        assertEquals( "https://en.wikipedia.org", SiteSpecificUnfolder.extractBaseUrl( "<https://en.wikipedia.org/wiki/mw0ns:Test>" ) );
+    }
+
+    @Test
+    public void shouldIgnoreLinksWithoutWikiPath() {
+        assertNull( SiteSpecificUnfolder.extractBaseUrl( "http://mw2sparql.toolforge.org/ontology#Page" ) );
+    }
+}